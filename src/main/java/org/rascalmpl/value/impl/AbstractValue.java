@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl;
+
+import org.rascalmpl.value.IAnnotatable;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.IWithKeywordParameters;
+import org.rascalmpl.value.exceptions.IllegalOperationException;
+
+/**
+ * Base class for values which can have neither annotations nor keyword
+ * parameters, such as collections, tuples and primitive values.
+ */
+public abstract class AbstractValue implements IValue {
+
+  @Override
+  @Deprecated
+  public boolean isAnnotatable() {
+    return false;
+  }
+
+  @Override
+  @Deprecated
+  public IAnnotatable<? extends IValue> asAnnotatable() {
+    throw new IllegalOperationException("Cannot be viewed as annotatable.", getType());
+  }
+
+  @Override
+  public boolean mayHaveKeywordParameters() {
+    return false;
+  }
+
+  @Override
+  public IWithKeywordParameters<? extends IValue> asWithKeywordParameters() {
+    throw new IllegalOperationException("Cannot be viewed as with keyword parameters.", getType());
+  }
+}
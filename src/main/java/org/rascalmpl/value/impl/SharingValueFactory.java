@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.rascalmpl.value.IConstructor;
+import org.rascalmpl.value.INode;
+import org.rascalmpl.value.ISourceLocation;
+import org.rascalmpl.value.IString;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.IValueFactory;
+import org.rascalmpl.value.exceptions.FactTypeUseException;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.util.WeakInterningTable;
+
+/**
+ * A value factory which shares equal values (hash-consing): a value of one of
+ * the selected {@link Kind}s is created by the adapted factory, and then
+ * replaced by the first equal value created before, if that is still alive.
+ * Hence equal values take memory once, and comparing them finds that they are
+ * identical right away.
+ * <p>
+ * Values are shared by their {@link Object#equals(Object)} and
+ * {@link Object#hashCode()}, which must be consistent. A node or constructor is
+ * only shared with the children it was created with, hence the children should
+ * be created by this factory as well to share terms as a whole. Values which
+ * are computed by operations on other values, such as the concatenation of
+ * strings, are not shared.
+ * <p>
+ * The canonical values are referenced weakly, from a {@link WeakInterningTable}
+ * per kind, so that they can be garbage collected. For every kind the factory
+ * counts the values that were created and the values that were replaced by an
+ * equal one; see {@link #getSharedRatio(Kind)}.
+ */
+public class SharingValueFactory extends AbstractValueFactoryAdapter {
+  /**
+   * The kinds of values which can be shared.
+   */
+  public enum Kind {
+    STRING,
+    SOURCE_LOCATION,
+    NODE,
+    CONSTRUCTOR
+  }
+
+  private final Table[] tables = new Table[Kind.values().length];
+
+  /**
+   * Shares the values of all kinds.
+   */
+  public SharingValueFactory(IValueFactory adapted) {
+    this(adapted, EnumSet.allOf(Kind.class));
+  }
+
+  /**
+   * Shares the values of the given kinds only.
+   */
+  public SharingValueFactory(IValueFactory adapted, Set<Kind> kinds) {
+    super(adapted);
+
+    for (Kind kind : kinds) {
+      tables[kind.ordinal()] = new Table();
+    }
+  }
+
+  public boolean isShared(Kind kind) {
+    return tables[kind.ordinal()] != null;
+  }
+
+  /**
+   * @return the number of values of the kind which were created since the
+   *         last {@link #resetCounters()}, or 0 if the kind is not shared
+   */
+  public long getCreatedCount(Kind kind) {
+    Table table = tables[kind.ordinal()];
+    return table == null ? 0 : table.created.sum();
+  }
+
+  /**
+   * @return the number of created values of the kind which were replaced by
+   *         an equal value created before
+   */
+  public long getSharedCount(Kind kind) {
+    Table table = tables[kind.ordinal()];
+    return table == null ? 0 : table.shared.sum();
+  }
+
+  /**
+   * @return the fraction of the created values of the kind which were
+   *         replaced by an equal value, or 0 if none were created
+   */
+  public double getSharedRatio(Kind kind) {
+    long created = getCreatedCount(kind);
+    return created == 0 ? 0 : getSharedCount(kind) / (double) created;
+  }
+
+  /**
+   * @return an estimate of the number of distinct values of the kind which
+   *         are alive
+   */
+  public int getCanonicalCount(Kind kind) {
+    Table table = tables[kind.ordinal()];
+    return table == null ? 0 : table.values.size();
+  }
+
+  public void resetCounters() {
+    for (Table table : tables) {
+      if (table != null) {
+        table.created.reset();
+        table.shared.reset();
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends IValue> T share(Kind kind, T value) {
+    Table table = tables[kind.ordinal()];
+
+    if (table == null) {
+      return value;
+    }
+
+    T result = (T) table.values.intern(value);
+
+    table.created.increment();
+    if (result != value) {
+      table.shared.increment();
+    }
+
+    return result;
+  }
+
+  @Override
+  public IString string(String s) {
+    return share(Kind.STRING, adapted.string(s));
+  }
+
+  @Override
+  public IString string(int[] chars) throws IllegalArgumentException {
+    return share(Kind.STRING, adapted.string(chars));
+  }
+
+  @Override
+  public IString string(int ch) throws IllegalArgumentException {
+    return share(Kind.STRING, adapted.string(ch));
+  }
+
+  @Override
+  @Deprecated
+  public ISourceLocation sourceLocation(URI uri, int offset, int length, int beginLine, int endLine, int beginCol, int endCol) {
+    return share(Kind.SOURCE_LOCATION, adapted.sourceLocation(uri, offset, length, beginLine, endLine, beginCol, endCol));
+  }
+
+  @Override
+  public ISourceLocation sourceLocation(ISourceLocation loc, int offset, int length, int beginLine, int endLine, int beginCol, int endCol) {
+    return share(Kind.SOURCE_LOCATION, adapted.sourceLocation(loc, offset, length, beginLine, endLine, beginCol, endCol));
+  }
+
+  @Override
+  @Deprecated
+  public ISourceLocation sourceLocation(URI uri, int offset, int length) {
+    return share(Kind.SOURCE_LOCATION, adapted.sourceLocation(uri, offset, length));
+  }
+
+  @Override
+  public ISourceLocation sourceLocation(ISourceLocation loc, int offset, int length) {
+    return share(Kind.SOURCE_LOCATION, adapted.sourceLocation(loc, offset, length));
+  }
+
+  @Override
+  public ISourceLocation sourceLocation(String path, int offset, int length, int beginLine, int endLine, int beginCol, int endCol) {
+    return share(Kind.SOURCE_LOCATION, adapted.sourceLocation(path, offset, length, beginLine, endLine, beginCol, endCol));
+  }
+
+  @Override
+  public ISourceLocation sourceLocation(URI uri) {
+    return share(Kind.SOURCE_LOCATION, adapted.sourceLocation(uri));
+  }
+
+  @Override
+  public ISourceLocation sourceLocation(String scheme, String authority, String path) throws URISyntaxException {
+    return share(Kind.SOURCE_LOCATION, adapted.sourceLocation(scheme, authority, path));
+  }
+
+  @Override
+  public ISourceLocation sourceLocation(String scheme, String authority, String path, String query, String fragment) throws URISyntaxException {
+    return share(Kind.SOURCE_LOCATION, adapted.sourceLocation(scheme, authority, path, query, fragment));
+  }
+
+  @Override
+  public ISourceLocation sourceLocation(String path) {
+    return share(Kind.SOURCE_LOCATION, adapted.sourceLocation(path));
+  }
+
+  @Override
+  public INode node(String name) {
+    return share(Kind.NODE, adapted.node(name));
+  }
+
+  @Override
+  public INode node(String name, IValue... children) {
+    return share(Kind.NODE, adapted.node(name, children));
+  }
+
+  @Override
+  public INode node(String name, Map<String, IValue> annotations, IValue... children) throws FactTypeUseException {
+    return share(Kind.NODE, adapted.node(name, annotations, children));
+  }
+
+  @Override
+  public INode node(String name, IValue[] children, Map<String, IValue> keyArgValues) throws FactTypeUseException {
+    return share(Kind.NODE, adapted.node(name, children, keyArgValues));
+  }
+
+  @Override
+  public IConstructor constructor(Type constructor) {
+    return share(Kind.CONSTRUCTOR, adapted.constructor(constructor));
+  }
+
+  @Override
+  public IConstructor constructor(Type constructor, IValue... children) throws FactTypeUseException {
+    return share(Kind.CONSTRUCTOR, adapted.constructor(constructor, children));
+  }
+
+  @Override
+  @Deprecated
+  public IConstructor constructor(Type constructor, Map<String, IValue> annotations, IValue... children) throws FactTypeUseException {
+    return share(Kind.CONSTRUCTOR, adapted.constructor(constructor, annotations, children));
+  }
+
+  @Override
+  public IConstructor constructor(Type constructor, IValue[] children, Map<String, IValue> kwParams) throws FactTypeUseException {
+    return share(Kind.CONSTRUCTOR, adapted.constructor(constructor, children, kwParams));
+  }
+
+  private static final class Table {
+    final WeakInterningTable<IValue> values = new WeakInterningTable<>();
+    final LongAdder created = new LongAdder();
+    final LongAdder shared = new LongAdder();
+  }
+}
@@ -0,0 +1,532 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.rascalmpl.value.ISet;
+import org.rascalmpl.value.ISetRelation;
+import org.rascalmpl.value.ITuple;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.impl.AbstractValue;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.type.TypeFactory;
+import org.rascalmpl.value.visitors.IValueVisitor;
+
+/**
+ * A non-empty set of binary tuples, stored as a {@link TrieMultimap} from the
+ * first to the second elements of the tuples. Hence the relational operations
+ * can look up the tuples by their first element: compose is a hash join, and
+ * the domain is the set of keys of the multimap. The inverse multimap, from
+ * which the range is taken, is computed when it is first needed, and then
+ * kept up to date by insertions and deletions.
+ * <p>
+ * The tuples are not stored, but created by the iterator. A set of binary
+ * tuples is a binary relation if it is made by a {@link SetWriter}, or by
+ * inserting a tuple into an empty {@link PersistentSet}, and if all
+ * operations on it keep to binary tuples. It is equal to a persistent set of
+ * the same tuples, and has the same hash code.
+ */
+/* package */ final class BinaryRelation extends AbstractValue implements ISet {
+  private static final TypeFactory TF = TypeFactory.getInstance();
+
+  private final TrieMultimap<IValue, IValue> content;
+  private TrieMultimap<IValue, IValue> inverse;
+  private Type keyType;
+  private Type valueType;
+
+  private BinaryRelation(TrieMultimap<IValue, IValue> content, TrieMultimap<IValue, IValue> inverse, Type keyType, Type valueType) {
+    this.content = content;
+    this.inverse = inverse;
+    this.keyType = keyType;
+    this.valueType = valueType;
+  }
+
+  /**
+   * @param keyType   the least upper bound of the types of the keys, or null
+   *                  to compute it when it is needed
+   * @param valueType the same for the values
+   */
+  static ISet of(TrieMultimap<IValue, IValue> content, Type keyType, Type valueType) {
+    return content.isEmpty() ? PersistentSet.EMPTY : new BinaryRelation(content, null, keyType, valueType);
+  }
+
+  /**
+   * @return true if the value is a binary tuple which can be stored in a binary relation
+   */
+  static boolean isPair(IValue value) {
+    return value instanceof Tuple && ((Tuple) value).arity() == 2;
+  }
+
+  /**
+   * @return a multimap from the first to the second elements of the binary
+   *         tuples of the set
+   */
+  static TrieMultimap<IValue, IValue> index(ISet set) {
+    if (set instanceof BinaryRelation) {
+      return ((BinaryRelation) set).content;
+    }
+
+    TrieMultimap.Transient<IValue, IValue> result = TrieMultimap.<IValue, IValue>of().asTransient();
+
+    for (IValue elem : set) {
+      ITuple tuple = (ITuple) elem;
+      result.insert(tuple.get(0), tuple.get(1));
+    }
+
+    return result.freeze();
+  }
+
+  /**
+   * @return the multimap from the second to the first elements of the tuples
+   */
+  TrieMultimap<IValue, IValue> inverse() {
+    TrieMultimap<IValue, IValue> result = inverse;
+
+    if (result == null) {
+      result = content.inverse();
+      inverse = result;
+    }
+
+    return result;
+  }
+
+  private Type keyType() {
+    Type t = keyType;
+
+    if (t == null) {
+      t = lub(content.keyIterator());
+      keyType = t;
+    }
+
+    return t;
+  }
+
+  private Type valueType() {
+    Type t = valueType;
+
+    if (t == null) {
+      if (inverse != null) {
+        t = lub(inverse.keyIterator());
+      }
+      else {
+        t = TF.voidType();
+        Iterator<Map.Entry<IValue, TrieSet<IValue>>> entries = content.entryIterator();
+
+        while (entries.hasNext()) {
+          for (IValue value : entries.next().getValue()) {
+            t = t.lub(value.getType());
+          }
+        }
+      }
+
+      valueType = t;
+    }
+
+    return t;
+  }
+
+  private static Type lub(Iterator<IValue> values) {
+    Type t = TF.voidType();
+
+    while (values.hasNext()) {
+      t = t.lub(values.next().getType());
+    }
+
+    return t;
+  }
+
+  private static boolean containsPair(ISet set, IValue key, IValue value) {
+    if (set instanceof BinaryRelation) {
+      return ((BinaryRelation) set).content.contains(key, value);
+    }
+
+    return set.contains(Tuple.of(key, value));
+  }
+
+  private ISet toPersistentSet() {
+    TrieSet.Transient<IValue> result = TrieSet.<IValue>of().asTransient();
+
+    for (IValue elem : this) {
+      result.insert(elem);
+    }
+
+    return PersistentSet.of(result.freeze(), getElementType());
+  }
+
+  /**
+   * @return the set of the first elements of the tuples
+   */
+  ISet domain() {
+    return keys(content, keyType());
+  }
+
+  /**
+   * @return the set of the second elements of the tuples
+   */
+  ISet range() {
+    return keys(inverse(), valueType());
+  }
+
+  /**
+   * @return the relation of the swapped tuples, which shares the indexes of
+   *         this relation
+   */
+  ISet invert() {
+    return new BinaryRelation(inverse(), content, valueType, keyType);
+  }
+
+  private static ISet keys(TrieMultimap<IValue, IValue> multimap, Type type) {
+    TrieSet.Transient<IValue> result = TrieSet.<IValue>of().asTransient();
+    Iterator<IValue> keys = multimap.keyIterator();
+
+    while (keys.hasNext()) {
+      result.insert(keys.next());
+    }
+
+    return PersistentSet.of(result.freeze(), type);
+  }
+
+  /**
+   * @param result a transient copy of the content of this relation, to which
+   *               only insertions or only deletions were applied
+   */
+  private ISet derive(TrieMultimap.Transient<IValue, IValue> result, Type newKeyType, Type newValueType) {
+    if (result.size() == size()) {
+      return this;
+    }
+
+    return of(result.freeze(), newKeyType, newValueType);
+  }
+
+  @Override
+  public Type getType() {
+    return TF.setType(getElementType());
+  }
+
+  @Override
+  public Type getElementType() {
+    return TF.tupleType(keyType(), valueType());
+  }
+
+  @Override
+  public <T, E extends Throwable> T accept(IValueVisitor<T, E> v) throws E {
+    return v.visitRelation(this);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return content.isEmpty();
+  }
+
+  @Override
+  public int size() {
+    return content.size();
+  }
+
+  @Override
+  public boolean contains(IValue element) {
+    return isPair(element) && content.contains(((Tuple) element).get(0), ((Tuple) element).get(1));
+  }
+
+  @Override
+  public Iterator<IValue> iterator() {
+    return new TupleIterator(content);
+  }
+
+  @Override
+  public ISet insert(IValue element) {
+    if (!isPair(element)) {
+      return toPersistentSet().insert(element);
+    }
+
+    IValue key = ((Tuple) element).get(0);
+    IValue value = ((Tuple) element).get(1);
+    TrieMultimap<IValue, IValue> newContent = content.insert(key, value);
+
+    if (newContent == content) {
+      return this;
+    }
+
+    TrieMultimap<IValue, IValue> newInverse = inverse != null ? inverse.insert(value, key) : null;
+    return new BinaryRelation(newContent, newInverse, keyType().lub(key.getType()), valueType().lub(value.getType()));
+  }
+
+  @Override
+  public ISet delete(IValue element) {
+    if (!isPair(element)) {
+      return this;
+    }
+
+    IValue key = ((Tuple) element).get(0);
+    IValue value = ((Tuple) element).get(1);
+    TrieMultimap<IValue, IValue> newContent = content.delete(key, value);
+
+    if (newContent == content) {
+      return this;
+    }
+
+    if (newContent.isEmpty()) {
+      return PersistentSet.EMPTY;
+    }
+
+    TrieMultimap<IValue, IValue> newInverse = inverse != null ? inverse.delete(value, key) : null;
+    return new BinaryRelation(newContent, newInverse, null, null);
+  }
+
+  @Override
+  public ISet union(ISet other) {
+    if (other == this || other.isEmpty()) {
+      return this;
+    }
+
+    if (other instanceof BinaryRelation) {
+      BinaryRelation larger = this;
+      BinaryRelation smaller = (BinaryRelation) other;
+
+      if (smaller.size() > larger.size()) {
+        larger = smaller;
+        smaller = this;
+      }
+
+      TrieMultimap.Transient<IValue, IValue> result = larger.content.asTransient();
+      Iterator<Map.Entry<IValue, TrieSet<IValue>>> entries = smaller.content.entryIterator();
+
+      while (entries.hasNext()) {
+        Map.Entry<IValue, TrieSet<IValue>> entry = entries.next();
+        result.insertAll(entry.getKey(), entry.getValue());
+      }
+
+      return larger.derive(result, larger.keyType().lub(smaller.keyType()), larger.valueType().lub(smaller.valueType()));
+    }
+
+    for (IValue elem : other) {
+      if (!isPair(elem)) {
+        return toPersistentSet().union(other);
+      }
+    }
+
+    TrieMultimap.Transient<IValue, IValue> result = content.asTransient();
+
+    for (IValue elem : other) {
+      result.insert(((Tuple) elem).get(0), ((Tuple) elem).get(1));
+    }
+
+    Type otherType = other.getElementType();
+    return derive(result, keyType().lub(otherType.getFieldType(0)), valueType().lub(otherType.getFieldType(1)));
+  }
+
+  @Override
+  public ISet intersect(ISet other) {
+    if (other == this) {
+      return this;
+    }
+
+    if (other.isEmpty()) {
+      return PersistentSet.EMPTY;
+    }
+
+    if (other instanceof BinaryRelation && other.size() < size()) {
+      return other.intersect(this);
+    }
+
+    TrieMultimap.Transient<IValue, IValue> result = content.asTransient();
+    Iterator<Map.Entry<IValue, TrieSet<IValue>>> entries = content.entryIterator();
+
+    while (entries.hasNext()) {
+      Map.Entry<IValue, TrieSet<IValue>> entry = entries.next();
+      IValue key = entry.getKey();
+
+      for (IValue value : entry.getValue()) {
+        if (!containsPair(other, key, value)) {
+          result.delete(key, value);
+        }
+      }
+    }
+
+    return derive(result, null, null);
+  }
+
+  @Override
+  public ISet subtract(ISet other) {
+    if (other == this) {
+      return PersistentSet.EMPTY;
+    }
+
+    TrieMultimap.Transient<IValue, IValue> result = content.asTransient();
+
+    if (other.size() < size()) {
+      for (IValue elem : other) {
+        if (isPair(elem)) {
+          result.delete(((Tuple) elem).get(0), ((Tuple) elem).get(1));
+        }
+      }
+    }
+    else {
+      Iterator<Map.Entry<IValue, TrieSet<IValue>>> entries = content.entryIterator();
+
+      while (entries.hasNext()) {
+        Map.Entry<IValue, TrieSet<IValue>> entry = entries.next();
+        IValue key = entry.getKey();
+
+        for (IValue value : entry.getValue()) {
+          if (containsPair(other, key, value)) {
+            result.delete(key, value);
+          }
+        }
+      }
+    }
+
+    return derive(result, null, null);
+  }
+
+  @Override
+  public ISet product(ISet other) {
+    return toPersistentSet().product(other);
+  }
+
+  @Override
+  public boolean isSubsetOf(ISet other) {
+    if (size() > other.size()) {
+      return false;
+    }
+
+    if (other instanceof BinaryRelation) {
+      TrieMultimap<IValue, IValue> otherContent = ((BinaryRelation) other).content;
+      Iterator<Map.Entry<IValue, TrieSet<IValue>>> entries = content.entryIterator();
+
+      while (entries.hasNext()) {
+        Map.Entry<IValue, TrieSet<IValue>> entry = entries.next();
+        TrieSet<IValue> otherValues = otherContent.get(entry.getKey());
+
+        if (otherValues.size() < entry.getValue().size()) {
+          return false;
+        }
+
+        for (IValue value : entry.getValue()) {
+          if (!otherValues.contains(value)) {
+            return false;
+          }
+        }
+      }
+
+      return true;
+    }
+
+    for (IValue elem : this) {
+      if (!other.contains(elem)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean isRelation() {
+    return true;
+  }
+
+  @Override
+  public ISetRelation<ISet> asRelation() {
+    return new SetRelation(this);
+  }
+
+  @Override
+  public int hashCode() {
+    return content.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+
+    if (o instanceof BinaryRelation) {
+      return content.equals(((BinaryRelation) o).content);
+    }
+
+    if (o instanceof ISet) {
+      ISet other = (ISet) o;
+      return size() == other.size() && isSubsetOf(other);
+    }
+
+    return false;
+  }
+
+  @Override
+  public boolean isEqual(IValue value) {
+    if (value == this) {
+      return true;
+    }
+
+    if (!(value instanceof ISet)) {
+      return false;
+    }
+
+    ISet other = (ISet) value;
+    return size() == other.size() && isSubsetOf(other);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder("{");
+    boolean first = true;
+
+    for (IValue elem : this) {
+      if (!first) {
+        b.append(',');
+      }
+      b.append(elem);
+      first = false;
+    }
+
+    return b.append('}').toString();
+  }
+
+  /**
+   * Creates the tuples of a multimap, key by key.
+   */
+  private static final class TupleIterator implements Iterator<IValue> {
+    private final Iterator<Map.Entry<IValue, TrieSet<IValue>>> entries;
+    private IValue key;
+    private Iterator<IValue> values = Collections.emptyIterator();
+
+    TupleIterator(TrieMultimap<IValue, IValue> content) {
+      this.entries = content.entryIterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (!values.hasNext()) {
+        if (!entries.hasNext()) {
+          return false;
+        }
+
+        Map.Entry<IValue, TrieSet<IValue>> entry = entries.next();
+        key = entry.getKey();
+        values = entry.getValue().iterator();
+      }
+
+      return true;
+    }
+
+    @Override
+    public IValue next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      return Tuple.of(key, values.next());
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+/**
+ * The concatenation of two non-empty ropes. It is only created by
+ * {@link StringValue}, which keeps the ropes balanced.
+ */
+/* package */ final class ConcatString extends StringValue {
+  final StringValue left;
+  final StringValue right;
+  private final int length;
+  private final int charLength;
+  private final int height;
+  private int hashCode;
+
+  ConcatString(StringValue left, StringValue right) {
+    this.left = left;
+    this.right = right;
+    this.length = left.length() + right.length();
+    this.charLength = left.charLength() + right.charLength();
+    this.height = Math.max(left.height(), right.height()) + 1;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  int charLength() {
+    return charLength;
+  }
+
+  @Override
+  int height() {
+    return height;
+  }
+
+  @Override
+  void appendTo(StringBuilder b) {
+    left.appendTo(b);
+    right.appendTo(b);
+  }
+
+  @Override
+  int codePointAt(int index) {
+    StringValue node = this;
+
+    while (node instanceof ConcatString) {
+      ConcatString concat = (ConcatString) node;
+      int leftLength = concat.left.length();
+
+      if (index < leftLength) {
+        node = concat.left;
+      }
+      else {
+        node = concat.right;
+        index -= leftLength;
+      }
+    }
+
+    return node.codePointAt(index);
+  }
+
+  @Override
+  StringValue slice(int start, int end) {
+    if (start == 0 && end == length) {
+      return this;
+    }
+
+    int leftLength = left.length();
+
+    if (end <= leftLength) {
+      return left.slice(start, end);
+    }
+
+    if (start >= leftLength) {
+      return right.slice(start - leftLength, end - leftLength);
+    }
+
+    return concat(left.slice(start, leftLength), right.slice(0, end - leftLength));
+  }
+
+  @Override
+  public StringValue reverse() {
+    return new ConcatString(right.reverse(), left.reverse());
+  }
+
+  @Override
+  public int hashCode() {
+    int h = hashCode;
+
+    if (h == 0) {
+      // s[0]*31^(n-1) + ... + s[n-1], as String#hashCode
+      h = left.hashCode() * pow31(right.charLength()) + right.hashCode();
+      hashCode = h;
+    }
+
+    return h;
+  }
+
+  private static int pow31(int exponent) {
+    int result = 1;
+    int base = 31;
+
+    while (exponent > 0) {
+      if ((exponent & 1) != 0) {
+        result *= base;
+      }
+      base *= base;
+      exponent >>>= 1;
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+/**
+ * A string which is stored as a Java string. If it contains characters
+ * outside the Basic Multilingual Plane, which take two UTF-16 characters,
+ * the position of every 32nd code point is computed the first time a code
+ * point is looked up, so that looking up the others takes at most 31 steps.
+ */
+/* package */ final class FlatString extends StringValue {
+  static final FlatString EMPTY = new FlatString("", 0);
+
+  private static final int STRIDE_BITS = 5;
+  private static final int STRIDE = 1 << STRIDE_BITS;
+
+  final String value;
+  private final int length;
+  /** the char offsets of every STRIDE-th code point, or null if not computed yet */
+  private volatile int[] offsets;
+
+  private FlatString(String value, int length) {
+    this.value = value;
+    this.length = length;
+  }
+
+  static FlatString of(String value) {
+    return value.isEmpty() ? EMPTY : new FlatString(value, value.codePointCount(0, value.length()));
+  }
+
+  /**
+   * @return a flat string with the characters of the ropes
+   */
+  static FlatString concat(StringValue left, StringValue right) {
+    StringBuilder b = new StringBuilder(left.charLength() + right.charLength());
+    left.appendTo(b);
+    right.appendTo(b);
+    return new FlatString(b.toString(), left.length() + right.length());
+  }
+
+  private boolean hasSurrogates() {
+    return length != value.length();
+  }
+
+  /**
+   * @return the offset of the UTF-16 character at which the code point starts
+   */
+  private int offsetOf(int index) {
+    if (!hasSurrogates()) {
+      return index;
+    }
+
+    if (index == length) {
+      return value.length();
+    }
+
+    int[] table = offsets;
+
+    if (table == null) {
+      table = new int[(length + STRIDE - 1) >>> STRIDE_BITS];
+      int offset = 0;
+
+      for (int i = 0; i < table.length; i++) {
+        table[i] = offset;
+
+        if (i + 1 < table.length) {
+          offset = value.offsetByCodePoints(offset, STRIDE);
+        }
+      }
+
+      offsets = table;
+    }
+
+    return value.offsetByCodePoints(table[index >>> STRIDE_BITS], index & (STRIDE - 1));
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  int charLength() {
+    return value.length();
+  }
+
+  @Override
+  int height() {
+    return 0;
+  }
+
+  @Override
+  void appendTo(StringBuilder b) {
+    b.append(value);
+  }
+
+  @Override
+  public String getValue() {
+    return value;
+  }
+
+  @Override
+  int codePointAt(int index) {
+    return hasSurrogates() ? value.codePointAt(offsetOf(index)) : value.charAt(index);
+  }
+
+  @Override
+  StringValue slice(int start, int end) {
+    if (start == 0 && end == length) {
+      return this;
+    }
+
+    if (start == end) {
+      return EMPTY;
+    }
+
+    return new FlatString(value.substring(offsetOf(start), offsetOf(end)), end - start);
+  }
+
+  @Override
+  public FlatString reverse() {
+    return length < 2 ? this : new FlatString(new StringBuilder(value).reverse().toString(), length);
+  }
+
+  @Override
+  public int hashCode() {
+    return value.hashCode();
+  }
+}
@@ -0,0 +1,330 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.rascalmpl.value.ITuple;
+import org.rascalmpl.value.IValue;
+
+/**
+ * A sequence of pairs of values, which are encoded as ints by a
+ * {@link ValueDictionary}; the first and second elements of the pairs are
+ * stored in two int arrays. The relational operations compare and hash ints
+ * rather than values, and the values are only decoded for the result.
+ * <p>
+ * The successors of a number are found by an index in compressed sparse row
+ * form: the successors of every number are stored consecutively in one array,
+ * in the order of the pairs, and a second array has the offset at which the
+ * successors of every number start. The index is built when it is first
+ * needed, by a counting sort of the pairs.
+ */
+/* package */ final class IntRelation {
+  private static final int[] NONE = new int[0];
+
+  final ValueDictionary dictionary;
+  private int[] from;
+  private int[] to;
+  private int size;
+
+  private int[] offsets;
+  private int[] successors;
+
+  IntRelation(ValueDictionary dictionary) {
+    this.dictionary = dictionary;
+    this.from = NONE;
+    this.to = NONE;
+  }
+
+  /**
+   * @return the relation of the binary tuples, in their order
+   */
+  static IntRelation encode(Iterable<IValue> tuples, ValueDictionary dictionary) {
+    IntRelation result = new IntRelation(dictionary);
+
+    for (IValue elem : tuples) {
+      ITuple tuple = (ITuple) elem;
+      result.add(dictionary.encode(tuple.get(0)), dictionary.encode(tuple.get(1)));
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the relation of the pairs of the multimap, which encodes every
+   *         key once
+   */
+  static IntRelation encode(TrieMultimap<IValue, IValue> multimap, ValueDictionary dictionary) {
+    IntRelation result = new IntRelation(dictionary);
+    Iterator<Map.Entry<IValue, TrieSet<IValue>>> entries = multimap.entryIterator();
+
+    while (entries.hasNext()) {
+      Map.Entry<IValue, TrieSet<IValue>> entry = entries.next();
+      int key = dictionary.encode(entry.getKey());
+
+      for (IValue value : entry.getValue()) {
+        result.add(key, dictionary.encode(value));
+      }
+    }
+
+    return result;
+  }
+
+  void add(int first, int second) {
+    if (size == from.length) {
+      int capacity = Math.max(16, size * 2);
+      from = Arrays.copyOf(from, capacity);
+      to = Arrays.copyOf(to, capacity);
+    }
+
+    from[size] = first;
+    to[size] = second;
+    size++;
+    offsets = null;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int first(int index) {
+    return from[index];
+  }
+
+  int second(int index) {
+    return to[index];
+  }
+
+  private void index() {
+    if (offsets != null) {
+      return;
+    }
+
+    int[] starts = new int[dictionary.size() + 1];
+
+    for (int i = 0; i < size; i++) {
+      starts[from[i] + 1]++;
+    }
+
+    for (int id = 0; id < dictionary.size(); id++) {
+      starts[id + 1] += starts[id];
+    }
+
+    int[] next = Arrays.copyOf(starts, starts.length - 1);
+    int[] sorted = new int[size];
+
+    for (int i = 0; i < size; i++) {
+      sorted[next[from[i]]++] = to[i];
+    }
+
+    successors = sorted;
+    offsets = starts;
+  }
+
+  /**
+   * @return the offset in {@link #successors()} of the first successor of the
+   *         number; the successors of a number which was encoded after the
+   *         index was built are empty
+   */
+  int successorStart(int id) {
+    index();
+    return id < offsets.length - 1 ? offsets[id] : 0;
+  }
+
+  /**
+   * @return the offset after the last successor of the number
+   */
+  int successorEnd(int id) {
+    index();
+    return id < offsets.length - 1 ? offsets[id + 1] : 0;
+  }
+
+  int[] successors() {
+    index();
+    return successors;
+  }
+
+  /**
+   * @return the pairs of the first elements of this relation with the
+   *         second elements of the other relation, which share a dictionary,
+   *         in the order of the pairs of this relation and then the other
+   */
+  IntRelation compose(IntRelation other) {
+    IntRelation result = new IntRelation(dictionary);
+    int[] next = other.successors();
+
+    for (int i = 0; i < size; i++) {
+      int end = other.successorEnd(to[i]);
+
+      for (int j = other.successorStart(to[i]); j < end; j++) {
+        result.add(from[i], next[j]);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the distinct pairs of the first elements of this relation with
+   *         the second elements of the other relation, which share a
+   *         dictionary, decoded into a multimap
+   */
+  TrieMultimap<IValue, IValue> composeDistinct(IntRelation other) {
+    int[] leftSuccessors = successors();
+    int[] rightSuccessors = other.successors();
+    int[] reachedFrom = new int[dictionary.size()];
+    int[] reached = new int[16];
+    TrieMultimap.Transient<IValue, IValue> result = TrieMultimap.<IValue, IValue>of().asTransient();
+
+    Arrays.fill(reachedFrom, -1);
+
+    for (int source = 0; source < offsets.length - 1; source++) {
+      int count = 0;
+
+      for (int i = offsets[source]; i < offsets[source + 1]; i++) {
+        int middle = leftSuccessors[i];
+        int end = other.successorEnd(middle);
+
+        for (int j = other.successorStart(middle); j < end; j++) {
+          int target = rightSuccessors[j];
+
+          if (reachedFrom[target] != source) {
+            reachedFrom[target] = source;
+
+            if (count == reached.length) {
+              reached = Arrays.copyOf(reached, count * 2);
+            }
+            reached[count++] = target;
+          }
+        }
+      }
+
+      if (count > 0) {
+        TrieSet.Transient<IValue> values = TrieSet.<IValue>of().asTransient();
+
+        for (int i = 0; i < count; i++) {
+          values.insert(dictionary.decode(reached[i]));
+        }
+
+        result.insertAll(dictionary.decode(source), values.freeze());
+      }
+    }
+
+    return result.freeze();
+  }
+
+  /**
+   * Appends the pairs of the transitive closure which are not in the
+   * relation yet, in the order in which repeated composition with the
+   * original relation would first produce them. That is computed
+   * semi-naively: every round composes only the pairs which were appended
+   * in the previous round.
+   *
+   * @return the set of the pairs of the closure
+   */
+  PairSet close() {
+    PairSet present = new PairSet();
+    // the index of the original relation, which the appended pairs do not change
+    int[] next = successors();
+    int[] starts = offsets;
+    int count = starts.length - 1;
+
+    for (int i = 0; i < size; i++) {
+      present.add(from[i], to[i]);
+    }
+
+    int start = 0;
+
+    while (start < size) {
+      int end = size;
+
+      for (int i = start; i < end; i++) {
+        int middle = to[i];
+
+        if (middle >= count) {
+          continue;
+        }
+
+        for (int j = starts[middle]; j < starts[middle + 1]; j++) {
+          if (present.add(from[i], next[j])) {
+            add(from[i], next[j]);
+          }
+        }
+      }
+
+      start = end;
+    }
+
+    return present;
+  }
+
+  /**
+   * A set of pairs of numbers, each stored as a long in an open addressing
+   * table.
+   */
+  static final class PairSet {
+    private static final long FREE = -1L;
+
+    private long[] table = newTable(64);
+    private int size;
+
+    private static long[] newTable(int capacity) {
+      long[] result = new long[capacity];
+      Arrays.fill(result, FREE);
+      return result;
+    }
+
+    /**
+     * @return true if the set did not contain the pair yet
+     */
+    boolean add(int first, int second) {
+      long pair = ((long) first << 32) | (second & 0xFFFFFFFFL);
+      int mask = table.length - 1;
+      int i = mix(pair) & mask;
+
+      for (long entry; (entry = table[i]) != FREE; i = (i + 1) & mask) {
+        if (entry == pair) {
+          return false;
+        }
+      }
+
+      table[i] = pair;
+
+      if (++size > table.length / 2) {
+        resize();
+      }
+
+      return true;
+    }
+
+    private void resize() {
+      long[] old = table;
+      table = newTable(old.length * 2);
+      int mask = table.length - 1;
+
+      for (long pair : old) {
+        if (pair != FREE) {
+          int i = mix(pair) & mask;
+
+          while (table[i] != FREE) {
+            i = (i + 1) & mask;
+          }
+
+          table[i] = pair;
+        }
+      }
+    }
+
+    private static int mix(long pair) {
+      long h = pair * 0x9e3779b97f4a7c15L;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+}
@@ -0,0 +1,328 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.math.BigInteger;
+
+import org.rascalmpl.value.IBool;
+import org.rascalmpl.value.IInteger;
+import org.rascalmpl.value.INumber;
+import org.rascalmpl.value.IRational;
+import org.rascalmpl.value.IReal;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.impl.AbstractValue;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.type.TypeFactory;
+import org.rascalmpl.value.visitors.IValueVisitor;
+
+/**
+ * The arithmetic of the integers of a {@link ValueFactory}. An integer is a
+ * {@link SmallInteger} if it fits in a long and a {@link LargeInteger}
+ * otherwise; the factory keeps that representation canonical.
+ * <p>
+ * The operations of this class compute with big integers; the small integers
+ * override the operations on two small integers. Operations with reals and
+ * rationals, which are values of the adapted factory, are left to an integer
+ * of the adapted factory with the same value.
+ */
+/* package */ abstract class IntegerValue extends AbstractValue implements IInteger {
+  private static final Type INTEGER_TYPE = TypeFactory.getInstance().integerType();
+
+  protected final ValueFactory vf;
+
+  protected IntegerValue(ValueFactory vf) {
+    this.vf = vf;
+  }
+
+  abstract BigInteger bigIntegerValue();
+
+  /**
+   * @return the value of the integer, which need not be created by a value
+   *         factory of this package
+   */
+  static BigInteger bigIntegerValueOf(IInteger integer) {
+    if (integer instanceof IntegerValue) {
+      return ((IntegerValue) integer).bigIntegerValue();
+    }
+
+    return new BigInteger(integer.getTwosComplementRepresentation());
+  }
+
+  /**
+   * @return an integer of the adapted factory with the same value
+   */
+  abstract IInteger adapted();
+
+  /**
+   * @return the integer, or an equal integer of the adapted factory if it was
+   *         created by a factory of this package
+   */
+  static IInteger adapted(IInteger integer) {
+    return integer instanceof IntegerValue ? ((IntegerValue) integer).adapted() : integer;
+  }
+
+  @Override
+  public Type getType() {
+    return INTEGER_TYPE;
+  }
+
+  @Override
+  public <T, E extends Throwable> T accept(IValueVisitor<T, E> v) throws E {
+    return v.visitInteger(this);
+  }
+
+  @Override
+  public IInteger add(IInteger other) {
+    return vf.integer(bigIntegerValue().add(bigIntegerValueOf(other)));
+  }
+
+  @Override
+  public IInteger subtract(IInteger other) {
+    return vf.integer(bigIntegerValue().subtract(bigIntegerValueOf(other)));
+  }
+
+  @Override
+  public IInteger multiply(IInteger other) {
+    return vf.integer(bigIntegerValue().multiply(bigIntegerValueOf(other)));
+  }
+
+  @Override
+  public IInteger divide(IInteger other) {
+    return vf.integer(bigIntegerValue().divide(bigIntegerValueOf(other)));
+  }
+
+  @Override
+  public IInteger remainder(IInteger other) {
+    return vf.integer(bigIntegerValue().remainder(bigIntegerValueOf(other)));
+  }
+
+  @Override
+  public IInteger mod(IInteger other) {
+    return vf.integer(bigIntegerValue().mod(bigIntegerValueOf(other)));
+  }
+
+  @Override
+  public IInteger negate() {
+    return vf.integer(bigIntegerValue().negate());
+  }
+
+  @Override
+  public IInteger abs() {
+    return signum() < 0 ? negate() : this;
+  }
+
+  @Override
+  public int compare(IInteger other) {
+    return bigIntegerValue().compareTo(bigIntegerValueOf(other));
+  }
+
+  @Override
+  public IRational divide(IRational other) {
+    return adapted().divide(other);
+  }
+
+  @Override
+  public INumber add(INumber other) {
+    return other instanceof IInteger ? add((IInteger) other) : adapted().add(other);
+  }
+
+  @Override
+  public IReal add(IReal other) {
+    return adapted().add(other);
+  }
+
+  @Override
+  public INumber add(IRational other) {
+    return adapted().add(other);
+  }
+
+  @Override
+  public INumber subtract(INumber other) {
+    return other instanceof IInteger ? subtract((IInteger) other) : adapted().subtract(other);
+  }
+
+  @Override
+  public INumber subtract(IReal other) {
+    return adapted().subtract(other);
+  }
+
+  @Override
+  public INumber subtract(IRational other) {
+    return adapted().subtract(other);
+  }
+
+  @Override
+  public INumber multiply(INumber other) {
+    return other instanceof IInteger ? multiply((IInteger) other) : adapted().multiply(other);
+  }
+
+  @Override
+  public IReal multiply(IReal other) {
+    return adapted().multiply(other);
+  }
+
+  @Override
+  public INumber multiply(IRational other) {
+    return adapted().multiply(other);
+  }
+
+  @Override
+  public INumber divide(INumber other, int precision) {
+    return adapted().divide(other instanceof IInteger ? adapted((IInteger) other) : other, precision);
+  }
+
+  @Override
+  public IReal divide(IReal other, int precision) {
+    return adapted().divide(other, precision);
+  }
+
+  @Override
+  public INumber divide(IInteger other, int precision) {
+    return adapted().divide(adapted(other), precision);
+  }
+
+  @Override
+  public INumber divide(IRational other, int precision) {
+    return adapted().divide(other, precision);
+  }
+
+  @Override
+  public IReal toReal(int precision) {
+    return adapted().toReal(precision);
+  }
+
+  @Override
+  public IInteger toInteger() {
+    return this;
+  }
+
+  @Override
+  public IRational toRational() {
+    return adapted().toRational();
+  }
+
+  @Override
+  public int compare(INumber other) {
+    return other instanceof IInteger ? compare((IInteger) other) : adapted().compare(other);
+  }
+
+  @Override
+  public IBool equal(INumber other) {
+    return other instanceof IInteger ? equal((IInteger) other) : adapted().equal(other);
+  }
+
+  @Override
+  public IBool equal(IInteger other) {
+    return vf.bool(compare(other) == 0);
+  }
+
+  @Override
+  public IBool equal(IReal other) {
+    return adapted().equal(other);
+  }
+
+  @Override
+  public IBool equal(IRational other) {
+    return adapted().equal(other);
+  }
+
+  @Override
+  public IBool less(INumber other) {
+    return other instanceof IInteger ? less((IInteger) other) : adapted().less(other);
+  }
+
+  @Override
+  public IBool less(IInteger other) {
+    return vf.bool(compare(other) < 0);
+  }
+
+  @Override
+  public IBool less(IReal other) {
+    return adapted().less(other);
+  }
+
+  @Override
+  public IBool less(IRational other) {
+    return adapted().less(other);
+  }
+
+  @Override
+  public IBool greater(INumber other) {
+    return other instanceof IInteger ? greater((IInteger) other) : adapted().greater(other);
+  }
+
+  @Override
+  public IBool greater(IInteger other) {
+    return vf.bool(compare(other) > 0);
+  }
+
+  @Override
+  public IBool greater(IReal other) {
+    return adapted().greater(other);
+  }
+
+  @Override
+  public IBool greater(IRational other) {
+    return adapted().greater(other);
+  }
+
+  @Override
+  public IBool lessEqual(INumber other) {
+    return other instanceof IInteger ? lessEqual((IInteger) other) : adapted().lessEqual(other);
+  }
+
+  @Override
+  public IBool lessEqual(IInteger other) {
+    return vf.bool(compare(other) <= 0);
+  }
+
+  @Override
+  public IBool lessEqual(IReal other) {
+    return adapted().lessEqual(other);
+  }
+
+  @Override
+  public IBool lessEqual(IRational other) {
+    return adapted().lessEqual(other);
+  }
+
+  @Override
+  public IBool greaterEqual(INumber other) {
+    return other instanceof IInteger ? greaterEqual((IInteger) other) : adapted().greaterEqual(other);
+  }
+
+  @Override
+  public IBool greaterEqual(IInteger other) {
+    return vf.bool(compare(other) >= 0);
+  }
+
+  @Override
+  public IBool greaterEqual(IReal other) {
+    return adapted().greaterEqual(other);
+  }
+
+  @Override
+  public IBool greaterEqual(IRational other) {
+    return adapted().greaterEqual(other);
+  }
+
+  @Override
+  public byte[] getTwosComplementRepresentation() {
+    return bigIntegerValue().toByteArray();
+  }
+
+  @Override
+  public boolean isEqual(IValue value) {
+    return value instanceof IInteger && compare((IInteger) value) == 0;
+  }
+
+  @Override
+  public String toString() {
+    return getStringRepresentation();
+  }
+}
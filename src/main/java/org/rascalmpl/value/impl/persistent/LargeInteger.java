@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.math.BigInteger;
+
+import org.rascalmpl.value.IInteger;
+
+/**
+ * An integer which does not fit in a long.
+ */
+/* package */ final class LargeInteger extends IntegerValue {
+  private final BigInteger value;
+
+  LargeInteger(ValueFactory vf, BigInteger value) {
+    super(vf);
+    this.value = value;
+  }
+
+  @Override
+  BigInteger bigIntegerValue() {
+    return value;
+  }
+
+  @Override
+  IInteger adapted() {
+    return vf.adapted().integer(value.toString());
+  }
+
+  @Override
+  public int signum() {
+    return value.signum();
+  }
+
+  @Override
+  public String getStringRepresentation() {
+    return value.toString();
+  }
+
+  @Override
+  public int intValue() {
+    return value.intValue();
+  }
+
+  @Override
+  public long longValue() {
+    return value.longValue();
+  }
+
+  @Override
+  public double doubleValue() {
+    return value.doubleValue();
+  }
+
+  @Override
+  public int hashCode() {
+    return value.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof LargeInteger && ((LargeInteger) o).value.equals(value);
+  }
+}
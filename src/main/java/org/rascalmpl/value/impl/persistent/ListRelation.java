@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import org.rascalmpl.value.IList;
+import org.rascalmpl.value.IListRelation;
+import org.rascalmpl.value.ITuple;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.exceptions.IllegalOperationException;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.type.TypeFactory;
+
+/**
+ * The relational operations on a list of tuples. The results keep the order
+ * of the tuples in the list; the carrier, domain and range contain every
+ * element once, in the order of its first occurrence.
+ * <p>
+ * The elements of the tuples are numbered by a {@link ValueDictionary} in
+ * the order of their first occurrence, hence the operations which find
+ * distinct elements or pairs compare ints; compose and the closures are
+ * computed by an {@link IntRelation}, and only their results are decoded.
+ */
+/* package */ final class ListRelation implements IListRelation<IList> {
+  private static final TypeFactory TF = TypeFactory.getInstance();
+
+  private final IList list;
+
+  ListRelation(IList list) {
+    this.list = list;
+  }
+
+  @Override
+  public IList asList() {
+    return list;
+  }
+
+  @Override
+  public int arity() {
+    return list.getElementType().getArity();
+  }
+
+  @Override
+  public IList compose(IListRelation<IList> other) {
+    IList right = other.asList();
+
+    if (list.isEmpty() || right.isEmpty()) {
+      return PersistentList.EMPTY;
+    }
+
+    if (arity() != 2 || other.arity() != 2) {
+      throw new IllegalOperationException("compose", list.getType(), right.getType());
+    }
+
+    ValueDictionary dictionary = new ValueDictionary();
+    IntRelation left = IntRelation.encode(list, dictionary);
+    IntRelation index = IntRelation.encode(right, dictionary);
+
+    return decode(left.compose(index), 0);
+  }
+
+  @Override
+  public IList closure() {
+    if (list.isEmpty()) {
+      return list;
+    }
+
+    if (arity() != 2) {
+      throw new IllegalOperationException("closure", list.getType());
+    }
+
+    IntRelation relation = IntRelation.encode(list, new ValueDictionary());
+    relation.close();
+
+    return list.concat(decode(relation, list.length()));
+  }
+
+  @Override
+  public IList closureStar() {
+    if (list.isEmpty()) {
+      return list;
+    }
+
+    if (arity() != 2) {
+      throw new IllegalOperationException("closureStar", list.getType());
+    }
+
+    IntRelation relation = IntRelation.encode(list, new ValueDictionary());
+    IntRelation.PairSet present = relation.close();
+
+    // the carrier is numbered in the order of its first occurrence
+    for (int id = 0; id < relation.dictionary.size(); id++) {
+      if (present.add(id, id)) {
+        relation.add(id, id);
+      }
+    }
+
+    return list.concat(decode(relation, list.length()));
+  }
+
+  @Override
+  public IList project(int... fields) {
+    RrbTree.Transient<IValue> result = RrbTree.<IValue>of().asTransient();
+    Type resultType = TF.voidType();
+
+    for (IValue elem : list) {
+      IValue selected = ((ITuple) elem).select(fields);
+      result.append(selected);
+      resultType = resultType.lub(selected.getType());
+    }
+
+    return result.isEmpty() ? PersistentList.EMPTY : PersistentList.of(result.freeze(), resultType);
+  }
+
+  @Override
+  @Deprecated
+  public IList projectByFieldNames(String... fields) {
+    Type tupleType = list.getElementType();
+    int[] indexes = new int[fields.length];
+
+    for (int i = 0; i < fields.length; i++) {
+      indexes[i] = tupleType.getFieldIndex(fields[i]);
+    }
+
+    return project(indexes);
+  }
+
+  @Override
+  public IList carrier() {
+    ValueDictionary dictionary = new ValueDictionary();
+
+    for (IValue elem : list) {
+      for (IValue field : (ITuple) elem) {
+        dictionary.encode(field);
+      }
+    }
+
+    return decode(dictionary);
+  }
+
+  @Override
+  public IList domain() {
+    return list.isEmpty() ? PersistentList.EMPTY : distinct(0);
+  }
+
+  @Override
+  public IList range() {
+    return list.isEmpty() ? PersistentList.EMPTY : distinct(arity() - 1);
+  }
+
+  private IList distinct(int field) {
+    ValueDictionary dictionary = new ValueDictionary();
+
+    for (IValue elem : list) {
+      dictionary.encode(((ITuple) elem).get(field));
+    }
+
+    return decode(dictionary);
+  }
+
+  /**
+   * @return the list of the pairs of the relation from the index on
+   */
+  private static IList decode(IntRelation relation, int start) {
+    ValueDictionary dictionary = relation.dictionary;
+    RrbTree.Transient<IValue> result = RrbTree.<IValue>of().asTransient();
+    Type firstType = TF.voidType();
+    Type secondType = TF.voidType();
+
+    for (int i = start; i < relation.size(); i++) {
+      IValue first = dictionary.decode(relation.first(i));
+      IValue second = dictionary.decode(relation.second(i));
+      result.append(Tuple.of(first, second));
+      firstType = firstType.lub(first.getType());
+      secondType = secondType.lub(second.getType());
+    }
+
+    return result.isEmpty() ? PersistentList.EMPTY : PersistentList.of(result.freeze(), TF.tupleType(firstType, secondType));
+  }
+
+  /**
+   * @return the list of the values of the dictionary, in the order of their numbers
+   */
+  private static IList decode(ValueDictionary dictionary) {
+    RrbTree.Transient<IValue> result = RrbTree.<IValue>of().asTransient();
+    Type resultType = TF.voidType();
+
+    for (int id = 0; id < dictionary.size(); id++) {
+      IValue value = dictionary.decode(id);
+      result.append(value);
+      resultType = resultType.lub(value.getType());
+    }
+
+    return result.isEmpty() ? PersistentList.EMPTY : PersistentList.of(result.freeze(), resultType);
+  }
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.ArrayList;
+
+import org.rascalmpl.value.IList;
+import org.rascalmpl.value.IListWriter;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.exceptions.FactTypeUseException;
+import org.rascalmpl.value.exceptions.UnexpectedElementTypeException;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.type.TypeFactory;
+
+/**
+ * Collects the elements of a {@link PersistentList} in a transient sequence,
+ * which fills its leaves in place until {@link #done()} freezes it. Appending
+ * and inserting in front cost amortised O(1) time, inserting at any other
+ * index O(log n). Like the transient sequence, the writer may only be used by
+ * the thread which created it.
+ */
+/* package */ final class ListWriter implements IListWriter {
+  private static final TypeFactory TF = TypeFactory.getInstance();
+
+  private final Type declaredType;
+  private final RrbTree.Transient<IValue> content = RrbTree.<IValue>of().asTransient();
+  private boolean replaced;
+  private Type elementType = TF.voidType();
+  private IList constructed;
+
+  /**
+   * @param declaredType the type every element must be a sub-type of, or null
+   */
+  ListWriter(Type declaredType) {
+    this.declaredType = declaredType;
+  }
+
+  private void checkElement(IValue elem) {
+    elementType = checkType(elem, elementType);
+  }
+
+  /**
+   * @return the least upper bound of the type and the type of the element,
+   *         if the element may be added
+   */
+  private Type checkType(IValue elem, Type type) {
+    Type elemType = elem.getType();
+
+    if (declaredType != null && !elemType.isSubtypeOf(declaredType)) {
+      throw new UnexpectedElementTypeException(declaredType, elemType);
+    }
+
+    return type.lub(elemType);
+  }
+
+  private void checkIndex(int index, int size) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+  }
+
+  private void checkMutation() {
+    if (constructed != null) {
+      throw new UnsupportedOperationException("Mutation of a finalized list is not supported.");
+    }
+  }
+
+  @Override
+  public void insert(IValue... values) throws FactTypeUseException {
+    insert(values, 0, values.length);
+  }
+
+  @Override
+  public void insertAt(int index, IValue... values) throws FactTypeUseException, IndexOutOfBoundsException {
+    insertAt(index, values, 0, values.length);
+  }
+
+  @Override
+  public void insert(IValue[] elems, int start, int length) throws FactTypeUseException, IndexOutOfBoundsException {
+    insertAt(0, elems, start, length);
+  }
+
+  @Override
+  public void insertAt(int index, IValue[] elems, int start, int length)
+      throws FactTypeUseException, IndexOutOfBoundsException {
+    checkMutation();
+
+    if (start < 0 || length < 0 || start + length > elems.length) {
+      throw new IndexOutOfBoundsException("Elements [" + start + "," + (start + length) + ") of " + elems.length);
+    }
+
+    checkIndex(index, content.size() + 1);
+
+    // the element type only changes if all of the elements are inserted
+    Type newElementType = elementType;
+    for (int i = start; i < start + length; i++) {
+      newElementType = checkType(elems[i], newElementType);
+    }
+
+    content.insert(index, elems, start, length);
+    elementType = newElementType;
+  }
+
+  @Override
+  public void insertAll(Iterable<? extends IValue> collection) throws FactTypeUseException {
+    ArrayList<IValue> values = new ArrayList<>();
+    for (IValue value : collection) {
+      values.add(value);
+    }
+
+    insert(values.toArray(new IValue[values.size()]));
+  }
+
+  @Override
+  public IValue replaceAt(int index, IValue elem) throws FactTypeUseException, IndexOutOfBoundsException {
+    checkMutation();
+    checkIndex(index, content.size());
+    checkElement(elem);
+    replaced = true;
+    return content.set(index, elem);
+  }
+
+  @Override
+  public void append(IValue... values) throws FactTypeUseException {
+    checkMutation();
+
+    for (IValue value : values) {
+      checkElement(value);
+      content.append(value);
+    }
+  }
+
+  @Override
+  public void appendAll(Iterable<? extends IValue> collection) throws FactTypeUseException {
+    checkMutation();
+
+    for (IValue value : collection) {
+      checkElement(value);
+      content.append(value);
+    }
+  }
+
+  @Override
+  public IValue get(int i) throws IndexOutOfBoundsException {
+    return constructed != null ? constructed.get(i) : content.get(i);
+  }
+
+  @Override
+  public int length() {
+    return constructed != null ? constructed.length() : content.size();
+  }
+
+  @Override
+  public IList done() {
+    if (constructed == null) {
+      if (content.isEmpty()) {
+        constructed = declaredType != null ? PersistentList.empty(declaredType) : PersistentList.EMPTY;
+      }
+      else {
+        // a replaced element may have determined the element type
+        constructed = PersistentList.of(content.freeze(), replaced ? null : elementType);
+      }
+    }
+
+    return constructed;
+  }
+}
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.rascalmpl.value.IMap;
+import org.rascalmpl.value.IMapWriter;
+import org.rascalmpl.value.ITuple;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.exceptions.FactTypeUseException;
+import org.rascalmpl.value.exceptions.UnexpectedElementTypeException;
+import org.rascalmpl.value.exceptions.UnexpectedMapKeyTypeException;
+import org.rascalmpl.value.exceptions.UnexpectedMapValueTypeException;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.type.TypeFactory;
+
+/**
+ * Collects the entries of a {@link PersistentMap} in a transient map, which
+ * is updated in place until {@link #done()} freezes it. Like the transient
+ * map, the writer may only be used by the thread which created it.
+ */
+/* package */ final class MapWriter implements IMapWriter {
+  private static final TypeFactory TF = TypeFactory.getInstance();
+
+  private final Type declaredType;
+  private final TrieMap.Transient<IValue, IValue> content = TrieMap.<IValue, IValue>of().asTransient();
+  private boolean replaced;
+  private Type keyType = TF.voidType();
+  private Type valueType = TF.voidType();
+  private IMap constructed;
+
+  /**
+   * @param declaredType the map type every entry must be a sub-type of, or null
+   */
+  MapWriter(Type declaredType) {
+    this.declaredType = declaredType;
+  }
+
+  private void putEntry(IValue key, IValue value) {
+    Type kt = key.getType();
+    Type vt = value.getType();
+
+    if (declaredType != null) {
+      if (!kt.isSubtypeOf(declaredType.getKeyType())) {
+        throw new UnexpectedMapKeyTypeException(declaredType.getKeyType(), kt);
+      }
+
+      if (!vt.isSubtypeOf(declaredType.getValueType())) {
+        throw new UnexpectedMapValueTypeException(declaredType.getValueType(), vt);
+      }
+    }
+
+    if (!content.put(key, value)) {
+      replaced = true;
+    }
+
+    keyType = keyType.lub(kt);
+    valueType = valueType.lub(vt);
+  }
+
+  private void checkMutation() {
+    if (constructed != null) {
+      throw new UnsupportedOperationException("Mutation of a finalized map is not supported.");
+    }
+  }
+
+  @Override
+  public void put(IValue key, IValue value) throws FactTypeUseException {
+    checkMutation();
+    putEntry(key, value);
+  }
+
+  @Override
+  public void putAll(IMap map) throws FactTypeUseException {
+    checkMutation();
+
+    for (Iterator<Entry<IValue, IValue>> it = map.entryIterator(); it.hasNext();) {
+      Entry<IValue, IValue> entry = it.next();
+      putEntry(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public void putAll(Map<IValue, IValue> map) throws FactTypeUseException {
+    checkMutation();
+
+    for (Entry<IValue, IValue> entry : map.entrySet()) {
+      putEntry(entry.getKey(), entry.getValue());
+    }
+  }
+
+  private void insertTuple(IValue value) {
+    if (!(value instanceof ITuple) || ((ITuple) value).arity() != 2) {
+      throw new UnexpectedElementTypeException(TF.tupleType(TF.valueType(), TF.valueType()), value.getType());
+    }
+
+    ITuple tuple = (ITuple) value;
+    putEntry(tuple.get(0), tuple.get(1));
+  }
+
+  @Override
+  public void insert(IValue... values) throws FactTypeUseException {
+    checkMutation();
+
+    for (IValue value : values) {
+      insertTuple(value);
+    }
+  }
+
+  @Override
+  public void insertAll(Iterable<? extends IValue> collection) throws FactTypeUseException {
+    checkMutation();
+
+    for (IValue value : collection) {
+      insertTuple(value);
+    }
+  }
+
+  @Override
+  public IMap done() {
+    if (constructed == null) {
+      if (content.isEmpty()) {
+        constructed = declaredType != null ? PersistentMap.empty(declaredType.getKeyType(), declaredType.getValueType())
+            : PersistentMap.EMPTY;
+      }
+      else if (replaced) {
+        // a replaced value may have determined the value type
+        constructed = PersistentMap.of(content.freeze(), keyType, null);
+      }
+      else {
+        constructed = PersistentMap.of(content.freeze(), keyType, valueType);
+      }
+    }
+
+    return constructed;
+  }
+}
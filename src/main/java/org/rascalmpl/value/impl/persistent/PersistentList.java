@@ -0,0 +1,502 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.rascalmpl.value.IList;
+import org.rascalmpl.value.IListRelation;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.exceptions.IllegalOperationException;
+import org.rascalmpl.value.impl.AbstractValue;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.type.TypeFactory;
+import org.rascalmpl.value.visitors.IValueVisitor;
+
+/**
+ * A list which shares its structure with the lists it is derived from, stored
+ * in an {@link RrbTree}. Appending and prepending an element cost amortised
+ * O(1) time; concatenation, sublists, and inserting, replacing or deleting an
+ * element at an index cost O(log32 n) time and space.
+ * <p>
+ * The element type is the least upper bound of the types of the elements. It
+ * is extended when elements are added to a list of which the element type is
+ * known, but after elements were replaced or removed it is only recomputed
+ * when it is asked for.
+ */
+/* package */ final class PersistentList extends AbstractValue implements IList {
+  private static final TypeFactory TF = TypeFactory.getInstance();
+  static final PersistentList EMPTY = new PersistentList(RrbTree.of(), TF.voidType());
+
+  private final RrbTree<IValue> content;
+  private Type elementType;
+  private int hashCode;
+
+  private PersistentList(RrbTree<IValue> content, Type elementType) {
+    this.content = content;
+    this.elementType = elementType;
+  }
+
+  /**
+   * @return an empty list of which the element type is eltType
+   */
+  static PersistentList empty(Type eltType) {
+    return eltType.isBottom() ? EMPTY : new PersistentList(RrbTree.of(), eltType);
+  }
+
+  /**
+   * @param elementType the least upper bound of the types of the elements, or
+   *                    the type of an empty list, or null if it is not known
+   */
+  static PersistentList of(RrbTree<IValue> content, Type elementType) {
+    return new PersistentList(content, elementType);
+  }
+
+  private IList derive(RrbTree<IValue> newContent, Type newElementType) {
+    if (newContent == content) {
+      return this;
+    }
+
+    if (newContent.isEmpty()) {
+      return EMPTY;
+    }
+
+    return new PersistentList(newContent, newElementType);
+  }
+
+  /**
+   * @return the least upper bound of the types, or null if either is not known
+   */
+  private static Type lub(Type t1, Type t2) {
+    return t1 == null || t2 == null ? null : t1.lub(t2);
+  }
+
+  private static RrbTree<IValue> contentOf(IList list) {
+    if (list instanceof PersistentList) {
+      return ((PersistentList) list).content;
+    }
+
+    RrbTree.Transient<IValue> result = RrbTree.<IValue>of().asTransient();
+    for (IValue elem : list) {
+      result.append(elem);
+    }
+
+    return result.freeze();
+  }
+
+  @Override
+  public Type getType() {
+    return TF.listType(getElementType());
+  }
+
+  @Override
+  public Type getElementType() {
+    Type t = elementType;
+
+    if (t == null) {
+      t = TF.voidType();
+      for (IValue elem : content) {
+        t = t.lub(elem.getType());
+      }
+      elementType = t;
+    }
+
+    return t;
+  }
+
+  @Override
+  public <T, E extends Throwable> T accept(IValueVisitor<T, E> v) throws E {
+    return isRelation() ? v.visitListRelation(this) : v.visitList(this);
+  }
+
+  @Override
+  public int length() {
+    return content.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return content.isEmpty();
+  }
+
+  @Override
+  public IValue get(int i) {
+    return content.get(i);
+  }
+
+  @Override
+  public Iterator<IValue> iterator() {
+    return content.iterator();
+  }
+
+  @Override
+  public IList reverse() {
+    if (length() < 2) {
+      return this;
+    }
+
+    RrbTree.Transient<IValue> result = RrbTree.<IValue>of().asTransient();
+    for (IValue elem : content) {
+      result.prepend(elem);
+    }
+
+    return new PersistentList(result.freeze(), elementType);
+  }
+
+  @Override
+  public IList shuffle(Random rand) {
+    IValue[] elements = new IValue[length()];
+    int n = 0;
+    for (IValue elem : content) {
+      elements[n++] = elem;
+    }
+
+    // the same approach as Collections.shuffle
+    for (int i = elements.length - 1; i > 0; i--) {
+      int j = rand.nextInt(i + 1);
+      IValue tmp = elements[i];
+      elements[i] = elements[j];
+      elements[j] = tmp;
+    }
+
+    RrbTree.Transient<IValue> result = RrbTree.<IValue>of().asTransient();
+    result.insert(0, elements, 0, elements.length);
+    return derive(result.freeze(), elementType);
+  }
+
+  @Override
+  public IList append(IValue e) {
+    return new PersistentList(content.append(e), lub(elementType, e.getType()));
+  }
+
+  @Override
+  public IList insert(IValue e) {
+    return new PersistentList(content.prepend(e), lub(elementType, e.getType()));
+  }
+
+  @Override
+  public IList concat(IList o) {
+    if (o.isEmpty()) {
+      return this;
+    }
+
+    if (isEmpty()) {
+      return o;
+    }
+
+    Type otherType = o instanceof PersistentList ? ((PersistentList) o).elementType : o.getElementType();
+    return new PersistentList(content.concat(contentOf(o)), lub(elementType, otherType));
+  }
+
+  @Override
+  public IList put(int i, IValue e) {
+    // the replaced element may have determined the element type
+    return new PersistentList(content.set(i, e), null);
+  }
+
+  @Override
+  public IList replace(int first, int second, int end, IList repl) {
+    int increment = Math.abs(second - first);
+
+    if (first < end && increment == 1 && repl.length() >= end - first) {
+      RrbTree<IValue> result = content.slice(0, first).concat(contentOf(repl)).concat(content.slice(end, length()));
+      return derive(result, null);
+    }
+
+    ListWriter result = new ListWriter(null);
+    int replLength = repl.length();
+
+    if (first < end) {
+      int index = 0;
+
+      while (index < first) {
+        result.append(get(index++));
+      }
+
+      int replIndex = 0;
+      boolean wrapped = false;
+
+      while (index < end) {
+        result.append(repl.get(replIndex++));
+        if (replIndex == replLength) {
+          replIndex = 0;
+          wrapped = true;
+        }
+        index++; // skip the replaced element
+
+        for (int q = 1; q < increment && index < end; q++) {
+          result.append(get(index++));
+        }
+      }
+
+      if (!wrapped) {
+        while (replIndex < replLength) {
+          result.append(repl.get(replIndex++));
+        }
+      }
+
+      while (index < length()) {
+        result.append(get(index++));
+      }
+    }
+    else {
+      int index = length() - 1;
+
+      while (index > first) {
+        result.insert(get(index--));
+      }
+
+      int replIndex = 0;
+      boolean wrapped = false;
+
+      while (index > end) {
+        result.insert(repl.get(replIndex++));
+        if (replIndex == replLength) {
+          replIndex = 0;
+          wrapped = true;
+        }
+        index--; // skip the replaced element
+
+        for (int q = 1; q < increment && index > end; q++) {
+          result.insert(get(index--));
+        }
+      }
+
+      if (!wrapped) {
+        while (replIndex < replLength) {
+          result.insert(repl.get(replIndex++));
+        }
+      }
+
+      while (index >= 0) {
+        result.insert(get(index--));
+      }
+    }
+
+    return result.done();
+  }
+
+  @Override
+  public IList sublist(int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > length()) {
+      throw new IndexOutOfBoundsException("Sublist [" + offset + "," + (offset + length) + ") of " + length()
+          + " elements");
+    }
+
+    return derive(content.slice(offset, offset + length), null);
+  }
+
+  @Override
+  public boolean contains(IValue e) {
+    for (IValue elem : content) {
+      if (elem.equals(e)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  @Override
+  public IList delete(IValue e) {
+    int i = 0;
+
+    for (IValue elem : content) {
+      if (elem.equals(e)) {
+        return delete(i);
+      }
+      i++;
+    }
+
+    return this;
+  }
+
+  @Override
+  public IList delete(int i) {
+    return derive(content.remove(i), null);
+  }
+
+  @Override
+  public IList product(IList l) {
+    RrbTree.Transient<IValue> result = RrbTree.<IValue>of().asTransient();
+
+    for (IValue left : this) {
+      for (IValue right : l) {
+        result.append(Tuple.of(left, right));
+      }
+    }
+
+    return result.isEmpty() ? EMPTY : of(result.freeze(), TF.tupleType(getElementType(), l.getElementType()));
+  }
+
+  @Override
+  public IList intersect(IList l) {
+    Set<IValue> other = new HashSet<>();
+    for (IValue elem : l) {
+      other.add(elem);
+    }
+
+    RrbTree.Transient<IValue> result = RrbTree.<IValue>of().asTransient();
+    for (IValue elem : content) {
+      if (other.contains(elem)) {
+        result.append(elem);
+      }
+    }
+
+    return result.size() == length() ? this : derive(result.freeze(), null);
+  }
+
+  @Override
+  public IList subtract(IList l) {
+    // every element of l removes one occurrence from this list
+    Map<IValue, Integer> occurrences = new HashMap<>();
+    for (IValue elem : l) {
+      occurrences.merge(elem, 1, Integer::sum);
+    }
+
+    RrbTree.Transient<IValue> result = RrbTree.<IValue>of().asTransient();
+    for (IValue elem : content) {
+      Integer count = occurrences.get(elem);
+
+      if (count == null) {
+        result.append(elem);
+      }
+      else if (count == 1) {
+        occurrences.remove(elem);
+      }
+      else {
+        occurrences.put(elem, count - 1);
+      }
+    }
+
+    return result.size() == length() ? this : derive(result.freeze(), null);
+  }
+
+  @Override
+  public boolean isSubListOf(IList l) {
+    Iterator<IValue> it = l.iterator();
+
+    // every element must occur in l, in the same order
+    next: for (IValue elem : content) {
+      while (it.hasNext()) {
+        if (elem.equals(it.next())) {
+          continue next;
+        }
+      }
+      return false;
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean isRelation() {
+    return getType().isListRelation();
+  }
+
+  @Override
+  public IListRelation<IList> asRelation() {
+    if (!isRelation()) {
+      throw new IllegalOperationException("Cannot be viewed as a relation.", getType());
+    }
+
+    return new ListRelation(this);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = hashCode;
+
+    if (h == 0 && !isEmpty()) {
+      h = 1;
+      for (IValue elem : content) {
+        h = 31 * h + elem.hashCode();
+      }
+      hashCode = h;
+    }
+
+    return h;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+
+    if (!(o instanceof IList)) {
+      return false;
+    }
+
+    IList other = (IList) o;
+
+    if (length() != other.length()) {
+      return false;
+    }
+
+    if (other instanceof PersistentList && hashCode() != other.hashCode()) {
+      return false;
+    }
+
+    Iterator<IValue> it = other.iterator();
+    for (IValue elem : content) {
+      if (!elem.equals(it.next())) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean isEqual(IValue value) {
+    if (value == this) {
+      return true;
+    }
+
+    if (!(value instanceof IList)) {
+      return false;
+    }
+
+    IList other = (IList) value;
+
+    if (length() != other.length()) {
+      return false;
+    }
+
+    Iterator<IValue> it = other.iterator();
+    for (IValue elem : content) {
+      if (!elem.isEqual(it.next())) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder("[");
+    boolean first = true;
+
+    for (IValue elem : content) {
+      if (!first) {
+        b.append(',');
+      }
+      b.append(elem);
+      first = false;
+    }
+
+    return b.append(']').toString();
+  }
+}
@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import org.rascalmpl.value.IMap;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.impl.AbstractValue;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.type.TypeFactory;
+import org.rascalmpl.value.visitors.IValueVisitor;
+
+/**
+ * A map which shares its structure with the maps it is derived from, stored in
+ * a {@link TrieMap}. Putting or removing a key costs O(log32 n) time and
+ * space; the size and hash code of the map are maintained incrementally.
+ * <p>
+ * The key and value types are the least upper bounds of the types of the
+ * keys and values. They are extended when entries are added, but after an
+ * entry was replaced or removed they are only recomputed when they are asked
+ * for.
+ */
+/* package */ final class PersistentMap extends AbstractValue implements IMap {
+  private static final TypeFactory TF = TypeFactory.getInstance();
+  static final PersistentMap EMPTY = new PersistentMap(TrieMap.of(), TF.voidType(), TF.voidType());
+
+  private final TrieMap<IValue, IValue> content;
+  private Type keyType;
+  private Type valueType;
+
+  private PersistentMap(TrieMap<IValue, IValue> content, Type keyType, Type valueType) {
+    this.content = content;
+    this.keyType = keyType;
+    this.valueType = valueType;
+  }
+
+  /**
+   * @return an empty map of which the key and value types are the given types
+   */
+  static PersistentMap empty(Type keyType, Type valueType) {
+    if (keyType.isBottom() && valueType.isBottom()) {
+      return EMPTY;
+    }
+
+    return new PersistentMap(TrieMap.of(), keyType, valueType);
+  }
+
+  /**
+   * @param keyType   the least upper bound of the types of the keys
+   * @param valueType the least upper bound of the types of the values
+   */
+  static PersistentMap of(TrieMap<IValue, IValue> content, Type keyType, Type valueType) {
+    return new PersistentMap(content, keyType, valueType);
+  }
+
+  private IMap derive(TrieMap<IValue, IValue> newContent) {
+    if (newContent == content) {
+      return this;
+    }
+
+    if (newContent.isEmpty()) {
+      return EMPTY;
+    }
+
+    return new PersistentMap(newContent, null, null);
+  }
+
+  private void computeTypes() {
+    Type kt = TF.voidType();
+    Type vt = TF.voidType();
+
+    for (Iterator<Entry<IValue, IValue>> it = content.entryIterator(); it.hasNext();) {
+      Entry<IValue, IValue> entry = it.next();
+      kt = kt.lub(entry.getKey().getType());
+      vt = vt.lub(entry.getValue().getType());
+    }
+
+    valueType = vt;
+    keyType = kt;
+  }
+
+  @Override
+  public Type getType() {
+    return TF.mapType(getKeyType(), getValueType());
+  }
+
+  @Override
+  public Type getKeyType() {
+    Type t = keyType;
+
+    if (t == null) {
+      computeTypes();
+      t = keyType;
+    }
+
+    return t;
+  }
+
+  @Override
+  public Type getValueType() {
+    Type t = valueType;
+
+    if (t == null) {
+      computeTypes();
+      t = valueType;
+    }
+
+    return t;
+  }
+
+  @Override
+  public <T, E extends Throwable> T accept(IValueVisitor<T, E> v) throws E {
+    return v.visitMap(this);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return content.isEmpty();
+  }
+
+  @Override
+  public int size() {
+    return content.size();
+  }
+
+  @Override
+  public IMap put(IValue key, IValue value) {
+    TrieMap<IValue, IValue> newContent = content.put(key, value);
+
+    if (newContent == content) {
+      return this;
+    }
+
+    if (newContent.size() == content.size()) {
+      // the old value of the key may have determined the value type
+      return new PersistentMap(newContent, getKeyType(), null);
+    }
+
+    return new PersistentMap(newContent, getKeyType().lub(key.getType()), getValueType().lub(value.getType()));
+  }
+
+  @Override
+  public IMap removeKey(IValue key) {
+    return derive(content.remove(key));
+  }
+
+  @Override
+  public IValue get(IValue key) {
+    return content.get(key);
+  }
+
+  @Override
+  public boolean containsKey(IValue key) {
+    return content.containsKey(key);
+  }
+
+  @Override
+  public boolean containsValue(IValue value) {
+    for (Iterator<IValue> it = content.valueIterator(); it.hasNext();) {
+      if (it.next().equals(value)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  @Override
+  public IMap join(IMap other) {
+    if (other.isEmpty()) {
+      return this;
+    }
+
+    TrieMap.Transient<IValue, IValue> result = content.asTransient();
+    for (Iterator<Entry<IValue, IValue>> it = other.entryIterator(); it.hasNext();) {
+      Entry<IValue, IValue> entry = it.next();
+      result.put(entry.getKey(), entry.getValue());
+    }
+
+    return derive(result.freeze());
+  }
+
+  @Override
+  public IMap remove(IMap other) {
+    TrieMap.Transient<IValue, IValue> result = content.asTransient();
+
+    for (IValue key : other) {
+      result.remove(key);
+    }
+
+    return result.size() == size() ? this : derive(result.freeze());
+  }
+
+  @Override
+  public IMap compose(IMap other) {
+    TrieMap.Transient<IValue, IValue> result = TrieMap.<IValue, IValue>of().asTransient();
+    Type kt = TF.voidType();
+    Type vt = TF.voidType();
+
+    for (Iterator<Entry<IValue, IValue>> it = content.entryIterator(); it.hasNext();) {
+      Entry<IValue, IValue> entry = it.next();
+      IValue value = other.get(entry.getValue());
+
+      if (value != null) {
+        result.put(entry.getKey(), value);
+        kt = kt.lub(entry.getKey().getType());
+        vt = vt.lub(value.getType());
+      }
+    }
+
+    return result.isEmpty() ? EMPTY : of(result.freeze(), kt, vt);
+  }
+
+  @Override
+  public IMap common(IMap other) {
+    TrieMap.Transient<IValue, IValue> result = content.asTransient();
+
+    for (Iterator<Entry<IValue, IValue>> it = content.entryIterator(); it.hasNext();) {
+      Entry<IValue, IValue> entry = it.next();
+      IValue value = other.get(entry.getKey());
+
+      if (value == null || !value.equals(entry.getValue())) {
+        result.remove(entry.getKey());
+      }
+    }
+
+    return result.size() == size() ? this : derive(result.freeze());
+  }
+
+  @Override
+  public boolean isSubMap(IMap other) {
+    if (size() > other.size()) {
+      return false;
+    }
+
+    for (Iterator<Entry<IValue, IValue>> it = content.entryIterator(); it.hasNext();) {
+      Entry<IValue, IValue> entry = it.next();
+      IValue value = other.get(entry.getKey());
+
+      if (value == null || !value.equals(entry.getValue())) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public Iterator<IValue> iterator() {
+    return content.keyIterator();
+  }
+
+  @Override
+  public Iterator<IValue> valueIterator() {
+    return content.valueIterator();
+  }
+
+  @Override
+  public Iterator<Entry<IValue, IValue>> entryIterator() {
+    return content.entryIterator();
+  }
+
+  @Override
+  public int hashCode() {
+    return content.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+
+    if (o instanceof PersistentMap) {
+      return content.equals(((PersistentMap) o).content);
+    }
+
+    if (o instanceof IMap) {
+      IMap other = (IMap) o;
+      return size() == other.size() && isSubMap(other);
+    }
+
+    return false;
+  }
+
+  @Override
+  public boolean isEqual(IValue value) {
+    if (value == this) {
+      return true;
+    }
+
+    if (!(value instanceof IMap)) {
+      return false;
+    }
+
+    IMap other = (IMap) value;
+
+    if (size() != other.size()) {
+      return false;
+    }
+
+    for (Iterator<Entry<IValue, IValue>> it = content.entryIterator(); it.hasNext();) {
+      Entry<IValue, IValue> entry = it.next();
+      IValue otherValue = other.get(entry.getKey());
+
+      if (otherValue == null || !otherValue.isEqual(entry.getValue())) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder("(");
+    boolean first = true;
+
+    for (Iterator<Entry<IValue, IValue>> it = content.entryIterator(); it.hasNext();) {
+      Entry<IValue, IValue> entry = it.next();
+
+      if (!first) {
+        b.append(',');
+      }
+      b.append(entry.getKey()).append(':').append(entry.getValue());
+      first = false;
+    }
+
+    return b.append(')').toString();
+  }
+}
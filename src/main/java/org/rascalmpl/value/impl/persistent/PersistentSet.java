@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.Iterator;
+
+import org.rascalmpl.value.ISet;
+import org.rascalmpl.value.ISetRelation;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.exceptions.IllegalOperationException;
+import org.rascalmpl.value.impl.AbstractValue;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.type.TypeFactory;
+import org.rascalmpl.value.visitors.IValueVisitor;
+
+/**
+ * A set which shares its structure with the sets it is derived from, stored in
+ * a {@link TrieSet}. Inserting or deleting an element costs O(log32 n) time
+ * and space; the size and hash code of the set are maintained incrementally.
+ * <p>
+ * The element type is the least upper bound of the types of the elements. It
+ * is extended by every insertion, but after a deletion it is only recomputed
+ * when it is asked for.
+ * <p>
+ * A binary tuple which is inserted into an empty set makes a
+ * {@link BinaryRelation} instead.
+ */
+/* package */ final class PersistentSet extends AbstractValue implements ISet {
+  private static final TypeFactory TF = TypeFactory.getInstance();
+  static final PersistentSet EMPTY = new PersistentSet(TrieSet.of(), TF.voidType());
+
+  private final TrieSet<IValue> content;
+  private Type elementType;
+
+  private PersistentSet(TrieSet<IValue> content, Type elementType) {
+    this.content = content;
+    this.elementType = elementType;
+  }
+
+  /**
+   * @return an empty set of which the element type is eltType
+   */
+  static PersistentSet empty(Type eltType) {
+    return eltType.isBottom() ? EMPTY : new PersistentSet(TrieSet.of(), eltType);
+  }
+
+  /**
+   * @param elementType the least upper bound of the types of the elements, or
+   *                    the type of an empty set
+   */
+  static PersistentSet of(TrieSet<IValue> content, Type elementType) {
+    return new PersistentSet(content, elementType);
+  }
+
+  private PersistentSet derive(TrieSet<IValue> newContent, Type newElementType) {
+    if (newContent == content) {
+      return this;
+    }
+
+    if (newContent.isEmpty()) {
+      return EMPTY;
+    }
+
+    return new PersistentSet(newContent, newElementType);
+  }
+
+  /**
+   * @param result a transient copy of the content of this set, to which only
+   *               insertions or only deletions were applied
+   */
+  private PersistentSet derive(TrieSet.Transient<IValue> result, Type newElementType) {
+    if (result.size() == size()) {
+      return this;
+    }
+
+    if (result.isEmpty()) {
+      return EMPTY;
+    }
+
+    return new PersistentSet(result.freeze(), newElementType);
+  }
+
+  @Override
+  public Type getType() {
+    return TF.setType(getElementType());
+  }
+
+  @Override
+  public Type getElementType() {
+    Type t = elementType;
+
+    if (t == null) {
+      t = TF.voidType();
+      for (IValue elem : content) {
+        t = t.lub(elem.getType());
+      }
+      elementType = t;
+    }
+
+    return t;
+  }
+
+  @Override
+  public <T, E extends Throwable> T accept(IValueVisitor<T, E> v) throws E {
+    return isRelation() ? v.visitRelation(this) : v.visitSet(this);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return content.isEmpty();
+  }
+
+  @Override
+  public int size() {
+    return content.size();
+  }
+
+  @Override
+  public boolean contains(IValue element) {
+    return content.contains(element);
+  }
+
+  @Override
+  public Iterator<IValue> iterator() {
+    return content.iterator();
+  }
+
+  @Override
+  public ISet insert(IValue element) {
+    if (isEmpty() && BinaryRelation.isPair(element)) {
+      Type type = getElementType().lub(element.getType());
+
+      if (type.isTuple() && type.getArity() == 2) {
+        Tuple pair = (Tuple) element;
+        return BinaryRelation.of(TrieMultimap.<IValue, IValue>of().insert(pair.get(0), pair.get(1)), type.getFieldType(0), type.getFieldType(1));
+      }
+    }
+
+    TrieSet<IValue> newContent = content.insert(element);
+
+    if (newContent == content) {
+      return this;
+    }
+
+    return new PersistentSet(newContent, getElementType().lub(element.getType()));
+  }
+
+  @Override
+  public ISet delete(IValue element) {
+    return derive(content.delete(element), null);
+  }
+
+  @Override
+  public ISet union(ISet other) {
+    if (other == this || other.isEmpty()) {
+      return this;
+    }
+
+    if (isEmpty()) {
+      return other;
+    }
+
+    PersistentSet larger = this;
+    ISet smaller = other;
+
+    if (other instanceof PersistentSet && other.size() > size()) {
+      larger = (PersistentSet) other;
+      smaller = this;
+    }
+
+    TrieSet.Transient<IValue> result = larger.content.asTransient();
+    for (IValue elem : smaller) {
+      result.insert(elem);
+    }
+
+    return larger.derive(result, larger.getElementType().lub(smaller.getElementType()));
+  }
+
+  @Override
+  public ISet intersect(ISet other) {
+    if (other == this) {
+      return this;
+    }
+
+    if (other.isEmpty()) {
+      return EMPTY;
+    }
+
+    if (other instanceof PersistentSet && other.size() < size()) {
+      return other.intersect(this);
+    }
+
+    TrieSet.Transient<IValue> result = content.asTransient();
+    for (IValue elem : content) {
+      if (!other.contains(elem)) {
+        result.delete(elem);
+      }
+    }
+
+    return derive(result, null);
+  }
+
+  @Override
+  public ISet subtract(ISet other) {
+    if (other == this) {
+      return EMPTY;
+    }
+
+    TrieSet.Transient<IValue> result = content.asTransient();
+
+    if (other.size() < size()) {
+      for (IValue elem : other) {
+        result.delete(elem);
+      }
+    }
+    else {
+      for (IValue elem : content) {
+        if (other.contains(elem)) {
+          result.delete(elem);
+        }
+      }
+    }
+
+    return derive(result, null);
+  }
+
+  @Override
+  public ISet product(ISet other) {
+    TrieSet.Transient<IValue> result = TrieSet.<IValue>of().asTransient();
+
+    for (IValue left : this) {
+      for (IValue right : other) {
+        result.insert(Tuple.of(left, right));
+      }
+    }
+
+    return of(result.freeze(), TF.tupleType(getElementType(), other.getElementType()));
+  }
+
+  @Override
+  public boolean isSubsetOf(ISet other) {
+    if (size() > other.size()) {
+      return false;
+    }
+
+    for (IValue elem : content) {
+      if (!other.contains(elem)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean isRelation() {
+    return getType().isRelation();
+  }
+
+  @Override
+  public ISetRelation<ISet> asRelation() {
+    if (!isRelation()) {
+      throw new IllegalOperationException("Cannot be viewed as a relation.", getType());
+    }
+
+    return new SetRelation(this);
+  }
+
+  @Override
+  public int hashCode() {
+    return content.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+
+    if (o instanceof PersistentSet) {
+      return content.equals(((PersistentSet) o).content);
+    }
+
+    if (o instanceof ISet) {
+      ISet other = (ISet) o;
+      return size() == other.size() && isSubsetOf(other);
+    }
+
+    return false;
+  }
+
+  @Override
+  public boolean isEqual(IValue value) {
+    if (value == this) {
+      return true;
+    }
+
+    if (!(value instanceof ISet)) {
+      return false;
+    }
+
+    ISet other = (ISet) value;
+    return size() == other.size() && isSubsetOf(other);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder("{");
+    boolean first = true;
+
+    for (IValue elem : content) {
+      if (!first) {
+        b.append(',');
+      }
+      b.append(elem);
+      first = false;
+    }
+
+    return b.append('}').toString();
+  }
+}
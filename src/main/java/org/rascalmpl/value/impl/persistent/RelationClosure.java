@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.rascalmpl.value.ISet;
+import org.rascalmpl.value.IValue;
+
+/**
+ * The transitive closure of a binary relation, computed on the numbers of its
+ * values (see {@link IntRelation}) rather than on the values themselves.
+ * <p>
+ * The closure is computed per element of the domain, by semi-naive
+ * iteration: every round follows the relation only from the elements which
+ * were reached in the previous round (the delta) for the first time. Hence
+ * every pair of the closure is composed with the relation once, rather than
+ * once per round as by a naive fixpoint of R + (R o R). The elements which were
+ * reached are marked in an int array, by the number of the element they
+ * were reached from, such that the array need not be cleared.
+ * <p>
+ * The values are decoded into a {@link TrieMultimap} once the elements
+ * reached from an element are known. The elements of the domain are
+ * independent, hence they can be partitioned: if the system property
+ * {@value #PARALLEL_PROPERTY} is true, relations over at least
+ * {@link #PARALLEL_THRESHOLD} values are closed by fork-join tasks in the
+ * common pool. Every task marks reached elements in an array of its own,
+ * hence the number of tasks is bounded by the parallelism of the pool.
+ */
+/* package */ final class RelationClosure {
+  static final String PARALLEL_PROPERTY = "org.rascalmpl.value.closure.parallel";
+
+  /** the smallest number of values of a relation which is closed in parallel */
+  static final int PARALLEL_THRESHOLD = 1 << 10;
+
+  private static final boolean PARALLEL = Boolean.getBoolean(PARALLEL_PROPERTY);
+
+  private final IntRelation relation;
+  private final boolean reflexive;
+  /** the largest number of values which a task closes from */
+  private final int grain;
+
+  private RelationClosure(IntRelation relation, boolean reflexive, int grain) {
+    this.relation = relation;
+    this.reflexive = reflexive;
+    this.grain = grain;
+  }
+
+  /**
+   * @return the transitive closure of the non-empty binary relation
+   */
+  static ISet closure(ISet set) {
+    return closure(set, PARALLEL);
+  }
+
+  static ISet closure(ISet set, boolean parallel) {
+    return compute(set, false, parallel);
+  }
+
+  /**
+   * @return the reflexive transitive closure of the non-empty binary relation
+   */
+  static ISet closureStar(ISet set) {
+    return closureStar(set, PARALLEL);
+  }
+
+  static ISet closureStar(ISet set, boolean parallel) {
+    return compute(set, true, parallel);
+  }
+
+  private static ISet compute(ISet set, boolean reflexive, boolean parallel) {
+    ValueDictionary dictionary = new ValueDictionary();
+    IntRelation relation = IntRelation.encode(BinaryRelation.index(set), dictionary);
+    int count = dictionary.size();
+    int tasks = 4 * ForkJoinPool.getCommonPoolParallelism();
+    RelationClosure closure = new RelationClosure(relation, reflexive, Math.max(PARALLEL_THRESHOLD, count / tasks));
+    relation.successors(); // builds the index before it is shared by tasks
+    TrieMultimap<IValue, IValue> result;
+
+    if (parallel && count >= PARALLEL_THRESHOLD) {
+      result = ForkJoinPool.commonPool().invoke(new Part(closure, 0, count));
+    }
+    else {
+      result = closure.close(0, count);
+    }
+
+    return BinaryRelation.of(result, null, null);
+  }
+
+  /**
+   * @return the pairs of the closure of which the number of the first element
+   *         is from start to end
+   */
+  private TrieMultimap<IValue, IValue> close(int start, int end) {
+    ValueDictionary dictionary = relation.dictionary;
+    int[] successors = relation.successors();
+    int[] reachedFrom = new int[dictionary.size()];
+    int[] reached = new int[16];
+    TrieMultimap.Transient<IValue, IValue> result = TrieMultimap.<IValue, IValue>of().asTransient();
+
+    Arrays.fill(reachedFrom, -1);
+
+    for (int source = start; source < end; source++) {
+      int count = 0;
+
+      if (reflexive) {
+        reachedFrom[source] = source;
+        reached[count++] = source;
+      }
+
+      // the delta of a round is reached[done..count)
+      int done = 0;
+      int first = relation.successorStart(source);
+      int last = relation.successorEnd(source);
+
+      while (true) {
+        for (int j = first; j < last; j++) {
+          int target = successors[j];
+
+          if (reachedFrom[target] != source) {
+            reachedFrom[target] = source;
+
+            if (count == reached.length) {
+              reached = Arrays.copyOf(reached, count * 2);
+            }
+            reached[count++] = target;
+          }
+        }
+
+        if (done == count) {
+          break;
+        }
+
+        int next = reached[done++];
+
+        if (reflexive && next == source) {
+          continue;
+        }
+
+        first = relation.successorStart(next);
+        last = relation.successorEnd(next);
+      }
+
+      if (count > 0) {
+        TrieSet.Transient<IValue> values = TrieSet.<IValue>of().asTransient();
+
+        for (int i = 0; i < count; i++) {
+          values.insert(dictionary.decode(reached[i]));
+        }
+
+        result.insertAll(dictionary.decode(source), values.freeze());
+      }
+    }
+
+    return result.freeze();
+  }
+
+  /**
+   * Closes the relation from a range of numbers, splitting it in halves until
+   * it is no larger than the grain. The halves have distinct keys, hence
+   * their results are joined by storing the sets of values of one in the
+   * other.
+   */
+  @SuppressWarnings("serial")
+  private static final class Part extends RecursiveTask<TrieMultimap<IValue, IValue>> {
+    private final RelationClosure closure;
+    private final int start;
+    private final int end;
+
+    Part(RelationClosure closure, int start, int end) {
+      this.closure = closure;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected TrieMultimap<IValue, IValue> compute() {
+      if (end - start <= closure.grain) {
+        return closure.close(start, end);
+      }
+
+      int middle = (start + end) >>> 1;
+      Part right = new Part(closure, middle, end);
+      right.fork();
+      TrieMultimap<IValue, IValue> left = new Part(closure, start, middle).compute();
+      TrieMultimap<IValue, IValue> other = right.join();
+
+      if (left.keyCount() < other.keyCount()) {
+        TrieMultimap<IValue, IValue> swap = left;
+        left = other;
+        other = swap;
+      }
+
+      TrieMultimap.Transient<IValue, IValue> result = left.asTransient();
+      Iterator<Map.Entry<IValue, TrieSet<IValue>>> found = other.entryIterator();
+
+      while (found.hasNext()) {
+        Map.Entry<IValue, TrieSet<IValue>> entry = found.next();
+        result.insertAll(entry.getKey(), entry.getValue());
+      }
+
+      return result.freeze();
+    }
+  }
+}
@@ -0,0 +1,911 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A persistent sequence, implemented as a relaxed radix-balanced tree (RRB
+ * tree). The elements are stored in leaves of at most 32 elements, and every
+ * branch has at most 32 children. In a branch of which all children but the
+ * last are full, the child which holds an index is found from the bits of the
+ * index, as in a radix tree. Other branches, which result from slicing and
+ * concatenation, have a table with the cumulative sizes of their children,
+ * which corrects that guess in a few steps.
+ * <p>
+ * Concatenation descends the right spine of the left tree and the left spine
+ * of the right tree, and only redistributes the children of the nodes on
+ * those spines when they would otherwise cost more than {@link #EXTRA} extra
+ * search steps. Hence concatenation, slicing, and inserting or removing an
+ * element at an index all cost O(log32 n) time and space.
+ * <p>
+ * The first and the last elements are kept outside of the tree, in a prefix
+ * and a suffix array of at most 32 elements. Appending or prepending an
+ * element copies only that array, and touches the tree once every 32
+ * elements.
+ * <p>
+ * A {@link Transient} sequence is used to build a sequence by a sequence of
+ * updates. It fills whole leaves in place, and builds the tree above them
+ * bottom-up when it is frozen.
+ *
+ * @param <E> the type of the elements
+ */
+/* package */ final class RrbTree<E> implements Iterable<E> {
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+  private static final int EXTRA = 2;
+  private static final Object[] NONE = new Object[0];
+
+  @SuppressWarnings("rawtypes")
+  private static final RrbTree EMPTY = new RrbTree<>(NONE, null, NONE);
+
+  private final Object[] prefix;
+  /** a leaf (Object[]), a {@link Branch}, or null if the tree is empty */
+  private final Object root;
+  private final Object[] suffix;
+  private final int height;
+  private final int rootSize;
+  private final int size;
+
+  private RrbTree(Object[] prefix, Object root, Object[] suffix) {
+    this.prefix = prefix;
+    this.root = root;
+    this.suffix = suffix;
+    this.height = root == null ? 0 : heightOf(root);
+    this.rootSize = root == null ? 0 : sizeOf(root);
+    this.size = prefix.length + rootSize + suffix.length;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <E> RrbTree<E> of() {
+    return EMPTY;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  E get(int index) {
+    checkIndex(index, size);
+
+    if (index < prefix.length) {
+      return (E) prefix[index];
+    }
+
+    index -= prefix.length;
+
+    if (index < rootSize) {
+      return (E) lookup(root, height, index);
+    }
+
+    return (E) suffix[index - rootSize];
+  }
+
+  /**
+   * @return a sequence in which the element at the index is replaced
+   */
+  RrbTree<E> set(int index, E element) {
+    checkIndex(index, size);
+
+    if (index < prefix.length) {
+      return new RrbTree<>(replace(prefix, index, element), root, suffix);
+    }
+
+    index -= prefix.length;
+
+    if (index < rootSize) {
+      return new RrbTree<>(prefix, update(root, height, index, element), suffix);
+    }
+
+    return new RrbTree<>(prefix, root, replace(suffix, index - rootSize, element));
+  }
+
+  RrbTree<E> append(E element) {
+    if (suffix.length < WIDTH) {
+      Object[] newSuffix = Arrays.copyOf(suffix, suffix.length + 1);
+      newSuffix[suffix.length] = element;
+      return new RrbTree<>(prefix, root, newSuffix);
+    }
+
+    return new RrbTree<>(prefix, join(root, suffix), new Object[] { element });
+  }
+
+  RrbTree<E> prepend(E element) {
+    if (prefix.length < WIDTH) {
+      Object[] newPrefix = new Object[prefix.length + 1];
+      newPrefix[0] = element;
+      System.arraycopy(prefix, 0, newPrefix, 1, prefix.length);
+      return new RrbTree<>(newPrefix, root, suffix);
+    }
+
+    return new RrbTree<>(new Object[] { element }, join(prefix, root), suffix);
+  }
+
+  RrbTree<E> concat(RrbTree<E> other) {
+    if (other.size == 0) {
+      return this;
+    }
+
+    if (size == 0) {
+      return other;
+    }
+
+    Object middle = join(join(join(root, suffix), other.prefix), other.root);
+    return new RrbTree<>(prefix, middle, other.suffix);
+  }
+
+  /**
+   * @return the elements from index from (inclusive) to index to (exclusive)
+   */
+  RrbTree<E> slice(int from, int to) {
+    if (from < 0 || to > size || from > to) {
+      throw new IndexOutOfBoundsException("Slice [" + from + "," + to + ") of " + size + " elements");
+    }
+
+    if (from == 0 && to == size) {
+      return this;
+    }
+
+    if (from == to) {
+      return of();
+    }
+
+    int rootStart = prefix.length;
+    int rootEnd = rootStart + rootSize;
+
+    Object[] newPrefix = slice(prefix, from, to);
+    Object[] newSuffix = slice(suffix, from - rootEnd, to - rootEnd);
+    Object newRoot = null;
+    int rootFrom = Math.max(from - rootStart, 0);
+    int rootTo = Math.min(to - rootStart, rootSize);
+
+    if (rootFrom < rootTo) {
+      newRoot = dropFirst(root, height, rootFrom);
+      newRoot = collapse(takeFirst(newRoot, height, rootTo - rootFrom));
+    }
+
+    return new RrbTree<>(newPrefix, newRoot, newSuffix);
+  }
+
+  RrbTree<E> insert(int index, E element) {
+    if (index == 0) {
+      return prepend(element);
+    }
+
+    if (index == size) {
+      return append(element);
+    }
+
+    return slice(0, index).append(element).concat(slice(index, size));
+  }
+
+  RrbTree<E> remove(int index) {
+    checkIndex(index, size);
+    return slice(0, index).concat(slice(index + 1, size));
+  }
+
+  /**
+   * @return a transient sequence, owned by the current thread, which initially
+   *         contains the elements of this sequence
+   */
+  Transient<E> asTransient() {
+    return new Transient<>(this);
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    return new RrbIterator<>(this);
+  }
+
+  private static void checkIndex(int index, int size) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+  }
+
+  private static Object[] replace(Object[] elements, int index, Object element) {
+    Object[] copy = elements.clone();
+    copy[index] = element;
+    return copy;
+  }
+
+  /**
+   * @return the elements of the array between from and to, clipped to its bounds
+   */
+  private static Object[] slice(Object[] elements, int from, int to) {
+    from = Math.max(from, 0);
+    to = Math.min(to, elements.length);
+
+    if (from >= to) {
+      return NONE;
+    }
+
+    return from == 0 && to == elements.length ? elements : Arrays.copyOfRange(elements, from, to);
+  }
+
+  /*
+   * The tree itself. Leaves are Object[] arrays and branches are Branch
+   * objects; all leaves are at the same depth, hence the height of a tree is
+   * the number of branches on the path to its first leaf.
+   */
+
+  private static final class Branch {
+    final Object[] children;
+    /** the cumulative sizes of the children, or null if all children but the last are full */
+    final int[] sizes;
+    final int size;
+
+    Branch(Object[] children, int[] sizes, int size) {
+      this.children = children;
+      this.sizes = sizes;
+      this.size = size;
+    }
+  }
+
+  private static int sizeOf(Object node) {
+    return node instanceof Branch ? ((Branch) node).size : ((Object[]) node).length;
+  }
+
+  private static int heightOf(Object node) {
+    int height = 0;
+
+    while (node instanceof Branch) {
+      node = ((Branch) node).children[0];
+      height++;
+    }
+
+    return height;
+  }
+
+  /**
+   * @return the children of a branch, or the elements of a leaf
+   */
+  private static Object[] slotsOf(Object node, int height) {
+    return height == 0 ? (Object[]) node : ((Branch) node).children;
+  }
+
+  /**
+   * @return a branch with the given children, which are at the given height
+   */
+  private static Branch branch(Object[] children, int childHeight) {
+    int shift = BITS * (childHeight + 1);
+    int capacity = shift < Integer.SIZE - 1 ? 1 << shift : -1;
+    int[] sizes = new int[children.length];
+    boolean dense = true;
+    int total = 0;
+
+    for (int i = 0; i < children.length; i++) {
+      int size = sizeOf(children[i]);
+      dense &= i == children.length - 1 || size == capacity;
+      total += size;
+      sizes[i] = total;
+    }
+
+    return new Branch(children, dense ? null : sizes, total);
+  }
+
+  /**
+   * @return the position of the child of the branch which contains the index
+   */
+  private static int childIndex(Branch branch, int height, int index) {
+    int shift = BITS * height;
+
+    if (branch.sizes == null) {
+      return index >>> shift;
+    }
+
+    // a child holds at most WIDTH^height elements, so this guess is never too large
+    int child = shift < Integer.SIZE ? index >>> shift : 0;
+
+    while (branch.sizes[child] <= index) {
+      child++;
+    }
+
+    return child;
+  }
+
+  /**
+   * @return the index of the first element of the child in the branch
+   */
+  private static int offsetOf(Branch branch, int height, int child) {
+    if (branch.sizes == null) {
+      return child << (BITS * height);
+    }
+
+    return child == 0 ? 0 : branch.sizes[child - 1];
+  }
+
+  private static Object lookup(Object node, int height, int index) {
+    while (height > 0) {
+      Branch branch = (Branch) node;
+      int child = childIndex(branch, height, index);
+
+      index -= offsetOf(branch, height, child);
+      node = branch.children[child];
+      height--;
+    }
+
+    return ((Object[]) node)[index];
+  }
+
+  private static Object update(Object node, int height, int index, Object element) {
+    if (height == 0) {
+      return replace((Object[]) node, index, element);
+    }
+
+    Branch branch = (Branch) node;
+    int child = childIndex(branch, height, index);
+    Object[] children = branch.children.clone();
+    children[child] = update(children[child], height - 1, index - offsetOf(branch, height, child), element);
+    return new Branch(children, branch.sizes, branch.size);
+  }
+
+  /**
+   * @return the node without its first count elements, where count is less
+   *         than the size of the node
+   */
+  private static Object dropFirst(Object node, int height, int count) {
+    if (count == 0) {
+      return node;
+    }
+
+    if (height == 0) {
+      Object[] leaf = (Object[]) node;
+      return Arrays.copyOfRange(leaf, count, leaf.length);
+    }
+
+    Branch branch = (Branch) node;
+    int child = childIndex(branch, height, count);
+    Object[] children = Arrays.copyOfRange(branch.children, child, branch.children.length);
+    children[0] = dropFirst(children[0], height - 1, count - offsetOf(branch, height, child));
+    return branch(children, height - 1);
+  }
+
+  /**
+   * @return the first count elements of the node, where count is positive
+   */
+  private static Object takeFirst(Object node, int height, int count) {
+    if (count == sizeOf(node)) {
+      return node;
+    }
+
+    if (height == 0) {
+      return Arrays.copyOf((Object[]) node, count);
+    }
+
+    Branch branch = (Branch) node;
+    int child = childIndex(branch, height, count - 1);
+    Object[] children = Arrays.copyOf(branch.children, child + 1);
+    children[child] = takeFirst(children[child], height - 1, count - offsetOf(branch, height, child));
+    return branch(children, height - 1);
+  }
+
+  /**
+   * @return the node, without the branches with a single child above it
+   */
+  private static Object collapse(Object node) {
+    while (node instanceof Branch && ((Branch) node).children.length == 1) {
+      node = ((Branch) node).children[0];
+    }
+
+    return node;
+  }
+
+  /**
+   * @param left  a tree, a leaf, or null
+   * @param right a tree, a leaf, or null
+   * @return a tree with the elements of left followed by those of right
+   */
+  private static Object join(Object left, Object right) {
+    if (left == null || left == NONE) {
+      return right == NONE ? null : right;
+    }
+
+    if (right == null || right == NONE) {
+      return left;
+    }
+
+    return collapse(concat(left, heightOf(left), right, heightOf(right)));
+  }
+
+  /**
+   * @return a branch one level above the highest of the two trees, which has
+   *         one or two children
+   */
+  private static Branch concat(Object left, int leftHeight, Object right, int rightHeight) {
+    if (leftHeight > rightHeight) {
+      Branch l = (Branch) left;
+      Branch middle = concat(l.children[l.children.length - 1], leftHeight - 1, right, rightHeight);
+      return rebalance(l, middle, null, leftHeight);
+    }
+
+    if (leftHeight < rightHeight) {
+      Branch r = (Branch) right;
+      Branch middle = concat(left, leftHeight, r.children[0], rightHeight - 1);
+      return rebalance(null, middle, r, rightHeight);
+    }
+
+    if (leftHeight == 0) {
+      Object[] l = (Object[]) left;
+      Object[] r = (Object[]) right;
+
+      if (l.length + r.length <= WIDTH) {
+        Object[] merged = Arrays.copyOf(l, l.length + r.length);
+        System.arraycopy(r, 0, merged, l.length, r.length);
+        return branch(new Object[] { merged }, 0);
+      }
+
+      return branch(new Object[] { l, r }, 0);
+    }
+
+    Branch l = (Branch) left;
+    Branch r = (Branch) right;
+    Branch middle = concat(l.children[l.children.length - 1], leftHeight - 1, r.children[0], rightHeight - 1);
+    return rebalance(l, middle, r, leftHeight);
+  }
+
+  /**
+   * Merges the children of left but its last, the children of middle, and
+   * the children of right but its first, which all are at height - 1.
+   *
+   * @return a branch at height + 1, with one or two children
+   */
+  private static Branch rebalance(Branch left, Branch middle, Branch right, int height) {
+    int leftCount = left == null ? 0 : left.children.length - 1;
+    int middleCount = middle.children.length;
+    int rightCount = right == null ? 0 : right.children.length - 1;
+    Object[] all = new Object[leftCount + middleCount + rightCount];
+
+    if (left != null) {
+      System.arraycopy(left.children, 0, all, 0, leftCount);
+    }
+    System.arraycopy(middle.children, 0, all, leftCount, middleCount);
+    if (right != null) {
+      System.arraycopy(right.children, 1, all, leftCount + middleCount, rightCount);
+    }
+
+    Object[] nodes = redistribute(all, height - 1);
+
+    if (nodes.length <= WIDTH) {
+      return branch(new Object[] { branch(nodes, height - 1) }, height);
+    }
+
+    return branch(new Object[] {
+        branch(Arrays.copyOf(nodes, WIDTH), height - 1),
+        branch(Arrays.copyOfRange(nodes, WIDTH, nodes.length), height - 1) }, height);
+  }
+
+  /**
+   * Moves the slots (elements or children) of the nodes to the left, until
+   * they fit in at most EXTRA nodes more than the minimum.
+   */
+  private static Object[] redistribute(Object[] nodes, int height) {
+    int[] plan = new int[nodes.length];
+    int total = 0;
+
+    for (int i = 0; i < nodes.length; i++) {
+      plan[i] = slotsOf(nodes[i], height).length;
+      total += plan[i];
+    }
+
+    int optimal = (total + WIDTH - 1) / WIDTH;
+    int length = nodes.length;
+
+    if (length <= optimal + EXTRA) {
+      return nodes;
+    }
+
+    int i = 0;
+    while (length > optimal + EXTRA) {
+      // skip the nodes which are (nearly) full
+      while (plan[i] > WIDTH - EXTRA / 2) {
+        i++;
+      }
+
+      // spread the slots of this node over the nodes to its right
+      int remaining = plan[i];
+      while (remaining > 0) {
+        int filled = Math.min(remaining + plan[i + 1], WIDTH);
+        remaining = remaining + plan[i + 1] - filled;
+        plan[i] = filled;
+        i++;
+      }
+
+      System.arraycopy(plan, i + 1, plan, i, length - i - 1);
+      length--;
+      i--;
+    }
+
+    Object[] result = new Object[length];
+    int source = 0;
+    int offset = 0;
+
+    for (int n = 0; n < length; n++) {
+      Object[] slots = slotsOf(nodes[source], height);
+
+      if (offset == 0 && slots.length == plan[n]) {
+        result[n] = nodes[source++];
+        continue;
+      }
+
+      Object[] newSlots = new Object[plan[n]];
+      int filled = 0;
+
+      while (filled < newSlots.length) {
+        slots = slotsOf(nodes[source], height);
+        int count = Math.min(newSlots.length - filled, slots.length - offset);
+        System.arraycopy(slots, offset, newSlots, filled, count);
+        filled += count;
+        offset += count;
+
+        if (offset == slots.length) {
+          source++;
+          offset = 0;
+        }
+      }
+
+      result[n] = height == 0 ? newSlots : branch(newSlots, height - 1);
+    }
+
+    return result;
+  }
+
+  /**
+   * @return a dense tree with the given leaves, or null if there are none
+   */
+  private static Object build(ArrayList<Object[]> leaves) {
+    if (leaves.isEmpty()) {
+      return null;
+    }
+
+    Object[] level = leaves.toArray();
+    int height = 0;
+
+    while (level.length > 1) {
+      Object[] parents = new Object[(level.length + MASK) >>> BITS];
+
+      for (int i = 0; i < parents.length; i++) {
+        int from = i << BITS;
+        parents[i] = branch(Arrays.copyOfRange(level, from, Math.min(from + WIDTH, level.length)), height);
+      }
+
+      level = parents;
+      height++;
+    }
+
+    return level[0];
+  }
+
+  /**
+   * A sequence which is updated in place, until it is frozen into a
+   * persistent sequence. It may only be used by the thread which created it.
+   * <p>
+   * Appended elements are collected in whole leaves behind the tree, and
+   * prepended elements in whole leaves in front of it, which are only turned
+   * into a tree when the sequence is frozen or an element is inserted
+   * elsewhere.
+   */
+  static final class Transient<E> {
+    private final AtomicReference<Thread> owner = new AtomicReference<>(Thread.currentThread());
+    private RrbTree<E> tree;
+    /** full leaves in front of the tree, the one closest to the tree first */
+    private final ArrayList<Object[]> front = new ArrayList<>();
+    /** the first elements, in the last frontCount slots */
+    private Object[] frontLeaf = new Object[WIDTH];
+    private int frontCount;
+    /** full leaves behind the tree */
+    private final ArrayList<Object[]> back = new ArrayList<>();
+    /** the last elements, in the first backCount slots */
+    private Object[] backLeaf = new Object[WIDTH];
+    private int backCount;
+    private int size;
+
+    private Transient(RrbTree<E> tree) {
+      this.tree = tree;
+      this.size = tree.size;
+    }
+
+    private void checkOwner() {
+      Thread thread = owner.get();
+
+      if (thread != Thread.currentThread()) {
+        throw new IllegalStateException(thread == null ? "Transient sequence was already frozen"
+            : "Transient sequence is owned by another thread");
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    private int frontSize() {
+      return frontCount + (front.size() << BITS);
+    }
+
+    @SuppressWarnings("unchecked")
+    E get(int index) {
+      checkOwner();
+      checkIndex(index, size);
+      int frontSize = frontSize();
+
+      if (index < frontSize) {
+        if (index < frontCount) {
+          return (E) frontLeaf[WIDTH - frontCount + index];
+        }
+
+        index -= frontCount;
+        return (E) front.get(front.size() - 1 - (index >>> BITS))[index & MASK];
+      }
+
+      index -= frontSize;
+
+      if (index < tree.size) {
+        return tree.get(index);
+      }
+
+      index -= tree.size;
+
+      if (index < back.size() << BITS) {
+        return (E) back.get(index >>> BITS)[index & MASK];
+      }
+
+      return (E) backLeaf[index - (back.size() << BITS)];
+    }
+
+    /**
+     * @return the element which was replaced
+     */
+    E set(int index, E element) {
+      E old = get(index);
+      int frontSize = frontSize();
+
+      if (index < frontSize) {
+        if (index < frontCount) {
+          frontLeaf[WIDTH - frontCount + index] = element;
+        }
+        else {
+          index -= frontCount;
+          front.get(front.size() - 1 - (index >>> BITS))[index & MASK] = element;
+        }
+        return old;
+      }
+
+      index -= frontSize;
+
+      if (index < tree.size) {
+        tree = tree.set(index, element);
+        return old;
+      }
+
+      index -= tree.size;
+
+      if (index < back.size() << BITS) {
+        back.get(index >>> BITS)[index & MASK] = element;
+      }
+      else {
+        backLeaf[index - (back.size() << BITS)] = element;
+      }
+
+      return old;
+    }
+
+    void append(E element) {
+      checkOwner();
+
+      if (backCount == WIDTH) {
+        back.add(backLeaf);
+        backLeaf = new Object[WIDTH];
+        backCount = 0;
+      }
+
+      backLeaf[backCount++] = element;
+      size++;
+    }
+
+    void prepend(E element) {
+      checkOwner();
+
+      if (frontCount == WIDTH) {
+        front.add(frontLeaf);
+        frontLeaf = new Object[WIDTH];
+        frontCount = 0;
+      }
+
+      frontLeaf[WIDTH - ++frontCount] = element;
+      size++;
+    }
+
+    /**
+     * Inserts the elements from start to start + length of the array at the
+     * index, in O(log n + length) time.
+     */
+    void insert(int index, E[] elements, int start, int length) {
+      checkOwner();
+
+      if (index < 0 || index > size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+      }
+
+      if (index == size) {
+        for (int i = start; i < start + length; i++) {
+          append(elements[i]);
+        }
+        return;
+      }
+
+      if (index == 0) {
+        for (int i = start + length - 1; i >= start; i--) {
+          prepend(elements[i]);
+        }
+        return;
+      }
+
+      flush();
+      Transient<E> inserted = new Transient<>(RrbTree.<E>of());
+      for (int i = start; i < start + length; i++) {
+        inserted.append(elements[i]);
+      }
+
+      tree = tree.slice(0, index).concat(inserted.freeze()).concat(tree.slice(index, tree.size));
+      size = tree.size;
+    }
+
+    /**
+     * Moves the collected leaves into the tree.
+     */
+    private void flush() {
+      if (frontCount > 0) {
+        front.add(Arrays.copyOfRange(frontLeaf, WIDTH - frontCount, WIDTH));
+        frontLeaf = new Object[WIDTH];
+        frontCount = 0;
+      }
+
+      if (backCount > 0) {
+        back.add(Arrays.copyOf(backLeaf, backCount));
+        backLeaf = new Object[WIDTH];
+        backCount = 0;
+      }
+
+      if (front.isEmpty() && back.isEmpty()) {
+        return;
+      }
+
+      ArrayList<Object[]> frontLeaves = new ArrayList<>(front.size());
+      for (int i = front.size() - 1; i >= 0; i--) {
+        frontLeaves.add(front.get(i));
+      }
+
+      Object middle = join(join(join(build(frontLeaves), tree.prefix), tree.root), tree.suffix);
+      tree = new RrbTree<>(NONE, join(middle, build(back)), NONE);
+      front.clear();
+      back.clear();
+    }
+
+    /**
+     * @return a persistent sequence with the elements of this sequence, which
+     *         can no longer be changed
+     */
+    RrbTree<E> freeze() {
+      checkOwner();
+
+      if (size <= WIDTH && tree.size == 0 && front.isEmpty() && back.isEmpty()) {
+        // small sequences are kept in the suffix only
+        Object[] elements = new Object[size];
+        System.arraycopy(frontLeaf, WIDTH - frontCount, elements, 0, frontCount);
+        System.arraycopy(backLeaf, 0, elements, frontCount, backCount);
+        owner.set(null);
+        return size == 0 ? of() : new RrbTree<>(NONE, null, elements);
+      }
+
+      flush();
+      owner.set(null);
+      return tree;
+    }
+  }
+
+  private static final class RrbIterator<E> implements Iterator<E> {
+    private final Object[] suffix;
+    private final Branch[] branches;
+    private final int[] positions;
+    private int depth;
+    /** the root, if it is a leaf which was not visited yet */
+    private Object[] rootLeaf;
+    private Object[] leaf;
+    private int index;
+    private boolean inSuffix;
+
+    RrbIterator(RrbTree<E> tree) {
+      int height = tree.height;
+
+      this.suffix = tree.suffix;
+      this.branches = new Branch[height];
+      this.positions = new int[height];
+      this.leaf = tree.prefix;
+
+      if (height > 0) {
+        branches[0] = (Branch) tree.root;
+        depth = 1;
+      }
+      else {
+        rootLeaf = (Object[]) tree.root;
+      }
+    }
+
+    private Object[] nextTreeLeaf() {
+      if (rootLeaf != null) {
+        Object[] result = rootLeaf;
+        rootLeaf = null;
+        return result;
+      }
+
+      while (depth > 0) {
+        Branch branch = branches[depth - 1];
+        int position = positions[depth - 1];
+
+        if (position == branch.children.length) {
+          depth--;
+          continue;
+        }
+
+        positions[depth - 1]++;
+        Object child = branch.children[position];
+
+        if (child instanceof Branch) {
+          branches[depth] = (Branch) child;
+          positions[depth] = 0;
+          depth++;
+        }
+        else {
+          return (Object[]) child;
+        }
+      }
+
+      return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (index == leaf.length) {
+        if (inSuffix) {
+          return false;
+        }
+
+        Object[] next = nextTreeLeaf();
+        inSuffix = next == null;
+        leaf = inSuffix ? suffix : next;
+        index = 0;
+      }
+
+      return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      return (E) leaf[index++];
+    }
+  }
+}
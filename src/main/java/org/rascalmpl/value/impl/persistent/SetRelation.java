@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import org.rascalmpl.value.ISet;
+import org.rascalmpl.value.ISetRelation;
+import org.rascalmpl.value.ITuple;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.exceptions.IllegalOperationException;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.type.TypeFactory;
+
+/**
+ * The relational operations on a set of tuples. Compose is a join on the
+ * indexes of the relations by their first elements, which a
+ * {@link BinaryRelation} already has, after their values are numbered by a
+ * {@link ValueDictionary}; the domain, range and projections of a binary
+ * relation are taken from its indexes. The closures are computed by
+ * {@link RelationClosure}.
+ */
+/* package */ final class SetRelation implements ISetRelation<ISet> {
+  private static final TypeFactory TF = TypeFactory.getInstance();
+
+  private final ISet set;
+
+  SetRelation(ISet set) {
+    this.set = set;
+  }
+
+  @Override
+  public ISet asSet() {
+    return set;
+  }
+
+  @Override
+  public int arity() {
+    return set.getElementType().getArity();
+  }
+
+  @Override
+  public ISet compose(ISetRelation<ISet> other) {
+    ISet right = other.asSet();
+
+    if (set.isEmpty() || right.isEmpty()) {
+      return PersistentSet.EMPTY;
+    }
+
+    if (arity() != 2 || other.arity() != 2) {
+      throw new IllegalOperationException("compose", set.getType(), right.getType());
+    }
+
+    ValueDictionary dictionary = new ValueDictionary();
+    IntRelation left = IntRelation.encode(BinaryRelation.index(set), dictionary);
+    IntRelation index = IntRelation.encode(BinaryRelation.index(right), dictionary);
+
+    return BinaryRelation.of(left.composeDistinct(index), null, null);
+  }
+
+  @Override
+  public ISet closure() {
+    if (set.isEmpty()) {
+      return set;
+    }
+
+    if (arity() != 2) {
+      throw new IllegalOperationException("closure", set.getType());
+    }
+
+    return RelationClosure.closure(set);
+  }
+
+  @Override
+  public ISet closureStar() {
+    if (set.isEmpty()) {
+      return set;
+    }
+
+    if (arity() != 2) {
+      throw new IllegalOperationException("closureStar", set.getType());
+    }
+
+    return RelationClosure.closureStar(set);
+  }
+
+  @Override
+  public ISet project(int... fields) {
+    if (set instanceof BinaryRelation) {
+      if (fields.length == 1 && (fields[0] == 0 || fields[0] == 1)) {
+        return fields[0] == 0 ? domain() : range();
+      }
+
+      if (fields.length == 2 && fields[0] == 1 && fields[1] == 0) {
+        return ((BinaryRelation) set).invert();
+      }
+    }
+
+    TrieSet.Transient<IValue> result = TrieSet.<IValue>of().asTransient();
+    Type resultType = TF.voidType();
+
+    for (IValue elem : set) {
+      IValue selected = ((ITuple) elem).select(fields);
+
+      if (result.insert(selected)) {
+        resultType = resultType.lub(selected.getType());
+      }
+    }
+
+    return result.isEmpty() ? PersistentSet.EMPTY : PersistentSet.of(result.freeze(), resultType);
+  }
+
+  @Override
+  @Deprecated
+  public ISet projectByFieldNames(String... fields) {
+    Type tupleType = set.getElementType();
+    int[] indexes = new int[fields.length];
+
+    for (int i = 0; i < fields.length; i++) {
+      indexes[i] = tupleType.getFieldIndex(fields[i]);
+    }
+
+    return project(indexes);
+  }
+
+  @Override
+  public ISet carrier() {
+    if (set instanceof BinaryRelation) {
+      return domain().union(range());
+    }
+
+    TrieSet.Transient<IValue> result = TrieSet.<IValue>of().asTransient();
+    Type resultType = TF.voidType();
+
+    for (IValue elem : set) {
+      for (IValue field : (ITuple) elem) {
+        if (result.insert(field)) {
+          resultType = resultType.lub(field.getType());
+        }
+      }
+    }
+
+    return result.isEmpty() ? PersistentSet.EMPTY : PersistentSet.of(result.freeze(), resultType);
+  }
+
+  @Override
+  public ISet domain() {
+    if (set instanceof BinaryRelation) {
+      return ((BinaryRelation) set).domain();
+    }
+
+    return set.isEmpty() ? PersistentSet.EMPTY : project(0);
+  }
+
+  @Override
+  public ISet range() {
+    if (set instanceof BinaryRelation) {
+      return ((BinaryRelation) set).range();
+    }
+
+    return set.isEmpty() ? PersistentSet.EMPTY : project(arity() - 1);
+  }
+}
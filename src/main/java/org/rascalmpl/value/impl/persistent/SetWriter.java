@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import org.rascalmpl.value.ISet;
+import org.rascalmpl.value.ISetWriter;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.exceptions.FactTypeUseException;
+import org.rascalmpl.value.exceptions.UnexpectedElementTypeException;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.type.TypeFactory;
+
+/**
+ * Collects the elements of a {@link PersistentSet} in a transient set, which
+ * is updated in place until {@link #done()} freezes it. Like the transient
+ * set, the writer may only be used by the thread which created it.
+ * <p>
+ * As long as all elements are binary tuples, they are collected in a
+ * transient multimap instead, for a {@link BinaryRelation}.
+ */
+/* package */ final class SetWriter implements ISetWriter {
+  private static final TypeFactory TF = TypeFactory.getInstance();
+
+  private final Type declaredType;
+  private TrieMultimap.Transient<IValue, IValue> pairs = TrieMultimap.<IValue, IValue>of().asTransient();
+  private TrieSet.Transient<IValue> content;
+  private Type elementType = TF.voidType();
+  private ISet constructed;
+
+  /**
+   * @param declaredType the type every element must be a sub-type of, or null
+   */
+  SetWriter(Type declaredType) {
+    this.declaredType = declaredType;
+  }
+
+  private void put(IValue elem) {
+    Type type = elem.getType();
+
+    if (declaredType != null && !type.isSubtypeOf(declaredType)) {
+      throw new UnexpectedElementTypeException(declaredType, type);
+    }
+
+    if (pairs != null) {
+      if (BinaryRelation.isPair(elem)) {
+        if (pairs.insert(((Tuple) elem).get(0), ((Tuple) elem).get(1))) {
+          elementType = elementType.lub(type);
+        }
+        return;
+      }
+
+      content = TrieSet.<IValue>of().asTransient();
+      for (IValue pair : BinaryRelation.of(pairs.freeze(), null, null)) {
+        content.insert(pair);
+      }
+      pairs = null;
+    }
+
+    if (content.insert(elem)) {
+      elementType = elementType.lub(type);
+    }
+  }
+
+  private void checkMutation() {
+    if (constructed != null) {
+      throw new UnsupportedOperationException("Mutation of a finalized set is not supported.");
+    }
+  }
+
+  @Override
+  public void insert(IValue... values) throws FactTypeUseException {
+    checkMutation();
+
+    for (IValue value : values) {
+      put(value);
+    }
+  }
+
+  @Override
+  public void insertAll(Iterable<? extends IValue> collection) throws FactTypeUseException {
+    checkMutation();
+
+    for (IValue value : collection) {
+      put(value);
+    }
+  }
+
+  @Override
+  public ISet done() {
+    if (constructed == null) {
+      if (pairs != null ? pairs.isEmpty() : content.isEmpty()) {
+        constructed = declaredType != null ? PersistentSet.empty(declaredType) : PersistentSet.EMPTY;
+      }
+      else if (pairs != null) {
+        constructed = BinaryRelation.of(pairs.freeze(), elementType.getFieldType(0), elementType.getFieldType(1));
+      }
+      else {
+        constructed = PersistentSet.of(content.freeze(), elementType);
+      }
+    }
+
+    return constructed;
+  }
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.math.BigInteger;
+
+import org.rascalmpl.value.IInteger;
+
+/**
+ * An integer which fits in a long. Arithmetic on two small integers is done
+ * on longs, and only falls back to big integers when the result overflows.
+ */
+/* package */ final class SmallInteger extends IntegerValue {
+  private final long value;
+
+  SmallInteger(ValueFactory vf, long value) {
+    super(vf);
+    this.value = value;
+  }
+
+  @Override
+  BigInteger bigIntegerValue() {
+    return BigInteger.valueOf(value);
+  }
+
+  @Override
+  IInteger adapted() {
+    return vf.adapted().integer(value);
+  }
+
+  @Override
+  public IInteger add(IInteger other) {
+    if (other instanceof SmallInteger) {
+      long y = ((SmallInteger) other).value;
+      long r = value + y;
+
+      // overflow iff both arguments have a sign different from the result
+      if (((value ^ r) & (y ^ r)) >= 0) {
+        return vf.integer(r);
+      }
+    }
+
+    return super.add(other);
+  }
+
+  @Override
+  public IInteger subtract(IInteger other) {
+    if (other instanceof SmallInteger) {
+      long y = ((SmallInteger) other).value;
+      long r = value - y;
+
+      // overflow iff the arguments differ in sign and the result has the sign of y
+      if (((value ^ y) & (value ^ r)) >= 0) {
+        return vf.integer(r);
+      }
+    }
+
+    return super.subtract(other);
+  }
+
+  @Override
+  public IInteger multiply(IInteger other) {
+    if (other instanceof SmallInteger) {
+      long y = ((SmallInteger) other).value;
+      long r = value * y;
+
+      // as Math.multiplyExact: factors of at most 31 bits cannot overflow
+      if (((Math.abs(value) | Math.abs(y)) >>> 31 == 0)
+          || ((y == 0 || r / y == value) && !(value == Long.MIN_VALUE && y == -1))) {
+        return vf.integer(r);
+      }
+    }
+
+    return super.multiply(other);
+  }
+
+  @Override
+  public IInteger divide(IInteger other) {
+    if (other instanceof SmallInteger) {
+      long y = ((SmallInteger) other).value;
+
+      if (!(value == Long.MIN_VALUE && y == -1)) {
+        return vf.integer(value / y);
+      }
+    }
+
+    return super.divide(other);
+  }
+
+  @Override
+  public IInteger remainder(IInteger other) {
+    if (other instanceof SmallInteger) {
+      return vf.integer(value % ((SmallInteger) other).value);
+    }
+
+    return super.remainder(other);
+  }
+
+  @Override
+  public IInteger mod(IInteger other) {
+    if (other instanceof SmallInteger) {
+      long y = ((SmallInteger) other).value;
+
+      if (y <= 0) {
+        throw new ArithmeticException("BigInteger: modulus not positive");
+      }
+
+      return vf.integer(Math.floorMod(value, y));
+    }
+
+    return super.mod(other);
+  }
+
+  @Override
+  public IInteger negate() {
+    return value == Long.MIN_VALUE ? super.negate() : vf.integer(-value);
+  }
+
+  @Override
+  public int compare(IInteger other) {
+    if (other instanceof SmallInteger) {
+      return Long.compare(value, ((SmallInteger) other).value);
+    }
+
+    return super.compare(other);
+  }
+
+  @Override
+  public int signum() {
+    return Long.signum(value);
+  }
+
+  @Override
+  public String getStringRepresentation() {
+    return Long.toString(value);
+  }
+
+  @Override
+  public int intValue() {
+    return (int) value;
+  }
+
+  @Override
+  public long longValue() {
+    return value;
+  }
+
+  @Override
+  public double doubleValue() {
+    return value;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(value);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof SmallInteger && ((SmallInteger) o).value == value;
+  }
+}
@@ -0,0 +1,452 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.ArrayDeque;
+
+import org.rascalmpl.value.IString;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.impl.AbstractValue;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.type.TypeFactory;
+import org.rascalmpl.value.visitors.IValueVisitor;
+
+/**
+ * A string which is a rope: a {@link FlatString} or the concatenation of two
+ * ropes in a {@link ConcatString}. The concatenations are kept balanced as an
+ * AVL tree, hence concatenation, substrings and indexing cost O(log n) time.
+ * <p>
+ * Concatenations of at most {@link #FLAT_LENGTH} characters are copied into a
+ * single flat string, and so is a short string which is appended to a rope
+ * that ends in a short flat string. Hence a rope built from many small
+ * fragments has leaves of about that size rather than a node per fragment.
+ * <p>
+ * Indexes are in Unicode code points; the hash code is that of
+ * {@link String}, which is combined from the hash codes of the parts.
+ */
+/* package */ abstract class StringValue extends AbstractValue implements IString {
+  private static final Type STRING_TYPE = TypeFactory.getInstance().stringType();
+
+  /** the maximum number of UTF-16 characters of a concatenation which is flattened */
+  static final int FLAT_LENGTH = 64;
+
+  /**
+   * @return the number of UTF-16 characters of the string
+   */
+  abstract int charLength();
+
+  /**
+   * @return 0 for a flat string, or 1 + the height of the highest part
+   */
+  abstract int height();
+
+  abstract void appendTo(StringBuilder b);
+
+  /**
+   * @return the code point at the index, which is within bounds
+   */
+  abstract int codePointAt(int index);
+
+  /**
+   * @return the code points from start to end, which are within bounds
+   */
+  abstract StringValue slice(int start, int end);
+
+  @Override
+  public abstract StringValue reverse();
+
+  private static StringValue valueOf(IString string) {
+    return string instanceof StringValue ? (StringValue) string : FlatString.of(string.getValue());
+  }
+
+  @Override
+  public Type getType() {
+    return STRING_TYPE;
+  }
+
+  @Override
+  public <T, E extends Throwable> T accept(IValueVisitor<T, E> v) throws E {
+    return v.visitString(this);
+  }
+
+  @Override
+  public String getValue() {
+    StringBuilder b = new StringBuilder(charLength());
+    appendTo(b);
+    return b.toString();
+  }
+
+  @Override
+  public IString concat(IString other) {
+    return concat(this, valueOf(other));
+  }
+
+  @Override
+  public IString substring(int start) {
+    return substring(start, length());
+  }
+
+  @Override
+  public IString substring(int start, int end) {
+    if (start < 0 || end > length() || start > end) {
+      throw new IndexOutOfBoundsException("Substring [" + start + "," + end + ") of " + length() + " characters");
+    }
+
+    return slice(start, end);
+  }
+
+  @Override
+  public int charAt(int index) {
+    if (index < 0 || index >= length()) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length());
+    }
+
+    return codePointAt(index);
+  }
+
+  @Override
+  public IString replace(int first, int second, int end, IString repl) {
+    int increment = Math.abs(second - first);
+
+    if (first < end && increment == 1 && repl.length() >= end - first) {
+      return concat(concat(slice(0, first), valueOf(repl)), slice(end, length()));
+    }
+
+    StringBuilder b = new StringBuilder(charLength());
+    int replLength = repl.length();
+
+    if (first < end) {
+      int index = 0;
+
+      while (index < first) {
+        b.appendCodePoint(codePointAt(index++));
+      }
+
+      int replIndex = 0;
+      boolean wrapped = false;
+
+      while (index < end) {
+        b.appendCodePoint(repl.charAt(replIndex++));
+        if (replIndex == replLength) {
+          replIndex = 0;
+          wrapped = true;
+        }
+        index++; // skip the replaced character
+
+        for (int q = 1; q < increment && index < end; q++) {
+          b.appendCodePoint(codePointAt(index++));
+        }
+      }
+
+      if (!wrapped) {
+        while (replIndex < replLength) {
+          b.appendCodePoint(repl.charAt(replIndex++));
+        }
+      }
+
+      while (index < length()) {
+        b.appendCodePoint(codePointAt(index++));
+      }
+    }
+    else {
+      // the result is built from right to left, and reversed at the end
+      int index = length() - 1;
+
+      while (index > first) {
+        b.appendCodePoint(codePointAt(index--));
+      }
+
+      int replIndex = 0;
+      boolean wrapped = false;
+
+      while (index > end) {
+        b.appendCodePoint(repl.charAt(replIndex++));
+        if (replIndex == replLength) {
+          replIndex = 0;
+          wrapped = true;
+        }
+        index--; // skip the replaced character
+
+        for (int q = 1; q < increment && index > end; q++) {
+          b.appendCodePoint(codePointAt(index--));
+        }
+      }
+
+      if (!wrapped) {
+        while (replIndex < replLength) {
+          b.appendCodePoint(repl.charAt(replIndex++));
+        }
+      }
+
+      while (index >= 0) {
+        b.appendCodePoint(codePointAt(index--));
+      }
+
+      b.reverse();
+    }
+
+    return FlatString.of(b.toString());
+  }
+
+  /**
+   * Compares the UTF-16 characters of the strings, as {@link String#compareTo(String)}.
+   */
+  @Override
+  public int compare(IString other) {
+    Chunks left = new Chunks(this);
+    Chunks right = new Chunks(valueOf(other));
+
+    while (left.available() > 0 && right.available() > 0) {
+      int count = Math.min(left.available(), right.available());
+
+      for (int i = 0; i < count; i++) {
+        int diff = left.chunk.charAt(left.offset + i) - right.chunk.charAt(right.offset + i);
+
+        if (diff != 0) {
+          return diff < 0 ? -1 : 1;
+        }
+      }
+
+      left.skip(count);
+      right.skip(count);
+    }
+
+    return Integer.compare(left.available(), right.available());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+
+    if (!(o instanceof StringValue)) {
+      return false;
+    }
+
+    StringValue other = (StringValue) o;
+
+    if (charLength() != other.charLength() || hashCode() != other.hashCode()) {
+      return false;
+    }
+
+    Chunks left = new Chunks(this);
+    Chunks right = new Chunks(other);
+
+    while (left.available() > 0) {
+      int count = Math.min(left.available(), right.available());
+
+      if (!left.chunk.regionMatches(left.offset, right.chunk, right.offset, count)) {
+        return false;
+      }
+
+      left.skip(count);
+      right.skip(count);
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean isEqual(IValue value) {
+    if (value instanceof StringValue) {
+      return equals(value);
+    }
+
+    return value instanceof IString && getValue().equals(((IString) value).getValue());
+  }
+
+  @Override
+  public String toString() {
+    String value = getValue();
+    StringBuilder b = new StringBuilder(value.length() + 2).append('"');
+
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+
+      switch (c) {
+        case '"':
+          b.append("\\\"");
+          break;
+        case '\\':
+          b.append("\\\\");
+          break;
+        case '\n':
+          b.append("\\n");
+          break;
+        case '\r':
+          b.append("\\r");
+          break;
+        case '\t':
+          b.append("\\t");
+          break;
+        default:
+          b.append(c);
+      }
+    }
+
+    return b.append('"').toString();
+  }
+
+  /**
+   * @return the concatenation of the ropes, flattened if it is short
+   */
+  static StringValue concat(StringValue left, StringValue right) {
+    if (left.charLength() == 0) {
+      return right;
+    }
+
+    if (right.charLength() == 0) {
+      return left;
+    }
+
+    if (left.charLength() + right.charLength() <= FLAT_LENGTH) {
+      return FlatString.concat(left, right);
+    }
+
+    if (right instanceof FlatString && left instanceof ConcatString) {
+      ConcatString l = (ConcatString) left;
+
+      if (l.right instanceof FlatString && l.right.charLength() + right.charLength() <= FLAT_LENGTH) {
+        return join(l.left, FlatString.concat(l.right, right));
+      }
+    }
+
+    if (left instanceof FlatString && right instanceof ConcatString) {
+      ConcatString r = (ConcatString) right;
+
+      if (r.left instanceof FlatString && left.charLength() + r.left.charLength() <= FLAT_LENGTH) {
+        return join(FlatString.concat(left, r.left), r.right);
+      }
+    }
+
+    return join(left, right);
+  }
+
+  /**
+   * @return a balanced rope with the non-empty balanced ropes as parts
+   */
+  private static StringValue join(StringValue left, StringValue right) {
+    int leftHeight = left.height();
+    int rightHeight = right.height();
+
+    if (leftHeight > rightHeight + 1) {
+      return joinRight((ConcatString) left, right);
+    }
+
+    if (rightHeight > leftHeight + 1) {
+      return joinLeft(left, (ConcatString) right);
+    }
+
+    return new ConcatString(left, right);
+  }
+
+  private static StringValue joinRight(ConcatString left, StringValue right) {
+    StringValue outer = left.left;
+    StringValue inner = left.right;
+
+    if (inner.height() <= right.height() + 1) {
+      ConcatString joined = new ConcatString(inner, right);
+
+      if (joined.height() <= outer.height() + 1) {
+        return new ConcatString(outer, joined);
+      }
+
+      return rotateLeft(new ConcatString(outer, rotateRight(joined)));
+    }
+
+    StringValue joined = joinRight((ConcatString) inner, right);
+
+    if (joined.height() <= outer.height() + 1) {
+      return new ConcatString(outer, joined);
+    }
+
+    return rotateLeft(new ConcatString(outer, joined));
+  }
+
+  private static StringValue joinLeft(StringValue left, ConcatString right) {
+    StringValue outer = right.right;
+    StringValue inner = right.left;
+
+    if (inner.height() <= left.height() + 1) {
+      ConcatString joined = new ConcatString(left, inner);
+
+      if (joined.height() <= outer.height() + 1) {
+        return new ConcatString(joined, outer);
+      }
+
+      return rotateRight(new ConcatString(rotateLeft(joined), outer));
+    }
+
+    StringValue joined = joinLeft(left, (ConcatString) inner);
+
+    if (joined.height() <= outer.height() + 1) {
+      return new ConcatString(joined, outer);
+    }
+
+    return rotateRight(new ConcatString(joined, outer));
+  }
+
+  /**
+   * @return (a ++ b) ++ c for a ++ (b ++ c)
+   */
+  private static ConcatString rotateLeft(ConcatString node) {
+    ConcatString right = (ConcatString) node.right;
+    return new ConcatString(new ConcatString(node.left, right.left), right.right);
+  }
+
+  /**
+   * @return a ++ (b ++ c) for (a ++ b) ++ c
+   */
+  private static ConcatString rotateRight(ConcatString node) {
+    ConcatString left = (ConcatString) node.left;
+    return new ConcatString(left.left, new ConcatString(left.right, node.right));
+  }
+
+  /**
+   * Visits the flat strings of a rope from left to right.
+   */
+  private static final class Chunks {
+    private final ArrayDeque<StringValue> pending = new ArrayDeque<>();
+    String chunk = "";
+    int offset;
+
+    Chunks(StringValue rope) {
+      pending.push(rope);
+      advance();
+    }
+
+    int available() {
+      return chunk.length() - offset;
+    }
+
+    void skip(int count) {
+      offset += count;
+
+      if (offset == chunk.length()) {
+        advance();
+      }
+    }
+
+    private void advance() {
+      chunk = "";
+      offset = 0;
+
+      while (chunk.isEmpty() && !pending.isEmpty()) {
+        StringValue next = pending.pop();
+
+        while (next instanceof ConcatString) {
+          pending.push(((ConcatString) next).right);
+          next = ((ConcatString) next).left;
+        }
+
+        chunk = ((FlatString) next).value;
+      }
+    }
+  }
+}
@@ -0,0 +1,876 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A persistent hash map, implemented as a compressed hash-array mapped prefix
+ * tree (CHAMP) in the same way as {@link TrieSet}, but with the keys and
+ * values of the entries stored next to each other in the arrays of the nodes.
+ * <p>
+ * The size and the hash code of the map, which is the sum of the hash codes
+ * of its entries as for {@link java.util.Map}, are maintained by every
+ * operation. A {@link Transient} map is used to build a map by a sequence of
+ * updates, which change the nodes it created itself in place.
+ *
+ * @param <K> the type of the keys, which must have a {@link Object#hashCode()}
+ *            that is consistent with {@link Object#equals(Object)}
+ * @param <V> the type of the values
+ */
+/* package */ final class TrieMap<K, V> {
+  private static final int BITS = 5;
+  private static final int HASH_LENGTH = 32;
+  private static final int MAX_DEPTH = (HASH_LENGTH + BITS - 1) / BITS + 1;
+
+  private static final Object NOT_FOUND = new Object();
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private static final TrieMap EMPTY = new TrieMap<>(BitmapNode.EMPTY, 0, 0);
+  private static final AtomicReference<Thread> PERSISTENT = null;
+
+  private final Node<K, V> root;
+  private final int size;
+  private final int hash;
+
+  private TrieMap(Node<K, V> root, int size, int hash) {
+    this.root = root;
+    this.size = size;
+    this.hash = hash;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <K, V> TrieMap<K, V> of() {
+    return EMPTY;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  boolean containsKey(Object key) {
+    return root.find(key, key.hashCode(), 0) != NOT_FOUND;
+  }
+
+  /**
+   * @return the value of the key, or null if the map does not contain the key
+   */
+  @SuppressWarnings("unchecked")
+  V get(Object key) {
+    Object found = root.find(key, key.hashCode(), 0);
+    return found != NOT_FOUND ? (V) found : null;
+  }
+
+  /**
+   * @return a map in which the key is mapped to the value, or this map if it already was
+   */
+  TrieMap<K, V> put(K key, V value) {
+    int keyHash = key.hashCode();
+    Change<V> change = new Change<>();
+    Node<K, V> newRoot = root.put(PERSISTENT, key, value, keyHash, 0, change);
+
+    if (!change.modified) {
+      return this;
+    }
+
+    if (change.replaced) {
+      return new TrieMap<>(newRoot, size, hash + change.hashDelta(keyHash, value));
+    }
+
+    return new TrieMap<>(newRoot, size + 1, hash + (keyHash ^ Objects.hashCode(value)));
+  }
+
+  /**
+   * @return a map without the key, or this map if it does not contain the key
+   */
+  TrieMap<K, V> remove(Object key) {
+    int keyHash = key.hashCode();
+    Change<V> change = new Change<>();
+    Node<K, V> newRoot = root.remove(PERSISTENT, key, keyHash, 0, change);
+
+    if (!change.modified) {
+      return this;
+    }
+
+    return new TrieMap<>(newRoot, size - 1, hash - (keyHash ^ Objects.hashCode(change.oldValue)));
+  }
+
+  /**
+   * @return a transient map, owned by the current thread, which initially
+   *         contains the entries of this map
+   */
+  Transient<K, V> asTransient() {
+    return new Transient<>(root, size, hash);
+  }
+
+  Iterator<K> keyIterator() {
+    return new TrieIterator<K, K, V>(root) {
+      @Override
+      K current(Node<K, V> node, int index) {
+        return node.getKey(index);
+      }
+    };
+  }
+
+  Iterator<V> valueIterator() {
+    return new TrieIterator<V, K, V>(root) {
+      @Override
+      V current(Node<K, V> node, int index) {
+        return node.getValue(index);
+      }
+    };
+  }
+
+  Iterator<Map.Entry<K, V>> entryIterator() {
+    return new TrieIterator<Map.Entry<K, V>, K, V>(root) {
+      @Override
+      Map.Entry<K, V> current(Node<K, V> node, int index) {
+        return new AbstractMap.SimpleImmutableEntry<>(node.getKey(index), node.getValue(index));
+      }
+    };
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+
+    if (o instanceof TrieMap) {
+      TrieMap<?, ?> other = (TrieMap<?, ?>) o;
+      return size == other.size && hash == other.hash && root.equivalent(other.root);
+    }
+
+    return false;
+  }
+
+  /**
+   * A map which is updated in place, until it is frozen into a persistent
+   * map. It may only be used by the thread which created it; see
+   * {@link TrieSet.Transient}.
+   */
+  static final class Transient<K, V> {
+    private final AtomicReference<Thread> owner = new AtomicReference<>(Thread.currentThread());
+    private final Change<V> change = new Change<>();
+    private Node<K, V> root;
+    private int size;
+    private int hash;
+
+    private Transient(Node<K, V> root, int size, int hash) {
+      this.root = root;
+      this.size = size;
+      this.hash = hash;
+    }
+
+    private void checkOwner() {
+      Thread thread = owner.get();
+
+      if (thread != Thread.currentThread()) {
+        throw new IllegalStateException(thread == null ? "Transient map was already frozen"
+            : "Transient map is owned by another thread");
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    boolean containsKey(Object key) {
+      checkOwner();
+      return root.find(key, key.hashCode(), 0) != NOT_FOUND;
+    }
+
+    /**
+     * @return the value of the key, or null if the map does not contain the key
+     */
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+      checkOwner();
+      Object found = root.find(key, key.hashCode(), 0);
+      return found != NOT_FOUND ? (V) found : null;
+    }
+
+    /**
+     * @return true if the map did not contain the key yet
+     */
+    boolean put(K key, V value) {
+      checkOwner();
+      int keyHash = key.hashCode();
+      change.reset();
+      Node<K, V> newRoot = root.put(owner, key, value, keyHash, 0, change);
+
+      if (!change.modified) {
+        return false;
+      }
+
+      root = newRoot;
+
+      if (change.replaced) {
+        hash += change.hashDelta(keyHash, value);
+        return false;
+      }
+
+      size++;
+      hash += keyHash ^ Objects.hashCode(value);
+      return true;
+    }
+
+    /**
+     * @return true if the map contained the key
+     */
+    boolean remove(Object key) {
+      checkOwner();
+      int keyHash = key.hashCode();
+      change.reset();
+      Node<K, V> newRoot = root.remove(owner, key, keyHash, 0, change);
+
+      if (!change.modified) {
+        return false;
+      }
+
+      root = newRoot;
+      size--;
+      hash -= keyHash ^ Objects.hashCode(change.oldValue);
+      return true;
+    }
+
+    /**
+     * @return a persistent map with the entries of this map, which can no longer be changed
+     */
+    TrieMap<K, V> freeze() {
+      checkOwner();
+      owner.set(null);
+      return size == 0 ? of() : new TrieMap<>(root, size, hash);
+    }
+  }
+
+  /**
+   * Tells whether an update changed the map, and the old value of an entry
+   * which was replaced or removed.
+   */
+  private static final class Change<V> {
+    boolean modified;
+    boolean replaced;
+    V oldValue;
+
+    void reset() {
+      modified = false;
+      replaced = false;
+      oldValue = null;
+    }
+
+    void inserted() {
+      modified = true;
+    }
+
+    void replaced(V oldValue) {
+      this.modified = true;
+      this.replaced = true;
+      this.oldValue = oldValue;
+    }
+
+    void removed(V oldValue) {
+      this.modified = true;
+      this.oldValue = oldValue;
+    }
+
+    /**
+     * @return the difference in the hash code of the map made by a replacement
+     */
+    int hashDelta(int keyHash, V value) {
+      return (keyHash ^ Objects.hashCode(value)) - (keyHash ^ Objects.hashCode(oldValue));
+    }
+  }
+
+  private static int mask(int keyHash, int shift) {
+    return (keyHash >>> shift) & ((1 << BITS) - 1);
+  }
+
+  private static int bitpos(int mask) {
+    return 1 << mask;
+  }
+
+  private static <K, V> Node<K, V> merge(AtomicReference<Thread> edit, K key0, V value0, int keyHash0, K key1, V value1, int keyHash1, int shift) {
+    if (shift >= HASH_LENGTH) {
+      return new CollisionNode<>(edit, keyHash0, new Object[] { key0, value0, key1, value1 });
+    }
+
+    int mask0 = mask(keyHash0, shift);
+    int mask1 = mask(keyHash1, shift);
+
+    if (mask0 != mask1) {
+      Object[] content = mask0 < mask1 ? new Object[] { key0, value0, key1, value1 }
+          : new Object[] { key1, value1, key0, value0 };
+      return new BitmapNode<>(edit, bitpos(mask0) | bitpos(mask1), 0, content);
+    }
+
+    Node<K, V> sub = merge(edit, key0, value0, keyHash0, key1, value1, keyHash1, shift + BITS);
+    return new BitmapNode<>(edit, 0, bitpos(mask0), new Object[] { sub });
+  }
+
+  private abstract static class Node<K, V> {
+    /**
+     * The owner reference of the transient map which created this node, or
+     * null if the node is persistent.
+     */
+    final AtomicReference<Thread> edit;
+
+    Node(AtomicReference<Thread> edit) {
+      this.edit = edit;
+    }
+
+    /**
+     * @return true if the node may be changed in place by the transient map with the owner reference
+     */
+    final boolean isEditable(AtomicReference<Thread> edit) {
+      return edit != null && this.edit == edit;
+    }
+
+    /**
+     * @return the value of the key, or {@link TrieMap#NOT_FOUND}
+     */
+    abstract Object find(Object key, int keyHash, int shift);
+
+    /**
+     * @return the node with the entry, which is this node if it already contained the
+     *         entry or if it was changed in place
+     */
+    abstract Node<K, V> put(AtomicReference<Thread> edit, K key, V value, int keyHash, int shift, Change<V> change);
+
+    /**
+     * @return the node without the key, which is this node if it did not contain the
+     *         key or if it was changed in place
+     */
+    abstract Node<K, V> remove(AtomicReference<Thread> edit, Object key, int keyHash, int shift, Change<V> change);
+
+    abstract int nodeArity();
+
+    abstract Node<K, V> getNode(int index);
+
+    abstract int payloadArity();
+
+    abstract K getKey(int index);
+
+    abstract V getValue(int index);
+
+    abstract boolean equivalent(Node<?, ?> other);
+
+    final boolean isSingleton() {
+      return nodeArity() == 0 && payloadArity() == 1;
+    }
+  }
+
+  private static final class BitmapNode<K, V> extends Node<K, V> {
+    @SuppressWarnings("rawtypes")
+    static final BitmapNode EMPTY = new BitmapNode<>(PERSISTENT, 0, 0, new Object[0]);
+
+    private int dataMap;
+    private int nodeMap;
+    private Object[] content;
+
+    BitmapNode(AtomicReference<Thread> edit, int dataMap, int nodeMap, Object[] content) {
+      super(edit);
+      this.dataMap = dataMap;
+      this.nodeMap = nodeMap;
+      this.content = content;
+    }
+
+    private int dataIndex(int bitpos) {
+      return Integer.bitCount(dataMap & (bitpos - 1));
+    }
+
+    private int nodeIndex(int bitpos) {
+      return Integer.bitCount(nodeMap & (bitpos - 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node<K, V> nodeAt(int bitpos) {
+      return (Node<K, V>) content[content.length - 1 - nodeIndex(bitpos)];
+    }
+
+    @Override
+    Object find(Object key, int keyHash, int shift) {
+      int bitpos = bitpos(mask(keyHash, shift));
+
+      if ((dataMap & bitpos) != 0) {
+        int index = 2 * dataIndex(bitpos);
+        return content[index].equals(key) ? content[index + 1] : NOT_FOUND;
+      }
+
+      if ((nodeMap & bitpos) != 0) {
+        return nodeAt(bitpos).find(key, keyHash, shift + BITS);
+      }
+
+      return NOT_FOUND;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    Node<K, V> put(AtomicReference<Thread> edit, K key, V value, int keyHash, int shift, Change<V> change) {
+      int bitpos = bitpos(mask(keyHash, shift));
+
+      if ((dataMap & bitpos) != 0) {
+        int index = 2 * dataIndex(bitpos);
+        K currentKey = (K) content[index];
+        V currentValue = (V) content[index + 1];
+
+        if (currentKey.equals(key)) {
+          if (Objects.equals(currentValue, value)) {
+            return this;
+          }
+
+          change.replaced(currentValue);
+          return copyAndSetValue(edit, index + 1, value);
+        }
+
+        change.inserted();
+        Node<K, V> sub = merge(edit, currentKey, currentValue, currentKey.hashCode(), key, value, keyHash, shift + BITS);
+        return copyAndMigrateToNode(edit, bitpos, index, sub);
+      }
+
+      if ((nodeMap & bitpos) != 0) {
+        Node<K, V> sub = nodeAt(bitpos);
+        Node<K, V> newSub = sub.put(edit, key, value, keyHash, shift + BITS, change);
+        return newSub == sub ? this : copyAndSetNode(edit, bitpos, newSub);
+      }
+
+      change.inserted();
+      return copyAndInsertEntry(edit, bitpos, key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    Node<K, V> remove(AtomicReference<Thread> edit, Object key, int keyHash, int shift, Change<V> change) {
+      int bitpos = bitpos(mask(keyHash, shift));
+
+      if ((dataMap & bitpos) != 0) {
+        int index = 2 * dataIndex(bitpos);
+
+        if (!content[index].equals(key)) {
+          return this;
+        }
+
+        change.removed((V) content[index + 1]);
+
+        if (payloadArity() == 2 && nodeArity() == 0) {
+          // the remaining entry becomes the root, or is inlined in the parent node;
+          // its key shares the bits of the removed key up to this level
+          int newDataMap = shift == 0 ? dataMap ^ bitpos : bitpos(mask(keyHash, 0));
+          int other = 2 - index;
+          return new BitmapNode<>(edit, newDataMap, 0, new Object[] { content[other], content[other + 1] });
+        }
+
+        return copyAndRemoveEntry(edit, bitpos, index);
+      }
+
+      if ((nodeMap & bitpos) != 0) {
+        Node<K, V> sub = nodeAt(bitpos);
+        Node<K, V> newSub = sub.remove(edit, key, keyHash, shift + BITS, change);
+
+        if (!change.modified) {
+          return this;
+        }
+
+        if (newSub.isSingleton()) {
+          if (payloadArity() == 0 && nodeArity() == 1) {
+            // propagate the single entry up to the parent
+            return newSub;
+          }
+
+          return copyAndMigrateToInline(edit, bitpos, newSub.getKey(0), newSub.getValue(0));
+        }
+
+        return newSub == sub ? this : copyAndSetNode(edit, bitpos, newSub);
+      }
+
+      return this;
+    }
+
+    private Node<K, V> update(AtomicReference<Thread> edit, int newDataMap, int newNodeMap, Object[] newContent) {
+      if (isEditable(edit)) {
+        dataMap = newDataMap;
+        nodeMap = newNodeMap;
+        content = newContent;
+        return this;
+      }
+
+      return new BitmapNode<>(edit, newDataMap, newNodeMap, newContent);
+    }
+
+    private Node<K, V> copyAndSetValue(AtomicReference<Thread> edit, int position, V value) {
+      if (isEditable(edit)) {
+        content[position] = value;
+        return this;
+      }
+
+      Object[] dst = content.clone();
+      dst[position] = value;
+      return new BitmapNode<>(edit, dataMap, nodeMap, dst);
+    }
+
+    private Node<K, V> copyAndInsertEntry(AtomicReference<Thread> edit, int bitpos, K key, V value) {
+      int index = 2 * dataIndex(bitpos);
+      Object[] dst = new Object[content.length + 2];
+
+      System.arraycopy(content, 0, dst, 0, index);
+      dst[index] = key;
+      dst[index + 1] = value;
+      System.arraycopy(content, index, dst, index + 2, content.length - index);
+
+      return update(edit, dataMap | bitpos, nodeMap, dst);
+    }
+
+    private Node<K, V> copyAndRemoveEntry(AtomicReference<Thread> edit, int bitpos, int index) {
+      Object[] dst = new Object[content.length - 2];
+
+      System.arraycopy(content, 0, dst, 0, index);
+      System.arraycopy(content, index + 2, dst, index, content.length - index - 2);
+
+      return update(edit, dataMap ^ bitpos, nodeMap, dst);
+    }
+
+    private Node<K, V> copyAndSetNode(AtomicReference<Thread> edit, int bitpos, Node<K, V> node) {
+      int position = content.length - 1 - nodeIndex(bitpos);
+
+      if (isEditable(edit)) {
+        content[position] = node;
+        return this;
+      }
+
+      Object[] dst = content.clone();
+      dst[position] = node;
+      return new BitmapNode<>(edit, dataMap, nodeMap, dst);
+    }
+
+    private Node<K, V> copyAndMigrateToNode(AtomicReference<Thread> edit, int bitpos, int index, Node<K, V> node) {
+      int position = content.length - 2 - nodeIndex(bitpos);
+      Object[] dst = new Object[content.length - 1];
+
+      System.arraycopy(content, 0, dst, 0, index);
+      System.arraycopy(content, index + 2, dst, index, position - index);
+      dst[position] = node;
+      System.arraycopy(content, position + 2, dst, position + 1, content.length - position - 2);
+
+      return update(edit, dataMap ^ bitpos, nodeMap | bitpos, dst);
+    }
+
+    private Node<K, V> copyAndMigrateToInline(AtomicReference<Thread> edit, int bitpos, K key, V value) {
+      int position = content.length - 1 - nodeIndex(bitpos);
+      int index = 2 * dataIndex(bitpos);
+      Object[] dst = new Object[content.length + 1];
+
+      System.arraycopy(content, 0, dst, 0, index);
+      dst[index] = key;
+      dst[index + 1] = value;
+      System.arraycopy(content, index, dst, index + 2, position - index);
+      System.arraycopy(content, position + 1, dst, position + 2, content.length - position - 1);
+
+      return update(edit, dataMap | bitpos, nodeMap ^ bitpos, dst);
+    }
+
+    @Override
+    int nodeArity() {
+      return Integer.bitCount(nodeMap);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    Node<K, V> getNode(int index) {
+      return (Node<K, V>) content[content.length - 1 - index];
+    }
+
+    @Override
+    int payloadArity() {
+      return Integer.bitCount(dataMap);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    K getKey(int index) {
+      return (K) content[2 * index];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    V getValue(int index) {
+      return (V) content[2 * index + 1];
+    }
+
+    @Override
+    boolean equivalent(Node<?, ?> o) {
+      if (o == this) {
+        return true;
+      }
+
+      if (!(o instanceof BitmapNode)) {
+        return false;
+      }
+
+      BitmapNode<?, ?> other = (BitmapNode<?, ?>) o;
+
+      if (dataMap != other.dataMap || nodeMap != other.nodeMap) {
+        return false;
+      }
+
+      int payloadLength = 2 * payloadArity();
+      for (int i = 0; i < payloadLength; i++) {
+        if (!Objects.equals(content[i], other.content[i])) {
+          return false;
+        }
+      }
+
+      for (int i = payloadLength; i < content.length; i++) {
+        if (!((Node<?, ?>) content[i]).equivalent((Node<?, ?>) other.content[i])) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
+
+  /**
+   * The entries of which the hash codes of the keys are equal, below the last
+   * bitmap level.
+   */
+  private static final class CollisionNode<K, V> extends Node<K, V> {
+    private final int hash;
+    private Object[] content;
+
+    CollisionNode(AtomicReference<Thread> edit, int hash, Object[] content) {
+      super(edit);
+      this.hash = hash;
+      this.content = content;
+    }
+
+    private int indexOf(Object key) {
+      for (int i = 0; i < content.length; i += 2) {
+        if (content[i].equals(key)) {
+          return i;
+        }
+      }
+
+      return -1;
+    }
+
+    @Override
+    Object find(Object key, int keyHash, int shift) {
+      if (keyHash != hash) {
+        return NOT_FOUND;
+      }
+
+      int index = indexOf(key);
+      return index != -1 ? content[index + 1] : NOT_FOUND;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    Node<K, V> put(AtomicReference<Thread> edit, K key, V value, int keyHash, int shift, Change<V> change) {
+      int index = indexOf(key);
+
+      if (index != -1) {
+        V currentValue = (V) content[index + 1];
+
+        if (Objects.equals(currentValue, value)) {
+          return this;
+        }
+
+        change.replaced(currentValue);
+        Object[] dst = content.clone();
+        dst[index + 1] = value;
+        return update(edit, dst);
+      }
+
+      change.inserted();
+      Object[] dst = new Object[content.length + 2];
+      System.arraycopy(content, 0, dst, 0, content.length);
+      dst[content.length] = key;
+      dst[content.length + 1] = value;
+
+      return update(edit, dst);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    Node<K, V> remove(AtomicReference<Thread> edit, Object key, int keyHash, int shift, Change<V> change) {
+      int index = indexOf(key);
+
+      if (index == -1) {
+        return this;
+      }
+
+      change.removed((V) content[index + 1]);
+
+      if (content.length == 4) {
+        // the remaining entry is inlined in the parent node
+        int other = 2 - index;
+        return new BitmapNode<>(edit, bitpos(mask(hash, 0)), 0, new Object[] { content[other], content[other + 1] });
+      }
+
+      Object[] dst = new Object[content.length - 2];
+      System.arraycopy(content, 0, dst, 0, index);
+      System.arraycopy(content, index + 2, dst, index, content.length - index - 2);
+
+      return update(edit, dst);
+    }
+
+    private Node<K, V> update(AtomicReference<Thread> edit, Object[] newContent) {
+      if (isEditable(edit)) {
+        content = newContent;
+        return this;
+      }
+
+      return new CollisionNode<>(edit, hash, newContent);
+    }
+
+    @Override
+    int nodeArity() {
+      return 0;
+    }
+
+    @Override
+    Node<K, V> getNode(int index) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    int payloadArity() {
+      return content.length / 2;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    K getKey(int index) {
+      return (K) content[2 * index];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    V getValue(int index) {
+      return (V) content[2 * index + 1];
+    }
+
+    @Override
+    boolean equivalent(Node<?, ?> o) {
+      if (o == this) {
+        return true;
+      }
+
+      if (!(o instanceof CollisionNode)) {
+        return false;
+      }
+
+      CollisionNode<?, ?> other = (CollisionNode<?, ?>) o;
+
+      if (hash != other.hash || content.length != other.content.length) {
+        return false;
+      }
+
+      for (int i = 0; i < other.content.length; i += 2) {
+        int index = indexOf(other.content[i]);
+
+        if (index == -1 || !Objects.equals(content[index + 1], other.content[i + 1])) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
+
+  /**
+   * Visits the entries of a node before the entries of its sub-nodes, such that
+   * the entries are read in runs from the arrays of the nodes.
+   */
+  private abstract static class TrieIterator<T, K, V> implements Iterator<T> {
+    private final Object[] nodes = new Object[MAX_DEPTH];
+    private final int[] nodeCursors = new int[MAX_DEPTH];
+    private final int[] nodeLengths = new int[MAX_DEPTH];
+    private int level = -1;
+
+    private Node<K, V> payloadNode;
+    private int payloadCursor;
+    private int payloadLength;
+
+    TrieIterator(Node<K, V> root) {
+      if (root.nodeArity() > 0) {
+        push(root);
+      }
+
+      payloadNode = root;
+      payloadLength = root.payloadArity();
+    }
+
+    abstract T current(Node<K, V> node, int index);
+
+    private void push(Node<K, V> node) {
+      level++;
+      nodes[level] = node;
+      nodeCursors[level] = 0;
+      nodeLengths[level] = node.nodeArity();
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean searchNextPayload() {
+      while (level >= 0) {
+        if (nodeCursors[level] < nodeLengths[level]) {
+          Node<K, V> next = ((Node<K, V>) nodes[level]).getNode(nodeCursors[level]++);
+
+          if (next.nodeArity() > 0) {
+            push(next);
+          }
+
+          if (next.payloadArity() > 0) {
+            payloadNode = next;
+            payloadCursor = 0;
+            payloadLength = next.payloadArity();
+            return true;
+          }
+        }
+        else {
+          nodes[level] = null;
+          level--;
+        }
+      }
+
+      return false;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return payloadCursor < payloadLength || searchNextPayload();
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      return current(payloadNode, payloadCursor++);
+    }
+  }
+}
@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A persistent multimap: a {@link TrieMap} from every key to the non-empty
+ * {@link TrieSet} of its values. The sets of values are shared between the
+ * versions of the multimap like the nodes of the map, hence an update copies
+ * a path in the map and a path in the set of the key.
+ * <p>
+ * The size is the number of pairs of a key and a value. The hash code is the
+ * sum of the hash codes of the pairs, where a pair hashes as the list of its
+ * key and value does; hence the hash code of a multimap equals that of the
+ * set of its pairs as binary tuples (see {@link Tuple}).
+ *
+ * @param <K> the type of the keys, which must have a {@link Object#hashCode()}
+ *            that is consistent with {@link Object#equals(Object)}
+ * @param <V> the type of the values, likewise
+ */
+/* package */ final class TrieMultimap<K, V> {
+  @SuppressWarnings("rawtypes")
+  private static final TrieMultimap EMPTY = new TrieMultimap<>(TrieMap.of(), 0, 0);
+
+  private final TrieMap<K, TrieSet<V>> map;
+  private final int size;
+  private final int hash;
+
+  private TrieMultimap(TrieMap<K, TrieSet<V>> map, int size, int hash) {
+    this.map = map;
+    this.size = size;
+    this.hash = hash;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <K, V> TrieMultimap<K, V> of() {
+    return EMPTY;
+  }
+
+  /**
+   * @return the hash code of the pair, as {@link java.util.Arrays#hashCode(Object[])}
+   */
+  static int pairHash(Object key, Object value) {
+    return 31 * (31 + key.hashCode()) + value.hashCode();
+  }
+
+  /**
+   * @return the sum of the hash codes of the pairs of the key with the values
+   */
+  private static int pairsHash(Object key, TrieSet<?> values) {
+    return values.size() * 31 * (31 + key.hashCode()) + values.hashCode();
+  }
+
+  /**
+   * @return the number of pairs
+   */
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int keyCount() {
+    return map.size();
+  }
+
+  boolean containsKey(Object key) {
+    return map.containsKey(key);
+  }
+
+  boolean contains(Object key, Object value) {
+    TrieSet<V> values = map.get(key);
+    return values != null && values.contains(value);
+  }
+
+  /**
+   * @return the values of the key, which are empty if the key is not in the multimap
+   */
+  TrieSet<V> get(Object key) {
+    TrieSet<V> values = map.get(key);
+    return values != null ? values : TrieSet.of();
+  }
+
+  /**
+   * @return a multimap which also contains the pair, or this multimap if it already does
+   */
+  TrieMultimap<K, V> insert(K key, V value) {
+    TrieSet<V> values = get(key);
+    TrieSet<V> newValues = values.insert(value);
+
+    if (newValues == values) {
+      return this;
+    }
+
+    return new TrieMultimap<>(map.put(key, newValues), size + 1, hash + pairHash(key, value));
+  }
+
+  /**
+   * @return a multimap without the pair, or this multimap if it does not contain the pair
+   */
+  TrieMultimap<K, V> delete(Object key, Object value) {
+    TrieSet<V> values = map.get(key);
+
+    if (values == null) {
+      return this;
+    }
+
+    TrieSet<V> newValues = values.delete(value);
+
+    if (newValues == values) {
+      return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    TrieMap<K, TrieSet<V>> newMap = newValues.isEmpty() ? map.remove(key) : map.put((K) key, newValues);
+    return new TrieMultimap<>(newMap, size - 1, hash - pairHash(key, value));
+  }
+
+  /**
+   * @return a multimap from every value to its keys
+   */
+  TrieMultimap<V, K> inverse() {
+    Transient<V, K> result = TrieMultimap.<V, K>of().asTransient();
+    Iterator<Map.Entry<K, TrieSet<V>>> entries = entryIterator();
+
+    while (entries.hasNext()) {
+      Map.Entry<K, TrieSet<V>> entry = entries.next();
+      K key = entry.getKey();
+
+      for (V value : entry.getValue()) {
+        result.insert(value, key);
+      }
+    }
+
+    return result.freeze();
+  }
+
+  /**
+   * @return a transient multimap, owned by the current thread, which
+   *         initially contains the pairs of this multimap
+   */
+  Transient<K, V> asTransient() {
+    return new Transient<>(map.asTransient(), size, hash);
+  }
+
+  Iterator<K> keyIterator() {
+    return map.keyIterator();
+  }
+
+  /**
+   * @return an iterator over the keys and their sets of values
+   */
+  Iterator<Map.Entry<K, TrieSet<V>>> entryIterator() {
+    return map.entryIterator();
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+
+    if (o instanceof TrieMultimap) {
+      TrieMultimap<?, ?> other = (TrieMultimap<?, ?>) o;
+      return size == other.size && hash == other.hash && map.equals(other.map);
+    }
+
+    return false;
+  }
+
+  /**
+   * A multimap which is updated in place, until it is frozen into a
+   * persistent multimap. It may only be used by the thread which created it;
+   * see {@link TrieSet.Transient}.
+   * <p>
+   * The set of values of a key is opened as a transient set when a pair with
+   * the key is inserted into or deleted from a stored set, and the sets are
+   * frozen and stored in the map when the multimap is frozen.
+   */
+  static final class Transient<K, V> {
+    private final TrieMap.Transient<K, TrieSet<V>> map;
+    private final Map<K, TrieSet.Transient<V>> open = new HashMap<>();
+    private int size;
+    private int hash;
+
+    private Transient(TrieMap.Transient<K, TrieSet<V>> map, int size, int hash) {
+      this.map = map;
+      this.size = size;
+      this.hash = hash;
+    }
+
+    int size() {
+      return size;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    private TrieSet.Transient<V> open(K key) {
+      TrieSet.Transient<V> values = open.get(key);
+
+      if (values == null) {
+        TrieSet<V> stored = map.get(key);
+        values = (stored != null ? stored : TrieSet.<V>of()).asTransient();
+        open.put(key, values);
+      }
+
+      return values;
+    }
+
+    boolean contains(Object key, Object value) {
+      TrieSet.Transient<V> values = open.get(key);
+
+      if (values != null) {
+        return values.contains(value);
+      }
+
+      TrieSet<V> stored = map.get(key);
+      return stored != null && stored.contains(value);
+    }
+
+    /**
+     * @return true if the multimap did not contain the pair yet
+     */
+    boolean insert(K key, V value) {
+      TrieSet.Transient<V> values = open.get(key);
+
+      if (values == null) {
+        TrieSet<V> stored = map.get(key);
+
+        if (stored == null) {
+          // most keys of a relation have few values, so we open a set for the second one
+          map.put(key, TrieSet.<V>of().insert(value));
+          size++;
+          hash += pairHash(key, value);
+          return true;
+        }
+
+        if (stored.contains(value)) {
+          return false;
+        }
+
+        values = stored.asTransient();
+        open.put(key, values);
+      }
+
+      if (!values.insert(value)) {
+        return false;
+      }
+
+      size++;
+      hash += pairHash(key, value);
+      return true;
+    }
+
+    /**
+     * Inserts the pairs of the key with each of the values. If the key has no
+     * values yet, the set of values is stored as it is.
+     *
+     * @return true if the multimap did not contain all of the pairs yet
+     */
+    boolean insertAll(K key, TrieSet<V> values) {
+      if (values.isEmpty()) {
+        return false;
+      }
+
+      if (!open.containsKey(key) && !map.containsKey(key)) {
+        map.put(key, values);
+        size += values.size();
+        hash += pairsHash(key, values);
+        return true;
+      }
+
+      boolean modified = false;
+      for (V value : values) {
+        modified |= insert(key, value);
+      }
+
+      return modified;
+    }
+
+    /**
+     * @return true if the multimap contained the pair
+     */
+    @SuppressWarnings("unchecked")
+    boolean delete(Object key, Object value) {
+      if (!open.containsKey(key) && !map.containsKey(key)) {
+        return false;
+      }
+
+      if (!open((K) key).delete(value)) {
+        return false;
+      }
+
+      size--;
+      hash -= pairHash(key, value);
+      return true;
+    }
+
+    /**
+     * @return a persistent multimap with the pairs of this multimap, which
+     *         can no longer be changed
+     */
+    TrieMultimap<K, V> freeze() {
+      for (Map.Entry<K, TrieSet.Transient<V>> entry : open.entrySet()) {
+        TrieSet<V> values = entry.getValue().freeze();
+
+        if (values.isEmpty()) {
+          map.remove(entry.getKey());
+        }
+        else {
+          map.put(entry.getKey(), values);
+        }
+      }
+
+      open.clear();
+      // frozen even if empty, so the transient can no longer be used
+      TrieMap<K, TrieSet<V>> frozen = map.freeze();
+      return size == 0 ? of() : new TrieMultimap<>(frozen, size, hash);
+    }
+  }
+}
@@ -0,0 +1,744 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A persistent hash set, implemented as a compressed hash-array mapped prefix
+ * tree (CHAMP). Every node consumes 5 bits of the hash code of the keys, and
+ * stores in one array first the keys which are unique for their 5 bits, and
+ * then, in reverse order, the sub-nodes for the bits which are shared by
+ * several keys. Two bitmaps tell which of the 32 branches are keys and which
+ * are sub-nodes.
+ * <p>
+ * Insertion and deletion copy only the path from the root to the changed
+ * node, all other nodes are shared between the versions of the set. Deletion
+ * keeps the tree canonical, by inlining sub-nodes which are left with a
+ * single key in their parent; hence equal sets have equal trees, and sets can
+ * be compared node by node. Keys with equal hash codes are stored in
+ * collision nodes below the last level.
+ * <p>
+ * The size and the hash code of the set, which is the sum of the hash codes
+ * of its keys as for {@link java.util.Set}, are maintained by every operation.
+ * <p>
+ * A {@link Transient} set is used to build a set by a sequence of updates. It
+ * changes the nodes which it created itself in place, rather than copying the
+ * path to them for every update.
+ *
+ * @param <K> the type of the keys, which must have a {@link Object#hashCode()}
+ *            that is consistent with {@link Object#equals(Object)}
+ */
+/* package */ final class TrieSet<K> implements Iterable<K> {
+  private static final int BITS = 5;
+  private static final int HASH_LENGTH = 32;
+  private static final int MAX_DEPTH = (HASH_LENGTH + BITS - 1) / BITS + 1;
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private static final TrieSet EMPTY = new TrieSet<>(BitmapNode.EMPTY, 0, 0);
+  private static final AtomicReference<Thread> PERSISTENT = null;
+
+  private final Node<K> root;
+  private final int size;
+  private final int hash;
+
+  private TrieSet(Node<K> root, int size, int hash) {
+    this.root = root;
+    this.size = size;
+    this.hash = hash;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <K> TrieSet<K> of() {
+    return EMPTY;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  boolean contains(Object key) {
+    return root.contains(key, key.hashCode(), 0);
+  }
+
+  /**
+   * @return a set which also contains the key, or this set if it already contains the key
+   */
+  TrieSet<K> insert(K key) {
+    int keyHash = key.hashCode();
+    Change change = new Change();
+    Node<K> newRoot = root.insert(PERSISTENT, key, keyHash, 0, change);
+
+    if (!change.modified) {
+      return this;
+    }
+
+    return new TrieSet<>(newRoot, size + 1, hash + keyHash);
+  }
+
+  /**
+   * @return a set without the key, or this set if it does not contain the key
+   */
+  TrieSet<K> delete(Object key) {
+    int keyHash = key.hashCode();
+    Change change = new Change();
+    Node<K> newRoot = root.delete(PERSISTENT, key, keyHash, 0, change);
+
+    if (!change.modified) {
+      return this;
+    }
+
+    return new TrieSet<>(newRoot, size - 1, hash - keyHash);
+  }
+
+  /**
+   * @return a transient set, owned by the current thread, which initially
+   *         contains the keys of this set
+   */
+  Transient<K> asTransient() {
+    return new Transient<>(root, size, hash);
+  }
+
+  @Override
+  public Iterator<K> iterator() {
+    return new TrieIterator<>(root);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+
+    if (o instanceof TrieSet) {
+      TrieSet<?> other = (TrieSet<?>) o;
+      return size == other.size && hash == other.hash && root.equivalent(other.root);
+    }
+
+    return false;
+  }
+
+  /**
+   * A set which is updated in place, until it is frozen into a persistent
+   * set. It may only be used by the thread which created it.
+   * <p>
+   * The nodes which a transient set creates are marked with its owner
+   * reference, and only those nodes are changed in place; nodes which it
+   * shares with persistent sets are copied when they change, as usual.
+   * Freezing clears the owner reference, after which the transient set can no
+   * longer be used and its nodes can no longer change.
+   */
+  static final class Transient<K> {
+    private final AtomicReference<Thread> owner = new AtomicReference<>(Thread.currentThread());
+    private final Change change = new Change();
+    private Node<K> root;
+    private int size;
+    private int hash;
+
+    private Transient(Node<K> root, int size, int hash) {
+      this.root = root;
+      this.size = size;
+      this.hash = hash;
+    }
+
+    private void checkOwner() {
+      Thread thread = owner.get();
+
+      if (thread != Thread.currentThread()) {
+        throw new IllegalStateException(thread == null ? "Transient set was already frozen"
+            : "Transient set is owned by another thread");
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    boolean contains(Object key) {
+      checkOwner();
+      return root.contains(key, key.hashCode(), 0);
+    }
+
+    /**
+     * @return true if the set did not contain the key yet
+     */
+    boolean insert(K key) {
+      checkOwner();
+      int keyHash = key.hashCode();
+      change.modified = false;
+      Node<K> newRoot = root.insert(owner, key, keyHash, 0, change);
+
+      if (!change.modified) {
+        return false;
+      }
+
+      root = newRoot;
+      size++;
+      hash += keyHash;
+      return true;
+    }
+
+    /**
+     * @return true if the set contained the key
+     */
+    boolean delete(Object key) {
+      checkOwner();
+      int keyHash = key.hashCode();
+      change.modified = false;
+      Node<K> newRoot = root.delete(owner, key, keyHash, 0, change);
+
+      if (!change.modified) {
+        return false;
+      }
+
+      root = newRoot;
+      size--;
+      hash -= keyHash;
+      return true;
+    }
+
+    /**
+     * @return a persistent set with the keys of this set, which can no longer be changed
+     */
+    TrieSet<K> freeze() {
+      checkOwner();
+      owner.set(null);
+      return size == 0 ? of() : new TrieSet<>(root, size, hash);
+    }
+  }
+
+  /**
+   * Tells whether an update changed the set.
+   */
+  private static final class Change {
+    boolean modified;
+  }
+
+  private static int mask(int keyHash, int shift) {
+    return (keyHash >>> shift) & ((1 << BITS) - 1);
+  }
+
+  private static int bitpos(int mask) {
+    return 1 << mask;
+  }
+
+  private static <K> Node<K> merge(AtomicReference<Thread> edit, K key0, int keyHash0, K key1, int keyHash1, int shift) {
+    if (shift >= HASH_LENGTH) {
+      return new CollisionNode<>(edit, keyHash0, new Object[] { key0, key1 });
+    }
+
+    int mask0 = mask(keyHash0, shift);
+    int mask1 = mask(keyHash1, shift);
+
+    if (mask0 != mask1) {
+      Object[] content = mask0 < mask1 ? new Object[] { key0, key1 } : new Object[] { key1, key0 };
+      return new BitmapNode<>(edit, bitpos(mask0) | bitpos(mask1), 0, content);
+    }
+
+    Node<K> sub = merge(edit, key0, keyHash0, key1, keyHash1, shift + BITS);
+    return new BitmapNode<>(edit, 0, bitpos(mask0), new Object[] { sub });
+  }
+
+  private abstract static class Node<K> {
+    /**
+     * The owner reference of the transient set which created this node, or
+     * null if the node is persistent.
+     */
+    final AtomicReference<Thread> edit;
+
+    Node(AtomicReference<Thread> edit) {
+      this.edit = edit;
+    }
+
+    /**
+     * @return true if the node may be changed in place by the transient set with the owner reference
+     */
+    final boolean isEditable(AtomicReference<Thread> edit) {
+      return edit != null && this.edit == edit;
+    }
+
+    abstract boolean contains(Object key, int keyHash, int shift);
+
+    /**
+     * @return the node with the key, which is this node if it already contains the
+     *         key or if it was changed in place
+     */
+    abstract Node<K> insert(AtomicReference<Thread> edit, K key, int keyHash, int shift, Change change);
+
+    /**
+     * @return the node without the key, which is this node if it does not contain
+     *         the key or if it was changed in place
+     */
+    abstract Node<K> delete(AtomicReference<Thread> edit, Object key, int keyHash, int shift, Change change);
+
+    abstract int nodeArity();
+
+    abstract Node<K> getNode(int index);
+
+    abstract int payloadArity();
+
+    abstract K getKey(int index);
+
+    /**
+     * @return true if the node and the other node contain the same keys, assuming they
+     * are at the same level
+     */
+    abstract boolean equivalent(Node<?> other);
+
+    final boolean isSingleton() {
+      return nodeArity() == 0 && payloadArity() == 1;
+    }
+  }
+
+  private static final class BitmapNode<K> extends Node<K> {
+    @SuppressWarnings("rawtypes")
+    static final BitmapNode EMPTY = new BitmapNode<>(PERSISTENT, 0, 0, new Object[0]);
+
+    private int dataMap;
+    private int nodeMap;
+    private Object[] content;
+
+    BitmapNode(AtomicReference<Thread> edit, int dataMap, int nodeMap, Object[] content) {
+      super(edit);
+      this.dataMap = dataMap;
+      this.nodeMap = nodeMap;
+      this.content = content;
+    }
+
+    private int dataIndex(int bitpos) {
+      return Integer.bitCount(dataMap & (bitpos - 1));
+    }
+
+    private int nodeIndex(int bitpos) {
+      return Integer.bitCount(nodeMap & (bitpos - 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node<K> nodeAt(int bitpos) {
+      return (Node<K>) content[content.length - 1 - nodeIndex(bitpos)];
+    }
+
+    @Override
+    boolean contains(Object key, int keyHash, int shift) {
+      int bitpos = bitpos(mask(keyHash, shift));
+
+      if ((dataMap & bitpos) != 0) {
+        return content[dataIndex(bitpos)].equals(key);
+      }
+
+      if ((nodeMap & bitpos) != 0) {
+        return nodeAt(bitpos).contains(key, keyHash, shift + BITS);
+      }
+
+      return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    Node<K> insert(AtomicReference<Thread> edit, K key, int keyHash, int shift, Change change) {
+      int bitpos = bitpos(mask(keyHash, shift));
+
+      if ((dataMap & bitpos) != 0) {
+        int index = dataIndex(bitpos);
+        K current = (K) content[index];
+
+        if (current.equals(key)) {
+          return this;
+        }
+
+        change.modified = true;
+        Node<K> sub = merge(edit, current, current.hashCode(), key, keyHash, shift + BITS);
+        return copyAndMigrateToNode(edit, bitpos, index, sub);
+      }
+
+      if ((nodeMap & bitpos) != 0) {
+        Node<K> sub = nodeAt(bitpos);
+        Node<K> newSub = sub.insert(edit, key, keyHash, shift + BITS, change);
+        return newSub == sub ? this : copyAndSetNode(edit, bitpos, newSub);
+      }
+
+      change.modified = true;
+      return copyAndInsertKey(edit, bitpos, key);
+    }
+
+    @Override
+    Node<K> delete(AtomicReference<Thread> edit, Object key, int keyHash, int shift, Change change) {
+      int bitpos = bitpos(mask(keyHash, shift));
+
+      if ((dataMap & bitpos) != 0) {
+        int index = dataIndex(bitpos);
+
+        if (!content[index].equals(key)) {
+          return this;
+        }
+
+        change.modified = true;
+
+        if (payloadArity() == 2 && nodeArity() == 0) {
+          // the remaining key becomes the root, or is inlined in the parent node;
+          // it shares the bits of the deleted key up to this level
+          int newDataMap = shift == 0 ? dataMap ^ bitpos : bitpos(mask(keyHash, 0));
+          return new BitmapNode<>(edit, newDataMap, 0, new Object[] { content[1 - index] });
+        }
+
+        return copyAndRemoveKey(edit, bitpos, index);
+      }
+
+      if ((nodeMap & bitpos) != 0) {
+        Node<K> sub = nodeAt(bitpos);
+        Node<K> newSub = sub.delete(edit, key, keyHash, shift + BITS, change);
+
+        if (!change.modified) {
+          return this;
+        }
+
+        if (newSub.isSingleton()) {
+          if (payloadArity() == 0 && nodeArity() == 1) {
+            // propagate the single key up to the parent
+            return newSub;
+          }
+
+          return copyAndMigrateToInline(edit, bitpos, newSub.getKey(0));
+        }
+
+        return newSub == sub ? this : copyAndSetNode(edit, bitpos, newSub);
+      }
+
+      return this;
+    }
+
+    private Node<K> update(AtomicReference<Thread> edit, int newDataMap, int newNodeMap, Object[] newContent) {
+      if (isEditable(edit)) {
+        dataMap = newDataMap;
+        nodeMap = newNodeMap;
+        content = newContent;
+        return this;
+      }
+
+      return new BitmapNode<>(edit, newDataMap, newNodeMap, newContent);
+    }
+
+    private Node<K> copyAndInsertKey(AtomicReference<Thread> edit, int bitpos, K key) {
+      int index = dataIndex(bitpos);
+      Object[] dst = new Object[content.length + 1];
+
+      System.arraycopy(content, 0, dst, 0, index);
+      dst[index] = key;
+      System.arraycopy(content, index, dst, index + 1, content.length - index);
+
+      return update(edit, dataMap | bitpos, nodeMap, dst);
+    }
+
+    private Node<K> copyAndRemoveKey(AtomicReference<Thread> edit, int bitpos, int index) {
+      Object[] dst = new Object[content.length - 1];
+
+      System.arraycopy(content, 0, dst, 0, index);
+      System.arraycopy(content, index + 1, dst, index, content.length - index - 1);
+
+      return update(edit, dataMap ^ bitpos, nodeMap, dst);
+    }
+
+    private Node<K> copyAndSetNode(AtomicReference<Thread> edit, int bitpos, Node<K> node) {
+      int position = content.length - 1 - nodeIndex(bitpos);
+
+      if (isEditable(edit)) {
+        content[position] = node;
+        return this;
+      }
+
+      Object[] dst = content.clone();
+      dst[position] = node;
+      return new BitmapNode<>(edit, dataMap, nodeMap, dst);
+    }
+
+    private Node<K> copyAndMigrateToNode(AtomicReference<Thread> edit, int bitpos, int index, Node<K> node) {
+      int position = content.length - 1 - nodeIndex(bitpos);
+      Object[] dst = new Object[content.length];
+
+      System.arraycopy(content, 0, dst, 0, index);
+      System.arraycopy(content, index + 1, dst, index, position - index);
+      dst[position] = node;
+      System.arraycopy(content, position + 1, dst, position + 1, content.length - position - 1);
+
+      return update(edit, dataMap ^ bitpos, nodeMap | bitpos, dst);
+    }
+
+    private Node<K> copyAndMigrateToInline(AtomicReference<Thread> edit, int bitpos, K key) {
+      int position = content.length - 1 - nodeIndex(bitpos);
+      int index = dataIndex(bitpos);
+      Object[] dst = new Object[content.length];
+
+      System.arraycopy(content, 0, dst, 0, index);
+      dst[index] = key;
+      System.arraycopy(content, index, dst, index + 1, position - index);
+      System.arraycopy(content, position + 1, dst, position + 1, content.length - position - 1);
+
+      return update(edit, dataMap | bitpos, nodeMap ^ bitpos, dst);
+    }
+
+    @Override
+    int nodeArity() {
+      return Integer.bitCount(nodeMap);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    Node<K> getNode(int index) {
+      return (Node<K>) content[content.length - 1 - index];
+    }
+
+    @Override
+    int payloadArity() {
+      return Integer.bitCount(dataMap);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    K getKey(int index) {
+      return (K) content[index];
+    }
+
+    @Override
+    boolean equivalent(Node<?> o) {
+      if (o == this) {
+        return true;
+      }
+
+      if (!(o instanceof BitmapNode)) {
+        return false;
+      }
+
+      BitmapNode<?> other = (BitmapNode<?>) o;
+
+      if (dataMap != other.dataMap || nodeMap != other.nodeMap) {
+        return false;
+      }
+
+      int payloadArity = payloadArity();
+      for (int i = 0; i < payloadArity; i++) {
+        if (!content[i].equals(other.content[i])) {
+          return false;
+        }
+      }
+
+      for (int i = payloadArity; i < content.length; i++) {
+        if (!((Node<?>) content[i]).equivalent((Node<?>) other.content[i])) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
+
+  /**
+   * The keys of which the hash codes are equal, below the last bitmap level.
+   */
+  private static final class CollisionNode<K> extends Node<K> {
+    private final int hash;
+    private Object[] keys;
+
+    CollisionNode(AtomicReference<Thread> edit, int hash, Object[] keys) {
+      super(edit);
+      this.hash = hash;
+      this.keys = keys;
+    }
+
+    private int indexOf(Object key) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i].equals(key)) {
+          return i;
+        }
+      }
+
+      return -1;
+    }
+
+    @Override
+    boolean contains(Object key, int keyHash, int shift) {
+      return keyHash == hash && indexOf(key) != -1;
+    }
+
+    @Override
+    Node<K> insert(AtomicReference<Thread> edit, K key, int keyHash, int shift, Change change) {
+      if (indexOf(key) != -1) {
+        return this;
+      }
+
+      change.modified = true;
+      Object[] dst = new Object[keys.length + 1];
+      System.arraycopy(keys, 0, dst, 0, keys.length);
+      dst[keys.length] = key;
+
+      return update(edit, dst);
+    }
+
+    @Override
+    Node<K> delete(AtomicReference<Thread> edit, Object key, int keyHash, int shift, Change change) {
+      int index = indexOf(key);
+
+      if (index == -1) {
+        return this;
+      }
+
+      change.modified = true;
+
+      if (keys.length == 2) {
+        // the remaining key is inlined in the parent node
+        return new BitmapNode<>(edit, bitpos(mask(hash, 0)), 0, new Object[] { keys[1 - index] });
+      }
+
+      Object[] dst = new Object[keys.length - 1];
+      System.arraycopy(keys, 0, dst, 0, index);
+      System.arraycopy(keys, index + 1, dst, index, keys.length - index - 1);
+
+      return update(edit, dst);
+    }
+
+    private Node<K> update(AtomicReference<Thread> edit, Object[] newKeys) {
+      if (isEditable(edit)) {
+        keys = newKeys;
+        return this;
+      }
+
+      return new CollisionNode<>(edit, hash, newKeys);
+    }
+
+    @Override
+    int nodeArity() {
+      return 0;
+    }
+
+    @Override
+    Node<K> getNode(int index) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    int payloadArity() {
+      return keys.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    K getKey(int index) {
+      return (K) keys[index];
+    }
+
+    @Override
+    boolean equivalent(Node<?> o) {
+      if (o == this) {
+        return true;
+      }
+
+      if (!(o instanceof CollisionNode)) {
+        return false;
+      }
+
+      CollisionNode<?> other = (CollisionNode<?>) o;
+
+      if (hash != other.hash || keys.length != other.keys.length) {
+        return false;
+      }
+
+      for (Object key : other.keys) {
+        if (indexOf(key) == -1) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
+
+  /**
+   * Visits the keys of a node before the keys of its sub-nodes, such that the
+   * keys are read in runs from the arrays of the nodes.
+   */
+  private static final class TrieIterator<K> implements Iterator<K> {
+    private final Object[] nodes = new Object[MAX_DEPTH];
+    private final int[] nodeCursors = new int[MAX_DEPTH];
+    private final int[] nodeLengths = new int[MAX_DEPTH];
+    private int level = -1;
+
+    private Node<K> payloadNode;
+    private int payloadCursor;
+    private int payloadLength;
+
+    TrieIterator(Node<K> root) {
+      if (root.nodeArity() > 0) {
+        push(root);
+      }
+
+      payloadNode = root;
+      payloadLength = root.payloadArity();
+    }
+
+    private void push(Node<K> node) {
+      level++;
+      nodes[level] = node;
+      nodeCursors[level] = 0;
+      nodeLengths[level] = node.nodeArity();
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean searchNextPayload() {
+      while (level >= 0) {
+        if (nodeCursors[level] < nodeLengths[level]) {
+          Node<K> next = ((Node<K>) nodes[level]).getNode(nodeCursors[level]++);
+
+          if (next.nodeArity() > 0) {
+            push(next);
+          }
+
+          if (next.payloadArity() > 0) {
+            payloadNode = next;
+            payloadCursor = 0;
+            payloadLength = next.payloadArity();
+            return true;
+          }
+        }
+        else {
+          nodes[level] = null;
+          level--;
+        }
+      }
+
+      return false;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return payloadCursor < payloadLength || searchNextPayload();
+    }
+
+    @Override
+    public K next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      return payloadNode.getKey(payloadCursor++);
+    }
+  }
+}
@@ -0,0 +1,465 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.rascalmpl.value.ITuple;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.exceptions.FactTypeUseException;
+import org.rascalmpl.value.impl.AbstractValue;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.type.TypeFactory;
+import org.rascalmpl.value.visitors.IValueVisitor;
+
+/**
+ * A tuple, as stored in relations and produced by their operations. The type
+ * of a tuple is computed from the types of its elements, and its hash code is
+ * computed once.
+ * <p>
+ * Tuples of arity 0 to 4 store their elements in fields, which saves the
+ * array of the elements: a binary tuple takes 24 bytes instead of 48 with
+ * compressed references. Only tuples of a higher arity are {@link TupleN}s,
+ * hence two equal tuples are always of the same class.
+ */
+/* package */ abstract class Tuple extends AbstractValue implements ITuple {
+  private static final TypeFactory TF = TypeFactory.getInstance();
+
+  static final Tuple EMPTY = new Tuple0();
+
+  private int hashCode;
+
+  static Tuple of(IValue first, IValue second) {
+    return new Tuple2(first, second);
+  }
+
+  /**
+   * @return a tuple of the elements, which does not share the array
+   */
+  static Tuple copyOf(IValue[] elements) {
+    return elements.length > 4 ? new TupleN(elements.clone()) : wrap(elements);
+  }
+
+  /**
+   * @return a tuple of the elements, which may keep the array
+   */
+  private static Tuple wrap(IValue[] elements) {
+    switch (elements.length) {
+      case 0:
+        return EMPTY;
+      case 1:
+        return new Tuple1(elements[0]);
+      case 2:
+        return new Tuple2(elements[0], elements[1]);
+      case 3:
+        return new Tuple3(elements[0], elements[1], elements[2]);
+      case 4:
+        return new Tuple4(elements[0], elements[1], elements[2], elements[3]);
+      default:
+        return new TupleN(elements);
+    }
+  }
+
+  private IValue[] toArray() {
+    IValue[] elements = new IValue[arity()];
+
+    for (int i = 0; i < elements.length; i++) {
+      elements[i] = get(i);
+    }
+
+    return elements;
+  }
+
+  @Override
+  public Type getType() {
+    return TF.tupleType(toArray());
+  }
+
+  @Override
+  public <T, E extends Throwable> T accept(IValueVisitor<T, E> v) throws E {
+    return v.visitTuple(this);
+  }
+
+  @Override
+  public Iterator<IValue> iterator() {
+    return new Iterator<IValue>() {
+      private int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < arity();
+      }
+
+      @Override
+      public IValue next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+
+        return get(next++);
+      }
+    };
+  }
+
+  @Override
+  @Deprecated
+  public IValue get(String label) throws FactTypeUseException {
+    return get(getType().getFieldIndex(label));
+  }
+
+  @Override
+  @Deprecated
+  public ITuple set(String label, IValue arg) throws FactTypeUseException {
+    return set(getType().getFieldIndex(label), arg);
+  }
+
+  @Override
+  public IValue select(int... fields) throws IndexOutOfBoundsException {
+    if (fields.length == 1) {
+      return get(fields[0]);
+    }
+
+    IValue[] selected = new IValue[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      selected[i] = get(fields[i]);
+    }
+
+    return wrap(selected);
+  }
+
+  @Override
+  @Deprecated
+  public IValue selectByFieldNames(String... fields) throws FactTypeUseException {
+    Type type = getType();
+    int[] indexes = new int[fields.length];
+
+    for (int i = 0; i < fields.length; i++) {
+      indexes[i] = type.getFieldIndex(fields[i]);
+    }
+
+    return select(indexes);
+  }
+
+  /**
+   * @return the hash code of the elements, as {@link java.util.Arrays#hashCode(Object[])}
+   */
+  @Override
+  public int hashCode() {
+    int h = hashCode;
+
+    if (h == 0) {
+      h = 1;
+      for (int i = 0; i < arity(); i++) {
+        h = 31 * h + get(i).hashCode();
+      }
+      hashCode = h;
+    }
+
+    return h;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+
+    if (o == null || o.getClass() != getClass()) {
+      return false;
+    }
+
+    Tuple other = (Tuple) o;
+
+    if (hashCode() != other.hashCode() || arity() != other.arity()) {
+      return false;
+    }
+
+    for (int i = 0; i < arity(); i++) {
+      if (!get(i).equals(other.get(i))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean isEqual(IValue value) {
+    if (value == this) {
+      return true;
+    }
+
+    if (!(value instanceof ITuple)) {
+      return false;
+    }
+
+    ITuple other = (ITuple) value;
+
+    if (other.arity() != arity()) {
+      return false;
+    }
+
+    for (int i = 0; i < arity(); i++) {
+      if (!get(i).isEqual(other.get(i))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder("<");
+
+    for (int i = 0; i < arity(); i++) {
+      if (i > 0) {
+        b.append(',');
+      }
+      b.append(get(i));
+    }
+
+    return b.append('>').toString();
+  }
+
+  private static final class Tuple0 extends Tuple {
+    @Override
+    public int arity() {
+      return 0;
+    }
+
+    @Override
+    public IValue get(int i) {
+      throw new IndexOutOfBoundsException("Index: " + i + ", arity: 0");
+    }
+
+    @Override
+    public ITuple set(int i, IValue arg) {
+      throw new IndexOutOfBoundsException("Index: " + i + ", arity: 0");
+    }
+  }
+
+  private static final class Tuple1 extends Tuple {
+    private final IValue e0;
+
+    Tuple1(IValue e0) {
+      this.e0 = e0;
+    }
+
+    @Override
+    public int arity() {
+      return 1;
+    }
+
+    @Override
+    public IValue get(int i) {
+      if (i == 0) {
+        return e0;
+      }
+
+      throw new IndexOutOfBoundsException("Index: " + i + ", arity: 1");
+    }
+
+    @Override
+    public ITuple set(int i, IValue arg) {
+      if (i == 0) {
+        return new Tuple1(arg);
+      }
+
+      throw new IndexOutOfBoundsException("Index: " + i + ", arity: 1");
+    }
+  }
+
+  private static final class Tuple2 extends Tuple {
+    private final IValue e0;
+    private final IValue e1;
+
+    Tuple2(IValue e0, IValue e1) {
+      this.e0 = e0;
+      this.e1 = e1;
+    }
+
+    @Override
+    public int arity() {
+      return 2;
+    }
+
+    @Override
+    public IValue get(int i) {
+      switch (i) {
+        case 0:
+          return e0;
+        case 1:
+          return e1;
+        default:
+          throw new IndexOutOfBoundsException("Index: " + i + ", arity: 2");
+      }
+    }
+
+    @Override
+    public ITuple set(int i, IValue arg) {
+      switch (i) {
+        case 0:
+          return new Tuple2(arg, e1);
+        case 1:
+          return new Tuple2(e0, arg);
+        default:
+          throw new IndexOutOfBoundsException("Index: " + i + ", arity: 2");
+      }
+    }
+
+    @Override
+    public Type getType() {
+      return TF.tupleType(e0.getType(), e1.getType());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      }
+
+      if (!(o instanceof Tuple2)) {
+        return false;
+      }
+
+      Tuple2 other = (Tuple2) o;
+      return hashCode() == other.hashCode() && e0.equals(other.e0) && e1.equals(other.e1);
+    }
+  }
+
+  private static final class Tuple3 extends Tuple {
+    private final IValue e0;
+    private final IValue e1;
+    private final IValue e2;
+
+    Tuple3(IValue e0, IValue e1, IValue e2) {
+      this.e0 = e0;
+      this.e1 = e1;
+      this.e2 = e2;
+    }
+
+    @Override
+    public int arity() {
+      return 3;
+    }
+
+    @Override
+    public IValue get(int i) {
+      switch (i) {
+        case 0:
+          return e0;
+        case 1:
+          return e1;
+        case 2:
+          return e2;
+        default:
+          throw new IndexOutOfBoundsException("Index: " + i + ", arity: 3");
+      }
+    }
+
+    @Override
+    public ITuple set(int i, IValue arg) {
+      switch (i) {
+        case 0:
+          return new Tuple3(arg, e1, e2);
+        case 1:
+          return new Tuple3(e0, arg, e2);
+        case 2:
+          return new Tuple3(e0, e1, arg);
+        default:
+          throw new IndexOutOfBoundsException("Index: " + i + ", arity: 3");
+      }
+    }
+  }
+
+  private static final class Tuple4 extends Tuple {
+    private final IValue e0;
+    private final IValue e1;
+    private final IValue e2;
+    private final IValue e3;
+
+    Tuple4(IValue e0, IValue e1, IValue e2, IValue e3) {
+      this.e0 = e0;
+      this.e1 = e1;
+      this.e2 = e2;
+      this.e3 = e3;
+    }
+
+    @Override
+    public int arity() {
+      return 4;
+    }
+
+    @Override
+    public IValue get(int i) {
+      switch (i) {
+        case 0:
+          return e0;
+        case 1:
+          return e1;
+        case 2:
+          return e2;
+        case 3:
+          return e3;
+        default:
+          throw new IndexOutOfBoundsException("Index: " + i + ", arity: 4");
+      }
+    }
+
+    @Override
+    public ITuple set(int i, IValue arg) {
+      switch (i) {
+        case 0:
+          return new Tuple4(arg, e1, e2, e3);
+        case 1:
+          return new Tuple4(e0, arg, e2, e3);
+        case 2:
+          return new Tuple4(e0, e1, arg, e3);
+        case 3:
+          return new Tuple4(e0, e1, e2, arg);
+        default:
+          throw new IndexOutOfBoundsException("Index: " + i + ", arity: 4");
+      }
+    }
+  }
+
+  /**
+   * A tuple of more than four elements.
+   */
+  private static final class TupleN extends Tuple {
+    private final IValue[] elements;
+
+    TupleN(IValue[] elements) {
+      this.elements = elements;
+    }
+
+    @Override
+    public int arity() {
+      return elements.length;
+    }
+
+    @Override
+    public IValue get(int i) {
+      return elements[i];
+    }
+
+    @Override
+    public ITuple set(int i, IValue arg) {
+      IValue[] copy = elements.clone();
+      copy[i] = arg;
+      return new TupleN(copy);
+    }
+
+    @Override
+    public Type getType() {
+      return TF.tupleType(elements);
+    }
+  }
+}
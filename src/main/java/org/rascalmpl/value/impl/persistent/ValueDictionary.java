@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.util.Arrays;
+
+import org.rascalmpl.value.IValue;
+
+/**
+ * Numbers distinct values densely from 0, in the order in which they are
+ * first encoded, such that relations can be computed on ints (see
+ * {@link IntRelation}). The values are hashed once, into an open addressing
+ * table which stores the numbers in a parallel int array.
+ * <p>
+ * A dictionary is not thread-safe while values are encoded; once that is
+ * done it may be decoded from by several threads.
+ */
+/* package */ final class ValueDictionary {
+  private static final int INITIAL_CAPACITY = 64;
+
+  private IValue[] keys = new IValue[INITIAL_CAPACITY];
+  private int[] ids = new int[INITIAL_CAPACITY];
+  private IValue[] values = new IValue[INITIAL_CAPACITY / 2];
+  private int size;
+
+  /**
+   * @return the number of distinct values, which is one more than the
+   *         highest number
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of the value, which is numbered now if it was not yet
+   */
+  int encode(IValue value) {
+    int mask = keys.length - 1;
+    int i = mix(value.hashCode()) & mask;
+
+    for (IValue key; (key = keys[i]) != null; i = (i + 1) & mask) {
+      if (key == value || key.equals(value)) {
+        return ids[i];
+      }
+    }
+
+    int id = size++;
+    keys[i] = value;
+    ids[i] = id;
+
+    if (id == values.length) {
+      values = Arrays.copyOf(values, id * 2);
+    }
+    values[id] = value;
+
+    if (size > keys.length / 2) {
+      resize();
+    }
+
+    return id;
+  }
+
+  /**
+   * @return the value of the number
+   */
+  IValue decode(int id) {
+    return values[id];
+  }
+
+  private void resize() {
+    IValue[] oldKeys = keys;
+    int[] oldIds = ids;
+    keys = new IValue[oldKeys.length * 2];
+    ids = new int[oldKeys.length * 2];
+    int mask = keys.length - 1;
+
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldKeys[j] != null) {
+        int i = mix(oldKeys[j].hashCode()) & mask;
+
+        while (keys[i] != null) {
+          i = (i + 1) & mask;
+        }
+
+        keys[i] = oldKeys[j];
+        ids[i] = oldIds[j];
+      }
+    }
+  }
+
+  /**
+   * Spreads the hash codes of values which differ in few or high bits, such
+   * as those of small integers, over the bits of the table index.
+   */
+  private static int mix(int h) {
+    h *= 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+}
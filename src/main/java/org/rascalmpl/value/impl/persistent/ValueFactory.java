@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import java.math.BigInteger;
+
+import org.rascalmpl.value.IInteger;
+import org.rascalmpl.value.IList;
+import org.rascalmpl.value.IListWriter;
+import org.rascalmpl.value.IMap;
+import org.rascalmpl.value.IMapWriter;
+import org.rascalmpl.value.IRational;
+import org.rascalmpl.value.IString;
+import org.rascalmpl.value.ISet;
+import org.rascalmpl.value.ISetWriter;
+import org.rascalmpl.value.ITuple;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.IValueFactory;
+import org.rascalmpl.value.exceptions.UnexpectedElementTypeException;
+import org.rascalmpl.value.impl.AbstractValueFactoryAdapter;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.type.TypeFactory;
+
+/**
+ * A value factory of which the sets, relations and maps are persistent hash
+ * tries, and the lists are relaxed radix-balanced trees, which share their
+ * structure with the collections they were derived from (see {@link TrieSet},
+ * {@link TrieMap} and {@link RrbTree}). The tuples in relations are created by
+ * this factory as well, and so are integers and strings (see
+ * {@link IntegerValue} and {@link StringValue}); all other values are created
+ * by the adapted factory.
+ * <p>
+ * Integers which fit in a long are stored as a long, and the integers from
+ * -128 to 1023 are shared. Arithmetic with reals and rationals is left to the
+ * integers of the adapted factory, hence such values must be created by the
+ * adapted factory or this one.
+ * <p>
+ * Tuples are typed by their elements, hence the field names of the type given
+ * to {@link #tuple(Type, IValue...)} are not kept.
+ */
+public class ValueFactory extends AbstractValueFactoryAdapter {
+  private static final TypeFactory TF = TypeFactory.getInstance();
+  private static final int MIN_CACHED_INTEGER = -128;
+  private static final int MAX_CACHED_INTEGER = 1023;
+
+  private final SmallInteger[] integers = new SmallInteger[MAX_CACHED_INTEGER - MIN_CACHED_INTEGER + 1];
+
+  public ValueFactory(IValueFactory adapted) {
+    super(adapted);
+
+    for (int i = 0; i < integers.length; i++) {
+      integers[i] = new SmallInteger(this, MIN_CACHED_INTEGER + i);
+    }
+  }
+
+  IValueFactory adapted() {
+    return adapted;
+  }
+
+  @Override
+  public IInteger integer(int i) {
+    return integer((long) i);
+  }
+
+  @Override
+  public IInteger integer(long i) {
+    if (i >= MIN_CACHED_INTEGER && i <= MAX_CACHED_INTEGER) {
+      return integers[(int) i - MIN_CACHED_INTEGER];
+    }
+
+    return new SmallInteger(this, i);
+  }
+
+  @Override
+  public IInteger integer(String i) {
+    return integer(new BigInteger(i));
+  }
+
+  @Override
+  public IInteger integer(byte[] a) {
+    return integer(new BigInteger(a));
+  }
+
+  /**
+   * @return a small integer if the value fits in a long, and a large integer otherwise
+   */
+  IInteger integer(BigInteger value) {
+    return value.bitLength() < Long.SIZE ? integer(value.longValue()) : new LargeInteger(this, value);
+  }
+
+  @Override
+  public IString string(String s) {
+    return FlatString.of(s);
+  }
+
+  @Override
+  public IString string(int[] chars) {
+    StringBuilder b = new StringBuilder(chars.length);
+    for (int ch : chars) {
+      b.appendCodePoint(ch);
+    }
+
+    return FlatString.of(b.toString());
+  }
+
+  @Override
+  public IString string(int ch) {
+    return FlatString.of(new StringBuilder(2).appendCodePoint(ch).toString());
+  }
+
+  @Override
+  public IRational rational(IInteger a, IInteger b) {
+    return adapted.rational(IntegerValue.adapted(a), IntegerValue.adapted(b));
+  }
+
+  @Override
+  public ITuple tuple() {
+    return Tuple.EMPTY;
+  }
+
+  @Override
+  public ITuple tuple(IValue... args) {
+    return Tuple.copyOf(args);
+  }
+
+  @Override
+  @Deprecated
+  public ITuple tuple(Type type, IValue... args) {
+    ITuple tuple = tuple(args);
+
+    if (!tuple.getType().isSubtypeOf(type)) {
+      throw new UnexpectedElementTypeException(type, tuple.getType());
+    }
+
+    return tuple;
+  }
+
+  @Override
+  public IList list(Type eltType) {
+    return PersistentList.empty(eltType);
+  }
+
+  @Override
+  @Deprecated
+  public IListWriter listWriter(Type eltType) {
+    return new ListWriter(eltType);
+  }
+
+  @Override
+  public IListWriter listWriter() {
+    return new ListWriter(null);
+  }
+
+  @Override
+  public IList list(IValue... elems) {
+    IListWriter writer = listWriter();
+    writer.append(elems);
+    return writer.done();
+  }
+
+  @Override
+  @Deprecated
+  public IList listRelation(Type tupleType) {
+    return list(tupleType);
+  }
+
+  @Override
+  @Deprecated
+  public IList listRelation(IValue... elems) {
+    return list(elems);
+  }
+
+  @Override
+  @Deprecated
+  public IListWriter listRelationWriter(Type type) {
+    return listWriter(type);
+  }
+
+  @Override
+  @Deprecated
+  public IListWriter listRelationWriter() {
+    return listWriter();
+  }
+
+  @Override
+  public ISet set(Type eltType) {
+    return PersistentSet.empty(eltType);
+  }
+
+  @Override
+  @Deprecated
+  public ISetWriter setWriter(Type eltType) {
+    return new SetWriter(eltType);
+  }
+
+  @Override
+  public ISetWriter setWriter() {
+    return new SetWriter(null);
+  }
+
+  @Override
+  public ISet set(IValue... elems) {
+    ISetWriter writer = setWriter();
+    writer.insert(elems);
+    return writer.done();
+  }
+
+  @Override
+  @Deprecated
+  public ISet relation(Type tupleType) {
+    return set(tupleType);
+  }
+
+  @Override
+  @Deprecated
+  public ISetWriter relationWriter(Type type) {
+    return setWriter(type);
+  }
+
+  @Override
+  @Deprecated
+  public ISetWriter relationWriter() {
+    return setWriter();
+  }
+
+  @Override
+  @Deprecated
+  public ISet relation(IValue... elems) {
+    return set(elems);
+  }
+
+  @Override
+  @Deprecated
+  public IMap map(Type key, Type value) {
+    return PersistentMap.empty(key, value);
+  }
+
+  @Override
+  @Deprecated
+  public IMap map(Type mapType) {
+    return PersistentMap.empty(mapType.getKeyType(), mapType.getValueType());
+  }
+
+  @Override
+  @Deprecated
+  public IMapWriter mapWriter(Type mapType) {
+    return new MapWriter(mapType);
+  }
+
+  @Override
+  @Deprecated
+  public IMapWriter mapWriter(Type key, Type value) {
+    return new MapWriter(TF.mapType(key, value));
+  }
+
+  @Override
+  public IMapWriter mapWriter() {
+    return new MapWriter(null);
+  }
+}
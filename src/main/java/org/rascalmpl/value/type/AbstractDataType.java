@@ -44,12 +44,17 @@ import org.rascalmpl.value.exceptions.UndeclaredAnnotationException;
     }
 
     @Override
-    public Type lub(Type other) {
+    /* package */ int computeKinds() {
+        return KIND_NODE | KIND_ABSTRACT_DATA;
+    }
+
+    @Override
+    protected Type computeLub(Type other) {
         return other.lubWithAbstractData(this);
     }
 
     @Override
-    public Type glb(Type type) {
+    protected Type computeGlb(Type type) {
         return type.glbWithAbstractData(this);
     }
 
@@ -205,11 +210,7 @@ import org.rascalmpl.value.exceptions.UndeclaredAnnotationException;
     }
 
     @Override
-    public Type instantiate(Map<Type, Type> bindings) {
-        if (bindings.isEmpty()) {
-            return this;
-        }
-
+    protected Type instantiateOpen(Map<Type, Type> bindings) {
         Type[] params = new Type[0];
         if (isParameterized()) {
             params = new Type[fParameters.getArity()];
@@ -246,8 +247,8 @@ import org.rascalmpl.value.exceptions.UndeclaredAnnotationException;
     }
 
     @Override
-    public boolean match(Type matched, Map<Type, Type> bindings) throws FactTypeUseException {
-        return super.match(matched, bindings) && fParameters.match(matched.getTypeParameters(), bindings);
+    protected boolean matchOpen(Type matched, Map<Type, Type> bindings) throws FactTypeUseException {
+        return super.matchOpen(matched, bindings) && fParameters.match(matched.getTypeParameters(), bindings);
     }
 
     @Override
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.type;
+
+/**
+ * Replaces aliases by the types they stand for, as done for the field types of
+ * declared constructors. The expansion of an alias is computed only once and
+ * then cached by its {@link AliasType}; since alias types are canonical, this
+ * also covers every instantiation of a parameterized alias.
+ * <p>
+ * Aliases are expanded in the elements of collections, in the bounds of type
+ * parameters and in the fields of tuples and constructors, but not in the type
+ * parameters of abstract data types. Alias types can not be circular, because
+ * an alias must be constructed before the types that contain it.
+ */
+/* package */ final class AliasExpander implements ITypeVisitor<Type, RuntimeException> {
+  private static final AliasExpander INSTANCE = new AliasExpander();
+  private static final TypeFactory TF = TypeFactory.getInstance();
+
+  private AliasExpander() {
+    super();
+  }
+
+  /**
+   * @return the type with its aliases expanded
+   */
+  static Type expand(Type type) {
+    return type.accept(INSTANCE);
+  }
+
+  /**
+   * @return the fully expanded type an alias stands for, or the type itself if it is not an alias
+   */
+  static Type unalias(Type type) {
+    return type.isAliased() ? ((AliasType) type).getExpanded() : type;
+  }
+
+  @Override
+  public Type visitReal(Type type) {
+    return type;
+  }
+
+  @Override
+  public Type visitInteger(Type type) {
+    return type;
+  }
+
+  @Override
+  public Type visitRational(Type type) {
+    return type;
+  }
+
+  @Override
+  public Type visitList(Type type) {
+    return TF.listType(expand(type.getElementType()));
+  }
+
+  @Override
+  public Type visitMap(Type type) {
+    return TF.mapType(expand(type.getKeyType()), expand(type.getValueType()));
+  }
+
+  @Override
+  public Type visitNumber(Type type) {
+    return type;
+  }
+
+  @Override
+  public Type visitAlias(Type type) {
+    return ((AliasType) type).getExpanded();
+  }
+
+  @Override
+  public Type visitSet(Type type) {
+    return TF.setType(expand(type.getElementType()));
+  }
+
+  @Override
+  public Type visitSourceLocation(Type type) {
+    return type;
+  }
+
+  @Override
+  public Type visitString(Type type) {
+    return type;
+  }
+
+  @Override
+  public Type visitNode(Type type) {
+    return type;
+  }
+
+  @Override
+  public Type visitConstructor(Type type) {
+    Type fieldTypes = expand(type.getFieldTypes());
+
+    if (fieldTypes == type.getFieldTypes()) {
+      return type;
+    }
+
+    return TF.getFromCache(new ConstructorType(type.getName(), fieldTypes, type.getAbstractDataType()));
+  }
+
+  @Override
+  public Type visitAbstractData(Type type) {
+    return type;
+  }
+
+  @Override
+  public Type visitTuple(Type type) {
+    int arity = type.getArity();
+    Type fieldTypes[] = new Type[arity];
+    String fieldNames[] = type.getFieldNames();
+    boolean aliasFound = false;
+
+    for (int i = 0; i < arity; i++) {
+      Type fieldType = type.getFieldType(i);
+
+      if (fieldType.isAliased()) {
+        aliasFound = true;
+        fieldType = unalias(fieldType);
+      }
+      fieldTypes[i] = fieldType;
+    }
+
+    if (aliasFound) {
+      // the labels are kept, and this is the only factory of labeled tuples
+      @SuppressWarnings("deprecation")
+      Type expanded = fieldNames == null ? TF.tupleType(fieldTypes) : TF.tupleType(fieldTypes, fieldNames);
+      return expanded;
+    }
+
+    return type;
+  }
+
+  @Override
+  public Type visitValue(Type type) {
+    return type;
+  }
+
+  @Override
+  public Type visitVoid(Type type) {
+    return type;
+  }
+
+  @Override
+  public Type visitBool(Type type) {
+    return type;
+  }
+
+  @Override
+  public Type visitParameter(Type type) {
+    return TF.parameterType(type.getName(), expand(type.getBound()));
+  }
+
+  @Override
+  public Type visitExternal(Type type) {
+    // TODO: it is unclear how aliases in externalTypes can be expanded in an extensible fashion
+    // (rather than listing all cases here).
+    return type;
+  }
+
+  @Override
+  public Type visitDateTime(Type type) {
+    return type;
+  }
+}
@@ -33,6 +33,7 @@ import org.rascalmpl.value.exceptions.FactTypeUseException;
 	private final String fName;
 	private final Type fAliased;
 	private final Type fParameters;
+	private volatile Type fExpanded;
 
 	/* package */ AliasType(String name, Type aliased) {
 		fName = name;
@@ -56,11 +57,30 @@ import org.rascalmpl.value.exceptions.FactTypeUseException;
 		return fParameters.isOpen();
 	}
 
+	@Override
+	/* package */ int computeKinds() {
+		return fAliased.getKinds();
+	}
+
 	@Override
 	public boolean isAliased() {
 		return true;
 	}
 
+	/**
+	 * @return the aliased type with all aliases in it expanded, see {@link AliasExpander}
+	 */
+	/* package */ Type getExpanded() {
+		Type result = fExpanded;
+
+		if (result == null) {
+			result = AliasExpander.expand(fAliased);
+			fExpanded = result;
+		}
+
+		return result;
+	}
+
 	@Override
 	public boolean isFixedWidth() {
 		return fAliased.isFixedWidth();
@@ -90,12 +110,12 @@ import org.rascalmpl.value.exceptions.FactTypeUseException;
 	}
 
 	@Override
-	public Type lub(Type other) {
+	protected Type computeLub(Type other) {
 		return other.lubWithAlias(this);
 	}
 
 	@Override
-	public Type glb(Type type) {
+	protected Type computeGlb(Type type) {
 		return type.glbWithAlias(this);
 	}
 
@@ -225,7 +245,7 @@ import org.rascalmpl.value.exceptions.FactTypeUseException;
 	}	
 
 	@Override
-	public Type instantiate(Map<Type, Type> bindings) {
+	protected Type instantiateOpen(Map<Type, Type> bindings) {
 		Type[] params = new Type[0];
 		if (isParameterized()) {
 			params = new Type[fParameters.getArity()];
@@ -248,8 +268,8 @@ import org.rascalmpl.value.exceptions.FactTypeUseException;
 	}
 
 	@Override
-	public boolean match(Type matched, Map<Type, Type> bindings) throws FactTypeUseException {
-		return super.match(matched, bindings) && fAliased.match(matched, bindings);
+	protected boolean matchOpen(Type matched, Map<Type, Type> bindings) throws FactTypeUseException {
+		return super.matchOpen(matched, bindings) && fAliased.match(matched, bindings);
 	}
 
 	@Override
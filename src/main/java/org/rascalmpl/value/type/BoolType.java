@@ -45,6 +45,11 @@ package org.rascalmpl.value.type;
 		return "bool";
 	}
 
+	@Override
+	/* package */ int computeKinds() {
+		return KIND_BOOL;
+	}
+	
 	@Override
 	public <T,E extends Throwable> T accept(ITypeVisitor<T,E> visitor) throws E {
 		return visitor.visitBool(this);
@@ -56,7 +61,7 @@ package org.rascalmpl.value.type;
   }
   
   @Override
-  public Type lub(Type other) {
+  protected Type computeLub(Type other) {
     return other.lubWithBool(this);
   }
   
@@ -71,7 +76,7 @@ package org.rascalmpl.value.type;
   }
   
   @Override
-  public Type glb(Type type) {
+  protected Type computeGlb(Type type) {
     return type.glbWithBool(this);
   }
   
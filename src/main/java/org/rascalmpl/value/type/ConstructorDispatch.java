@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A decision tree which selects, for the types of the arguments, one of the
+ * overloaded alternatives of a constructor with the same name, as
+ * {@link TypeStore#lookupConstructor(Type, String, Type)} does.
+ * <p>
+ * The first level of the tree distinguishes the alternatives by arity. The
+ * second level picks, per arity, the argument position at which the most
+ * alternatives have a field type with no other sub-types than itself (a
+ * non-parameterized abstract data type or an atomic type such as int or str),
+ * and indexes the alternatives on that field type. An argument of such a type
+ * can then only match the alternatives indexed on its type, and the remaining
+ * alternatives which have a more general field type at that position. Only
+ * these candidates are checked using sub-typing.
+ */
+/* package */ final class ConstructorDispatch {
+  private static final Type[] NONE = new Type[0];
+  private static final Set<Class<?>> EXACT_CLASSES = new HashSet<>();
+
+  static {
+    EXACT_CLASSES.add(BoolType.class);
+    EXACT_CLASSES.add(IntegerType.class);
+    EXACT_CLASSES.add(RealType.class);
+    EXACT_CLASSES.add(RationalType.class);
+    EXACT_CLASSES.add(StringType.class);
+    EXACT_CLASSES.add(SourceLocationType.class);
+    EXACT_CLASSES.add(DateTimeType.class);
+  }
+
+  private final Type[] alternatives;
+  private final Map<Integer, Branch> byArity = new HashMap<>();
+
+  ConstructorDispatch(Set<Type> alternatives) {
+    this.alternatives = alternatives.toArray(new Type[alternatives.size()]);
+
+    Map<Integer, List<Type>> grouped = new HashMap<>();
+    for (Type alt : this.alternatives) {
+      grouped.computeIfAbsent(alt.getArity(), a -> new ArrayList<>()).add(alt);
+    }
+
+    for (Map.Entry<Integer, List<Type>> entry : grouped.entrySet()) {
+      byArity.put(entry.getKey(), new Branch(entry.getKey(), entry.getValue()));
+    }
+  }
+
+  /**
+   * @return an alternative of which the field types are a super-type of args, or null
+   */
+  Type lookup(Type args) {
+    if (args.isBottom() || !args.isFixedWidth()) {
+      // void is a sub-type of the fields of every arity
+      return scan(alternatives, args);
+    }
+
+    Branch branch = byArity.get(args.getArity());
+    return branch != null ? branch.lookup(args) : null;
+  }
+
+  private static Type scan(Type[] candidates, Type args) {
+    for (Type cand : candidates) {
+      if (args.isSubtypeOf(cand.getFieldTypes())) {
+        return cand;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * @return the field type itself if its only sub-types are itself and void (modulo
+   * aliases and constructors of an abstract data type), or null otherwise.
+   */
+  private static Type exactKey(Type field) {
+    field = AliasExpander.unalias(field);
+
+    if (field.getClass() == AbstractDataType.class && !field.isParameterized()) {
+      return field;
+    }
+
+    return EXACT_CLASSES.contains(field.getClass()) ? field : null;
+  }
+
+  /**
+   * The alternatives of a single arity.
+   */
+  private static final class Branch {
+    private final Type[] candidates;
+    private final int position;
+    private final Map<Type, Type[]> indexed = new HashMap<>();
+    private final Type[] general;
+
+    Branch(int arity, List<Type> candidates) {
+      this.candidates = candidates.toArray(new Type[candidates.size()]);
+      this.position = selectPosition(arity, candidates);
+
+      if (position == -1) {
+        this.general = NONE;
+        return;
+      }
+
+      Map<Type, List<Type>> index = new HashMap<>();
+      List<Type> general = new ArrayList<>();
+
+      for (Type cand : candidates) {
+        Type key = exactKey(cand.getFieldType(position));
+
+        if (key != null) {
+          index.computeIfAbsent(key, k -> new ArrayList<>()).add(cand);
+        }
+        else {
+          general.add(cand);
+        }
+      }
+
+      for (Map.Entry<Type, List<Type>> entry : index.entrySet()) {
+        List<Type> list = entry.getValue();
+        list.addAll(general);
+        indexed.put(entry.getKey(), list.toArray(new Type[list.size()]));
+      }
+
+      this.general = general.toArray(new Type[general.size()]);
+    }
+
+    /**
+     * @return the argument position which discriminates between the most
+     * alternatives, or -1 if no position is worth indexing
+     */
+    private static int selectPosition(int arity, List<Type> candidates) {
+      int best = -1;
+      int bestKeys = 1;
+
+      for (int i = 0; i < arity; i++) {
+        Set<Type> keys = new HashSet<>();
+
+        for (Type cand : candidates) {
+          Type key = exactKey(cand.getFieldType(i));
+          if (key != null) {
+            keys.add(key);
+          }
+        }
+
+        if (keys.size() > bestKeys) {
+          best = i;
+          bestKeys = keys.size();
+        }
+      }
+
+      return best;
+    }
+
+    Type lookup(Type args) {
+      if (position == -1) {
+        return scan(candidates, args);
+      }
+
+      Type arg = args.getFieldType(position);
+      arg = AliasExpander.unalias(arg);
+
+      if (arg.isBottom() || arg.isOpen() || arg.isExternalType()) {
+        // may be a sub-type of any of the field types
+        return scan(candidates, args);
+      }
+
+      if (arg.getClass() == ConstructorType.class) {
+        arg = arg.getAbstractDataType();
+      }
+
+      Type key = exactKey(arg);
+      Type[] selected = key != null ? indexed.get(key) : null;
+
+      return scan(selected != null ? selected : general, args);
+    }
+  }
+}
@@ -171,6 +171,16 @@ import org.rascalmpl.value.exceptions.UndeclaredAnnotationException;
 		return fChildrenTypes.hasFieldNames();
 	}
 	
+	@Override
+	public boolean isOpen() {
+		return fADT.isOpen() || fChildrenTypes.isOpen();
+	}
+	
+	@Override
+	/* package */ int computeKinds() {
+		return KIND_NODE | KIND_ABSTRACT_DATA | KIND_CONSTRUCTOR;
+	}
+	
 	@Override
 	public <T,E extends Throwable> T accept(ITypeVisitor<T,E> visitor) throws E {
 		return visitor.visitConstructor(this);
@@ -182,12 +192,12 @@ import org.rascalmpl.value.exceptions.UndeclaredAnnotationException;
 	}
 	
 	@Override
-	public Type lub(Type type) {
+	protected Type computeLub(Type type) {
 	  return type.lubWithConstructor(this);
 	}
 	
 	@Override
-	public Type glb(Type type) {
+	protected Type computeGlb(Type type) {
 	  return type.glbWithConstructor(this);
 	}
 	
@@ -243,18 +253,15 @@ import org.rascalmpl.value.exceptions.UndeclaredAnnotationException;
 	}
 
 	@Override
-	public boolean match(Type matched, Map<Type, Type> bindings)
+	protected boolean matchOpen(Type matched, Map<Type, Type> bindings)
 			throws FactTypeUseException {
-		return super.match(matched, bindings)
+		return super.matchOpen(matched, bindings)
 				&& fADT.match(matched.getAbstractDataType(), bindings)
 				&& getFieldTypes().match(matched.getFieldTypes(), bindings);
 	}
 	
 	@Override
-	public Type instantiate(Map<Type, Type> bindings) {
-		if (bindings.isEmpty()) {
-			return this;
-		}
+	protected Type instantiateOpen(Map<Type, Type> bindings) {
 		Type adt = fADT.instantiate(bindings);
 		Type fields = getFieldTypes().instantiate(bindings);
 		
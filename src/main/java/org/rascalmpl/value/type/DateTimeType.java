@@ -43,6 +43,11 @@ public class DateTimeType extends DefaultSubtypeOfValue {
 		return "datetime";
 	}
 
+	@Override
+	/* package */ int computeKinds() {
+		return KIND_DATE_TIME;
+	}
+	
 	@Override
 	public <T,E extends Throwable> T accept(ITypeVisitor<T,E> visitor) throws E {
 		return visitor.visitDateTime(this);
@@ -54,12 +59,12 @@ public class DateTimeType extends DefaultSubtypeOfValue {
 	}
 	
 	@Override
-	public Type lub(Type other) {
+	protected Type computeLub(Type other) {
 	  return other.lubWithDateTime(this);
 	}
 	
 	@Override
-	public Type glb(Type type) {
+	protected Type computeGlb(Type type) {
 	  return type.glbWithDateTime(this);
 	}
 	
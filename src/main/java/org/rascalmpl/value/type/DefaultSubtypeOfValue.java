@@ -19,7 +19,7 @@ package org.rascalmpl.value.type;
   }
 
   @Override 
-  public abstract Type glb(Type type);
+  protected abstract Type computeGlb(Type type);
   
   @Override
   protected Type glbWithValue(Type type) {
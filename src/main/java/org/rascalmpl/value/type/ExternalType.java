@@ -56,12 +56,12 @@ public abstract class ExternalType extends DefaultSubtypeOfValue {
 	}
 	
 	@Override
-	public final Type lub(Type other) {
+	protected final Type computeLub(Type other) {
 	  return other.lubWithExternal(this);    
 	}
 	
 	@Override
-	public final Type glb(Type type) {
+	protected final Type computeGlb(Type type) {
 	  return type.glbWithExternal(this);
 	}
 	
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.type;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded memo for {@link Type#instantiate(Map)}, keyed on the identity of 
+ * the instantiated type and the contents of the bindings.
+ * <p>
+ * Like {@link LatticeMemo} this is a direct mapped table without locks. Since 
+ * callers usually reuse and modify their maps of bindings, an entry keeps a 
+ * copy of the bindings it was computed for. The bindings are hashed once per
+ * top-level instantiation, see {@link #hashed(Map)}.
+ */
+/* package */ final class InstantiationMemo {
+  private static final int SIZE = 1 << 12;
+
+  /* package */ static final InstantiationMemo INSTANCE = new InstantiationMemo();
+
+  private final AtomicReferenceArray<Entry> table = new AtomicReferenceArray<>(SIZE);
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  private InstantiationMemo() {
+    super();
+  }
+
+  /**
+   * @return a read-only view of the bindings which computes their hash code 
+   * once, to be passed down to the instantiations of the types a type is 
+   * composed of, which would otherwise each hash the bindings again
+   */
+  static Map<Type, Type> hashed(Map<Type, Type> bindings) {
+    return bindings instanceof HashedBindings ? bindings : new HashedBindings(bindings);
+  }
+
+  /**
+   * @return the memoized instance of type for the bindings, or null if it is unknown
+   */
+  Type get(Type type, Map<Type, Type> bindings) {
+    int bindingsHash = bindings.hashCode();
+    Entry e = table.get(index(type, bindingsHash));
+
+    if (e != null && e.type == type && e.bindingsHash == bindingsHash && e.bindings.equals(bindings)) {
+      hits.increment();
+      return e.result;
+    }
+
+    misses.increment();
+    return null;
+  }
+
+  void put(Type type, Map<Type, Type> bindings, Type result) {
+    int bindingsHash = bindings.hashCode();
+    table.lazySet(index(type, bindingsHash), new Entry(type, new HashMap<>(bindings), bindingsHash, result));
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  long getMisses() {
+    return misses.sum();
+  }
+
+  private static int index(Type type, int bindingsHash) {
+    int h = System.identityHashCode(type) * 0x9E3779B9 + bindingsHash;
+    h ^= h >>> 15;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return h & (SIZE - 1);
+  }
+
+  private static final class HashedBindings extends AbstractMap<Type, Type> {
+    private final Map<Type, Type> bindings;
+    private final int hash;
+
+    HashedBindings(Map<Type, Type> bindings) {
+      this.bindings = bindings;
+      this.hash = bindings.hashCode();
+    }
+
+    @Override
+    public Type get(Object key) {
+      return bindings.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return bindings.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+      return bindings.size();
+    }
+
+    @Override
+    public Set<Map.Entry<Type, Type>> entrySet() {
+      return bindings.entrySet();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class Entry {
+    final Type type;
+    final Map<Type, Type> bindings;
+    final int bindingsHash;
+    final Type result;
+
+    Entry(Type type, Map<Type, Type> bindings, int bindingsHash, Type result) {
+      this.type = type;
+      this.bindings = bindings;
+      this.bindingsHash = bindingsHash;
+      this.result = result;
+    }
+  }
+}
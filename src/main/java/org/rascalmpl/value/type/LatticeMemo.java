@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.type;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded memo for a binary operation on types, such as lub and glb.
+ * <p>
+ * The memo is a direct mapped table keyed on the identity of the
+ * canonical argument types: a new result simply overwrites the entry for
+ * another pair of types which hashes to the same slot. Reads and writes do
+ * not lock; entries are immutable and published atomically.
+ */
+/* package */ final class LatticeMemo {
+  private static final int SIZE = 1 << 12;
+
+  /* package */ static final LatticeMemo LUB = new LatticeMemo();
+  /* package */ static final LatticeMemo GLB = new LatticeMemo();
+
+  private final AtomicReferenceArray<Entry> table = new AtomicReferenceArray<>(SIZE);
+
+  private LatticeMemo() {
+    super();
+  }
+
+  /**
+   * @return the memoized result for left and right, or null if it is unknown
+   */
+  Type get(Type left, Type right) {
+    Entry e = table.get(index(left, right));
+
+    if (e != null && e.left == left && e.right == right) {
+      return e.result;
+    }
+
+    return null;
+  }
+
+  void put(Type left, Type right, Type result) {
+    table.lazySet(index(left, right), new Entry(left, right, result));
+  }
+
+  private static int index(Type left, Type right) {
+    int h = System.identityHashCode(left) * 0x9E3779B9 + System.identityHashCode(right);
+    h ^= h >>> 15;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return h & (SIZE - 1);
+  }
+
+  private static final class Entry {
+    final Type left;
+    final Type right;
+    final Type result;
+
+    Entry(Type left, Type right, Type result) {
+      this.left = left;
+      this.right = right;
+      this.result = result;
+    }
+  }
+}
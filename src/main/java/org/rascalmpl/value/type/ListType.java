@@ -138,7 +138,14 @@ import org.rascalmpl.value.exceptions.FactTypeUseException;
 	
 	@Override
 	public int hashCode() {
-		return 75703 + 104543 * fEltType.hashCode();
+		return computeHashCode(fEltType);
+	}
+
+	/**
+	 * Computes the hash code of a list type without constructing it.
+	 */
+	/* package */ static int computeHashCode(Type eltType) {
+		return 75703 + 104543 * eltType.hashCode();
 	}
 	
 	@Override
@@ -146,6 +153,11 @@ import org.rascalmpl.value.exceptions.FactTypeUseException;
 		return visitor.visitList(this);
 	}
 	
+	@Override
+	/* package */ int computeKinds() {
+	  return fEltType.isFixedWidth() ? KIND_LIST | KIND_LIST_RELATION : KIND_LIST;
+	}
+	
 	@Override
 	public boolean isOpen() {
 	  return fEltType.isOpen();
@@ -162,12 +174,12 @@ import org.rascalmpl.value.exceptions.FactTypeUseException;
 	}
 	
 	@Override
-	public Type lub(Type other) {
+	protected Type computeLub(Type other) {
 	  return other.lubWithList(this);
 	}
 	
 	@Override
-	public Type glb(Type type) {
+	protected Type computeGlb(Type type) {
 	  return type.glbWithList(this);
 	}
 	
@@ -182,14 +194,14 @@ import org.rascalmpl.value.exceptions.FactTypeUseException;
 	}
 	
 	@Override
-	public boolean match(Type matched, Map<Type, Type> bindings)
+	protected boolean matchOpen(Type matched, Map<Type, Type> bindings)
 			throws FactTypeUseException {
-		return super.match(matched, bindings)
+		return super.matchOpen(matched, bindings)
 				&& getElementType().match(matched.getElementType(), bindings);
 	}
 	
 	@Override
-	public Type instantiate(Map<Type, Type> bindings) {
+	protected Type instantiateOpen(Map<Type, Type> bindings) {
 		return TypeFactory.getInstance().listType(getElementType().instantiate(bindings));
 	}
 }
@@ -151,7 +151,24 @@ import org.rascalmpl.value.exceptions.UndeclaredFieldException;
 
     @Override
     public int hashCode() {
-      return 56509 + 3511 * fKeyType.hashCode() + 1171 * fValueType.hashCode();
+      return computeHashCode(fKeyType, fValueType);
+    }
+
+    /**
+     * Computes the hash code of a map type without constructing it. Labels do
+     * not contribute to the hash code.
+     */
+    /* package */ static int computeHashCode(Type keyType, Type valueType) {
+      return 56509 + 3511 * keyType.hashCode() + 1171 * valueType.hashCode();
+    }
+
+    /**
+     * Equality with a map type that has not been constructed (yet).
+     */
+    /* package */ boolean hasFields(Type keyType, String keyLabel, Type valueType, String valueLabel) {
+      return fKeyType == keyType && fValueType == valueType 
+          && (fKeyLabel == null ? keyLabel == null : fKeyLabel.equals(keyLabel))
+          && (fValueLabel == null ? valueLabel == null : fValueLabel.equals(valueLabel));
     }
 
     @Override
@@ -202,12 +219,12 @@ import org.rascalmpl.value.exceptions.UndeclaredFieldException;
     }
     
     @Override
-    public Type lub(Type other) {
+    protected Type computeLub(Type other) {
       return other.lubWithMap(this);
     }
     
     @Override
-    public Type glb(Type type) {
+    protected Type computeGlb(Type type) {
       return type.glbWithMap(this);
     }
     
@@ -227,21 +244,26 @@ import org.rascalmpl.value.exceptions.UndeclaredFieldException;
       return this == type ? this : TF.mapTypeFromTuple(getFieldTypes().glb(type.getFieldTypes()));
     }
     
+    @Override
+    /* package */ int computeKinds() {
+      return KIND_MAP;
+    }
+    
     @Override
     public boolean isOpen() {
       return fKeyType.isOpen() || fValueType.isOpen();
     }
     
 	@Override
-	public boolean match(Type matched, Map<Type, Type> bindings)
+	protected boolean matchOpen(Type matched, Map<Type, Type> bindings)
 			throws FactTypeUseException {
-		return super.match(matched, bindings)
+		return super.matchOpen(matched, bindings)
 				&& getKeyType().match(matched.getKeyType(), bindings)
 				&&getValueType().match(matched.getValueType(), bindings);
 	}
 	
 	@Override
-	public Type instantiate(Map<Type, Type> bindings) {
+	protected Type instantiateOpen(Map<Type, Type> bindings) {
 	  if (fKeyLabel != null) {
 	    return TypeFactory.getInstance().mapType(getKeyType().instantiate(bindings), fKeyLabel, getValueType().instantiate(bindings), fValueLabel);
 	  } 
@@ -53,7 +53,7 @@ class NodeType extends DefaultSubtypeOfValue {
   }
 
   @Override
-  public Type lub(Type other) {
+  protected Type computeLub(Type other) {
     return other.lubWithNode(this);
   }
 
@@ -78,7 +78,7 @@ class NodeType extends DefaultSubtypeOfValue {
   }
   
   @Override
-  public Type glb(Type type) {
+  protected Type computeGlb(Type type) {
     return type.glbWithNode(this);
   }
   
@@ -97,6 +97,11 @@ class NodeType extends DefaultSubtypeOfValue {
     return type;
   }
   
+  @Override
+  /* package */ int computeKinds() {
+    return KIND_NODE;
+  }
+  
   @Override
   public <T,E extends Throwable> T accept(ITypeVisitor<T,E> visitor) throws E {
     return visitor.visitNode(this);
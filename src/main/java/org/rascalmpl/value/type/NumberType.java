@@ -37,7 +37,7 @@ package org.rascalmpl.value.type;
   }
 
   @Override
-  public Type lub(Type other) {
+  protected Type computeLub(Type other) {
     return other.lubWithNumber(this);
   }
 
@@ -67,7 +67,7 @@ package org.rascalmpl.value.type;
   }
   
   @Override
-  public Type glb(Type type) {
+  protected Type computeGlb(Type type) {
     return type.glbWithNumber(this);
   }
   
@@ -104,6 +104,11 @@ package org.rascalmpl.value.type;
     return 133020331;
   }
 
+  @Override
+  /* package */ int computeKinds() {
+    return KIND_NUMBER;
+  }
+  
   @Override
   public <T,E extends Throwable> T accept(ITypeVisitor<T,E> visitor) throws E {
     return visitor.visitNumber(this);
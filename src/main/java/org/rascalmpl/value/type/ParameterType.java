@@ -91,12 +91,12 @@ import org.rascalmpl.value.exceptions.FactTypeUseException;
 	}
 	
 	@Override
-	public Type lub(Type type) {
+	protected Type computeLub(Type type) {
 	  return type.glbWithParameter(this);
 	}
 	
 	@Override
-	public Type glb(Type type) {
+	protected Type computeGlb(Type type) {
 	  return type.glbWithParameter(this);
 	}
 	
@@ -338,6 +338,12 @@ import org.rascalmpl.value.exceptions.FactTypeUseException;
   }
   
   
+  @Override
+  /* package */ int computeKinds() {
+    // a parameter is never a tuple, since it has no fields of its own
+    return getBound().getKinds() & ~KIND_TUPLE;
+  }
+  
   @Override
   public boolean isOpen() {
     return true;
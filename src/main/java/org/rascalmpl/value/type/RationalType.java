@@ -44,6 +44,11 @@ package org.rascalmpl.value.type;
         return "rat";
     }
 
+    @Override
+    /* package */ int computeKinds() {
+      return KIND_RATIONAL | KIND_NUMBER;
+    }
+    
     @Override
     public <T,E extends Throwable> T accept(ITypeVisitor<T,E> visitor) throws E {
       return visitor.visitRational(this);
@@ -55,7 +60,7 @@ package org.rascalmpl.value.type;
     }
     
     @Override
-    public Type lub(Type other) {
+    protected Type computeLub(Type other) {
       return other.lubWithRational(this);
     }
     
@@ -70,7 +75,7 @@ package org.rascalmpl.value.type;
     }
     
     @Override
-    public Type glb(Type type) {
+    protected Type computeGlb(Type type) {
       return type.glbWithRational(this);
     }
     
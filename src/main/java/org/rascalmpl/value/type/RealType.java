@@ -45,6 +45,11 @@ package org.rascalmpl.value.type;
 		return "real";
 	}
 
+	@Override
+	/* package */ int computeKinds() {
+		return KIND_REAL | KIND_NUMBER;
+	}
+	
 	@Override
 	public <T,E extends Throwable> T accept(ITypeVisitor<T,E> visitor) throws E {
 		return visitor.visitReal(this);
@@ -56,12 +61,12 @@ package org.rascalmpl.value.type;
 	}
 	
 	@Override
-	public Type lub(Type type) {
+	protected Type computeLub(Type type) {
 		return type.lubWithReal(this);
 	}
 	
 	@Override
-	public Type glb(Type type) {
+	protected Type computeGlb(Type type) {
 	  return type.glbWithReal(this);
 	}
 	
@@ -102,7 +102,14 @@ import org.rascalmpl.value.exceptions.FactTypeUseException;
 
   @Override
   public int hashCode() {
-    return 56509 + 3511 * fEltType.hashCode();
+    return computeHashCode(fEltType);
+  }
+
+  /**
+   * Computes the hash code of a set type without constructing it.
+   */
+  /* package */ static int computeHashCode(Type eltType) {
+    return 56509 + 3511 * eltType.hashCode();
   }
 
   @Override
@@ -153,12 +160,12 @@ import org.rascalmpl.value.exceptions.FactTypeUseException;
   }
 
   @Override
-  public Type lub(Type other) {
+  protected Type computeLub(Type other) {
     return other.lubWithSet(this);
   }
   
   @Override
-  public Type glb(Type type) {
+  protected Type computeGlb(Type type) {
     return type.glbWithSet(this);
   }
   
@@ -177,18 +184,23 @@ import org.rascalmpl.value.exceptions.FactTypeUseException;
     return TF.setType(fEltType.lub(type.getElementType()));
   }
 
+  @Override
+  /* package */ int computeKinds() {
+    return fEltType.isFixedWidth() ? KIND_SET | KIND_RELATION : KIND_SET;
+  }
+  
   @Override
   public boolean isOpen() {
     return fEltType.isOpen();
   }
   
   @Override
-  public boolean match(Type matched, Map<Type, Type> bindings) throws FactTypeUseException {
-    return super.match(matched, bindings) && getElementType().match(matched.getElementType(), bindings);
+  protected boolean matchOpen(Type matched, Map<Type, Type> bindings) throws FactTypeUseException {
+    return super.matchOpen(matched, bindings) && getElementType().match(matched.getElementType(), bindings);
   }
 
   @Override
-  public Type instantiate(Map<Type, Type> bindings) {
+  protected Type instantiateOpen(Map<Type, Type> bindings) {
     return TypeFactory.getInstance().setType(getElementType().instantiate(bindings));
   }
 }
@@ -45,6 +45,11 @@ package org.rascalmpl.value.type;
         return "loc";
     }
     
+    @Override
+    /* package */ int computeKinds() {
+      return KIND_SOURCE_LOCATION;
+    }
+    
     @Override
     public <T,E extends Throwable> T accept(ITypeVisitor<T,E> visitor) throws E {
     	return visitor.visitSourceLocation(this);
@@ -56,12 +61,12 @@ package org.rascalmpl.value.type;
     }
     
     @Override
-    public Type lub(Type other) {
+    protected Type computeLub(Type other) {
       return other.lubWithSourceLocation(this);
     }
     
     @Override
-    public Type glb(Type type) {
+    protected Type computeGlb(Type type) {
       return type.glbWithSourceLocation(this);
     }
     
@@ -44,6 +44,11 @@ package org.rascalmpl.value.type;
         return "str";
     }
     
+    @Override
+    /* package */ int computeKinds() {
+      return KIND_STRING;
+    }
+    
     @Override
     public <T,E extends Throwable> T accept(ITypeVisitor<T,E> visitor) throws E {
     	return visitor.visitString(this);
@@ -55,12 +60,12 @@ package org.rascalmpl.value.type;
     }
     
     @Override
-    public Type lub(Type other) {
+    protected Type computeLub(Type other) {
       return other.lubWithString(this);
     }
     
     @Override
-    public Type glb(Type type) {
+    protected Type computeGlb(Type type) {
       return type.glbWithString(this);
     }
     
@@ -15,6 +15,7 @@ package org.rascalmpl.value.type;
 import java.util.Iterator;
 import java.util.Map;
 
+import org.rascalmpl.value.IValue;
 import org.rascalmpl.value.exceptions.FactTypeUseException;
 import org.rascalmpl.value.exceptions.IllegalOperationException;
 import org.rascalmpl.value.exceptions.UndeclaredFieldException;
@@ -23,6 +24,7 @@ import org.rascalmpl.value.exceptions.UndeclaredFieldException;
 	protected final Type[] fFieldTypes; // protected access for the benefit of inner classes
 	protected final String[] fFieldNames;
 	protected int fHashcode = -1;
+	private final boolean fOpen;
 
 	/**
 	 * Creates a tuple type with the given field types. Copies the array.
@@ -33,6 +35,7 @@ import org.rascalmpl.value.exceptions.UndeclaredFieldException;
 		fFieldTypes = fieldTypes; // fieldTypes.clone(); was safer, but it ended
 									// up being a bottleneck
 		fFieldNames = null;
+		fOpen = anyOpen(fieldTypes);
 	}
 
 	/**
@@ -49,6 +52,17 @@ import org.rascalmpl.value.exceptions.UndeclaredFieldException;
 		} else {
 			fFieldNames = null;
 		}
+		fOpen = anyOpen(fieldTypes);
+	}
+	
+	private static boolean anyOpen(Type[] fieldTypes) {
+	  for (Type arg : fieldTypes) {
+	    if (arg.isOpen()) {
+	      return true;
+	    }
+	  }
+	  
+	  return false;
 	}
 	
 	@Override
@@ -61,6 +75,11 @@ import org.rascalmpl.value.exceptions.UndeclaredFieldException;
 	  return true;
 	}
 	
+	@Override
+	/* package */ int computeKinds() {
+	  return KIND_TUPLE;
+	}
+	
 	@Override
 	public Type getFieldType(int i) {
 		return fFieldTypes[i];
@@ -313,15 +332,87 @@ import org.rascalmpl.value.exceptions.UndeclaredFieldException;
 	public int hashCode() {
 		int h = fHashcode;
 		if (h == -1) {
-			h = 55501;
-			for (Type elemType : fFieldTypes) {
-				h = h * 44927 + elemType.hashCode();
-			}
+			h = computeHashCode(fFieldTypes);
 			fHashcode = h;
 		}
 		return h;
 	}
 
+	/**
+	 * Computes the hash code of a tuple type with the given field types without
+	 * constructing it. Field labels do not contribute to the hash code.
+	 */
+	/* package */ static int computeHashCode(Type[] fieldTypes) {
+		int h = 55501;
+		for (Type elemType : fieldTypes) {
+			h = h * 44927 + elemType.hashCode();
+		}
+		return h;
+	}
+
+	/**
+	 * Computes the hash code of the tuple type of the given elements without
+	 * constructing it.
+	 */
+	/* package */ static int computeHashCode(IValue[] elements) {
+		int h = 55501;
+		for (IValue elem : elements) {
+			h = h * 44927 + elem.getType().hashCode();
+		}
+		return h;
+	}
+
+	/**
+	 * Equality with a tuple type that has not been constructed (yet). Just like
+	 * {@link #equals(Object)} this assumes canonical field types.
+	 * 
+	 * @param fieldNames null or an empty array for unlabeled tuple types
+	 */
+	/* package */ boolean hasFields(Type[] fieldTypes, String[] fieldNames) {
+		if (fFieldTypes.length != fieldTypes.length) {
+			return false;
+		}
+
+		for (int i = fFieldTypes.length - 1; i >= 0; i--) {
+			if (fFieldTypes[i] != fieldTypes[i]) {
+				return false;
+			}
+		}
+
+		if (fieldNames == null || fieldNames.length == 0) {
+			return fFieldNames == null;
+		}
+
+		if (fFieldNames == null) {
+			return false;
+		}
+
+		for (int i = fFieldNames.length - 1; i >= 0; i--) {
+			if (!fFieldNames[i].equals(fieldNames[i])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Equality with the (unlabeled) tuple type of the given elements.
+	 */
+	/* package */ boolean hasFieldsOf(IValue[] elements) {
+		if (fFieldNames != null || fFieldTypes.length != elements.length) {
+			return false;
+		}
+
+		for (int i = fFieldTypes.length - 1; i >= 0; i--) {
+			if (fFieldTypes[i] != elements[i].getType()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
 	/**
 	 * Compute tuple type equality. Note that field labels are significant here
 	 * for equality while they do not count for isSubtypeOf and lub.
@@ -411,12 +502,12 @@ import org.rascalmpl.value.exceptions.UndeclaredFieldException;
 	}
 	
 	@Override
-	public Type lub(Type other) {
+	protected Type computeLub(Type other) {
 	  return other.lubWithTuple(this);
 	}
 	
 	@Override
-	public Type glb(Type type) {
+	protected Type computeGlb(Type type) {
 	  return type.glbWithTuple(this);
 	}
 	
@@ -461,13 +552,7 @@ import org.rascalmpl.value.exceptions.UndeclaredFieldException;
 	
 	@Override
 	public boolean isOpen() {
-	  for (Type arg : fFieldTypes) {
-	    if (arg.isOpen()) {
-	      return true;
-	    }
-	  }
-	  
-	  return false;
+	  return fOpen;
 	}
 	
 	@Override
@@ -490,9 +575,9 @@ import org.rascalmpl.value.exceptions.UndeclaredFieldException;
 	}
 
 	@Override
-	public boolean match(Type matched, Map<Type, Type> bindings)
+	protected boolean matchOpen(Type matched, Map<Type, Type> bindings)
 			throws FactTypeUseException {
-		if (!super.match(matched, bindings)) {
+		if (!super.matchOpen(matched, bindings)) {
 			return false;
 		}
 
@@ -506,7 +591,7 @@ import org.rascalmpl.value.exceptions.UndeclaredFieldException;
 	}
 
 	@Override
-	public Type instantiate(Map<Type, Type> bindings) {
+	protected Type instantiateOpen(Map<Type, Type> bindings) {
 		if (hasFieldNames()) {
 			Type[] fTypes = new Type[getArity()];
 			String[] fLabels = new String[getArity()];
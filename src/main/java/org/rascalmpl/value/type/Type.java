@@ -14,6 +14,9 @@ package org.rascalmpl.value.type;
 
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.rascalmpl.value.IValue;
 import org.rascalmpl.value.exceptions.FactTypeUseException;
@@ -41,23 +44,74 @@ import org.rascalmpl.value.exceptions.IllegalOperationException;
 public abstract class Type implements Iterable<Type>, Comparable<Type> {
   protected static final TypeFactory TF = TypeFactory.getInstance();
   
-  // these constants are cached to avoid having to compute their hash-codes
-  // for canonicalization all the time. The types are used to implement predicate
-  // methods below such as isList and isMap, etc.
-  private static final Type DATE_TIME_TYPE = TF.dateTimeType();
-  private static final Type SOURCE_LOCATION_TYPE = TF.sourceLocationType();
-  private static final Type STRING_TYPE = TF.stringType();
-  private static final Type NODE_TYPE = TF.nodeType();
-  private static final Type VOID_TYPE = TF.voidType();
-  private static final Type VALUE_TYPE = TF.valueType();
-  private static final Type NUMBER_TYPE = TF.numberType();
-  private static final Type RATIONAL_TYPE = TF.rationalType();
-  private static final Type REAL_TYPE = TF.realType();
-  private static final Type INTEGER_TYPE = TF.integerType();
-  private static final Type BOOL_TYPE = TF.boolType();
-  private static final Type MAP_TYPE = TF.mapType(VALUE_TYPE, VALUE_TYPE);
-  private static final Type LIST_TYPE = TF.listType(VALUE_TYPE);
-  private static final Type SET_TYPE = TF.setType(VALUE_TYPE);
+  /**
+   * The number of facts the subtype memo of a single type holds at most, which
+   * limits it to 4KB. A memo starts small and grows as the type is compared
+   * to more types; when it is full at this size it is cleared, after which it
+   * is filled again by the comparisons that follow. The memos of other types
+   * are not affected.
+   */
+  private static final int MAX_SUBTYPE_MEMO = 1 << 9;
+  
+  private static final int MIN_SUBTYPE_MEMO = 1 << 3;
+  
+  /**
+   * The number of slots a fact may be stored away from its hash, before the
+   * memo grows or is cleared.
+   */
+  private static final int SUBTYPE_MEMO_PROBES = 8;
+  
+  // the counters live in a holder, since types may be numbered while this 
+  // class is still being initialized
+  private static final class Counters {
+    /** the next id, ids are never reused */
+    static final AtomicLong NEXT_ID = new AtomicLong(1);
+    
+    /** the number of times a full subtype memo was cleared */
+    static final LongAdder MEMO_RESETS = new LongAdder();
+  }
+  
+  /**
+   * The id of this type, 0 until assigned by {@link #getId()}.
+   */
+  private volatile long fId;
+  
+  /**
+   * Memo for {@link #isSubtypeOf(Type)}, an open addressing table keyed by the
+   * id of the other type. Every slot holds 0 for empty, or the id of the other
+   * type shifted left by one with the answer in the lowest bit. Since types are
+   * immutable these facts never change.
+   */
+  private volatile AtomicLongArray fSubtypes;
+  
+  // kind bits, which answer the final predicates such as isSet and isRelation
+  /* package */ static final int KIND_SET = 1;
+  /* package */ static final int KIND_RELATION = 1 << 1;
+  /* package */ static final int KIND_LIST = 1 << 2;
+  /* package */ static final int KIND_LIST_RELATION = 1 << 3;
+  /* package */ static final int KIND_MAP = 1 << 4;
+  /* package */ static final int KIND_TUPLE = 1 << 5;
+  /* package */ static final int KIND_BOOL = 1 << 6;
+  /* package */ static final int KIND_INTEGER = 1 << 7;
+  /* package */ static final int KIND_REAL = 1 << 8;
+  /* package */ static final int KIND_RATIONAL = 1 << 9;
+  /* package */ static final int KIND_NUMBER = 1 << 10;
+  /* package */ static final int KIND_STRING = 1 << 11;
+  /* package */ static final int KIND_SOURCE_LOCATION = 1 << 12;
+  /* package */ static final int KIND_DATE_TIME = 1 << 13;
+  /* package */ static final int KIND_NODE = 1 << 14;
+  /* package */ static final int KIND_ABSTRACT_DATA = 1 << 15;
+  /* package */ static final int KIND_CONSTRUCTOR = 1 << 16;
+  /* package */ static final int KIND_TOP = 1 << 17;
+  /* package */ static final int KIND_BOTTOM = 1 << 18;
+  private static final int KINDS_COMPUTED = 1 << 31;
+  
+  /**
+   * The kind bits of this type, 0 until computed by {@link #getKinds()}.
+   * Like String.hash this needs no synchronization, since every thread 
+   * computes the same value.
+   */
+  private int fKinds;
   
   /**
    * Retrieve the type of elements in a set or a relation.
@@ -338,11 +392,60 @@ public abstract class Type implements Iterable<Type>, Comparable<Type> {
   }
 
   /**
-   * @return the least upper bound type of the receiver and the argument type
+   * @return the least upper bound type of the receiver and the argument type,
+   * memoized for the results of {@link #computeLub(Type)}
    */
-  public abstract Type lub(Type type);
+  public Type lub(Type type) {
+    if (type == this) {
+      return this;
+    }
+    
+    Type result = LatticeMemo.LUB.get(this, type);
+    
+    if (result == null) {
+      result = computeLub(type);
+      LatticeMemo.LUB.put(this, type, result);
+    }
+    
+    return result;
+  }
 
-  public abstract Type glb(Type type);
+  /**
+   * @return the greatest lower bound type of the receiver and the argument type,
+   * memoized for the results of {@link #computeGlb(Type)}
+   */
+  public Type glb(Type type) {
+    if (type == this) {
+      return this;
+    }
+    
+    Type result = LatticeMemo.GLB.get(this, type);
+    
+    if (result == null) {
+      result = computeGlb(type);
+      LatticeMemo.GLB.put(this, type, result);
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Computes {@link #lub(Type)}, usually by dispatching to one of the lubWith 
+   * methods of the argument type. The result is memoized by lub. Types which
+   * override lub itself instead do not need to implement this.
+   */
+  protected Type computeLub(Type type) {
+    throw new IllegalOperationException("lub", this, type);
+  }
+  
+  /**
+   * Computes {@link #glb(Type)}, usually by dispatching to one of the glbWith 
+   * methods of the argument type. The result is memoized by glb. Types which
+   * override glb itself instead do not need to implement this.
+   */
+  protected Type computeGlb(Type type) {
+    throw new IllegalOperationException("glb", this, type);
+  }
   
   /**
    * The sub-type relation. Value is the biggest type and void is the smallest.
@@ -352,11 +455,219 @@ public abstract class Type implements Iterable<Type>, Comparable<Type> {
    * @return true if the receiver is a subtype of the other type
    */
   public final boolean isSubtypeOf(Type other) {
-    return other == this || other.isSupertypeOf(this);
+    if (other == this) {
+      return true;
+    }
+    
+    long otherId = other.getId();
+    AtomicLongArray memo = fSubtypes;
+    
+    if (memo != null) {
+      int mask = memo.length() - 1;
+      for (int i = 0, slot = hash(otherId); i < SUBTYPE_MEMO_PROBES; i++, slot++) {
+        long fact = memo.get(slot & mask);
+        if (fact == 0L) {
+          break;
+        }
+        if (fact >>> 1 == otherId) {
+          return (fact & 1L) != 0L;
+        }
+      }
+    }
+    
+    boolean result = other.isSupertypeOf(this);
+    memoizeSubtype((otherId << 1) | (result ? 1L : 0L));
+    return result;
+  }
+  
+  /**
+   * Stores a fact in the subtype memo, which grows when the fact does not fit
+   * and is replaced by an empty one when it can not grow. Facts which are stored 
+   * concurrently may be lost, which is harmless.
+   */
+  private void memoizeSubtype(long fact) {
+    AtomicLongArray memo = fSubtypes;
+    
+    if (memo == null) {
+      memo = new AtomicLongArray(MIN_SUBTYPE_MEMO);
+      store(memo, fact);
+      fSubtypes = memo;
+      return;
+    }
+    
+    if (store(memo, fact)) {
+      return;
+    }
+    
+    int length = memo.length();
+    AtomicLongArray grown = null;
+    
+    while (length < MAX_SUBTYPE_MEMO && grown == null) {
+      length <<= 1;
+      grown = new AtomicLongArray(length);
+      
+      for (int i = memo.length() - 1; i >= 0; i--) {
+        long old = memo.get(i);
+        if (old != 0L && !store(grown, old)) {
+          grown = null;
+          break;
+        }
+      }
+    }
+    
+    if (grown == null || !store(grown, fact)) {
+      Counters.MEMO_RESETS.increment();
+      grown = new AtomicLongArray(length);
+      store(grown, fact);
+    }
+    
+    fSubtypes = grown;
+  }
+  
+  /**
+   * @return false if there is no empty slot for the fact within the probes
+   */
+  private static boolean store(AtomicLongArray memo, long fact) {
+    int mask = memo.length() - 1;
+    
+    for (int i = 0, slot = hash(fact >>> 1); i < SUBTYPE_MEMO_PROBES; i++, slot++) {
+      long old = memo.get(slot & mask);
+      if (old == 0L && memo.compareAndSet(slot & mask, 0L, fact)) {
+        return true;
+      }
+      old = memo.get(slot & mask);
+      if (old >>> 1 == fact >>> 1) {
+        return true;
+      }
+    }
+    
+    return false;
+  }
+  
+  private static int hash(long id) {
+    long h = id * 0x9E3779B97F4A7C15L;
+    return (int) (h >>> 32);
+  }
+  
+  /**
+   * @return a positive number which uniquely identifies this type object, for
+   * as long as the program runs. Types are numbered when this method is first 
+   * called.
+   */
+  /* package */ final long getId() {
+    long id = fId;
+    
+    if (id == 0L) {
+      // racing threads may number a type twice, which only wastes a number
+      id = Counters.NEXT_ID.getAndIncrement();
+      fId = id;
+    }
+    
+    return id;
+  }
+  
+  /**
+   * @return the number of times the subtype memo of a type was full and cleared
+   */
+  /* package */ static long getSubtypeMemoResets() {
+    return Counters.MEMO_RESETS.sum();
+  }
+  
+  /**
+   * @return the kind bits of this type, computed once by {@link #computeKinds()}
+   */
+  /* package */ final int getKinds() {
+    int kinds = fKinds;
+    
+    if (kinds == 0) {
+      kinds = computeKinds() | KINDS_COMPUTED;
+      fKinds = kinds;
+    }
+    
+    return kinds;
+  }
+  
+  /**
+   * Computes the kind bits of this type. The default implementation follows
+   * the definitions of the predicates in terms of the sub-type relation,
+   * such that external types are classified correctly. The types of this package
+   * override it to compute their kinds structurally, where aliases and 
+   * parameters take the kinds of their aliased types and bounds.
+   */
+  /* package */ int computeKinds() {
+    // the types are not kept in constants, since the predicates may be used
+    // while the singleton types are still being initialized
+    Type value = TF.valueType();
+    Type node = TF.nodeType();
+    int kinds = 0;
+    
+    if (isSubtypeOf(TF.setType(value))) {
+      kinds |= KIND_SET;
+      if (getElementType().isFixedWidth()) {
+        kinds |= KIND_RELATION;
+      }
+    }
+    if (isSubtypeOf(TF.listType(value))) {
+      kinds |= KIND_LIST;
+      if (getElementType().isFixedWidth()) {
+        kinds |= KIND_LIST_RELATION;
+      }
+    }
+    if (isSubtypeOf(TF.mapType(value, value))) {
+      kinds |= KIND_MAP;
+    }
+    if (isFixedWidth()) {
+      kinds |= KIND_TUPLE;
+    }
+    if (isSubtypeOf(TF.boolType())) {
+      kinds |= KIND_BOOL;
+    }
+    if (isSubtypeOf(TF.integerType())) {
+      kinds |= KIND_INTEGER;
+    }
+    if (isSubtypeOf(TF.realType())) {
+      kinds |= KIND_REAL;
+    }
+    if (isSubtypeOf(TF.rationalType())) {
+      kinds |= KIND_RATIONAL;
+    }
+    if (isSubtypeOf(TF.numberType())) {
+      kinds |= KIND_NUMBER;
+    }
+    if (isSubtypeOf(TF.stringType())) {
+      kinds |= KIND_STRING;
+    }
+    if (isSubtypeOf(TF.sourceLocationType())) {
+      kinds |= KIND_SOURCE_LOCATION;
+    }
+    if (isSubtypeOf(TF.dateTimeType())) {
+      kinds |= KIND_DATE_TIME;
+    }
+    if (isSubtypeOf(node)) {
+      kinds |= KIND_NODE;
+      if (!node.equivalent(this)) {
+        kinds |= KIND_ABSTRACT_DATA;
+        if (!equivalent(getAbstractDataType())) {
+          kinds |= KIND_CONSTRUCTOR;
+        }
+      }
+    }
+    if (equivalent(value)) {
+      kinds |= KIND_TOP;
+    }
+    if (equivalent(TF.voidType())) {
+      kinds |= KIND_BOTTOM;
+    }
+    
+    return kinds;
+  }
+  
+  private boolean hasKind(int kind) {
+    return (getKinds() & kind) != 0;
   }
   
   public final boolean isStrictSubtypeOf(Type other) {
-    return (!other.equivalent(this)) && other.isSupertypeOf(this);
+    return (!other.equivalent(this)) && isSubtypeOf(other);
   }
 
   protected abstract boolean isSupertypeOf(Type type);
@@ -385,79 +696,79 @@ public abstract class Type implements Iterable<Type>, Comparable<Type> {
   }
   
   public final boolean isSet() {
-    return isSubtypeOf(SET_TYPE);
+    return hasKind(KIND_SET);
   }
   
   public final boolean isList() {
-    return isSubtypeOf(LIST_TYPE);
+    return hasKind(KIND_LIST);
   }
   
   public final boolean isMap() {
-    return isSubtypeOf(MAP_TYPE);
+    return hasKind(KIND_MAP);
   }
   
   public final boolean isBool() {
-    return isSubtypeOf(BOOL_TYPE);
+    return hasKind(KIND_BOOL);
   }
   
   public final boolean isRelation() {
-    return isSet() && getElementType().isFixedWidth();
+    return hasKind(KIND_RELATION);
   }
   
   public final boolean isListRelation() {
-    return isList() && getElementType().isFixedWidth();
+    return hasKind(KIND_LIST_RELATION);
   }
   
   public final boolean isInteger() {
-    return isSubtypeOf(INTEGER_TYPE);
+    return hasKind(KIND_INTEGER);
   }
   
   public final boolean isReal() {
-    return isSubtypeOf(REAL_TYPE);
+    return hasKind(KIND_REAL);
   }
   
   public final boolean isRational() {
-    return isSubtypeOf(RATIONAL_TYPE);
+    return hasKind(KIND_RATIONAL);
   }
   
   public final boolean isNumber() {
-    return isSubtypeOf(NUMBER_TYPE);
+    return hasKind(KIND_NUMBER);
   }
   
   public final boolean isTop() {
-    return equivalent(VALUE_TYPE);
+    return hasKind(KIND_TOP);
   }
   
   public final boolean isBottom() {
-    return equivalent(VOID_TYPE);
+    return hasKind(KIND_BOTTOM);
   }
   
   public final boolean isNode() {
-	  return isSubtypeOf(NODE_TYPE);
+    return hasKind(KIND_NODE);
   }
   
   public final boolean isAbstractData() {
-    return isStrictSubtypeOf(NODE_TYPE);
+    return hasKind(KIND_ABSTRACT_DATA);
   }
   
   public final boolean isConstructor() {
-	  return isAbstractData() && !this.equivalent(this.getAbstractDataType());
+    return hasKind(KIND_CONSTRUCTOR);
   }
   
   public final boolean isString() {
-	  return isSubtypeOf(STRING_TYPE);
+    return hasKind(KIND_STRING);
   }
   
   public final boolean isSourceLocation() {
-    return isSubtypeOf(SOURCE_LOCATION_TYPE);
+    return hasKind(KIND_SOURCE_LOCATION);
   }
   
   public final boolean isDateTime() {
-	  return isSubtypeOf(DATE_TIME_TYPE);
+    return hasKind(KIND_DATE_TIME);
   }
   
   public final boolean isTuple() {
-	  return isFixedWidth();
+    return hasKind(KIND_TUPLE);
   }
   
   public boolean isExternalType() {
@@ -502,6 +813,28 @@ public abstract class Type implements Iterable<Type>, Comparable<Type> {
    * @return a type with all parameter types substituted.
    */
   public Type instantiate(Map<Type, Type> bindings) {
+    if (bindings.isEmpty() || !isOpen()) {
+      return this;
+    }
+    
+    InstantiationMemo memo = InstantiationMemo.INSTANCE;
+    bindings = InstantiationMemo.hashed(bindings);
+    Type result = memo.get(this, bindings);
+    
+    if (result == null) {
+      result = instantiateOpen(bindings);
+      memo.put(this, bindings, result);
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Computes {@link #instantiate(Map)} for an open type and non-empty bindings, 
+   * usually by instantiating the types this type is composed of. The result is
+   * memoized by instantiate. The bindings are a read-only view.
+   */
+  protected Type instantiateOpen(Map<Type, Type> bindings) {
     return this;
   }
 
@@ -517,6 +850,19 @@ public abstract class Type implements Iterable<Type>, Comparable<Type> {
    *           simply can not be matched because of incompatibility.
    */
   public boolean match(Type matched, Map<Type, Type> bindings) throws FactTypeUseException {
+    if (!isOpen()) {
+      // without parameters there is nothing to bind
+      return matched.isSubtypeOf(this);
+    }
+    
+    return matchOpen(matched, bindings);
+  }
+  
+  /**
+   * Computes {@link #match(Type, Map)} for an open pattern, usually by matching
+   * the types this type is composed of to those of the matched type.
+   */
+  protected boolean matchOpen(Type matched, Map<Type, Type> bindings) throws FactTypeUseException {
     return matched.isSubtypeOf(this);
   }
 
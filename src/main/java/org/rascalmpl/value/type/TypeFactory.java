@@ -14,9 +14,6 @@
 
 package org.rascalmpl.value.type;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import org.rascalmpl.value.IValue;
 import org.rascalmpl.value.IValueFactory;
 import org.rascalmpl.value.exceptions.FactTypeDeclarationException;
@@ -24,6 +21,8 @@ import org.rascalmpl.value.exceptions.IllegalFieldNameException;
 import org.rascalmpl.value.exceptions.IllegalFieldTypeException;
 import org.rascalmpl.value.exceptions.IllegalIdentifierException;
 import org.rascalmpl.value.exceptions.NullTypeException;
+import org.rascalmpl.value.util.WeakInterningTable;
+import org.rascalmpl.value.util.WeakInterningTable.Matcher;
 
 /**
  * Use this class to produce any kind of {@link Type}, after which the make
@@ -39,9 +38,27 @@ public class TypeFactory {
   }
 
   /**
-   * Caches all types to implement canonicalization
+   * Caches all types to implement canonicalization. Types are weakly referenced,
+   * such that instantiated types which are not used anymore can be collected.
+   */
+  private final WeakInterningTable<Type> fCache = new WeakInterningTable<>();
+
+  private static final Type[] EMPTY_FIELD_TYPES = new Type[0];
+
+  /*
+   * These matchers compare interned types to the parts of a type that is not
+   * constructed yet, such that looking up existing types does not allocate.
    */
-  private final Map<Type, Type> fCache = new HashMap<Type, Type>();
+  private static final Matcher<Type, Type[], String[]> TUPLE_MATCHER = 
+      (t, fieldTypes, fieldNames) -> t instanceof TupleType && ((TupleType) t).hasFields(fieldTypes, fieldNames);
+  private static final Matcher<Type, IValue[], Void> TUPLE_OF_VALUES_MATCHER = 
+      (t, elements, unused) -> t instanceof TupleType && ((TupleType) t).hasFieldsOf(elements);
+  private static final Matcher<Type, Type, Void> SET_MATCHER = 
+      (t, eltType, unused) -> t instanceof SetType && t.getElementType() == eltType;
+  private static final Matcher<Type, Type, Void> LIST_MATCHER = 
+      (t, eltType, unused) -> t instanceof ListType && t.getElementType() == eltType;
+  private static final Matcher<Type, Type, Type> MAP_MATCHER = 
+      (t, key, value) -> t instanceof MapType && ((MapType) t).hasFields(key, null, value, null);
 
   public static TypeFactory getInstance() {
     return InstanceHolder.sInstance;
@@ -51,6 +68,17 @@ public class TypeFactory {
     super();
   }
 
+  // the fixed arity variants avoid allocating a varargs array on hot paths
+  private void checkNull(Object o) {
+    if (o == null)
+      throw new NullTypeException();
+  }
+
+  private void checkNull(Object o1, Object o2) {
+    if (o1 == null || o2 == null)
+      throw new NullTypeException();
+  }
+
   private void checkNull(Object... os) {
     for (int i = os.length - 1; i >= 0; i--) {
       if (os[i] == null)
@@ -78,17 +106,29 @@ public class TypeFactory {
     return VoidType.getInstance();
   }
 
-  private Type getFromCache(Type t) {
-    synchronized (fCache) {
-      Type result = fCache.get(t);
-
-      if (result == null) {
-        fCache.put(t, t);
-        return t;
-      }
+  /* package */ Type getFromCache(Type t) {
+    Type result = fCache.intern(t);
+    TypeMetrics.intern(result != t);
+    return result;
+  }
 
-      return result;
+  /**
+   * Looks up a canonical type without constructing it first, see 
+   * {@link WeakInterningTable#lookup}. Misses are not counted here, since
+   * they are followed by a call to getFromCache.
+   */
+  private <A, B> Type lookupInCache(int hashCode, Matcher<Type, A, B> matcher, A a, B b) {
+    Type result = fCache.lookup(hashCode, matcher, a, b);
+    
+    if (result != null) {
+      TypeMetrics.intern(true);
     }
+    
+    return result;
+  }
+
+  /* package */ WeakInterningTable<Type> getCache() {
+    return fCache;
   }
 
   /**
@@ -175,8 +215,14 @@ public class TypeFactory {
     return DateTimeType.getInstance();
   }
 
-  private TupleType getOrCreateTuple(Type[] fieldTypes) {
-    return (TupleType) getFromCache(new TupleType(fieldTypes));
+  private Type getOrCreateTuple(Type[] fieldTypes) {
+    Type result = lookupInCache(TupleType.computeHashCode(fieldTypes), TUPLE_MATCHER, fieldTypes, null);
+    return result != null ? result : getFromCache(new TupleType(fieldTypes));
+  }
+
+  private Type getOrCreateTuple(Type[] fieldTypes, String[] fieldNames) {
+    Type result = lookupInCache(TupleType.computeHashCode(fieldTypes), TUPLE_MATCHER, fieldTypes, fieldNames);
+    return result != null ? result : getFromCache(new TupleType(fieldTypes, fieldNames));
   }
 
   /**
@@ -185,7 +231,7 @@ public class TypeFactory {
    * @return a reference to the unique empty tuple type.
    */
   public Type tupleEmpty() {
-    return getFromCache(new TupleType(new Type[0]));
+    return getOrCreateTuple(EMPTY_FIELD_TYPES);
   }
 
   /**
@@ -198,7 +244,7 @@ public class TypeFactory {
    */
   public Type tupleType(Type... fieldTypes) {
     checkNull((Object[]) fieldTypes);
-    return getFromCache(new TupleType(fieldTypes));
+    return getOrCreateTuple(fieldTypes);
   }
 
   /**
@@ -240,7 +286,7 @@ public class TypeFactory {
       }
     }
 
-    return getFromCache(new TupleType(protoFieldTypes, protoFieldNames));
+    return getOrCreateTuple(protoFieldTypes, protoFieldNames);
   }
 
   /**
@@ -257,7 +303,7 @@ public class TypeFactory {
   public Type tupleType(Type[] types, String[] labels) {
     checkNull((Object[]) types);
     checkNull((Object[]) labels);
-    return getFromCache(new TupleType(types, labels));
+    return getOrCreateTuple(types, labels);
   }
 
   /**
@@ -270,6 +316,11 @@ public class TypeFactory {
    */
   public Type tupleType(IValue... elements) {
     checkNull((Object[]) elements);
+    Type result = lookupInCache(TupleType.computeHashCode(elements), TUPLE_OF_VALUES_MATCHER, elements, null);
+    if (result != null) {
+      return result;
+    }
+
     int N = elements.length;
     Type[] fieldTypes = new Type[N];
     for (int i = N - 1; i >= 0; i--) {
@@ -287,7 +338,8 @@ public class TypeFactory {
    */
   public Type setType(Type eltType) {
     checkNull(eltType);
-    return getFromCache(new SetType(eltType));
+    Type result = lookupInCache(SetType.computeHashCode(eltType), SET_MATCHER, eltType, null);
+    return result != null ? result : getFromCache(new SetType(eltType));
   }
 
   public Type relTypeFromTuple(Type tupleType) {
@@ -550,7 +602,8 @@ public class TypeFactory {
    */
   public Type listType(Type elementType) {
     checkNull(elementType);
-    return getFromCache(new ListType(elementType));
+    Type result = lookupInCache(ListType.computeHashCode(elementType), LIST_MATCHER, elementType, null);
+    return result != null ? result : getFromCache(new ListType(elementType));
   }
 
   /**
@@ -564,7 +617,8 @@ public class TypeFactory {
    */
   public Type mapType(Type key, Type value) {
     checkNull(key, value);
-    return getFromCache(new MapType(key, value));
+    Type result = lookupInCache(MapType.computeHashCode(key, value), MAP_MATCHER, key, value);
+    return result != null ? result : getFromCache(new MapType(key, value));
   }
 
   public Type mapTypeFromTuple(Type fields) {
@@ -617,6 +671,46 @@ public class TypeFactory {
     return getFromCache(new ParameterType(name));
   }
 
+  /**
+   * Computes the least upper bound of a number of types, for example to
+   * infer the element type of a collection. The computation stops as soon as
+   * the value type is reached, and repeated types are cheap since lub is
+   * memoized.
+   * 
+   * @param types
+   * @return the least upper bound of all types, or void if there are none
+   */
+  public Type lub(Iterable<Type> types) {
+    Type top = valueType();
+    Type result = voidType();
+
+    for (Type type : types) {
+      result = result.lub(type);
+
+      if (result == top) {
+        break;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the number of instantiations of open types with non-empty bindings
+   *         which were answered from the instantiation cache
+   */
+  public long getInstantiationCacheHits() {
+    return InstantiationMemo.INSTANCE.getHits();
+  }
+
+  /**
+   * @return the number of instantiations of open types with non-empty bindings
+   *         which had to be computed
+   */
+  public long getInstantiationCacheMisses() {
+    return InstantiationMemo.INSTANCE.getMisses();
+  }
+
   /**
    * Checks to see if a string is a valid PDB type, field or annotation
    * identifier
@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.type;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.rascalmpl.value.util.WeakInterningTable;
+
+/**
+ * Opt-in instrumentation of the type system: the size of the type cache, the
+ * hit rates of the caches of the {@link TypeFactory}, contention on the type
+ * cache and on the monitors of {@link TypeStore}s, and the latency of
+ * constructor lookups and declarations.
+ * <p>
+ * Metrics are off by default, in which case instrumented code only pays for
+ * reading a volatile flag. Call {@link #enable()}, or set the system property
+ * {@value #ENABLE_PROPERTY} to true, to start collecting and to publish the
+ * metrics as a platform MXBean named {@value #OBJECT_NAME}.
+ */
+public final class TypeMetrics implements TypeMetricsMXBean {
+  public static final String ENABLE_PROPERTY = "org.rascalmpl.value.type.metrics";
+  public static final String OBJECT_NAME = "org.rascalmpl.value:type=TypeMetrics";
+
+  private static final TypeMetrics INSTANCE = new TypeMetrics();
+  private static volatile boolean enabled;
+
+  static {
+    if (Boolean.getBoolean(ENABLE_PROPERTY)) {
+      enable();
+    }
+  }
+
+  private final LongAdder internHits = new LongAdder();
+  private final LongAdder internMisses = new LongAdder();
+  private final LongAdder storeLockWaitNanos = new LongAdder();
+  private final LongAdder storeLookups = new LongAdder();
+  private final LongAdder storeImportHits = new LongAdder();
+  private final LongAdder lookupConstructorCount = new LongAdder();
+  private final LongAdder lookupConstructorNanos = new LongAdder();
+  private final LongAdder lookupFirstConstructorCount = new LongAdder();
+  private final LongAdder lookupFirstConstructorNanos = new LongAdder();
+  private final LongAdder constructorCheckCount = new LongAdder();
+  private final LongAdder constructorCheckNanos = new LongAdder();
+
+  // counters kept elsewhere can not be reset, so we remember their values at reset
+  private volatile long instantiationHitsAtReset;
+  private volatile long instantiationMissesAtReset;
+  private volatile long internLockWaitNanosAtReset;
+  private volatile long internLockContentionsAtReset;
+  private volatile long subtypeMemoResetsAtReset;
+
+  private TypeMetrics() {
+    super();
+  }
+
+  public static TypeMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Starts collecting metrics, and registers them with the platform MBean server.
+   */
+  public static synchronized void enable() {
+    if (enabled) {
+      return;
+    }
+
+    INSTANCE.reset();
+    enabled = true;
+
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+    }
+    catch (InstanceAlreadyExistsException e) {
+      // registered before, by an earlier call to enable
+    }
+    catch (JMException e) {
+      throw new IllegalStateException("could not register type metrics", e);
+    }
+  }
+
+  /**
+   * Stops collecting metrics, and unregisters them from the platform MBean server.
+   */
+  public static synchronized void disable() {
+    if (!enabled) {
+      return;
+    }
+
+    enabled = false;
+
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.unregisterMBean(new ObjectName(OBJECT_NAME));
+    }
+    catch (InstanceNotFoundException e) {
+      // unregistered by someone else
+    }
+    catch (JMException e) {
+      throw new IllegalStateException("could not unregister type metrics", e);
+    }
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return a time stamp to pass to one of the recording methods, or 0 when
+   *         metrics are disabled
+   */
+  /* package */ static long start() {
+    return enabled ? System.nanoTime() : 0L;
+  }
+
+  /* package */ static void intern(boolean hit) {
+    if (enabled) {
+      (hit ? INSTANCE.internHits : INSTANCE.internMisses).increment();
+    }
+  }
+
+  /**
+   * Records the time between start and acquiring the monitors of a type store.
+   */
+  /* package */ static void storeLocked(long start) {
+    if (start != 0L) {
+      INSTANCE.storeLockWaitNanos.add(System.nanoTime() - start);
+    }
+  }
+
+  /* package */ static void storeLookup(boolean fromImport) {
+    if (enabled) {
+      INSTANCE.storeLookups.increment();
+      if (fromImport) {
+        INSTANCE.storeImportHits.increment();
+      }
+    }
+  }
+
+  /* package */ static void lookupConstructor(long start) {
+    if (start != 0L) {
+      INSTANCE.lookupConstructorCount.increment();
+      INSTANCE.lookupConstructorNanos.add(System.nanoTime() - start);
+    }
+  }
+
+  /* package */ static void lookupFirstConstructor(long start) {
+    if (start != 0L) {
+      INSTANCE.lookupFirstConstructorCount.increment();
+      INSTANCE.lookupFirstConstructorNanos.add(System.nanoTime() - start);
+    }
+  }
+
+  /* package */ static void constructorChecks(long start) {
+    if (start != 0L) {
+      INSTANCE.constructorCheckCount.increment();
+      INSTANCE.constructorCheckNanos.add(System.nanoTime() - start);
+    }
+  }
+
+  private static WeakInterningTable<Type> cache() {
+    return TypeFactory.getInstance().getCache();
+  }
+
+  @Override
+  public int getInternedTypeCount() {
+    return cache().size();
+  }
+
+  @Override
+  public Map<String, Integer> getInternedTypeCountsByKind() {
+    Map<String, Integer> result = new TreeMap<>();
+
+    cache().forEach(type -> result.merge(kindOf(type), 1, Integer::sum));
+
+    return result;
+  }
+
+  private static String kindOf(Type type) {
+    if (type.isExternalType()) {
+      return "External";
+    }
+
+    String name = type.getClass().getSimpleName();
+    return name.endsWith("Type") ? name.substring(0, name.length() - "Type".length()) : name;
+  }
+
+  @Override
+  public long getInternHits() {
+    return internHits.sum();
+  }
+
+  @Override
+  public long getInternMisses() {
+    return internMisses.sum();
+  }
+
+  @Override
+  public long getInstantiationCacheHits() {
+    return InstantiationMemo.INSTANCE.getHits() - instantiationHitsAtReset;
+  }
+
+  @Override
+  public long getInstantiationCacheMisses() {
+    return InstantiationMemo.INSTANCE.getMisses() - instantiationMissesAtReset;
+  }
+
+  @Override
+  public long getInternLockWaitNanos() {
+    return cache().getLockWaitNanos() - internLockWaitNanosAtReset;
+  }
+
+  @Override
+  public long getInternLockContentions() {
+    return cache().getLockContentions() - internLockContentionsAtReset;
+  }
+
+  @Override
+  public long getStoreLockWaitNanos() {
+    return storeLockWaitNanos.sum();
+  }
+
+  @Override
+  public long getStoreLookups() {
+    return storeLookups.sum();
+  }
+
+  @Override
+  public long getStoreImportHits() {
+    return storeImportHits.sum();
+  }
+
+  @Override
+  public long getLookupConstructorCount() {
+    return lookupConstructorCount.sum();
+  }
+
+  @Override
+  public long getLookupConstructorNanos() {
+    return lookupConstructorNanos.sum();
+  }
+
+  @Override
+  public long getLookupFirstConstructorCount() {
+    return lookupFirstConstructorCount.sum();
+  }
+
+  @Override
+  public long getLookupFirstConstructorNanos() {
+    return lookupFirstConstructorNanos.sum();
+  }
+
+  @Override
+  public long getConstructorCheckCount() {
+    return constructorCheckCount.sum();
+  }
+
+  @Override
+  public long getConstructorCheckNanos() {
+    return constructorCheckNanos.sum();
+  }
+
+  @Override
+  public long getSubtypeMemoResets() {
+    return Type.getSubtypeMemoResets() - subtypeMemoResetsAtReset;
+  }
+
+  @Override
+  public void reset() {
+    internHits.reset();
+    internMisses.reset();
+    storeLockWaitNanos.reset();
+    storeLookups.reset();
+    storeImportHits.reset();
+    lookupConstructorCount.reset();
+    lookupConstructorNanos.reset();
+    lookupFirstConstructorCount.reset();
+    lookupFirstConstructorNanos.reset();
+    constructorCheckCount.reset();
+    constructorCheckNanos.reset();
+
+    instantiationHitsAtReset = InstantiationMemo.INSTANCE.getHits();
+    instantiationMissesAtReset = InstantiationMemo.INSTANCE.getMisses();
+    internLockWaitNanosAtReset = cache().getLockWaitNanos();
+    internLockContentionsAtReset = cache().getLockContentions();
+    subtypeMemoResetsAtReset = Type.getSubtypeMemoResets();
+  }
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.type;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link TypeMetrics}. Times are in nanoseconds,
+ * and all counters accumulate from the moment the metrics were enabled or
+ * last reset.
+ */
+public interface TypeMetricsMXBean {
+  /**
+   * @return the number of canonical types that are currently alive
+   */
+  int getInternedTypeCount();
+
+  /**
+   * @return the number of canonical types that are currently alive, by kind
+   */
+  Map<String, Integer> getInternedTypeCountsByKind();
+
+  /**
+   * @return the number of type constructions that found an existing canonical type
+   */
+  long getInternHits();
+
+  /**
+   * @return the number of type constructions that created a new canonical type
+   */
+  long getInternMisses();
+
+  long getInstantiationCacheHits();
+
+  long getInstantiationCacheMisses();
+
+  /**
+   * @return the time threads waited for each other while interning types
+   */
+  long getInternLockWaitNanos();
+
+  long getInternLockContentions();
+
+  /**
+   * @return the time threads waited for the monitors of type stores
+   */
+  long getStoreLockWaitNanos();
+
+  /**
+   * @return the number of type store lookups of declarations
+   */
+  long getStoreLookups();
+
+  /**
+   * @return the number of type store lookups which were answered by an imported store
+   */
+  long getStoreImportHits();
+
+  long getLookupConstructorCount();
+
+  long getLookupConstructorNanos();
+
+  long getLookupFirstConstructorCount();
+
+  long getLookupFirstConstructorNanos();
+
+  /**
+   * @return the number of overloading and field name checks of declared constructors
+   */
+  long getConstructorCheckCount();
+
+  long getConstructorCheckNanos();
+
+  /**
+   * @return the number of times the subtype memo of a type was full and
+   *         cleared, after which only the memo of that type is rebuilt
+   */
+  long getSubtypeMemoResets();
+
+  /**
+   * Sets all accumulating counters back to zero.
+   */
+  void reset();
+}
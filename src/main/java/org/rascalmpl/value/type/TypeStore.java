@@ -12,14 +12,21 @@
 package org.rascalmpl.value.type;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import org.rascalmpl.value.IValueFactory;
 import org.rascalmpl.value.exceptions.FactTypeDeclarationException;
@@ -40,6 +47,10 @@ import org.rascalmpl.value.exceptions.UndeclaredAbstractDataTypeException;
  * TypeStores can import others, but the imports are not transitive.
  * Cyclic imports are allowed.
  * <p>
+ * Lookups normally synchronize on the declarations of the store. Stores which
+ * are mostly read, by many threads, after their declarations are complete
+ * can be switched to lock-free lookups with {@link #setReadOptimized(boolean)}.
+ * <p>
  * @see {@link TypeFactory}, {@link Type} and {@link IValueFactory} for more information.
  */
 public class TypeStore {
@@ -52,7 +63,37 @@ public class TypeStore {
 	private final Map<Type, Set<Type>> fConstructors = new HashMap<>();
 	private final Map<Type, Map<String, Type>> fAnnotations = new HashMap<>();
 	private final Map<Type, Map<String, Type>> fkeywordParameters = new HashMap<>();
-	private final Set<TypeStore> fImports = new HashSet<>();
+	private final Set<TypeStore> fImports = new LinkedHashSet<>();
+	
+	/*
+	 * An index of the constructors in fConstructors by name, guarded by 
+	 * the monitor of fConstructors. Lookups combine it with the indexes of 
+	 * the imported stores, which keeps it valid when imports change.
+	 */
+	private final Map<String, NamedConstructors> fConstructorsByName = new HashMap<>();
+	
+	/*
+	 * Per abstract data type, an index of the constructors in fConstructors for 
+	 * validating new alternatives, guarded by the monitor of fConstructors.
+	 */
+	private final Map<Type, AlternativesIndex> fAlternativesIndex = new HashMap<>();
+	
+	/*
+	 * The stores which import this store, and the number of changes to the 
+	 * declarations visible in this store (including those of its imports),
+	 * which tells when snapshots and other derived data are outdated.
+	 */
+	private final Set<TypeStore> fImporters = Collections.newSetFromMap(new WeakHashMap<TypeStore, Boolean>());
+	private final AtomicInteger fEpoch = new AtomicInteger();
+	
+	private volatile boolean fReadOptimized = false;
+	private volatile Snapshot fSnapshot = null;
+	private volatile Derived fDerived = new Derived(-1);
+	
+	/*
+	 * Whether this store collects the declarations of a batch, see declareAll
+	 */
+	private boolean fBatch = false;
 	
 	/*
 	 * The ADTs for which overloading checking is turned off
@@ -149,9 +190,13 @@ public class TypeStore {
 	 * @param stores
 	 */
 	public void importStore(TypeStore... stores) {
-	  synchronized(fImports) {
-	    for (TypeStore s : stores) {
-	      doImport(s);
+	  // checking the aliases needs fAliases, which is always locked before fImports
+	  synchronized (fAliases) {
+	    synchronized(fImports) {
+	      for (TypeStore s : stores) {
+	        doImport(s);
+	      }
+	      changed();
 	    }
 	  }
 	}
@@ -161,10 +206,20 @@ public class TypeStore {
 	 * the stores imported by the receiver.
 	 * 
 	 * @param stores to be removed
+	 * @throws IllegalStateException if this is the store of a batch, see {@link #declareAll(Consumer)}
 	 */
 	public void unimportStores(TypeStore... stores) {
+	  if (fBatch) {
+	    throw new IllegalStateException("stores can not be unimported in a batch of declarations");
+	  }
+	  
 	  synchronized (fImports) {
-	    fImports.removeAll(Arrays.asList(stores));
+	    for (TypeStore s : stores) {
+	      if (fImports.remove(s)) {
+	        s.removeImporter(this);
+	      }
+	    }
+	    changed();
 	  }
 	}
 
@@ -173,6 +228,51 @@ public class TypeStore {
 	  checkConstructorOverloading(s);
 
 	  fImports.add(s);
+	  s.addImporter(this);
+	}
+
+	private void addImporter(TypeStore importer) {
+	  synchronized (fImporters) {
+	    fImporters.add(importer);
+	  }
+	}
+
+	private void removeImporter(TypeStore importer) {
+	  synchronized (fImporters) {
+	    fImporters.remove(importer);
+	  }
+	}
+
+	/**
+	 * Must be called after every change to the declarations of this store, 
+	 * while still holding the monitor of the changed declarations. Since imports
+	 * are not transitive, only the direct importers are affected.
+	 */
+	private void changed() {
+	  fEpoch.incrementAndGet();
+
+	  synchronized (fImporters) {
+	    for (TypeStore importer : fImporters) {
+	      importer.fEpoch.incrementAndGet();
+	    }
+	  }
+	}
+
+	/**
+	 * In read optimized mode, lookups of aliases, abstract data types and constructors
+	 * do not lock, but read an immutable snapshot of the declarations of this store
+	 * and its imports. The snapshot is rebuilt by the first lookup after a change to
+	 * the declarations of this store or one of its imports, which makes this mode
+	 * expensive for stores that are still being extended. In this mode
+	 * {@link #lookupAlternatives(Type)} and {@link #lookupConstructors(String)} return
+	 * unmodifiable sets which are shared between calls.
+	 */
+	public void setReadOptimized(boolean readOptimized) {
+	  fReadOptimized = readOptimized;
+	}
+
+	public boolean isReadOptimized() {
+	  return fReadOptimized;
 	}
 
 	/**
@@ -181,10 +281,12 @@ public class TypeStore {
 	public void extendStore(TypeStore other) {
 	  synchronized (fAliases) {
 	    fAliases.putAll(other.fAliases);
+	    changed();
 	  }
 
 	  synchronized (fADTs) {
 	    fADTs.putAll(other.fADTs);
+	    changed();
 	  }
 
 	  synchronized (fConstructors) {
@@ -192,24 +294,245 @@ public class TypeStore {
 	      Set<Type> set = fConstructors.get(type);
 
 	      if (set == null) {
-	        set = new HashSet<>();
+	        set = new LinkedHashSet<>();
 	      }
 
-	      set.addAll(other.fConstructors.get(type));
+	      for (Type cons : other.fConstructors.get(type)) {
+	        if (set.add(cons)) {
+	          indexConstructor(type, cons);
+	        }
+	      }
 	      fConstructors.put(type, set);
 	    }
+	    changed();
 	  }
 
 	  synchronized (fAnnotations) {
 	    fAnnotations.putAll(other.fAnnotations);
+	    changed();
 	  }
 	  
 	  synchronized (fkeywordParameters) {
 		  fkeywordParameters.putAll(other.fkeywordParameters);
+		  changed();
 		  }
 
 	  synchronized (fImports) {
-	    fImports.addAll(other.fImports);
+	    for (TypeStore s : other.fImports) {
+	      fImports.add(s);
+	      s.addImporter(this);
+	    }
+	    changed();
+	  }
+	}
+
+	/**
+	 * Declares a batch of types at once. The declarations are made by the given code, 
+	 * in the store that is passed to it, using the usual methods of {@link TypeFactory} 
+	 * and {@link TypeStore}. That store sees the declarations of the receiver and its 
+	 * imports, and is only valid while the code runs. Stores which the code imports
+	 * into it are imported by the receiver when the batch is published, while stores
+	 * can not be unimported from it.
+	 * <p>
+	 * The declarations are validated as usual while they are made, without holding the
+	 * monitors of the receiver. If one of them is invalid, nothing is declared. Otherwise
+	 * they are all published at once, so other threads see either none or all of them.
+	 * If the receiver changed in the mean time, the batch is validated once more against
+	 * its current declarations before it is published.
+	 * 
+	 * @param declarations the code that declares the types of the batch
+	 */
+	public void declareAll(Consumer<TypeStore> declarations) throws FactTypeDeclarationException {
+	  int epoch = fEpoch.get();
+	  TypeStore batch = newBatch();
+	  declarations.accept(batch);
+
+	  synchronized (fADTs) {
+	    synchronized (fAliases) {
+	      synchronized (fConstructors) {
+	        synchronized (fAnnotations) {
+	          synchronized (fkeywordParameters) {
+	            if (fEpoch.get() != epoch) {
+	              TypeStore revalidated = newBatch();
+	              revalidated.redeclare(this, batch);
+	              batch = revalidated;
+	            }
+
+	            publish(batch);
+	          }
+	        }
+	      }
+	    }
+	  }
+	}
+
+	/**
+	 * @return an empty store which imports the receiver and its imports, such that
+	 * declarations in it are validated as they would be in the receiver.
+	 */
+	private TypeStore newBatch() {
+	  TypeStore batch = new TypeStore();
+
+	  synchronized (fImports) {
+	    // not registered as importer, since the batch is short lived
+	    batch.fImports.add(this);
+	    batch.fImports.addAll(fImports);
+	  }
+
+	  batch.fBatch = true;
+	  return batch;
+	}
+
+	/**
+	 * @return the stores which the code of a batch imported into it
+	 */
+	private List<TypeStore> importsOf(TypeStore batch) {
+	  List<TypeStore> result = new ArrayList<>();
+
+	  synchronized (fImports) {
+	    for (TypeStore s : batch.fImports) {
+	      if (s != this && !fImports.contains(s)) {
+	        result.add(s);
+	      }
+	    }
+	  }
+
+	  return result;
+	}
+
+	/**
+	 * Repeats the imports and declarations of another batch of the same 
+	 * receiver in this batch.
+	 */
+	private void redeclare(TypeStore receiver, TypeStore batch) {
+	  List<TypeStore> imports = receiver.importsOf(batch);
+	  importStore(imports.toArray(new TypeStore[imports.size()]));
+
+	  for (Type adt : batch.fADTs.values()) {
+	    declareAbstractDataType(adt);
+	  }
+
+	  for (Type alias : batch.fAliases.values()) {
+	    declareAlias(alias);
+	  }
+
+	  for (Set<Type> alternatives : batch.fConstructors.values()) {
+	    for (Type constructor : alternatives) {
+	      declareConstructor(constructor);
+	    }
+	  }
+
+	  for (Map.Entry<Type, Map<String, Type>> entry : batch.fAnnotations.entrySet()) {
+	    for (Map.Entry<String, Type> annotation : entry.getValue().entrySet()) {
+	      declareAnnotation(entry.getKey(), annotation.getKey(), annotation.getValue());
+	    }
+	  }
+
+	  for (Map.Entry<Type, Map<String, Type>> entry : batch.fkeywordParameters.entrySet()) {
+	    for (Map.Entry<String, Type> parameter : entry.getValue().entrySet()) {
+	      declareKeywordParameter(entry.getKey(), parameter.getKey(), parameter.getValue());
+	    }
+	  }
+	}
+
+	/**
+	 * Adds the validated declarations of a batch to the receiver, while holding
+	 * all of its monitors.
+	 */
+	private void publish(TypeStore batch) {
+	  List<TypeStore> imports = importsOf(batch);
+
+	  synchronized (fImports) {
+	    // the declarations of the batch were checked against the imports in the batch
+	    for (TypeStore s : imports) {
+	      checkOverlappingAliases(s);
+	      checkConstructorOverloading(s);
+	    }
+	  }
+
+	  fAliases.putAll(batch.fAliases);
+
+	  for (Type adt : batch.fADTs.values()) {
+	    fADTs.putIfAbsent(adt.getName(), adt);
+	  }
+
+	  for (Map.Entry<Type, Set<Type>> entry : batch.fConstructors.entrySet()) {
+	    Type adt = entry.getKey();
+	    Set<Type> alternatives = fConstructors.computeIfAbsent(adt, a -> new LinkedHashSet<>());
+
+	    for (Type constructor : entry.getValue()) {
+	      if (alternatives.add(constructor)) {
+	        indexConstructor(adt, constructor);
+	      }
+	    }
+	  }
+
+	  for (Map.Entry<Type, Map<String, Type>> entry : batch.fAnnotations.entrySet()) {
+	    fAnnotations.computeIfAbsent(entry.getKey(), t -> new HashMap<>()).putAll(entry.getValue());
+	  }
+
+	  for (Map.Entry<Type, Map<String, Type>> entry : batch.fkeywordParameters.entrySet()) {
+	    fkeywordParameters.computeIfAbsent(entry.getKey(), t -> new HashMap<>()).putAll(entry.getValue());
+	  }
+
+	  synchronized (fImports) {
+	    for (TypeStore s : imports) {
+	      fImports.add(s);
+	      s.addImporter(this);
+	    }
+	  }
+
+	  changed();
+	}
+
+	/**
+	 * Adds declarations which were validated before, while reading a {@link TypeStoreSnapshot}.
+	 */
+	/* package */ void restore(Collection<Type> aliases, Collection<Type> adts, Collection<Type> constructors,
+	    Map<Type, Map<String, Type>> annotations, Map<Type, Map<String, Type>> keywordParameters, TypeStore[] imports) {
+	  synchronized (fADTs) {
+	    synchronized (fAliases) {
+	      synchronized (fConstructors) {
+	        synchronized (fAnnotations) {
+	          synchronized (fkeywordParameters) {
+	            synchronized (fImports) {
+	              for (Type alias : aliases) {
+	                fAliases.put(alias.getName(), alias);
+	              }
+
+	              for (Type adt : adts) {
+	                fADTs.put(adt.getName(), adt);
+	                fConstructors.computeIfAbsent(adt, a -> new LinkedHashSet<>());
+	              }
+
+	              for (Type constructor : constructors) {
+	                Type adt = constructor.getAbstractDataType();
+	                fADTs.putIfAbsent(adt.getName(), adt);
+
+	                if (fConstructors.computeIfAbsent(adt, a -> new LinkedHashSet<>()).add(constructor)) {
+	                  indexConstructor(adt, constructor);
+	                }
+	              }
+
+	              for (Map.Entry<Type, Map<String, Type>> entry : annotations.entrySet()) {
+	                fAnnotations.computeIfAbsent(entry.getKey(), t -> new HashMap<>()).putAll(entry.getValue());
+	              }
+
+	              for (Map.Entry<Type, Map<String, Type>> entry : keywordParameters.entrySet()) {
+	                fkeywordParameters.computeIfAbsent(entry.getKey(), t -> new HashMap<>()).putAll(entry.getValue());
+	              }
+
+	              for (TypeStore s : imports) {
+	                fImports.add(s);
+	                s.addImporter(this);
+	              }
+
+	              changed();
+	            }
+	          }
+	        }
+	      }
+	    }
 	  }
 	}
 
@@ -217,9 +540,14 @@ public class TypeStore {
 	  for (Type type : fADTs.values()) {
 	    Type other = s.fADTs.get(type.getName());
 	    if (other != null && other == type) {
-	      Set<Type> signature1 = fConstructors.get(type);
+	      AlternativesIndex local = fAlternativesIndex.get(type);
 	      Set<Type> signature2 = s.fConstructors.get(type);
 
+	      if (local == null || signature2 == null) {
+	        continue;
+	      }
+
+	      List<AlternativesIndex> signature1 = Collections.singletonList(local);
 	      for (Type alt : signature2) {
 	        Type children = alt.getFieldTypes();
 	        checkOverloading(signature1, alt.getName(), children);
@@ -266,12 +594,12 @@ public class TypeStore {
 	  synchronized (fADTs) {
 	    synchronized (fAliases) {
 	      String name = alias.getName();
-	      Type oldAdt = lookupAbstractDataType(name);
+	      Type oldAdt = lookupAbstractDataTypeLocked(name);
 	      if (oldAdt != null) {
 	        throw new FactTypeRedeclaredException(name, oldAdt);
 	      }
 
-	      Type oldAlias = lookupAlias(name);
+	      Type oldAlias = lookupAliasLocked(name);
 
 	      if (oldAlias != null) {
 	        if (alias.isSubtypeOf(oldAlias)) {
@@ -282,6 +610,7 @@ public class TypeStore {
 	      }
 
 	      fAliases.put(name, alias);
+	      changed();
 	    }
 	  }
 	}
@@ -300,7 +629,7 @@ public class TypeStore {
 	    synchronized (fAliases) {
 	      synchronized (fConstructors) {
 	        String name = adt.getName();
-	        Type oldAdt = lookupAbstractDataType(name);
+	        Type oldAdt = lookupAbstractDataTypeLocked(name);
 
 	        if (oldAdt != null) {
 	          if (adt.comparable(oldAdt) || oldAdt.isExternalType()) {
@@ -310,7 +639,7 @@ public class TypeStore {
 	          throw new FactTypeRedeclaredException(name, oldAdt);
 	        }
 
-	        Type oldAlias = lookupAlias(name);
+	        Type oldAlias = lookupAliasLocked(name);
 	        if (oldAlias != null) {
 	          throw new FactTypeRedeclaredException(name, oldAlias);
 	        }
@@ -318,8 +647,9 @@ public class TypeStore {
 	        fADTs.put(name, adt);
 
 	        if (fConstructors.get(adt) == null) {
-	          fConstructors.put(adt, new HashSet<Type>());
+	          fConstructors.put(adt, new LinkedHashSet<Type>());
 	        }
+	        changed();
 	      }
 	    }
 	  }
@@ -333,25 +663,25 @@ public class TypeStore {
 	 * @throws UndeclaredAbstractDataTypeException, RedeclaredFieldNameException, RedeclaredConstructorException 
 	 */
 	public void declareConstructor(Type constructor) throws FactTypeDeclarationException {
+	  long waitStart = TypeMetrics.start();
 	  synchronized (fADTs) {
 	    synchronized(fConstructors) {
+	      TypeMetrics.storeLocked(waitStart);
 	      Type adt = constructor.getAbstractDataType();
 
-	      Type other = lookupAbstractDataType(adt.getName());
+	      Type other = lookupAbstractDataTypeLocked(adt.getName());
 	      if (other == null) {
 	        throw new UndeclaredAbstractDataTypeException(adt);
 	      }
 
-	      Set<Type> signature = lookupAlternatives(adt);
-	      if (signature == null) {
-	        throw new UndeclaredAbstractDataTypeException(adt);
-	      }
+	      List<AlternativesIndex> signature = lookupAlternativesIndex(adt);
 	      
 		  Type constructor1 = expandAliases(constructor);
 		  if(!constructor.equals(constructor1)){
 			  constructor = constructor1;
 		  }
 		  if(!IGNORE_OVERLOADING_CHECKS.contains(adt.getName())){
+			  long checkStart = TypeMetrics.start();
 			  checkOverloading(signature, constructor.getName(), constructor.getFieldTypes());
 			  try {
 				  checkFieldNames(signature, constructor.getFieldTypes());
@@ -361,11 +691,12 @@ public class TypeStore {
 						  e.getFirstType(), e.getSecondType(),
 						  adt);
 			  }
+			  TypeMetrics.constructorChecks(checkStart);
 		  }
 
 	      Set<Type> localSignature = fConstructors.get(adt);
 	      if (localSignature == null) {
-	        localSignature = new HashSet<>();
+	        localSignature = new LinkedHashSet<>();
 	        fConstructors.put(adt, localSignature);
 
 	        if (!fADTs.containsKey(adt.getName())) {
@@ -373,40 +704,63 @@ public class TypeStore {
 	        }
 	      }
 
-	      localSignature.add(constructor);
+	      if (localSignature.add(constructor)) {
+	        indexConstructor(adt, constructor);
+	      }
+	      changed();
 	    }
 	  }
 	}
 
-	private void checkFieldNames(Set<Type> signature, Type tupleType) {
+	/**
+	 * @return the indexes of the alternatives of an abstract data type in this store
+	 * and its imports, while holding the monitor of fConstructors.
+	 */
+	private List<AlternativesIndex> lookupAlternativesIndex(Type adt) {
+	  synchronized (fImports) {
+	    List<AlternativesIndex> result = new ArrayList<>(fImports.size() + 1);
+
+	    AlternativesIndex local = fAlternativesIndex.get(adt);
+	    if (local != null) {
+	      result.add(local);
+	    }
+
+	    for (TypeStore s : fImports) {
+	      if (s != this) {
+	        AlternativesIndex imported = s.fAlternativesIndex.get(adt);
+	        if (imported != null) {
+	          result.add(imported);
+	        }
+	      }
+	    }
+
+	    return result;
+	  }
+	}
+
+	private void checkFieldNames(List<AlternativesIndex> signature, Type tupleType) {
 	  if (!tupleType.hasFieldNames()) {
 	    return;
 	  }
 
-	  for (Type alt : signature) {
-	    Type altArgs = alt.getFieldTypes();
-	    if (!altArgs.hasFieldNames()) {
-	      continue;
-	    }
-	    for (int i = tupleType.getArity() - 1; i >= 0; i--) {
-	      Type type = tupleType.getFieldType(i);
-	      String label = tupleType.getFieldName(i);
-
-	      for (int j = altArgs.getArity() - 1; j >= 0; j--) {
-	        if (altArgs.getFieldName(j).equals(label)) {
-	          if (!altArgs.getFieldType(j).equivalent(type)) {
-	        	throw new RedeclaredFieldNameException(label, type, altArgs.getFieldType(j), tupleType);
-	          }
+	  for (int i = tupleType.getArity() - 1; i >= 0; i--) {
+	    Type type = tupleType.getFieldType(i);
+	    String label = tupleType.getFieldName(i);
+
+	    for (AlternativesIndex index : signature) {
+	      for (Type other : index.fieldTypes(label)) {
+	        if (!other.equivalent(type)) {
+	          throw new RedeclaredFieldNameException(label, type, other, tupleType);
 	        }
 	      }
 	    }
 	  }
 	}
 
-	private void checkOverloading(Set<Type> signature, String name,
+	private void checkOverloading(List<AlternativesIndex> signature, String name,
 	    Type tupleType) throws FactTypeDeclarationException {
-	  for (Type alt : signature) {
-	    if (alt.getName().equals(name)) {
+	  for (AlternativesIndex index : signature) {
+	    for (Type alt : index.named(name)) {
 	      Type fieldTypes = alt.getFieldTypes();
 	      if (fieldTypes != tupleType && fieldTypes.comparable(tupleType)) {
 	        throw new RedeclaredConstructorException(name, fieldTypes, tupleType);
@@ -421,19 +775,34 @@ public class TypeStore {
 	 * @return the AliasType
 	 */
 	public Type lookupAlias(final String name) {
+	  if (fReadOptimized) {
+	    Snapshot snapshot = snapshot();
+	    Type result = snapshot.aliases.get(name);
+	    TypeMetrics.storeLookup(result != null && !snapshot.local.aliases.containsKey(name));
+	    return result;
+	  }
+
+	  return lookupAliasLocked(name);
+	}
+
+	private Type lookupAliasLocked(final String name) {
+	  long waitStart = TypeMetrics.start();
 	  synchronized (fAliases) {
 	    synchronized (fImports) {
+	      TypeMetrics.storeLocked(waitStart);
 	      Type result = fAliases.get(name);
 
 	      if (result == null) {
 	        for (TypeStore i : fImports) {
 	          result = i.fAliases.get(name);
 	          if (result != null) {
+	            TypeMetrics.storeLookup(true);
 	            return result;
 	          }
 	        }
 	      }
 
+	      TypeMetrics.storeLookup(false);
 	      return result;
 	    }
 	  }
@@ -446,27 +815,47 @@ public class TypeStore {
 	 * @return all types that construct the given type
 	 */
 	public Set<Type> lookupAlternatives(Type adt) {
+	  if (fReadOptimized) {
+	    adt = AliasExpander.unalias(adt);
+
+	    Snapshot snapshot = snapshot();
+	    Set<Type> result = snapshot.alternatives.get(adt);
+	    if (result == null) {
+	      TypeMetrics.storeLookup(false);
+	      return Collections.<Type>emptySet();
+	    }
+
+	    Set<Type> local = snapshot.local.constructors.get(adt);
+	    TypeMetrics.storeLookup(result.size() > (local != null ? local.size() : 0));
+	    return result;
+	  }
+
+	  return lookupAlternativesLocked(adt);
+	}
+
+	private Set<Type> lookupAlternativesLocked(Type adt) {
+	  long waitStart = TypeMetrics.start();
 	  synchronized (fConstructors) {
 	    synchronized (fImports) {
-	      while (adt.isAliased()) {
-	        adt = adt.getAliased();
-	      }
+	      TypeMetrics.storeLocked(waitStart);
+	      boolean fromImport = false;
+	      adt = AliasExpander.unalias(adt);
 
-	      Set<Type> result = fConstructors.get(adt);
-
-	      if (result == null) {
-	        result = new HashSet<>();
-	      }
+	      Set<Type> local = fConstructors.get(adt);
+	      // copy, to not add the imported alternatives to the local ones
+	      Set<Type> result = local != null ? new LinkedHashSet<>(local) : new LinkedHashSet<>();
 
 	      for (TypeStore s : fImports) {
 	        if (s != this) {
 	          Set<Type> imported = s.fConstructors.get(adt);
 	          if (imported != null) {
 	            result.addAll(imported);
+	            fromImport = true;
 	          }
 	        }
 	      }
 
+	      TypeMetrics.storeLookup(fromImport);
 	      return result;
 	    }
 	  }
@@ -480,14 +869,22 @@ public class TypeStore {
 	 * @throws a FactTypeError if the type was not declared before
 	 */
 	public Set<Type> lookupConstructor(Type adt, String constructorName) throws FactTypeUseException {
+	  long start = TypeMetrics.start();
+
+	  if (fReadOptimized) {
+	    Set<Type> result = snapshot().lookupConstructor(adt, constructorName);
+	    TypeMetrics.lookupConstructor(start);
+	    return result;
+	  }
+
 	  synchronized (fConstructors) {
 	    synchronized (fImports) {
-	      while (adt.isAliased()) {
-	        adt = adt.getAliased();
-	      }
+	      TypeMetrics.storeLocked(start);
+	      boolean fromImport = false;
+	      adt = AliasExpander.unalias(adt);
 	      Type parameterizedADT = fADTs.get(adt.getName());
 	      Set<Type> local = parameterizedADT != null ? fConstructors.get(parameterizedADT) : null;
-	      Set<Type> result = new HashSet<>();
+	      Set<Type> result = new LinkedHashSet<>();
 
 	      if (local != null) {
 	        for (Type cand : local) {
@@ -503,11 +900,14 @@ public class TypeStore {
 	          for (Type cand : local) {
 	            if (cand.getName().equals(constructorName)) {
 	              result.add(cand);
+	              fromImport = true;
 	            }
 	          }
 	        }
 	      }
 
+	      TypeMetrics.storeLookup(fromImport);
+	      TypeMetrics.lookupConstructor(start);
 	      return result;
 	    }
 	  }
@@ -523,33 +923,23 @@ public class TypeStore {
 	 * @throws a FactTypeError if the type was not declared before
 	 */
 	public Type lookupFirstConstructor(final String cons, final Type args) {
-	  Collection<Type> adts = allAbstractDataTypes();
-
-	  for (Type adt : adts) {
-	    Type cand = lookupConstructor(adt, cons, args);
-	    if (cand != null) {
+	  long start = TypeMetrics.start();
+	  // only tuples of the same arity can be sub-types of the fields of a constructor,
+	  // but void is a sub-type of the fields of every arity
+	  boolean byArity = args.isFixedWidth() && !args.isBottom();
+	  Set<Type> candidates = byArity ? lookupConstructors(cons, args.getArity()) : lookupConstructors(cons);
+
+	  for (Type cand : candidates) {
+	    if (args.isSubtypeOf(cand.getFieldTypes())) {
+	      TypeMetrics.lookupFirstConstructor(start);
 	      return cand;
 	    }
 	  }
 
+	  TypeMetrics.lookupFirstConstructor(start);
 	  return null;
 	}
 
-	private Set<Type> allAbstractDataTypes() {
-	  synchronized (fADTs) {
-	    synchronized (fImports) {
-	      Set<Type> result = new HashSet<>();
-	      result.addAll(fADTs.values());
-
-	      for (TypeStore s : fImports) {
-	        result.addAll(s.fADTs.values());
-	      }
-
-	      return result;
-	    }
-	  }
-	}
-
 	/**
 	 * Lookup a ConstructorType by name, and in the context of a certain AbstractDataType
 	 * for a specific list of argument types.
@@ -560,17 +950,91 @@ public class TypeStore {
 	 * @throws a FactTypeError if the type was not declared before
 	 */
 	public Type lookupConstructor(Type adt, String cons, Type args) {
-	  Set<Type> sig = lookupConstructor(adt, cons);
+	  return derived().dispatch(this, adt, cons).lookup(args);
+	}
 
-	  if (sig != null) {
-	    for (Type cand : sig) {
-	      if (args.isSubtypeOf(cand.getFieldTypes())) {
-	        return cand;
-	      }
+	/**
+	 * @return the data derived from the current declarations, which is discarded
+	 * after any change to the declarations of this store or its imports.
+	 */
+	private Derived derived() {
+	  Derived derived = fDerived;
+	  int epoch = fEpoch.get();
+
+	  if (derived.epoch != epoch) {
+	    // data derived from declarations that change in the mean time is discarded by the next call
+	    derived = new Derived(epoch);
+	    fDerived = derived;
+	  }
+
+	  return derived;
+	}
+
+	/**
+	 * Data derived from the declarations of this store and its imports at a 
+	 * certain epoch, computed on demand: the dispatch trees of the constructors 
+	 * per abstract data type and name, and the merged annotations and keyword 
+	 * parameters per type.
+	 * <p>
+	 * Values are computed outside of the maps, because computing them takes the 
+	 * monitors of the store, which may already be held by a thread that is 
+	 * declaring something.
+	 */
+	private static final class Derived {
+	  final int epoch;
+	  final Map<Type, Map<String, ConstructorDispatch>> trees = new ConcurrentHashMap<>();
+	  final Map<Type, Map<String, Type>> annotations = new ConcurrentHashMap<>();
+	  final Map<Type, Map<String, Type>> keywordParameters = new ConcurrentHashMap<>();
+	  final Map<Type, Boolean> hasKeywordParameters = new ConcurrentHashMap<>();
+
+	  Derived(int epoch) {
+	    this.epoch = epoch;
+	  }
+
+	  ConstructorDispatch dispatch(TypeStore store, Type adt, String cons) {
+	    Map<String, ConstructorDispatch> named = trees.computeIfAbsent(adt, a -> new ConcurrentHashMap<>());
+	    ConstructorDispatch result = named.get(cons);
+
+	    if (result == null) {
+	      result = new ConstructorDispatch(store.lookupConstructor(adt, cons));
+	      named.putIfAbsent(cons, result);
 	    }
+
+	    return result;
 	  }
 
-	  return null;
+	  Map<String, Type> annotations(TypeStore store, Type onType) {
+	    Map<String, Type> result = annotations.get(onType);
+
+	    if (result == null) {
+	      result = Collections.unmodifiableMap(store.collectAnnotations(onType));
+	      annotations.putIfAbsent(onType, result);
+	    }
+
+	    return result;
+	  }
+
+	  Map<String, Type> keywordParameters(TypeStore store, Type onType) {
+	    Map<String, Type> result = keywordParameters.get(onType);
+
+	    if (result == null) {
+	      result = Collections.unmodifiableMap(store.collectKeywordParameters(onType));
+	      keywordParameters.putIfAbsent(onType, result);
+	    }
+
+	    return result;
+	  }
+
+	  boolean hasKeywordParameters(TypeStore store, Type onType) {
+	    Boolean result = hasKeywordParameters.get(onType);
+
+	    if (result == null) {
+	      result = store.collectHasKeywordParameters(onType);
+	      hasKeywordParameters.putIfAbsent(onType, result);
+	    }
+
+	    return result;
+	  }
 	}
 
 	/** 
@@ -580,28 +1044,38 @@ public class TypeStore {
 	 * @param constructName the name of the tree node
 	 */
 	public Set<Type> lookupConstructors(String constructorName) {
+	  return lookupConstructors(constructorName, -1);
+	}
+
+	/** 
+	 * Retrieve all tree node types for a given constructor name and arity, 
+	 * regardless of abstract data-type. 
+	 * 
+	 * @param constructorName the name of the tree node
+	 * @param arity the number of children, or -1 for any number of children
+	 */
+	public Set<Type> lookupConstructors(String constructorName, int arity) {
+	  if (fReadOptimized) {
+	    NamedConstructors named = snapshot().constructorsByName.get(constructorName);
+	    return named != null ? named.get(arity) : Collections.<Type>emptySet();
+	  }
+
+	  long waitStart = TypeMetrics.start();
 	  synchronized (fConstructors) {
 	    synchronized (fImports) {
-	      Set<Type> result = new HashSet<>();
+	      TypeMetrics.storeLocked(waitStart);
+	      Set<Type> result = new LinkedHashSet<>();
 
-	      for (Set<Type> adt : fConstructors.values()) {
-	        for (Type cand : adt) {
-	          String name = cand.getName();
-	          if (name.equals(constructorName)) {
-	            result.add(cand);
-	          }
-	        }
+	      NamedConstructors named = fConstructorsByName.get(constructorName);
+	      if (named != null) {
+	        result.addAll(named.get(arity));
 	      }
 
 	      for (TypeStore i : fImports) {
 	        if (i != this) {
-	          for (Set<Type> adt : i.fConstructors.values()) {
-	            for (Type cand : adt) {
-	              String name = cand.getName();
-	              if (name.equals(constructorName)) {
-	                result.add(cand);
-	              }
-	            }
+	          named = i.fConstructorsByName.get(constructorName);
+	          if (named != null) {
+	            result.addAll(named.get(arity));
 	          }
 	        }
 	      }
@@ -611,28 +1085,140 @@ public class TypeStore {
 	  }
 	}
 
+	/**
+	 * Adds a new constructor to the indexes, while holding the monitor of fConstructors.
+	 */
+	private void indexConstructor(Type adt, Type constructor) {
+	  fConstructorsByName.computeIfAbsent(constructor.getName(), n -> new NamedConstructors()).add(constructor);
+	  fAlternativesIndex.computeIfAbsent(adt, a -> new AlternativesIndex()).add(constructor);
+	}
+
+	/**
+	 * The alternatives of an abstract data type in a single store, by name and by
+	 * field name, for checking the overloading and field names of new alternatives 
+	 * without comparing them to all existing alternatives.
+	 */
+	private static final class AlternativesIndex {
+	  private final Map<String, List<Type>> byName = new HashMap<>();
+	  /* the types of the fields with a certain label, pairwise not equivalent */
+	  private final Map<String, List<Type>> fieldTypes = new HashMap<>();
+
+	  void add(Type constructor) {
+	    byName.computeIfAbsent(constructor.getName(), n -> new ArrayList<>()).add(constructor);
+
+	    Type fields = constructor.getFieldTypes();
+	    if (!fields.hasFieldNames()) {
+	      return;
+	    }
+
+	    for (int i = 0; i < fields.getArity(); i++) {
+	      List<Type> types = fieldTypes.computeIfAbsent(fields.getFieldName(i), l -> new ArrayList<>(1));
+	      addFieldType(types, fields.getFieldType(i));
+	    }
+	  }
+
+	  private static void addFieldType(List<Type> types, Type type) {
+	    for (Type other : types) {
+	      if (other.equivalent(type)) {
+	        return;
+	      }
+	    }
+
+	    types.add(type);
+	  }
+
+	  List<Type> named(String name) {
+	    List<Type> result = byName.get(name);
+	    return result != null ? result : Collections.<Type>emptyList();
+	  }
+
+	  List<Type> fieldTypes(String label) {
+	    List<Type> result = fieldTypes.get(label);
+	    return result != null ? result : Collections.<Type>emptyList();
+	  }
+	}
+
+	/**
+	 * The constructors with a certain name, also grouped by arity. The sets keep
+	 * the order of declaration, such that lookupFirstConstructor is deterministic.
+	 */
+	private static final class NamedConstructors {
+	  private Set<Type> all = new LinkedHashSet<>();
+	  private Map<Integer, Set<Type>> byArity = new HashMap<>();
+
+	  void add(Type constructor) {
+	    all.add(constructor);
+	    byArity.computeIfAbsent(constructor.getArity(), a -> new LinkedHashSet<>()).add(constructor);
+	  }
+
+	  void addAll(NamedConstructors other) {
+	    for (Type constructor : other.all) {
+	      add(constructor);
+	    }
+	  }
+
+	  /**
+	   * @return the constructors with the given arity, or all constructors if the arity is -1
+	   */
+	  Set<Type> get(int arity) {
+	    if (arity == -1) {
+	      return all;
+	    }
+
+	    Set<Type> result = byArity.get(arity);
+	    return result != null ? result : Collections.<Type>emptySet();
+	  }
+
+	  /**
+	   * Makes the sets returned by get unmodifiable, for sharing them.
+	   */
+	  NamedConstructors seal() {
+	    all = Collections.unmodifiableSet(all);
+	    for (Map.Entry<Integer, Set<Type>> entry : byArity.entrySet()) {
+	      entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+	    }
+	    return this;
+	  }
+	}
+
 	/**
 	 * See if a certain abstract data-type was declared
 	 * @param name  the supposed name of the abstract data-type
 	 * @return null if such type does not exist, or the type if it was declared earlier
 	 */
 	public Type lookupAbstractDataType(String name) {
+	  if (fReadOptimized) {
+	    Snapshot snapshot = snapshot();
+	    Type result = snapshot.adts.get(name);
+	    TypeMetrics.storeLookup(result != null && !snapshot.local.adts.containsKey(name));
+	    return result;
+	  }
+
+	  return lookupAbstractDataTypeLocked(name);
+	}
+
+	private Type lookupAbstractDataTypeLocked(String name) {
+	  long waitStart = TypeMetrics.start();
 	  synchronized (fADTs) {
 	    synchronized (fImports) {
+	      TypeMetrics.storeLocked(waitStart);
 
 	      Type result = fADTs.get(name);
 
 	      if (result != null) {
+	        TypeMetrics.storeLookup(false);
 	        return result;
 	      }
 
 	      for (TypeStore s : fImports) {
 	        result = s.fADTs.get(name);
 	        if (result != null) {
+	          TypeMetrics.storeLookup(true);
 	          return result;
 	        }
 	      }
 
+	      TypeMetrics.storeLookup(false);
 	      return result;
 	    }
 	  }
@@ -665,10 +1251,11 @@ public class TypeStore {
 	      fAnnotations.put(onType, annotationsForType);
 	    }
 
-	    Map<String, Type> declaredEarlier = getAnnotations(onType);
+	    Map<String, Type> declaredEarlier = collectAnnotations(onType);
 
 	    if (!declaredEarlier.containsKey(key)) {
 	      annotationsForType.put(key, valueType);
+	      changed();
 	    }
 	    else if (!declaredEarlier.get(key).equivalent(valueType)) {
 	      throw new RedeclaredAnnotationException(key, declaredEarlier.get(key));
@@ -706,10 +1293,11 @@ public class TypeStore {
 	      fkeywordParameters.put(onType, kwParamsForType);
 	    }
 
-	    Map<String, Type> declaredEarlier = getKeywordParameters(onType);
+	    Map<String, Type> declaredEarlier = collectKeywordParameters(onType);
 
 	    if (!declaredEarlier.containsKey(key)) {
 	      kwParamsForType.put(key, valueType);
+	      changed();
 	    } 
 	    else if (!declaredEarlier.get(key).equivalent(valueType)) {
 	      throw new RedeclaredKeywordParameterException(key, declaredEarlier.get(key));
@@ -722,137 +1310,7 @@ public class TypeStore {
 	// in at least declareAlias, declareAnnotation and declareKeywordParameters.
 	
 	private Type expandAliases(Type type) {
-		return expandAliases1(type, new HashSet<String>());
-	}
-	
-	private Type expandAliases1 (Type type, Set<String> seen){
-		 return type.accept(new ITypeVisitor<Type,RuntimeException>() {
-
-			@Override
-			public Type visitReal(Type type) throws RuntimeException {
-				return type;
-			}
-
-			@Override
-			public Type visitInteger(Type type) throws RuntimeException {
-				return type;
-			}
-
-			@Override
-			public Type visitRational(Type type) throws RuntimeException {
-				return type;
-			}
-
-			@Override
-			public Type visitList(Type type) throws RuntimeException {
-				return factory.listType(expandAliases1(type.getElementType(), seen));
-			}
-
-			@Override
-			public Type visitMap(Type type) throws RuntimeException {
-				return factory.mapType(expandAliases1(type.getKeyType(), seen), expandAliases1(type.getValueType(), seen));
-			}
-
-			@Override
-			public Type visitNumber(Type type) throws RuntimeException {
-				return type;
-			}
-
-			@Override
-			public Type visitAlias(Type type) throws RuntimeException {
-				String aliasName = type.getName();
-				if(seen.contains(aliasName)){
-					throw new IllegalIdentifierException("Circular alias definition for: " + aliasName);
-				}
-				seen.add(aliasName);
-				return expandAliases1 (type.getAliased(), seen);
-			}
-
-			@Override
-			public Type visitSet(Type type) throws RuntimeException {
-				return factory.setType(expandAliases1 (type.getElementType(), seen));
-			}
-
-			@Override
-			public Type visitSourceLocation(Type type) throws RuntimeException {
-				return type;
-			}
-
-			@Override
-			public Type visitString(Type type) throws RuntimeException {
-				return type;
-			}
-		
-			@Override
-			public Type visitNode(Type type) throws RuntimeException {
-				return type;
-			}
-
-			@Override
-			public Type visitConstructor(Type type) throws RuntimeException {
-				return new ConstructorType(type.getName(), expandAliases1(type.getFieldTypes(), seen), type.getAbstractDataType());
-			}
-
-			@Override
-			public Type visitAbstractData(Type type) throws RuntimeException {
-				return type;
-			}
-
-			@Override
-			public Type visitTuple(Type type) throws RuntimeException {
-				int arity = type.getArity();
-				Type fieldTypes[] = new Type[arity];
-				String fieldNames[] = type.getFieldNames();
-				boolean aliasFound = false;
-				for(int i = 0; i < arity; i++){
-					Type fieldType = type.getFieldType(i);
-
-					if(fieldType.isAliased()){
-						aliasFound = true;
-						AliasType alias = (AliasType) fieldType;
-						fieldType = alias.getAliased();
-					}
-					fieldTypes[i] = fieldType;
-				}
-				if(aliasFound){
-					return fieldNames == null ? factory.tupleType(fieldTypes) : factory.tupleType(fieldTypes, fieldNames);
-				}
-				return type;
-			}
-
-			@Override
-			public Type visitValue(Type type) throws RuntimeException {
-				return type;
-			}
-
-			@Override
-			public Type visitVoid(Type type) throws RuntimeException {
-				return type;
-			}
-
-			@Override
-			public Type visitBool(Type type) throws RuntimeException {
-				return type;
-			}
-
-			@Override
-			public Type visitParameter(Type type) throws RuntimeException {
-				return factory.parameterType(type.getName(), expandAliases1(type.getBound(), seen));
-			}
-
-			@Override
-			public Type visitExternal(Type type) throws RuntimeException {
-				// TODO: it is unclear how aliases in externalTypes can be expanded in an extensible fashion
-				// (rather than listing all cases here).
-				return type;
-			}
-
-			@Override
-			public Type visitDateTime(Type type) throws RuntimeException {
-				return type;
-			}
-			 
-		 });
+		return AliasExpander.expand(type);
 	}
 	
 	/**
@@ -860,13 +1318,17 @@ public class TypeStore {
 	 * for all the node type.
 	 * 
 	 * @param onType 
-	 * @return a map of all annotations declared for onType
+	 * @return an unmodifiable map of all annotations declared for onType
 	 */
 	public Map<String, Type> getAnnotations(Type onType) {
 	  if (!onType.isSubtypeOf(NODE_TYPE)) {
 	    return Collections.<String,Type>emptyMap();
 	  }
 
+	  return derived().annotations(this, onType);
+	}
+
+	private Map<String, Type> collectAnnotations(Type onType) {
 	  synchronized(fAnnotations) {
 	    synchronized (fImports) {
 	      Map<String, Type> result = new HashMap<>();
@@ -905,13 +1367,17 @@ public class TypeStore {
 	 * Locates all declared keyword parameters for a constructor.
 	 * 
 	 * @param onType 
-	 * @return a map of all keyword parameters declared for the onType constructor
+	 * @return an unmodifiable map of all keyword parameters declared for the onType constructor
 	 */
 	public Map<String, Type> getKeywordParameters(Type onType) {
 	  if (!onType.isConstructor() && !onType.isAbstractData()) {
 	    return Collections.<String,Type>emptyMap();
 	  }
 
+	  return derived().keywordParameters(this, onType);
+	}
+
+	private Map<String, Type> collectKeywordParameters(Type onType) {
 	  synchronized(fkeywordParameters) {
 	    synchronized (fImports) {
 	      Map<String, Type> result = new HashMap<>();
@@ -986,6 +1452,10 @@ public class TypeStore {
 			return false;
 		}
 
+		return derived().hasKeywordParameters(this, onType);
+	}
+
+	private boolean collectHasKeywordParameters(Type onType) {
 		synchronized(fkeywordParameters) {
 			synchronized (fImports) {
 				Map<String, Type> local = fkeywordParameters.get(onType);
@@ -1010,6 +1480,10 @@ public class TypeStore {
 	}
 
 	public Type getAlias(String name) {
+	  if (fReadOptimized) {
+	    return snapshot().aliases.get(name);
+	  }
+
 	  synchronized (fAliases) {
 	    synchronized (fImports) {
 	      Type result = fAliases.get(name);
@@ -1029,4 +1503,181 @@ public class TypeStore {
 	    }
 	  }
 	}
+
+	/**
+	 * @return a snapshot of the declarations of this store and its imports, which
+	 * is rebuilt if any of these declarations changed since the last snapshot.
+	 */
+	private Snapshot snapshot() {
+	  Snapshot snapshot = fSnapshot;
+
+	  for (int attempt = 0; attempt < 4; attempt++) {
+	    int epoch = fEpoch.get();
+	    if (snapshot != null && snapshot.epoch == epoch) {
+	      return snapshot;
+	    }
+
+	    snapshot = new Snapshot(epoch, this);
+
+	    if (fEpoch.get() == epoch) {
+	      fSnapshot = snapshot;
+	      return snapshot;
+	    }
+	    // the declarations changed while copying them, so the copy may be inconsistent
+	  }
+
+	  // under a constant stream of changes we settle for a snapshot which may combine
+	  // the declarations of this store and its imports from slightly different moments,
+	  // like lookups that lock do; it is not published, to be rebuilt later.
+	  return snapshot;
+	}
+
+	/**
+	 * Copies the declarations of this store, while holding all of its monitors
+	 * in the same order as the declare methods do. Since no monitors of other 
+	 * stores are held, cyclic imports can not deadlock.
+	 */
+	private Declarations copyDeclarations() {
+	  synchronized (fADTs) {
+	    synchronized (fAliases) {
+	      synchronized (fConstructors) {
+	        synchronized (fImports) {
+	          Map<Type, Set<Type>> constructors = new HashMap<>();
+	          for (Map.Entry<Type, Set<Type>> entry : fConstructors.entrySet()) {
+	            constructors.put(entry.getKey(), Collections.unmodifiableSet(new LinkedHashSet<>(entry.getValue())));
+	          }
+
+	          Map<String, NamedConstructors> byName = new HashMap<>();
+	          for (Map.Entry<String, NamedConstructors> entry : fConstructorsByName.entrySet()) {
+	            NamedConstructors copy = new NamedConstructors();
+	            copy.addAll(entry.getValue());
+	            byName.put(entry.getKey(), copy);
+	          }
+
+	          return new Declarations(this, new HashMap<>(fAliases), new HashMap<>(fADTs), constructors, byName,
+	              fImports.toArray(new TypeStore[fImports.size()]));
+	        }
+	      }
+	    }
+	  }
+	}
+
+	/**
+	 * An immutable copy of the local declarations of a single store.
+	 */
+	private static final class Declarations {
+	  final TypeStore owner;
+	  final Map<String, Type> aliases;
+	  final Map<String, Type> adts;
+	  final Map<Type, Set<Type>> constructors;
+	  final Map<String, NamedConstructors> constructorsByName;
+	  final TypeStore[] imports;
+
+	  Declarations(TypeStore owner, Map<String, Type> aliases, Map<String, Type> adts, Map<Type, Set<Type>> constructors, 
+	      Map<String, NamedConstructors> constructorsByName, TypeStore[] imports) {
+	    this.owner = owner;
+	    this.aliases = aliases;
+	    this.adts = adts;
+	    this.constructors = constructors;
+	    this.constructorsByName = constructorsByName;
+	    this.imports = imports;
+	  }
+	}
+
+	/**
+	 * The declarations of a store combined with those of its imports, with the 
+	 * same precedence as the lookups that lock: local declarations first, then 
+	 * the imports in iteration order. 
+	 */
+	private static final class Snapshot {
+	  final int epoch;
+	  final Declarations local;
+	  final Declarations[] imported;
+	  final Map<String, Type> aliases = new HashMap<>();
+	  final Map<String, Type> adts = new HashMap<>();
+	  final Map<Type, Set<Type>> alternatives = new HashMap<>();
+	  final Map<String, NamedConstructors> constructorsByName = new HashMap<>();
+
+	  Snapshot(int epoch, TypeStore store) {
+	    this.epoch = epoch;
+	    this.local = store.copyDeclarations();
+	    this.imported = new Declarations[local.imports.length];
+
+	    for (int i = 0; i < imported.length; i++) {
+	      TypeStore s = local.imports[i];
+	      imported[i] = s == store ? local : s.copyDeclarations();
+	    }
+
+	    for (int i = imported.length - 1; i >= 0; i--) {
+	      // earlier imports take precedence
+	      aliases.putAll(imported[i].aliases);
+	      adts.putAll(imported[i].adts);
+	    }
+	    aliases.putAll(local.aliases);
+	    adts.putAll(local.adts);
+
+	    Map<Type, Set<Type>> alternatives = new HashMap<>();
+	    collectConstructors(local, alternatives, constructorsByName);
+
+	    for (Declarations i : imported) {
+	      if (i.owner != store) {
+	        collectConstructors(i, alternatives, constructorsByName);
+	      }
+	    }
+
+	    for (Map.Entry<Type, Set<Type>> entry : alternatives.entrySet()) {
+	      this.alternatives.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
+	    }
+	    for (NamedConstructors named : constructorsByName.values()) {
+	      named.seal();
+	    }
+	  }
+
+	  private static void collectConstructors(Declarations decls, Map<Type, Set<Type>> alternatives, Map<String, NamedConstructors> byName) {
+	    for (Map.Entry<Type, Set<Type>> entry : decls.constructors.entrySet()) {
+	      alternatives.computeIfAbsent(entry.getKey(), k -> new LinkedHashSet<>()).addAll(entry.getValue());
+	    }
+
+	    for (Map.Entry<String, NamedConstructors> entry : decls.constructorsByName.entrySet()) {
+	      byName.computeIfAbsent(entry.getKey(), k -> new NamedConstructors()).addAll(entry.getValue());
+	    }
+	  }
+
+	  /**
+	   * @see TypeStore#lookupConstructor(Type, String)
+	   */
+	  Set<Type> lookupConstructor(Type adt, String constructorName) {
+	    adt = AliasExpander.unalias(adt);
+
+	    Type parameterizedADT = local.adts.get(adt.getName());
+	    Set<Type> result = new LinkedHashSet<>();
+	    boolean fromImport = false;
+
+	    if (parameterizedADT != null) {
+	      addNamed(local.constructors.get(parameterizedADT), constructorName, result);
+	    }
+
+	    for (Declarations i : imported) {
+	      fromImport |= addNamed(i.constructors.get(adt), constructorName, result);
+	    }
+
+	    TypeMetrics.storeLookup(fromImport);
+	    return result;
+	  }
+
+	  private static boolean addNamed(Set<Type> constructors, String name, Set<Type> result) {
+	    boolean found = false;
+
+	    if (constructors != null) {
+	      for (Type cand : constructors) {
+	        if (cand.getName().equals(name)) {
+	          result.add(cand);
+	          found = true;
+	        }
+	      }
+	    }
+
+	    return found;
+	  }
+	}
 }
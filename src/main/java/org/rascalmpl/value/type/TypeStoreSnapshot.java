@@ -0,0 +1,491 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.type;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.rascalmpl.value.exceptions.UnsupportedTypeException;
+
+/**
+ * A compact binary format for the declarations of a {@link TypeStore} and the
+ * stores it imports, directly or indirectly. Reading a snapshot restores the
+ * stores without validating their declarations again, which is much faster
+ * than declaring all types one by one.
+ * <p>
+ * A snapshot consists of a table of all types used by the declarations, in
+ * which every type refers to its component types by their position in the
+ * table, followed by the declarations of each store. External types are not
+ * supported. A store must not change while a snapshot of it is written.
+ */
+public final class TypeStoreSnapshot {
+  private static final int MAGIC = 0x54595053; // "TYPS"
+  private static final int VERSION = 1;
+
+  private static final int END = 0;
+  private static final int VOID = 1;
+  private static final int VALUE = 2;
+  private static final int BOOL = 3;
+  private static final int INTEGER = 4;
+  private static final int REAL = 5;
+  private static final int RATIONAL = 6;
+  private static final int NUMBER = 7;
+  private static final int STRING = 8;
+  private static final int SOURCE_LOCATION = 9;
+  private static final int DATE_TIME = 10;
+  private static final int NODE = 11;
+  private static final int LIST = 12;
+  private static final int SET = 13;
+  private static final int MAP = 14;
+  private static final int LABELED_MAP = 15;
+  private static final int TUPLE = 16;
+  private static final int LABELED_TUPLE = 17;
+  private static final int PARAMETER = 18;
+  private static final int ALIAS = 19;
+  private static final int ABSTRACT_DATA = 20;
+  private static final int CONSTRUCTOR = 21;
+
+  private static final TypeFactory TF = TypeFactory.getInstance();
+
+  private TypeStoreSnapshot() {
+    super();
+  }
+
+  /**
+   * Writes the declarations of a store and of all stores it imports.
+   */
+  public static void write(TypeStore store, OutputStream stream) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+
+    List<TypeStore> stores = new ArrayList<>();
+    Map<TypeStore, Integer> storeIds = new IdentityHashMap<>();
+    collectStores(store, stores, storeIds);
+
+    TypeTableWriter types = new TypeTableWriter(out);
+    for (TypeStore s : stores) {
+      types.add(s.getAliases());
+      types.add(s.getAbstractDataTypes());
+      types.add(s.getConstructors());
+      types.add(s.getAnnotations());
+      types.add(s.getKeywordParameters());
+    }
+    out.writeByte(END);
+
+    out.writeInt(stores.size());
+    for (TypeStore s : stores) {
+      writeTypes(out, types, s.getAliases());
+      writeTypes(out, types, s.getAbstractDataTypes());
+      writeTypes(out, types, s.getConstructors());
+      writeLabeledTypes(out, types, s.getAnnotations());
+      writeLabeledTypes(out, types, s.getKeywordParameters());
+
+      Collection<TypeStore> imports = s.getImports();
+      out.writeInt(imports.size());
+      for (TypeStore i : imports) {
+        out.writeInt(storeIds.get(i));
+      }
+    }
+
+    out.flush();
+  }
+
+  /**
+   * Reads the stores of a snapshot, and links them to each other as they were
+   * when the snapshot was written.
+   *
+   * @return the store which the snapshot was written from
+   */
+  public static TypeStore read(InputStream stream) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+    if (in.readInt() != MAGIC) {
+      throw new IOException("not a type store snapshot");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("unsupported type store snapshot version: " + version);
+    }
+
+    List<Type> types = readTypeTable(in);
+
+    TypeStore[] stores = new TypeStore[in.readInt()];
+    for (int i = 0; i < stores.length; i++) {
+      stores[i] = new TypeStore();
+    }
+
+    for (TypeStore store : stores) {
+      List<Type> aliases = readTypes(in, types);
+      List<Type> adts = readTypes(in, types);
+      List<Type> constructors = readTypes(in, types);
+      Map<Type, Map<String, Type>> annotations = readLabeledTypes(in, types);
+      Map<Type, Map<String, Type>> keywordParameters = readLabeledTypes(in, types);
+
+      TypeStore[] imports = new TypeStore[in.readInt()];
+      for (int i = 0; i < imports.length; i++) {
+        imports[i] = stores[in.readInt()];
+      }
+
+      store.restore(aliases, adts, constructors, annotations, keywordParameters, imports);
+    }
+
+    return stores.length > 0 ? stores[0] : new TypeStore();
+  }
+
+  private static void collectStores(TypeStore store, List<TypeStore> stores, Map<TypeStore, Integer> ids) {
+    if (ids.containsKey(store)) {
+      return;
+    }
+
+    ids.put(store, stores.size());
+    stores.add(store);
+
+    for (TypeStore i : store.getImports()) {
+      collectStores(i, stores, ids);
+    }
+  }
+
+  private static void writeTypes(DataOutputStream out, TypeTableWriter types, Collection<Type> declared) throws IOException {
+    out.writeInt(declared.size());
+    for (Type t : declared) {
+      out.writeInt(types.id(t));
+    }
+  }
+
+  private static void writeLabeledTypes(DataOutputStream out, TypeTableWriter types, Map<Type, Map<String, Type>> declared) throws IOException {
+    out.writeInt(declared.size());
+    for (Map.Entry<Type, Map<String, Type>> entry : declared.entrySet()) {
+      out.writeInt(types.id(entry.getKey()));
+      out.writeInt(entry.getValue().size());
+
+      for (Map.Entry<String, Type> labeled : entry.getValue().entrySet()) {
+        out.writeUTF(labeled.getKey());
+        out.writeInt(types.id(labeled.getValue()));
+      }
+    }
+  }
+
+  private static List<Type> readTypes(DataInputStream in, List<Type> types) throws IOException {
+    int size = in.readInt();
+    List<Type> result = new ArrayList<>(size);
+
+    for (int i = 0; i < size; i++) {
+      result.add(types.get(in.readInt()));
+    }
+
+    return result;
+  }
+
+  private static Map<Type, Map<String, Type>> readLabeledTypes(DataInputStream in, List<Type> types) throws IOException {
+    int size = in.readInt();
+    Map<Type, Map<String, Type>> result = new HashMap<>();
+
+    for (int i = 0; i < size; i++) {
+      Type onType = types.get(in.readInt());
+      int labels = in.readInt();
+      Map<String, Type> labeled = new HashMap<>();
+
+      for (int j = 0; j < labels; j++) {
+        String label = in.readUTF();
+        labeled.put(label, types.get(in.readInt()));
+      }
+
+      result.put(onType, labeled);
+    }
+
+    return result;
+  }
+
+  private static List<Type> readTypeTable(DataInputStream in) throws IOException {
+    List<Type> types = new ArrayList<>();
+
+    for (int tag = in.readByte(); tag != END; tag = in.readByte()) {
+      types.add(readType(tag, in, types));
+    }
+
+    return types;
+  }
+
+  /**
+   * Constructs a type from its entry in the type table. Abstract data types,
+   * constructors and aliases are constructed without declaring them.
+   */
+  private static Type readType(int tag, DataInputStream in, List<Type> types) throws IOException {
+    switch (tag) {
+      case VOID: return TF.voidType();
+      case VALUE: return TF.valueType();
+      case BOOL: return TF.boolType();
+      case INTEGER: return TF.integerType();
+      case REAL: return TF.realType();
+      case RATIONAL: return TF.rationalType();
+      case NUMBER: return TF.numberType();
+      case STRING: return TF.stringType();
+      case SOURCE_LOCATION: return TF.sourceLocationType();
+      case DATE_TIME: return TF.dateTimeType();
+      case NODE: return TF.nodeType();
+      case LIST: return TF.listType(types.get(in.readInt()));
+      case SET: return TF.setType(types.get(in.readInt()));
+      case MAP: {
+        Type key = types.get(in.readInt());
+        return TF.mapType(key, types.get(in.readInt()));
+      }
+      case LABELED_MAP: {
+        Type key = types.get(in.readInt());
+        String keyLabel = in.readUTF();
+        Type value = types.get(in.readInt());
+        return TF.mapType(key, keyLabel, value, in.readUTF());
+      }
+      case TUPLE: {
+        Type[] fields = new Type[in.readInt()];
+        for (int i = 0; i < fields.length; i++) {
+          fields[i] = types.get(in.readInt());
+        }
+        return TF.tupleType(fields);
+      }
+      case LABELED_TUPLE: {
+        Type[] fields = new Type[in.readInt()];
+        String[] labels = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+          fields[i] = types.get(in.readInt());
+          labels[i] = in.readUTF();
+        }
+        // the labels are part of the snapshot, and this is the only factory of labeled tuples
+        @SuppressWarnings("deprecation")
+        Type labeled = TF.tupleType(fields, labels);
+        return labeled;
+      }
+      case PARAMETER: {
+        String name = in.readUTF();
+        return TF.parameterType(name, types.get(in.readInt()));
+      }
+      case ALIAS: {
+        String name = in.readUTF();
+        Type aliased = types.get(in.readInt());
+        return TF.getFromCache(new AliasType(name, aliased, types.get(in.readInt())));
+      }
+      case ABSTRACT_DATA: {
+        String name = in.readUTF();
+        return TF.getFromCache(new AbstractDataType(name, types.get(in.readInt())));
+      }
+      case CONSTRUCTOR: {
+        String name = in.readUTF();
+        Type fields = types.get(in.readInt());
+        return TF.getFromCache(new ConstructorType(name, fields, types.get(in.readInt())));
+      }
+      default:
+        throw new IOException("corrupt type store snapshot, unknown type tag: " + tag);
+    }
+  }
+
+  /**
+   * Writes the entries of the type table, components before the types that
+   * contain them, and remembers the position of every type in the table.
+   */
+  private static final class TypeTableWriter implements ITypeVisitor<Void, IOException> {
+    private final DataOutputStream out;
+    private final Map<Type, Integer> ids = new IdentityHashMap<>();
+
+    TypeTableWriter(DataOutputStream out) {
+      this.out = out;
+    }
+
+    int id(Type type) {
+      return ids.get(type);
+    }
+
+    void add(Collection<Type> types) throws IOException {
+      for (Type t : types) {
+        add(t);
+      }
+    }
+
+    void add(Map<Type, Map<String, Type>> labeledTypes) throws IOException {
+      for (Map.Entry<Type, Map<String, Type>> entry : labeledTypes.entrySet()) {
+        add(entry.getKey());
+        add(entry.getValue().values());
+      }
+    }
+
+    void add(Type type) throws IOException {
+      if (!ids.containsKey(type)) {
+        type.accept(this);
+        ids.put(type, ids.size());
+      }
+    }
+
+    private Void tag(int tag) throws IOException {
+      out.writeByte(tag);
+      return null;
+    }
+
+    @Override
+    public Void visitVoid(Type type) throws IOException {
+      return tag(VOID);
+    }
+
+    @Override
+    public Void visitValue(Type type) throws IOException {
+      return tag(VALUE);
+    }
+
+    @Override
+    public Void visitBool(Type type) throws IOException {
+      return tag(BOOL);
+    }
+
+    @Override
+    public Void visitInteger(Type type) throws IOException {
+      return tag(INTEGER);
+    }
+
+    @Override
+    public Void visitReal(Type type) throws IOException {
+      return tag(REAL);
+    }
+
+    @Override
+    public Void visitRational(Type type) throws IOException {
+      return tag(RATIONAL);
+    }
+
+    @Override
+    public Void visitNumber(Type type) throws IOException {
+      return tag(NUMBER);
+    }
+
+    @Override
+    public Void visitString(Type type) throws IOException {
+      return tag(STRING);
+    }
+
+    @Override
+    public Void visitSourceLocation(Type type) throws IOException {
+      return tag(SOURCE_LOCATION);
+    }
+
+    @Override
+    public Void visitDateTime(Type type) throws IOException {
+      return tag(DATE_TIME);
+    }
+
+    @Override
+    public Void visitNode(Type type) throws IOException {
+      return tag(NODE);
+    }
+
+    @Override
+    public Void visitList(Type type) throws IOException {
+      add(type.getElementType());
+      tag(LIST);
+      out.writeInt(id(type.getElementType()));
+      return null;
+    }
+
+    @Override
+    public Void visitSet(Type type) throws IOException {
+      add(type.getElementType());
+      tag(SET);
+      out.writeInt(id(type.getElementType()));
+      return null;
+    }
+
+    @Override
+    public Void visitMap(Type type) throws IOException {
+      add(type.getKeyType());
+      add(type.getValueType());
+
+      if (type.hasFieldNames()) {
+        tag(LABELED_MAP);
+        out.writeInt(id(type.getKeyType()));
+        out.writeUTF(type.getKeyLabel());
+        out.writeInt(id(type.getValueType()));
+        out.writeUTF(type.getValueLabel());
+      }
+      else {
+        tag(MAP);
+        out.writeInt(id(type.getKeyType()));
+        out.writeInt(id(type.getValueType()));
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitTuple(Type type) throws IOException {
+      for (Type field : type) {
+        add(field);
+      }
+
+      tag(type.hasFieldNames() ? LABELED_TUPLE : TUPLE);
+      out.writeInt(type.getArity());
+      for (int i = 0; i < type.getArity(); i++) {
+        out.writeInt(id(type.getFieldType(i)));
+        if (type.hasFieldNames()) {
+          out.writeUTF(type.getFieldName(i));
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitParameter(Type type) throws IOException {
+      add(type.getBound());
+      tag(PARAMETER);
+      out.writeUTF(type.getName());
+      out.writeInt(id(type.getBound()));
+      return null;
+    }
+
+    @Override
+    public Void visitAlias(Type type) throws IOException {
+      add(type.getAliased());
+      add(type.getTypeParameters());
+      tag(ALIAS);
+      out.writeUTF(type.getName());
+      out.writeInt(id(type.getAliased()));
+      out.writeInt(id(type.getTypeParameters()));
+      return null;
+    }
+
+    @Override
+    public Void visitAbstractData(Type type) throws IOException {
+      add(type.getTypeParameters());
+      tag(ABSTRACT_DATA);
+      out.writeUTF(type.getName());
+      out.writeInt(id(type.getTypeParameters()));
+      return null;
+    }
+
+    @Override
+    public Void visitConstructor(Type type) throws IOException {
+      add(type.getFieldTypes());
+      add(type.getAbstractDataType());
+      tag(CONSTRUCTOR);
+      out.writeUTF(type.getName());
+      out.writeInt(id(type.getFieldTypes()));
+      out.writeInt(id(type.getAbstractDataType()));
+      return null;
+    }
+
+    @Override
+    public Void visitExternal(Type type) throws IOException {
+      throw new UnsupportedTypeException("external types can not be written to a type store snapshot", type);
+    }
+  }
+}
@@ -43,18 +43,23 @@ package org.rascalmpl.value.type;
     return 2141;
   }
 
+  @Override
+  /* package */ int computeKinds() {
+    return KIND_TOP;
+  }
+
   @Override
   public <T, E extends Throwable> T accept(ITypeVisitor<T,E> visitor) throws E {
     return visitor.visitValue(this);
   }
 
   @Override
-  public Type lub(Type other) {
+  protected Type computeLub(Type other) {
     return other.lubWithValue(this);
   }
 
   @Override
-  public Type glb(Type type) {
+  protected Type computeGlb(Type type) {
     return type.glbWithValue(this);
   }
   
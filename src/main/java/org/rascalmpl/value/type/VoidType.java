@@ -48,7 +48,7 @@ import org.rascalmpl.value.exceptions.IllegalOperationException;
   }
 
   @Override
-  public Type lub(Type other) {
+  protected Type computeLub(Type other) {
     return other.lubWithVoid(this);
   }
   
@@ -413,7 +413,7 @@ import org.rascalmpl.value.exceptions.IllegalOperationException;
   }
 
   @Override
-  public Type glb(Type type) {
+  protected Type computeGlb(Type type) {
     return type.glbWithVoid(this);
   }
 
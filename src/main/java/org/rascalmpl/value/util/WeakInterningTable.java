@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A concurrent table for canonicalizing (hash-consing) immutable objects.
+ * <p>
+ * The table maps every object to the first equal object that was interned
+ * before it. Entries are only weakly referenced, such that canonical instances
+ * which are no longer used anywhere else can be garbage collected.
+ * <p>
+ * Lookups of existing entries never lock. Insertions lock only one of a fixed
+ * number of segments, which is selected by the hash code of the object, such
+ * that threads interning different objects rarely contend. The time threads
+ * do spend waiting for each other is reported by {@link #getLockWaitNanos()}.
+ *
+ * @param <T> the type of objects to intern; they must implement a
+ *            {@link Object#hashCode()} that is consistent with
+ *            {@link Object#equals(Object)}, and must never change.
+ */
+public final class WeakInterningTable<T> {
+  private static final int SEGMENT_SHIFT = 27;
+  private static final int SEGMENT_COUNT = 1 << (32 - SEGMENT_SHIFT);
+  private static final int INITIAL_SEGMENT_CAPACITY = 64;
+
+  private final Segment<T>[] segments;
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  public WeakInterningTable() {
+    segments = new Segment[SEGMENT_COUNT];
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      segments[i] = new Segment<>();
+    }
+  }
+
+  /**
+   * Returns the canonical instance which is equal to the candidate, storing
+   * the candidate as the canonical instance if no equal object was interned
+   * before.
+   */
+  public T intern(T candidate) {
+    int hash = mix(candidate.hashCode());
+    Segment<T> segment = segmentFor(hash);
+    T result = segment.get(hash, candidate);
+
+    if (result != null) {
+      return result;
+    }
+
+    return segment.put(hash, candidate);
+  }
+
+  /**
+   * @return the canonical instance equal to the given key, or null if no
+   *         such instance is currently alive in the table.
+   */
+  public T get(T key) {
+    int hash = mix(key.hashCode());
+    return segmentFor(hash).get(hash, key);
+  }
+
+  /**
+   * Looks up a canonical instance without first constructing an object to
+   * compare it with. The caller supplies the hash code that the sought object
+   * would have, and a matcher which compares candidates of that hash code to
+   * the constituent parts of the sought object. Use non-capturing matchers
+   * to keep the lookup free of allocations.
+   *
+   * @return the canonical instance for which the matcher holds, or null if
+   *         there is none.
+   */
+  public <A, B> T lookup(int hashCode, Matcher<? super T, A, B> matcher, A a, B b) {
+    int hash = mix(hashCode);
+    AtomicReferenceArray<Entry<T>> table = segmentFor(hash).table;
+
+    for (Entry<T> e = table.get(hash & (table.length() - 1)); e != null; e = e.next) {
+      if (e.hash == hash) {
+        T value = e.get();
+        if (value != null && matcher.matches(value, a, b)) {
+          return value;
+        }
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Compares a canonical instance to the parts of an object that has not been
+   * constructed; see {@link WeakInterningTable#lookup}.
+   */
+  public interface Matcher<T, A, B> {
+    boolean matches(T candidate, A a, B b);
+  }
+
+  /**
+   * @return an estimate of the number of canonical instances in the table,
+   *         which may include instances that were collected recently.
+   */
+  public int size() {
+    int size = 0;
+    for (Segment<T> segment : segments) {
+      size += segment.count;
+    }
+    return size;
+  }
+
+  /**
+   * @return the total time in nanoseconds that threads waited for the lock of
+   *         a segment because another thread was inserting into it.
+   */
+  public long getLockWaitNanos() {
+    long nanos = 0;
+    for (Segment<T> segment : segments) {
+      nanos += segment.waitNanos;
+    }
+    return nanos;
+  }
+
+  /**
+   * @return the number of insertions which had to wait for another thread.
+   */
+  public long getLockContentions() {
+    long contentions = 0;
+    for (Segment<T> segment : segments) {
+      contentions += segment.contentions;
+    }
+    return contentions;
+  }
+
+  /**
+   * Applies the action to all canonical instances that are currently alive.
+   * Concurrent insertions may or may not be observed.
+   */
+  public void forEach(Consumer<? super T> action) {
+    for (Segment<T> segment : segments) {
+      AtomicReferenceArray<Entry<T>> table = segment.table;
+      for (int i = table.length() - 1; i >= 0; i--) {
+        for (Entry<T> e = table.get(i); e != null; e = e.next) {
+          T value = e.get();
+          if (value != null) {
+            action.accept(value);
+          }
+        }
+      }
+    }
+  }
+
+  private Segment<T> segmentFor(int hash) {
+    return segments[hash >>> SEGMENT_SHIFT];
+  }
+
+  /**
+   * Hash codes of canonical objects are often small or composed of few
+   * multiplications, so we spread them over all bits first to use the high
+   * bits for segment selection and the low bits for the bucket index.
+   */
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private static final class Entry<T> extends WeakReference<T> {
+    final int hash;
+    final Entry<T> next;
+
+    Entry(T value, int hash, Entry<T> next, ReferenceQueue<? super T> queue) {
+      super(value, queue);
+      this.hash = hash;
+      this.next = next;
+    }
+  }
+
+  /**
+   * A segment is a hash table with immutable bucket chains. Readers traverse
+   * the chains without locking; writers (holding the lock of the segment)
+   * publish new chains by a volatile write into the bucket array.
+   */
+  @SuppressWarnings("serial")
+  private static final class Segment<T> extends ReentrantLock {
+    private final ReferenceQueue<T> queue = new ReferenceQueue<>();
+    private volatile AtomicReferenceArray<Entry<T>> table = new AtomicReferenceArray<>(INITIAL_SEGMENT_CAPACITY);
+    private volatile int count;
+    
+    // contention statistics, only written while holding the lock
+    private volatile long waitNanos;
+    private volatile long contentions;
+
+    T get(int hash, T key) {
+      AtomicReferenceArray<Entry<T>> tab = table;
+
+      for (Entry<T> e = tab.get(hash & (tab.length() - 1)); e != null; e = e.next) {
+        if (e.hash == hash) {
+          T value = e.get();
+          if (value != null && (value == key || value.equals(key))) {
+            return value;
+          }
+        }
+      }
+
+      return null;
+    }
+
+    T put(int hash, T candidate) {
+      acquire();
+      try {
+        expungeStaleEntries();
+
+        // another thread may have won the race since the unlocked lookup
+        T result = get(hash, candidate);
+        if (result != null) {
+          return result;
+        }
+
+        if (count + 1 > (table.length() >> 2) * 3) {
+          resize();
+        }
+
+        AtomicReferenceArray<Entry<T>> tab = table;
+        int index = hash & (tab.length() - 1);
+        tab.set(index, new Entry<>(candidate, hash, tab.get(index), queue));
+        count = count + 1;
+
+        return candidate;
+      }
+      finally {
+        unlock();
+      }
+    }
+
+    /**
+     * Locks the segment, and measures the time spent waiting only if another
+     * thread holds the lock, such that uncontended insertions stay cheap.
+     */
+    private void acquire() {
+      if (!tryLock()) {
+        long start = System.nanoTime();
+        lock();
+        waitNanos = waitNanos + (System.nanoTime() - start);
+        contentions = contentions + 1;
+      }
+    }
+
+    private void expungeStaleEntries() {
+      for (Object stale; (stale = queue.poll()) != null; ) {
+        @SuppressWarnings("unchecked")
+        Entry<T> entry = (Entry<T>) stale;
+        AtomicReferenceArray<Entry<T>> tab = table;
+        int index = entry.hash & (tab.length() - 1);
+        Entry<T> first = tab.get(index);
+
+        for (Entry<T> e = first; e != null; e = e.next) {
+          if (e == entry) {
+            // copy the prefix of the chain, which is immutable for readers
+            Entry<T> chain = entry.next;
+            for (Entry<T> p = first; p != entry; p = p.next) {
+              T value = p.get();
+              if (value != null) {
+                chain = new Entry<>(value, p.hash, chain, queue);
+              }
+              else {
+                count = count - 1;
+              }
+            }
+            tab.set(index, chain);
+            count = count - 1;
+            break;
+          }
+        }
+      }
+    }
+
+    private void resize() {
+      AtomicReferenceArray<Entry<T>> oldTable = table;
+      int newLength = oldTable.length() << 1;
+      AtomicReferenceArray<Entry<T>> newTable = new AtomicReferenceArray<>(newLength);
+      int live = 0;
+
+      for (int i = oldTable.length() - 1; i >= 0; i--) {
+        for (Entry<T> e = oldTable.get(i); e != null; e = e.next) {
+          T value = e.get();
+          if (value != null) {
+            int index = e.hash & (newLength - 1);
+            newTable.set(index, new Entry<>(value, e.hash, newTable.get(index), queue));
+            live++;
+          }
+        }
+      }
+
+      table = newTable;
+      count = live;
+    }
+  }
+}
@@ -0,0 +1,305 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.rascalmpl.value.ISet;
+import org.rascalmpl.value.ITuple;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.IValueFactory;
+
+/**
+ * Checks the relational operations of {@link BinaryRelation}s, which index
+ * their tuples in {@link TrieMultimap}s, against naive computations on sets
+ * of tuples.
+ */
+public class BinaryRelationTest {
+  // integers and tuples are never created by the adapted factory
+  private static final IValueFactory UNUSED = (IValueFactory) Proxy.newProxyInstance(
+      IValueFactory.class.getClassLoader(), new Class<?>[] { IValueFactory.class },
+      (proxy, method, args) -> { throw new UnsupportedOperationException(method.getName()); });
+
+  private static final ValueFactory VF = new ValueFactory(UNUSED);
+
+  private static ITuple pair(int key, int value) {
+    return VF.tuple(VF.integer(key), VF.integer(value));
+  }
+
+  private static Set<IValue> randomPairs(Random random, int size, int range) {
+    Set<IValue> result = new HashSet<>();
+    for (int i = 0; i < size; i++) {
+      result.add(pair(random.nextInt(range), random.nextInt(range)));
+    }
+    return result;
+  }
+
+  private static ISet relation(Set<IValue> pairs) {
+    ISet result = VF.set(pairs.toArray(new IValue[0]));
+    assertTrue(pairs.isEmpty() || result instanceof BinaryRelation);
+    return result;
+  }
+
+  private static Set<IValue> javaSet(ISet set) {
+    Set<IValue> result = new HashSet<>();
+    for (IValue elem : set) {
+      result.add(elem);
+    }
+    return result;
+  }
+
+  private static void assertSet(Set<IValue> expected, ISet actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected, javaSet(actual));
+    assertEquals(expected.hashCode(), actual.hashCode());
+
+    for (IValue elem : expected) {
+      assertTrue(actual.contains(elem));
+    }
+
+    // equal to the same set without an index
+    assertEquals(PersistentSet.of(plain(expected), actual.getElementType()), actual);
+  }
+
+  private static TrieSet<IValue> plain(Set<IValue> elements) {
+    TrieSet.Transient<IValue> result = TrieSet.<IValue>of().asTransient();
+    for (IValue elem : elements) {
+      result.insert(elem);
+    }
+    return result.freeze();
+  }
+
+  private static Set<IValue> field(Set<IValue> pairs, int index) {
+    Set<IValue> result = new HashSet<>();
+    for (IValue pair : pairs) {
+      result.add(((ITuple) pair).get(index));
+    }
+    return result;
+  }
+
+  private static Set<IValue> inverse(Set<IValue> pairs) {
+    Set<IValue> result = new HashSet<>();
+    for (IValue pair : pairs) {
+      result.add(VF.tuple(((ITuple) pair).get(1), ((ITuple) pair).get(0)));
+    }
+    return result;
+  }
+
+  private static Set<IValue> compose(Set<IValue> left, Set<IValue> right) {
+    Set<IValue> result = new HashSet<>();
+    for (IValue l : left) {
+      for (IValue r : right) {
+        if (((ITuple) l).get(1).equals(((ITuple) r).get(0))) {
+          result.add(VF.tuple(((ITuple) l).get(0), ((ITuple) r).get(1)));
+        }
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void compose() {
+    Random random = new Random(42);
+
+    for (int round = 0; round < 30; round++) {
+      int range = 5 + random.nextInt(100);
+      Set<IValue> left = randomPairs(random, random.nextInt(300), range);
+      Set<IValue> right = randomPairs(random, random.nextInt(300), range);
+
+      assertSet(compose(left, right), relation(left).asRelation().compose(relation(right).asRelation()));
+      assertSet(compose(right, left), relation(right).asRelation().compose(relation(left).asRelation()));
+      assertSet(compose(left, left), relation(left).asRelation().compose(relation(left).asRelation()));
+    }
+  }
+
+  @Test
+  public void domainRangeAndProject() {
+    Random random = new Random(42);
+
+    for (int round = 0; round < 30; round++) {
+      Set<IValue> pairs = randomPairs(random, 1 + random.nextInt(500), 5 + random.nextInt(200));
+      ISet relation = relation(pairs);
+
+      assertSet(field(pairs, 0), relation.asRelation().domain());
+      assertSet(field(pairs, 1), relation.asRelation().range());
+      assertSet(field(pairs, 0), relation.asRelation().project(0));
+      assertSet(field(pairs, 1), relation.asRelation().project(1));
+      assertSet(inverse(pairs), relation.asRelation().project(1, 0));
+      assertSet(pairs, relation.asRelation().project(0, 1));
+
+      Set<IValue> carrier = field(pairs, 0);
+      carrier.addAll(field(pairs, 1));
+      assertSet(carrier, relation.asRelation().carrier());
+
+      Set<IValue> diagonal = new HashSet<>();
+      for (IValue key : field(pairs, 0)) {
+        diagonal.add(VF.tuple(key, key));
+      }
+      assertSet(diagonal, relation.asRelation().project(0, 0));
+    }
+  }
+
+  @Test
+  public void projectTernaryRelation() {
+    Random random = new Random(42);
+    Set<IValue> triples = new HashSet<>();
+
+    for (int i = 0; i < 500; i++) {
+      triples.add(VF.tuple(VF.integer(random.nextInt(20)), VF.integer(random.nextInt(20)), VF.integer(random.nextInt(20))));
+    }
+
+    ISet relation = VF.set(triples.toArray(new IValue[0]));
+    Set<IValue> expected = new HashSet<>();
+    for (IValue triple : triples) {
+      expected.add(VF.tuple(((ITuple) triple).get(2), ((ITuple) triple).get(0)));
+    }
+
+    assertSet(expected, relation.asRelation().project(2, 0));
+    assertSet(field(triples, 1), relation.asRelation().project(1));
+    assertSet(field(triples, 0), relation.asRelation().domain());
+    assertSet(field(triples, 2), relation.asRelation().range());
+  }
+
+  @Test
+  public void insertAndDeleteOnIndexedRelation() {
+    Random random = new Random(42);
+    Set<IValue> expected = randomPairs(random, 200, 50);
+    ISet relation = relation(expected);
+
+    for (int i = 0; i < 2_000; i++) {
+      // build the inverse index, which the updates must then keep up to date
+      if (i % 10 == 0) {
+        relation.asRelation().range();
+      }
+
+      ITuple pair = pair(random.nextInt(60), random.nextInt(60));
+
+      if (random.nextBoolean()) {
+        expected.add(pair);
+        relation = relation.insert(pair);
+      }
+      else {
+        expected.remove(pair);
+        relation = relation.delete(pair);
+      }
+
+      if (i % 50 == 0) {
+        assertSet(field(expected, 1), relation.asRelation().range());
+        assertSet(inverse(expected), relation.asRelation().project(1, 0));
+      }
+    }
+
+    assertSet(expected, relation);
+    assertSet(field(expected, 0), relation.asRelation().domain());
+    assertSet(field(expected, 1), relation.asRelation().range());
+    assertSet(inverse(expected), relation.asRelation().project(1, 0));
+    assertSet(expected, relation.asRelation().project(1, 0).asRelation().project(1, 0));
+  }
+
+  @Test
+  public void insertAndDeleteOnInvertedRelation() {
+    Random random = new Random(42);
+    Set<IValue> expected = randomPairs(random, 200, 50);
+    // an inverted relation shares its indexes with the original
+    ISet inverted = relation(inverse(expected)).asRelation().project(1, 0);
+
+    for (int i = 0; i < 1_000; i++) {
+      ITuple pair = pair(random.nextInt(60), random.nextInt(60));
+
+      if (random.nextBoolean()) {
+        expected.add(pair);
+        inverted = inverted.insert(pair);
+      }
+      else {
+        expected.remove(pair);
+        inverted = inverted.delete(pair);
+      }
+    }
+
+    assertSet(expected, inverted);
+    assertSet(field(expected, 1), inverted.asRelation().range());
+    assertSet(inverse(expected), inverted.asRelation().project(1, 0));
+  }
+
+  @Test
+  public void setOperationsOnRelations() {
+    Random random = new Random(42);
+
+    for (int round = 0; round < 20; round++) {
+      Set<IValue> left = randomPairs(random, random.nextInt(300), 30);
+      Set<IValue> right = randomPairs(random, random.nextInt(300), 30);
+      ISet x = relation(left);
+      ISet y = relation(right);
+      // index one of them
+      x.asRelation().range();
+
+      Set<IValue> union = new HashSet<>(left);
+      union.addAll(right);
+      assertSet(union, x.union(y));
+
+      Set<IValue> intersection = new HashSet<>(left);
+      intersection.retainAll(right);
+      assertSet(intersection, x.intersect(y));
+
+      Set<IValue> difference = new HashSet<>(left);
+      difference.removeAll(right);
+      assertSet(difference, x.subtract(y));
+      assertSet(inverse(difference), x.subtract(y).asRelation().project(1, 0));
+    }
+  }
+
+  @Test
+  public void insertOfOtherElementLeavesRelation() {
+    Set<IValue> expected = randomPairs(new Random(42), 100, 20);
+    ISet relation = relation(expected);
+
+    IValue other = VF.integer(1);
+    expected.add(other);
+    ISet mixed = relation.insert(other);
+    assertTrue(!(mixed instanceof BinaryRelation));
+    assertSet(expected, mixed);
+  }
+
+  @Test
+  public void emptyTransientMultimapIsFrozen() {
+    TrieMultimap.Transient<IValue, IValue> empty = TrieMultimap.<IValue, IValue>of().asTransient();
+    assertTrue(empty.freeze().isEmpty());
+
+    try {
+      empty.insert(VF.integer(1), VF.integer(2));
+      fail("a frozen transient should not be writable");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+
+    // the same after its pairs were deleted again
+    TrieMultimap.Transient<IValue, IValue> emptied = TrieMultimap.<IValue, IValue>of().asTransient();
+    emptied.insert(VF.integer(1), VF.integer(2));
+    emptied.delete(VF.integer(1), VF.integer(2));
+    assertTrue(emptied.freeze().isEmpty());
+
+    try {
+      emptied.insert(VF.integer(1), VF.integer(2));
+      fail("a frozen transient should not be writable");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+
+    assertTrue(TrieMultimap.of().isEmpty());
+  }
+}
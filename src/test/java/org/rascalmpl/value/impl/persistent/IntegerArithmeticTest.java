@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.util.function.BinaryOperator;
+
+import org.junit.Test;
+import org.rascalmpl.value.IInteger;
+import org.rascalmpl.value.IValueFactory;
+
+/**
+ * Checks the arithmetic of {@link SmallInteger} and {@link LargeInteger}
+ * against {@link BigInteger}, at the bounds of int and long where the
+ * computations on longs overflow.
+ */
+public class IntegerArithmeticTest {
+  // integers are never created by the adapted factory
+  private static final IValueFactory UNUSED = (IValueFactory) Proxy.newProxyInstance(
+      IValueFactory.class.getClassLoader(), new Class<?>[] { IValueFactory.class },
+      (proxy, method, args) -> { throw new UnsupportedOperationException(method.getName()); });
+
+  private static final ValueFactory VF = new ValueFactory(UNUSED);
+
+  private static final BigInteger[] OPERANDS = {
+      BigInteger.ZERO, BigInteger.ONE, BigInteger.valueOf(-1), BigInteger.valueOf(2), BigInteger.valueOf(-2),
+      BigInteger.valueOf(3), BigInteger.valueOf(-3), BigInteger.valueOf(7), BigInteger.valueOf(-7),
+      BigInteger.valueOf(Integer.MIN_VALUE), BigInteger.valueOf(Integer.MAX_VALUE),
+      BigInteger.valueOf(Integer.MIN_VALUE - 1L), BigInteger.valueOf(Integer.MAX_VALUE + 1L),
+      BigInteger.valueOf(1L << 32), BigInteger.valueOf(-(1L << 32)),
+      BigInteger.valueOf(Long.MIN_VALUE), BigInteger.valueOf(Long.MIN_VALUE + 1),
+      BigInteger.valueOf(Long.MAX_VALUE), BigInteger.valueOf(Long.MAX_VALUE - 1),
+      BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE),
+      BigInteger.valueOf(Long.MIN_VALUE).subtract(BigInteger.ONE),
+      BigInteger.ONE.shiftLeft(64), BigInteger.ONE.shiftLeft(64).negate()
+  };
+
+  private static IInteger integer(BigInteger value) {
+    return VF.integer(value);
+  }
+
+  private static IInteger integer(long value) {
+    return VF.integer(value);
+  }
+
+  private static void assertValue(BigInteger expected, IInteger actual) {
+    assertEquals(expected.toString(), actual.getStringRepresentation());
+    // results which fit in a long are small integers again
+    assertEquals(expected.bitLength() < Long.SIZE, actual instanceof SmallInteger);
+  }
+
+  private static void check(String operation, BinaryOperator<BigInteger> expected, BinaryOperator<IInteger> actual) {
+    for (BigInteger x : OPERANDS) {
+      for (BigInteger y : OPERANDS) {
+        String what = x + " " + operation + " " + y;
+        BigInteger result = null;
+
+        try {
+          result = expected.apply(x, y);
+        }
+        catch (ArithmeticException e) {
+          // such as division by zero, which must fail likewise
+        }
+
+        try {
+          IInteger value = actual.apply(integer(x), integer(y));
+
+          if (result == null) {
+            fail(what + " should throw an ArithmeticException");
+          }
+          assertValue(result, value);
+        }
+        catch (ArithmeticException e) {
+          if (result != null) {
+            throw new AssertionError(what + " should be " + result, e);
+          }
+        }
+        catch (AssertionError e) {
+          throw new AssertionError(what + ": " + e.getMessage(), e);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void addAtBounds() {
+    check("+", BigInteger::add, IInteger::add);
+  }
+
+  @Test
+  public void subtractAtBounds() {
+    check("-", BigInteger::subtract, IInteger::subtract);
+  }
+
+  @Test
+  public void multiplyAtBounds() {
+    check("*", BigInteger::multiply, IInteger::multiply);
+  }
+
+  @Test
+  public void divideAtBounds() {
+    check("/", BigInteger::divide, IInteger::divide);
+  }
+
+  @Test
+  public void remainderAtBounds() {
+    check("rem", BigInteger::remainder, IInteger::remainder);
+  }
+
+  @Test
+  public void modAtBounds() {
+    check("mod", BigInteger::mod, IInteger::mod);
+  }
+
+  @Test
+  public void negateAtBounds() {
+    for (BigInteger x : OPERANDS) {
+      assertValue(x.negate(), integer(x).negate());
+    }
+  }
+
+  @Test
+  public void minValueDividedByMinusOne() {
+    assertValue(BigInteger.valueOf(Integer.MIN_VALUE).negate(), integer(Integer.MIN_VALUE).divide(integer(-1)));
+    assertValue(BigInteger.valueOf(Long.MIN_VALUE).negate(), integer(Long.MIN_VALUE).divide(integer(-1)));
+  }
+
+  @Test
+  public void minValueTimesMinusOne() {
+    assertValue(BigInteger.valueOf(Integer.MIN_VALUE).negate(), integer(Integer.MIN_VALUE).multiply(integer(-1)));
+    assertValue(BigInteger.valueOf(Long.MIN_VALUE).negate(), integer(Long.MIN_VALUE).multiply(integer(-1)));
+    assertValue(BigInteger.valueOf(Long.MIN_VALUE).negate(), integer(-1).multiply(integer(Long.MIN_VALUE)));
+  }
+
+  @Test
+  public void negateMinValue() {
+    assertValue(BigInteger.valueOf(Integer.MIN_VALUE).negate(), integer(Integer.MIN_VALUE).negate());
+    assertValue(BigInteger.valueOf(Long.MIN_VALUE).negate(), integer(Long.MIN_VALUE).negate());
+  }
+
+  @Test
+  public void addAndSubtractOverflow() {
+    BigInteger max = BigInteger.valueOf(Long.MAX_VALUE);
+    BigInteger min = BigInteger.valueOf(Long.MIN_VALUE);
+
+    assertValue(max.add(BigInteger.ONE), integer(Long.MAX_VALUE).add(integer(1)));
+    assertValue(min.subtract(BigInteger.ONE), integer(Long.MIN_VALUE).subtract(integer(1)));
+    assertValue(min.add(min), integer(Long.MIN_VALUE).add(integer(Long.MIN_VALUE)));
+    assertValue(max.subtract(min), integer(Long.MAX_VALUE).subtract(integer(Long.MIN_VALUE)));
+    assertValue(max, integer(max.add(BigInteger.ONE)).subtract(integer(1)));
+  }
+
+  @Test
+  public void modAndRemainderWithNegativeOperands() {
+    assertValue(BigInteger.valueOf(2), integer(-7).mod(integer(3)));
+    assertValue(BigInteger.valueOf(-1), integer(-7).remainder(integer(3)));
+    assertValue(BigInteger.valueOf(1), integer(7).remainder(integer(-3)));
+    assertValue(BigInteger.valueOf(-1), integer(-7).remainder(integer(-3)));
+    assertValue(BigInteger.ZERO, integer(Long.MIN_VALUE).remainder(integer(-1)));
+    assertValue(BigInteger.valueOf(Long.MIN_VALUE).mod(BigInteger.valueOf(3)), integer(Long.MIN_VALUE).mod(integer(3)));
+
+    try {
+      integer(7).mod(integer(-3));
+      fail("a modulus which is not positive should be rejected, as by BigInteger");
+    }
+    catch (ArithmeticException e) {
+      assertTrue(e.getMessage().contains("modulus"));
+    }
+  }
+}
@@ -0,0 +1,421 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.rascalmpl.value.IList;
+import org.rascalmpl.value.IListWriter;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.IValueFactory;
+
+/**
+ * Checks the lists of the {@link ValueFactory}, which are {@link RrbTree}s,
+ * against {@link ArrayList}. Every check runs on lists which are built by a
+ * writer, and on lists which are built by repeated concatenation of short
+ * lists of random lengths, which consist of relaxed nodes.
+ */
+public class PersistentListTest {
+  // integers are never created by the adapted factory
+  private static final IValueFactory UNUSED = (IValueFactory) Proxy.newProxyInstance(
+      IValueFactory.class.getClassLoader(), new Class<?>[] { IValueFactory.class },
+      (proxy, method, args) -> { throw new UnsupportedOperationException(method.getName()); });
+
+  private static final ValueFactory VF = new ValueFactory(UNUSED);
+
+  /** below, at, and above the size of a single leaf, and two levels deep */
+  private static final int[] SIZES = { 1_000, 33_000, 1_000_000 };
+
+  private static List<IValue> elements(int size) {
+    List<IValue> result = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      result.add(VF.integer(i));
+    }
+    return result;
+  }
+
+  private static IList written(List<IValue> elements) {
+    IListWriter writer = VF.listWriter();
+    writer.appendAll(elements);
+    return writer.done();
+  }
+
+  private static IList concatenated(List<IValue> elements, Random random) {
+    IList result = VF.list();
+    int i = 0;
+
+    while (i < elements.size()) {
+      int end = Math.min(elements.size(), i + 1 + random.nextInt(100));
+      result = result.concat(written(elements.subList(i, end)));
+      i = end;
+    }
+
+    return result;
+  }
+
+  private static List<IList> builds(List<IValue> elements, Random random) {
+    List<IList> result = new ArrayList<>();
+    result.add(written(elements));
+    result.add(concatenated(elements, random));
+    return result;
+  }
+
+  private static void assertList(List<IValue> expected, IList actual) {
+    assertEquals(expected.size(), actual.length());
+
+    Iterator<IValue> it = actual.iterator();
+    for (int i = 0; i < expected.size(); i++) {
+      IValue elem = it.next();
+      if (!expected.get(i).equals(elem)) {
+        fail("at " + i + " expected " + expected.get(i) + " but was " + elem);
+      }
+    }
+
+    // random access, at the bounds of leaves
+    for (int i = 0; i < expected.size(); i += 31) {
+      assertEquals(expected.get(i), actual.get(i));
+    }
+    if (!expected.isEmpty()) {
+      assertEquals(expected.get(expected.size() - 1), actual.get(expected.size() - 1));
+      // as List.hashCode, except for the empty list
+      assertEquals(expected.hashCode(), actual.hashCode());
+    }
+  }
+
+  @Test
+  public void concatAndSublist() {
+    Random random = new Random(42);
+
+    for (int size : SIZES) {
+      List<IValue> expected = elements(size);
+
+      for (IList list : builds(expected, random)) {
+        assertList(expected, list);
+
+        for (int i = 0; i < 10; i++) {
+          int from = random.nextInt(size);
+          int to = from + random.nextInt(size - from + 1);
+          IList sub = list.sublist(from, to - from);
+          assertList(expected.subList(from, to), sub);
+
+          List<IValue> twice = new ArrayList<>(expected.subList(from, to));
+          twice.addAll(expected.subList(0, from));
+          assertList(twice, sub.concat(list.sublist(0, from)));
+        }
+
+        assertList(Collections.<IValue>emptyList(), list.sublist(size, 0));
+        assertList(expected, list.sublist(0, size));
+      }
+    }
+  }
+
+  @Test
+  public void concatOfRelaxedLists() {
+    Random random = new Random(42);
+    List<IValue> expected = new ArrayList<>();
+    IList actual = VF.list();
+
+    // concatenations at both ends of lists of many different shapes
+    for (int i = 0; i < 200; i++) {
+      List<IValue> elements = elements(random.nextInt(i % 20 == 0 ? 5_000 : 70));
+      IList other = random.nextBoolean() ? written(elements) : concatenated(elements, random);
+
+      if (random.nextBoolean()) {
+        expected.addAll(elements);
+        actual = actual.concat(other);
+      }
+      else {
+        expected.addAll(0, elements);
+        actual = other.concat(actual);
+      }
+    }
+
+    assertList(expected, actual);
+    assertEquals(written(expected), actual);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void sublistOutOfBounds() {
+    written(elements(1_000)).sublist(500, 501);
+  }
+
+  private static void checkUpdates(List<IValue> elements, IList list, Random random, int operations) {
+    List<IValue> expected = new ArrayList<>(elements);
+    IList actual = list;
+
+    for (int i = 0; i < operations; i++) {
+      IValue value = VF.integer(-i - 1);
+
+      switch (random.nextInt(5)) {
+        case 0: {
+          int index = random.nextInt(expected.size());
+          expected.set(index, value);
+          actual = actual.put(index, value);
+          assertEquals(value, actual.get(index));
+          break;
+        }
+        case 1: {
+          int index = random.nextInt(expected.size());
+          expected.remove(index);
+          actual = actual.delete(index);
+          break;
+        }
+        case 2:
+          expected.add(0, value);
+          actual = actual.insert(value);
+          break;
+        case 3:
+          expected.add(value);
+          actual = actual.append(value);
+          break;
+        default: {
+          IValue elem = expected.get(random.nextInt(expected.size()));
+          expected.remove(elem);
+          actual = actual.delete(elem);
+        }
+      }
+
+      assertEquals(expected.size(), actual.length());
+    }
+
+    assertList(expected, actual);
+    // the updates did not change the original
+    assertList(elements, list);
+  }
+
+  @Test
+  public void insertPutAndDelete() {
+    Random random = new Random(42);
+
+    for (int size : SIZES) {
+      List<IValue> expected = elements(size);
+
+      for (IList list : builds(expected, random)) {
+        checkUpdates(expected, list, random, size < 1_000_000 ? 2_000 : 200);
+      }
+    }
+  }
+
+  @Test
+  public void reverse() {
+    Random random = new Random(42);
+
+    for (int size : SIZES) {
+      List<IValue> expected = elements(size);
+
+      for (IList list : builds(expected, random)) {
+        List<IValue> reversed = new ArrayList<>(expected);
+        Collections.reverse(reversed);
+        assertList(reversed, list.reverse());
+        assertList(expected, list.reverse().reverse());
+      }
+    }
+  }
+
+  private static List<IValue> values(String... chars) {
+    List<IValue> result = new ArrayList<>();
+    for (String ch : chars) {
+      result.add(VF.string(ch));
+    }
+    return result;
+  }
+
+  private static List<IValue> withValues(List<IValue> list, Object... elements) {
+    List<IValue> result = new ArrayList<>();
+    for (Object elem : elements) {
+      result.add(elem instanceof Integer ? list.get((Integer) elem) : VF.string((String) elem));
+    }
+    return result;
+  }
+
+  @Test
+  public void replaceWithSlices() {
+    List<IValue> ten = elements(10);
+    IList list = written(ten);
+    IList ab = written(values("a", "b"));
+
+    // l[1,3..8] = ["a","b"], the replacement is repeated for all selected elements
+    assertList(withValues(ten, 0, "a", 2, "b", 4, "a", 6, "b", 8, 9), list.replace(1, 3, 8, ab));
+    // l[8,6..1] = ["a","b"], from the end to the start
+    assertList(withValues(ten, 0, 1, "b", 3, "a", 5, "b", 7, "a", 9), list.replace(8, 6, 1, ab));
+    // l[2..5] = ["a","b","c","d"], the rest of a longer replacement is inserted
+    assertList(withValues(ten, 0, 1, "a", "b", "c", "d", 5, 6, 7, 8, 9), list.replace(2, 3, 5, written(values("a", "b", "c", "d"))));
+    // l[2..8] = ["a","b"], a shorter replacement is repeated
+    assertList(withValues(ten, 0, 1, "a", "b", "a", "b", "a", "b", 8, 9), list.replace(2, 3, 8, ab));
+  }
+
+  /**
+   * The semantics of {@link IList#replace}, on elements of a list.
+   */
+  private static List<IValue> replace(List<IValue> list, int first, int second, int end, List<IValue> repl) {
+    List<IValue> result = new ArrayList<>();
+    int increment = Math.abs(second - first);
+    boolean forward = first < end;
+    int step = forward ? 1 : -1;
+    int index = forward ? 0 : list.size() - 1;
+    int replIndex = 0;
+    boolean wrapped = false;
+
+    for (; forward ? index < first : index > first; index += step) {
+      result.add(list.get(index));
+    }
+
+    while (forward ? index < end : index > end) {
+      result.add(repl.get(replIndex++));
+      if (replIndex == repl.size()) {
+        replIndex = 0;
+        wrapped = true;
+      }
+      index += step;
+
+      for (int q = 1; q < increment && (forward ? index < end : index > end); q++, index += step) {
+        result.add(list.get(index));
+      }
+    }
+
+    for (; !wrapped && replIndex < repl.size(); replIndex++) {
+      result.add(repl.get(replIndex));
+    }
+
+    for (; forward ? index < list.size() : index >= 0; index += step) {
+      result.add(list.get(index));
+    }
+
+    if (!forward) {
+      Collections.reverse(result);
+    }
+    return result;
+  }
+
+  @Test
+  public void replaceAgainstSemantics() {
+    Random random = new Random(42);
+
+    for (int size : SIZES) {
+      List<IValue> expected = elements(size);
+
+      for (IList list : builds(expected, random)) {
+        for (int i = 0; i < (size < 1_000_000 ? 20 : 3); i++) {
+          int first = random.nextInt(size);
+          int end = random.nextInt(size);
+          int increment = random.nextInt(3) == 0 ? 1 + random.nextInt(5) : 1;
+          int second = first < end ? first + increment : first - increment;
+          List<IValue> repl = elements(1 + random.nextInt(Math.abs(end - first) + 2));
+          IList replList = random.nextBoolean() ? written(repl) : concatenated(repl, random);
+
+          assertList(replace(expected, first, second, end, repl), list.replace(first, second, end, replList));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void equalityOfBuilds() {
+    Random random = new Random(42);
+
+    for (int size : SIZES) {
+      List<IValue> expected = elements(size);
+      List<IList> builds = builds(expected, random);
+
+      IList prepended = VF.list();
+      for (int i = size - 1; i >= 0; i--) {
+        prepended = prepended.insert(expected.get(i));
+      }
+      builds.add(prepended);
+
+      for (IList x : builds) {
+        for (IList y : builds) {
+          assertEquals(x, y);
+          assertEquals(x.hashCode(), y.hashCode());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void writerInsertAtAndReplaceAt() {
+    Random random = new Random(42);
+
+    for (int size : SIZES) {
+      List<IValue> expected = new ArrayList<>(elements(size / 2));
+      IListWriter writer = VF.listWriter();
+      writer.appendAll(expected);
+
+      for (int i = 0; i < (size < 1_000_000 ? 2_000 : 200); i++) {
+        IValue value = VF.integer(-i - 1);
+
+        switch (random.nextInt(3)) {
+          case 0: {
+            int index = random.nextInt(expected.size() + 1);
+            expected.add(index, value);
+            writer.insertAt(index, value);
+            break;
+          }
+          case 1: {
+            int index = random.nextInt(expected.size() + 1);
+            IValue[] values = { value, VF.integer(i) };
+            expected.addAll(index, Arrays.asList(values));
+            writer.insertAt(index, values);
+            break;
+          }
+          default: {
+            int index = random.nextInt(expected.size());
+            assertEquals(expected.set(index, value), writer.replaceAt(index, value));
+          }
+        }
+
+        assertEquals(expected.size(), writer.length());
+      }
+
+      for (int i = 0; i < expected.size(); i += 97) {
+        assertEquals(expected.get(i), writer.get(i));
+      }
+      assertList(expected, writer.done());
+    }
+  }
+
+  @Test
+  public void writerRejectsIndexesOutOfBounds() {
+    IListWriter writer = VF.listWriter();
+    writer.append(VF.integer(0), VF.integer(1));
+
+    for (int index : new int[] { -1, 3 }) {
+      try {
+        writer.insertAt(index, VF.integer(2));
+        fail("insertAt " + index + " should be out of bounds");
+      }
+      catch (IndexOutOfBoundsException e) {
+        // expected
+      }
+    }
+
+    for (int index : new int[] { -1, 2 }) {
+      try {
+        writer.replaceAt(index, VF.integer(2));
+        fail("replaceAt " + index + " should be out of bounds");
+      }
+      catch (IndexOutOfBoundsException e) {
+        // expected
+      }
+    }
+
+    // the failed updates did not change the list or its type
+    assertEquals(VF.list(VF.integer(0), VF.integer(1)), writer.done());
+    assertEquals(VF.integer(0).getType(), writer.done().getElementType());
+  }
+}
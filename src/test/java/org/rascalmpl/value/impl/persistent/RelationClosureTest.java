@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.rascalmpl.value.IList;
+import org.rascalmpl.value.ISet;
+import org.rascalmpl.value.ITuple;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.IValueFactory;
+
+/**
+ * Checks the transitive and reflexive transitive closures of set relations,
+ * computed sequentially and in parallel by {@link RelationClosure}, and of
+ * list relations against a naive fixpoint of repeated composition.
+ */
+public class RelationClosureTest {
+  // integers and tuples are never created by the adapted factory
+  private static final IValueFactory UNUSED = (IValueFactory) Proxy.newProxyInstance(
+      IValueFactory.class.getClassLoader(), new Class<?>[] { IValueFactory.class },
+      (proxy, method, args) -> { throw new UnsupportedOperationException(method.getName()); });
+
+  private static final ValueFactory VF = new ValueFactory(UNUSED);
+
+  private static ITuple pair(IValue key, IValue value) {
+    return VF.tuple(key, value);
+  }
+
+  private static ITuple pair(int key, int value) {
+    return pair(VF.integer(key), VF.integer(value));
+  }
+
+  private static IValue first(IValue pair) {
+    return ((ITuple) pair).get(0);
+  }
+
+  private static IValue second(IValue pair) {
+    return ((ITuple) pair).get(1);
+  }
+
+  private static Map<IValue, List<IValue>> successors(Iterable<IValue> pairs) {
+    Map<IValue, List<IValue>> result = new HashMap<>();
+    for (IValue pair : pairs) {
+      result.computeIfAbsent(first(pair), k -> new ArrayList<>()).add(second(pair));
+    }
+    return result;
+  }
+
+  /**
+   * @return the pairs, followed by those which repeated composition with the
+   *         pairs adds, in the order of the rounds of the fixpoint
+   */
+  private static List<IValue> closure(List<IValue> pairs) {
+    Map<IValue, List<IValue>> successors = successors(pairs);
+    Set<IValue> present = new HashSet<>(pairs);
+    List<IValue> result = new ArrayList<>(pairs);
+    List<IValue> added = pairs;
+
+    while (!added.isEmpty()) {
+      List<IValue> round = new ArrayList<>();
+
+      for (IValue pair : added) {
+        for (IValue value : successors.getOrDefault(second(pair), new ArrayList<>())) {
+          ITuple composed = pair(first(pair), value);
+          if (present.add(composed)) {
+            round.add(composed);
+          }
+        }
+      }
+
+      result.addAll(round);
+      added = round;
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the closure, followed by the missing pairs of every element of
+   *         the carrier with itself, in the order of the first occurrence
+   */
+  private static List<IValue> closureStar(List<IValue> pairs) {
+    List<IValue> result = closure(pairs);
+    Set<IValue> present = new HashSet<>(result);
+    Set<IValue> carrier = new LinkedHashSet<>();
+
+    for (IValue pair : pairs) {
+      carrier.add(first(pair));
+      carrier.add(second(pair));
+    }
+
+    for (IValue elem : carrier) {
+      ITuple reflexive = pair(elem, elem);
+      if (present.add(reflexive)) {
+        result.add(reflexive);
+      }
+    }
+
+    return result;
+  }
+
+  private static Set<IValue> javaSet(Iterable<IValue> values) {
+    Set<IValue> result = new HashSet<>();
+    for (IValue elem : values) {
+      result.add(elem);
+    }
+    return result;
+  }
+
+  private static List<IValue> javaList(IList list) {
+    List<IValue> result = new ArrayList<>();
+    for (IValue elem : list) {
+      result.add(elem);
+    }
+    return result;
+  }
+
+  private static void assertSet(Set<IValue> expected, ISet actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected, javaSet(actual));
+    assertEquals(expected.hashCode(), actual.hashCode());
+  }
+
+  /**
+   * Checks both closures of the relation, sequentially, in parallel and
+   * through {@link ISet#asRelation()}.
+   */
+  private static void assertClosures(Set<IValue> pairs) {
+    ISet relation = VF.set(pairs.toArray(new IValue[0]));
+    List<IValue> ordered = new ArrayList<>(pairs);
+    Set<IValue> closure = new HashSet<>(closure(ordered));
+    Set<IValue> closureStar = new HashSet<>(closureStar(ordered));
+
+    assertSet(closure, RelationClosure.closure(relation, false));
+    assertSet(closure, RelationClosure.closure(relation, true));
+    assertSet(closure, relation.asRelation().closure());
+    assertSet(closureStar, RelationClosure.closureStar(relation, false));
+    assertSet(closureStar, RelationClosure.closureStar(relation, true));
+    assertSet(closureStar, relation.asRelation().closureStar());
+  }
+
+  private static Set<IValue> randomPairs(Random random, int size, int range) {
+    Set<IValue> result = new HashSet<>();
+    for (int i = 0; i < size; i++) {
+      result.add(pair(random.nextInt(range), random.nextInt(range)));
+    }
+    return result;
+  }
+
+  /**
+   * @return disjoint components of the given size, each a cycle or a chain
+   *         with a few extra edges inside, over numbers from 0 to count
+   */
+  private static Set<IValue> components(Random random, int count, int size) {
+    Set<IValue> result = new HashSet<>();
+
+    for (int start = 0; start + size <= count; start += size) {
+      boolean cycle = random.nextBoolean();
+
+      for (int i = 0; i < size - 1; i++) {
+        result.add(pair(start + i, start + i + 1));
+      }
+      if (cycle) {
+        result.add(pair(start + size - 1, start));
+      }
+      for (int i = 0; i < size / 4; i++) {
+        int node = start + random.nextInt(size);
+        result.add(pair(node, cycle ? start + random.nextInt(size) : node));
+      }
+    }
+
+    return result;
+  }
+
+  @Test
+  public void randomRelations() {
+    Random random = new Random(42);
+
+    for (int round = 0; round < 30; round++) {
+      int range = 2 + random.nextInt(60);
+      assertClosures(randomPairs(random, 1 + random.nextInt(2 * range), range));
+    }
+  }
+
+  @Test
+  public void cyclicRelations() {
+    // a self-loop
+    assertClosures(javaSet(VF.set(pair(1, 1))));
+
+    // a single cycle, of which the closure is complete
+    Set<IValue> cycle = new HashSet<>();
+    for (int i = 0; i < 50; i++) {
+      cycle.add(pair(i, (i + 1) % 50));
+    }
+    assertClosures(cycle);
+    assertEquals(50 * 50, RelationClosure.closure(VF.set(cycle.toArray(new IValue[0])), false).size());
+
+    // a cycle with a chain into it and one out of it
+    Set<IValue> lasso = new HashSet<>(cycle);
+    for (int i = 100; i < 110; i++) {
+      lasso.add(pair(i, i + 1));
+    }
+    lasso.add(pair(110, 0));
+    lasso.add(pair(25, 200));
+    lasso.add(pair(200, 201));
+    assertClosures(lasso);
+
+    assertClosures(components(new Random(42), 200, 10));
+  }
+
+  @Test
+  public void relationsOfMixedValues() {
+    Set<IValue> pairs = new HashSet<>();
+    pairs.add(pair(VF.integer(1), VF.string("a")));
+    pairs.add(pair(VF.string("a"), VF.integer(2)));
+    pairs.add(pair(VF.integer(2), VF.integer(1)));
+    pairs.add(pair(VF.string("b"), VF.string("a")));
+    assertClosures(pairs);
+  }
+
+  @Test
+  public void relationsOfParallelSize() {
+    Random random = new Random(42);
+    int count = 3 * RelationClosure.PARALLEL_THRESHOLD;
+
+    // the parallel closure splits the values of both into several tasks
+    assertClosures(components(random, count, 12));
+    assertClosures(components(random, count, 48));
+
+    // few enough edges between the components that they do not join into one
+    Set<IValue> sparse = randomPairs(random, count / 32, count);
+    sparse.addAll(components(random, count, 6));
+    assertClosures(sparse);
+  }
+
+  private static IList list(List<IValue> pairs) {
+    IList result = VF.list(pairs.toArray(new IValue[0]));
+    assertEquals(pairs, javaList(result));
+    return result;
+  }
+
+  @Test
+  public void listRelations() {
+    Random random = new Random(42);
+    List<List<IValue>> relations = new ArrayList<>();
+
+    for (int round = 0; round < 30; round++) {
+      List<IValue> pairs = new ArrayList<>();
+      int range = 2 + random.nextInt(40);
+      for (int i = random.nextInt(2 * range); i >= 0; i--) {
+        // duplicate pairs stay in a list relation
+        pairs.add(pair(random.nextInt(range), random.nextInt(range)));
+      }
+      relations.add(pairs);
+    }
+
+    relations.add(new ArrayList<>(components(random, 60, 10)));
+
+    List<IValue> cycle = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      cycle.add(pair(i, (i + 1) % 20));
+    }
+    cycle.add(pair(3, 3));
+    cycle.add(pair(0, 1));
+    relations.add(cycle);
+
+    for (List<IValue> pairs : relations) {
+      IList list = list(pairs);
+      assertEquals(closure(pairs), javaList(list.asRelation().closure()));
+      assertEquals(closureStar(pairs), javaList(list.asRelation().closureStar()));
+    }
+  }
+
+  @Test
+  public void closuresOfEmptyRelations() {
+    assertTrue(VF.set().asRelation().closure().isEmpty());
+    assertTrue(VF.set().asRelation().closureStar().isEmpty());
+    assertTrue(VF.list().asRelation().closure().isEmpty());
+    assertTrue(VF.list().asRelation().closureStar().isEmpty());
+  }
+}
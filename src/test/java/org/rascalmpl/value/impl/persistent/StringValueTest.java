@@ -0,0 +1,337 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.rascalmpl.value.IString;
+
+/**
+ * Checks the ropes of {@link FlatString}s and {@link ConcatString}s against
+ * {@link String}, for strings with supplementary code points, which take
+ * two UTF-16 characters.
+ */
+public class StringValueTest {
+  /** letters, characters which take two UTF-16 characters, and other characters beyond ASCII */
+  private static final int[] CODE_POINTS = { 'a', 'b', 'z', 0x1F600, 0x10400, 0xE9, 0x4E2D };
+
+  private static String randomString(Random random, int length) {
+    StringBuilder b = new StringBuilder();
+    boolean supplementary = random.nextBoolean();
+
+    for (int i = 0; i < length; i++) {
+      int cp = CODE_POINTS[random.nextInt(supplementary ? CODE_POINTS.length : 3)];
+      b.appendCodePoint(cp);
+    }
+
+    return b.toString();
+  }
+
+  /**
+   * @return a rope of the pieces, concatenated in a random order
+   */
+  private static StringValue rope(List<String> pieces, Random random) {
+    List<StringValue> parts = new ArrayList<>();
+    for (String piece : pieces) {
+      parts.add(FlatString.of(piece));
+    }
+
+    while (parts.size() > 1) {
+      int i = random.nextInt(parts.size() - 1);
+      parts.set(i, (StringValue) parts.get(i).concat(parts.remove(i + 1)));
+    }
+
+    return parts.isEmpty() ? FlatString.EMPTY : parts.get(0);
+  }
+
+  private static int codePoints(String s) {
+    return s.codePointCount(0, s.length());
+  }
+
+  private static String substring(String s, int start, int end) {
+    return s.substring(s.offsetByCodePoints(0, start), s.offsetByCodePoints(0, end));
+  }
+
+  private static void assertString(String expected, IString actual) {
+    assertEquals(expected, actual.getValue());
+    assertEquals(codePoints(expected), actual.length());
+    assertEquals(expected.hashCode(), actual.hashCode());
+    assertEquals(FlatString.of(expected), actual);
+    assertEquals(actual, FlatString.of(expected));
+  }
+
+  /**
+   * @return the height of a balanced rope, after checking that it is balanced
+   */
+  private static int checkBalanced(StringValue rope) {
+    if (rope instanceof FlatString) {
+      assertEquals(0, rope.height());
+      return 0;
+    }
+
+    ConcatString concat = (ConcatString) rope;
+    assertTrue(concat.left.charLength() > 0 && concat.right.charLength() > 0);
+    int left = checkBalanced(concat.left);
+    int right = checkBalanced(concat.right);
+    assertTrue("unbalanced: " + left + " and " + right, Math.abs(left - right) <= 1);
+    assertEquals(Math.max(left, right) + 1, rope.height());
+    return rope.height();
+  }
+
+  @Test
+  public void concatIsBalanced() {
+    Random random = new Random(42);
+
+    for (int round = 0; round < 20; round++) {
+      List<String> pieces = new ArrayList<>();
+      StringBuilder expected = new StringBuilder();
+
+      for (int i = 0; i < 2_000; i++) {
+        String piece = randomString(random, random.nextInt(round % 2 == 0 ? 10 : 200));
+        pieces.add(piece);
+        expected.append(piece);
+      }
+
+      StringValue rope = rope(pieces, random);
+      assertString(expected.toString(), rope);
+      checkBalanced(rope);
+    }
+  }
+
+  @Test
+  public void concatAtOneEndIsBalanced() {
+    Random random = new Random(42);
+    StringValue appended = FlatString.EMPTY;
+    StringValue prepended = FlatString.EMPTY;
+    StringBuilder expected = new StringBuilder();
+    StringBuilder expectedPrepended = new StringBuilder();
+
+    for (int i = 0; i < 10_000; i++) {
+      String piece = randomString(random, 1 + random.nextInt(100));
+      expected.append(piece);
+      expectedPrepended.insert(0, piece);
+      appended = (StringValue) appended.concat(FlatString.of(piece));
+      prepended = (StringValue) FlatString.of(piece).concat(prepended);
+    }
+
+    assertString(expected.toString(), appended);
+    assertString(expectedPrepended.toString(), prepended);
+    // a balanced tree of about 10k leaves
+    assertTrue(checkBalanced(appended) <= 20);
+    assertTrue(checkBalanced(prepended) <= 20);
+  }
+
+  @Test
+  public void substringAndCharAt() {
+    Random random = new Random(42);
+
+    for (int round = 0; round < 50; round++) {
+      List<String> pieces = new ArrayList<>();
+      for (int i = random.nextInt(100); i >= 0; i--) {
+        pieces.add(randomString(random, random.nextInt(80)));
+      }
+
+      String expected = String.join("", pieces);
+      StringValue rope = rope(pieces, random);
+      int length = codePoints(expected);
+
+      for (int i = 0; i < length; i++) {
+        assertEquals(expected.codePointAt(expected.offsetByCodePoints(0, i)), rope.charAt(i));
+      }
+
+      for (int i = 0; i < 50; i++) {
+        int start = random.nextInt(length + 1);
+        int end = start + random.nextInt(length - start + 1);
+        IString sub = rope.substring(start, end);
+        assertString(substring(expected, start, end), sub);
+        assertString(substring(expected, start, length), rope.substring(start));
+        if (sub instanceof ConcatString) {
+          checkBalanced((StringValue) sub);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void indexesOutOfBounds() {
+    IString rope = FlatString.of(randomString(new Random(42), 100)).concat(FlatString.of("\uD83D\uDE00abc"));
+    int length = rope.length();
+    assertEquals(104, length);
+
+    for (int index : new int[] { -1, length }) {
+      try {
+        rope.charAt(index);
+        fail("charAt " + index + " should be out of bounds");
+      }
+      catch (IndexOutOfBoundsException e) {
+        // expected
+      }
+    }
+
+    for (int[] range : new int[][] { { -1, 2 }, { 0, length + 1 }, { 3, 2 } }) {
+      try {
+        rope.substring(range[0], range[1]);
+        fail("substring " + range[0] + ", " + range[1] + " should be out of bounds");
+      }
+      catch (IndexOutOfBoundsException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void reverse() {
+    Random random = new Random(42);
+
+    for (int round = 0; round < 50; round++) {
+      List<String> pieces = new ArrayList<>();
+      for (int i = random.nextInt(100); i >= 0; i--) {
+        pieces.add(randomString(random, random.nextInt(80)));
+      }
+
+      String expected = String.join("", pieces);
+      StringValue rope = rope(pieces, random);
+      // StringBuilder keeps surrogate pairs together
+      assertString(new StringBuilder(expected).reverse().toString(), rope.reverse());
+      assertString(expected, rope.reverse().reverse());
+    }
+  }
+
+  /**
+   * The semantics of {@link IString#replace}, on code points.
+   */
+  private static String replace(String s, int first, int second, int end, String repl) {
+    int[] chars = s.codePoints().toArray();
+    int[] replChars = repl.codePoints().toArray();
+    List<Integer> result = new ArrayList<>();
+    int increment = Math.abs(second - first);
+    boolean forward = first < end;
+    int step = forward ? 1 : -1;
+    int index = forward ? 0 : chars.length - 1;
+    int replIndex = 0;
+    boolean wrapped = false;
+
+    for (; forward ? index < first : index > first; index += step) {
+      result.add(chars[index]);
+    }
+
+    while (forward ? index < end : index > end) {
+      result.add(replChars[replIndex++]);
+      if (replIndex == replChars.length) {
+        replIndex = 0;
+        wrapped = true;
+      }
+      index += step;
+
+      for (int q = 1; q < increment && (forward ? index < end : index > end); q++, index += step) {
+        result.add(chars[index]);
+      }
+    }
+
+    for (; !wrapped && replIndex < replChars.length; replIndex++) {
+      result.add(replChars[replIndex]);
+    }
+
+    for (; forward ? index < chars.length : index >= 0; index += step) {
+      result.add(chars[index]);
+    }
+
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < result.size(); i++) {
+      b.appendCodePoint(result.get(forward ? i : result.size() - 1 - i));
+    }
+    return b.toString();
+  }
+
+  @Test
+  public void replaceWithSlices() {
+    IString s = FlatString.of("0123456789");
+    IString ab = FlatString.of("\uD83D\uDE00b");
+
+    assertString("0\uD83D\uDE002b4\uD83D\uDE006b89", s.replace(1, 3, 8, ab));
+    assertString("01b3\uD83D\uDE005b7\uD83D\uDE009", s.replace(8, 6, 1, ab));
+    assertString("01\uD83D\uDE00b\uD83D\uDE00b\uD83D\uDE00b89", s.replace(2, 3, 8, ab));
+  }
+
+  @Test
+  public void replaceAgainstSemantics() {
+    Random random = new Random(42);
+
+    for (int round = 0; round < 200; round++) {
+      List<String> pieces = new ArrayList<>();
+      for (int i = random.nextInt(20); i >= 0; i--) {
+        pieces.add(randomString(random, 1 + random.nextInt(40)));
+      }
+
+      String expected = String.join("", pieces);
+      StringValue rope = rope(pieces, random);
+      int length = codePoints(expected);
+      int first = random.nextInt(length);
+      int end = random.nextInt(length);
+      int increment = random.nextInt(3) == 0 ? 1 + random.nextInt(5) : 1;
+      int second = first < end ? first + increment : first - increment;
+      String repl = randomString(random, 1 + random.nextInt(Math.abs(end - first) + 2));
+
+      assertString(replace(expected, first, second, end, repl), rope.replace(first, second, end, FlatString.of(repl)));
+    }
+  }
+
+  @Test
+  public void hashCodeOfRopesIsStringHashCode() {
+    Random random = new Random(42);
+
+    for (int round = 0; round < 200; round++) {
+      List<String> pieces = new ArrayList<>();
+      for (int i = random.nextInt(200); i >= 0; i--) {
+        pieces.add(randomString(random, random.nextInt(100)));
+      }
+
+      String expected = String.join("", pieces);
+      assertEquals(expected.hashCode(), rope(pieces, random).hashCode());
+    }
+
+    assertEquals(0, FlatString.EMPTY.hashCode());
+  }
+
+  @Test
+  public void compareIsConsistentWithFlatStrings() {
+    Random random = new Random(42);
+    List<String> strings = new ArrayList<>();
+    List<StringValue> ropes = new ArrayList<>();
+
+    for (int round = 0; round < 60; round++) {
+      List<String> pieces = new ArrayList<>();
+      // few code points, such that strings share long prefixes
+      String prefix = round % 3 == 0 ? "" : randomString(new Random(round % 2), 150);
+      pieces.add(prefix);
+      for (int i = random.nextInt(10); i >= 0; i--) {
+        pieces.add(randomString(random, random.nextInt(30)));
+      }
+
+      strings.add(String.join("", pieces));
+      ropes.add(rope(pieces, random));
+    }
+
+    for (int i = 0; i < strings.size(); i++) {
+      for (int j = 0; j < strings.size(); j++) {
+        int expected = Integer.signum(strings.get(i).compareTo(strings.get(j)));
+        assertEquals(expected, ropes.get(i).compare(ropes.get(j)));
+        assertEquals(expected, ropes.get(i).compare(FlatString.of(strings.get(j))));
+        assertEquals(expected, FlatString.of(strings.get(i)).compare(ropes.get(j)));
+        assertEquals(expected == 0, ropes.get(i).equals(ropes.get(j)));
+      }
+    }
+  }
+}
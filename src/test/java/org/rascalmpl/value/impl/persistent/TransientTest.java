@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Checks the transients of {@link TrieSet}, {@link TrieMap},
+ * {@link TrieMultimap} and {@link RrbTree}: that they do not change the
+ * persistent values they were created from or frozen into, that they may
+ * only be used by their owner, and that they build the same values as
+ * persistent updates do.
+ */
+public class TransientTest {
+  private static Set<Integer> content(TrieSet<Integer> set) {
+    Set<Integer> result = new HashSet<>();
+    for (Integer key : set) {
+      result.add(key);
+    }
+    return result;
+  }
+
+  private static Map<Integer, Integer> content(TrieMap<Integer, Integer> map) {
+    Map<Integer, Integer> result = new HashMap<>();
+    for (Iterator<Map.Entry<Integer, Integer>> it = map.entryIterator(); it.hasNext();) {
+      Map.Entry<Integer, Integer> entry = it.next();
+      result.put(entry.getKey(), entry.getValue());
+    }
+    return result;
+  }
+
+  private static List<Integer> content(RrbTree<Integer> tree) {
+    List<Integer> result = new ArrayList<>();
+    for (Integer elem : tree) {
+      result.add(elem);
+    }
+    return result;
+  }
+
+  private static void assertFrozen(Runnable write) {
+    try {
+      write.run();
+      fail("a frozen transient should not be writable");
+    }
+    catch (IllegalStateException e) {
+      assertTrue(e.getMessage().contains("frozen"));
+    }
+  }
+
+  @Test
+  public void frozenSetIsUnaffectedByLaterWrites() {
+    TrieSet<Integer> original = TrieSet.of();
+    for (int i = 0; i < 1_000; i++) {
+      original = original.insert(i);
+    }
+    Set<Integer> originalContent = content(original);
+
+    TrieSet.Transient<Integer> builder = original.asTransient();
+    for (int i = 500; i < 5_000; i++) {
+      builder.insert(i);
+    }
+    TrieSet<Integer> frozen = builder.freeze();
+    Set<Integer> frozenContent = content(frozen);
+
+    assertFrozen(() -> builder.insert(-1));
+    assertFrozen(() -> builder.delete(1));
+
+    // a new transient shares the nodes of the frozen set, which it must copy
+    TrieSet.Transient<Integer> next = frozen.asTransient();
+    for (int i = 0; i < 5_000; i += 2) {
+      next.delete(i);
+      next.insert(-i - 1);
+    }
+    TrieSet<Integer> updated = frozen;
+    for (int i = 1; i < 5_000; i += 3) {
+      updated = updated.delete(i);
+    }
+    assertEquals(3_333, updated.size());
+
+    assertEquals(originalContent, content(original));
+    assertEquals(frozenContent, content(frozen));
+    assertEquals(5_000, frozen.size());
+    assertEquals(frozenContent.hashCode(), frozen.hashCode());
+    assertEquals(5_000, next.freeze().size());
+  }
+
+  @Test
+  public void frozenMapIsUnaffectedByLaterWrites() {
+    TrieMap<Integer, Integer> original = TrieMap.of();
+    for (int i = 0; i < 1_000; i++) {
+      original = original.put(i, i);
+    }
+    Map<Integer, Integer> originalContent = content(original);
+
+    TrieMap.Transient<Integer, Integer> builder = original.asTransient();
+    for (int i = 500; i < 5_000; i++) {
+      builder.put(i, -i);
+    }
+    TrieMap<Integer, Integer> frozen = builder.freeze();
+    Map<Integer, Integer> frozenContent = content(frozen);
+
+    assertFrozen(() -> builder.put(-1, -1));
+    assertFrozen(() -> builder.remove(1));
+
+    TrieMap.Transient<Integer, Integer> next = frozen.asTransient();
+    for (int i = 0; i < 5_000; i += 2) {
+      next.remove(i);
+      next.put(i + 1, 0);
+    }
+
+    assertEquals(originalContent, content(original));
+    assertEquals(frozenContent, content(frozen));
+    assertEquals(frozenContent.hashCode(), frozen.hashCode());
+  }
+
+  @Test
+  public void frozenTreeIsUnaffectedByLaterWrites() {
+    RrbTree<Integer> original = RrbTree.of();
+    for (int i = 0; i < 1_000; i++) {
+      original = original.append(i);
+    }
+    List<Integer> originalContent = content(original);
+
+    RrbTree.Transient<Integer> builder = original.asTransient();
+    for (int i = 0; i < 5_000; i++) {
+      builder.append(i);
+      builder.prepend(-i);
+    }
+    RrbTree<Integer> frozen = builder.freeze();
+    List<Integer> frozenContent = content(frozen);
+
+    assertFrozen(() -> builder.append(-1));
+    assertFrozen(() -> builder.prepend(-1));
+
+    RrbTree.Transient<Integer> next = frozen.asTransient();
+    for (int i = 0; i < 5_000; i += 7) {
+      next.set(i, -1);
+      next.insert(i, new Integer[] { 1, 2, 3 }, 0, 3);
+    }
+    RrbTree<Integer> updated = frozen;
+    for (int i = 0; i < 5_000; i += 7) {
+      updated = updated.set(i, -1).remove(i + 1);
+    }
+    assertEquals(11_000 - 715, updated.size());
+
+    assertEquals(originalContent, content(original));
+    assertEquals(frozenContent, content(frozen));
+    assertEquals(11_000, frozen.size());
+  }
+
+  @Test
+  public void frozenMultimapIsUnaffectedByLaterWrites() {
+    TrieMultimap.Transient<Integer, Integer> builder = TrieMultimap.<Integer, Integer>of().asTransient();
+    for (int i = 0; i < 2_000; i++) {
+      builder.insert(i % 100, i);
+    }
+    TrieMultimap<Integer, Integer> frozen = builder.freeze();
+    int hash = frozen.hashCode();
+
+    assertFrozen(() -> builder.insert(-1, -1));
+    assertFrozen(() -> builder.insert(1, -1));
+
+    TrieMultimap.Transient<Integer, Integer> next = frozen.asTransient();
+    for (int i = 0; i < 2_000; i += 2) {
+      next.delete(i % 100, i);
+      next.insert(i % 100, -i);
+    }
+
+    assertEquals(2_000, frozen.size());
+    assertEquals(hash, frozen.hashCode());
+    for (int i = 0; i < 2_000; i++) {
+      assertTrue(frozen.contains(i % 100, i));
+    }
+  }
+
+  /**
+   * @return the exception thrown by the action in another thread, or null
+   */
+  private static Throwable inOtherThread(Runnable action) throws InterruptedException {
+    AtomicReference<Throwable> thrown = new AtomicReference<>();
+    Thread thread = new Thread(() -> {
+      try {
+        action.run();
+      }
+      catch (Throwable e) {
+        thrown.set(e);
+      }
+    });
+
+    thread.start();
+    thread.join();
+    return thrown.get();
+  }
+
+  private static void assertOwned(Runnable action) throws InterruptedException {
+    Throwable thrown = inOtherThread(action);
+    assertTrue("expected an IllegalStateException but was " + thrown, thrown instanceof IllegalStateException);
+    assertTrue(thrown.getMessage().contains("another thread"));
+  }
+
+  @Test
+  public void transientsAreOwnedByTheirThread() throws InterruptedException {
+    TrieSet.Transient<Integer> set = TrieSet.<Integer>of().asTransient();
+    set.insert(1);
+    assertOwned(() -> set.insert(2));
+    assertOwned(() -> set.delete(1));
+    assertOwned(() -> set.contains(1));
+    assertOwned(() -> set.freeze());
+
+    TrieMap.Transient<Integer, Integer> map = TrieMap.<Integer, Integer>of().asTransient();
+    map.put(1, 1);
+    assertOwned(() -> map.put(2, 2));
+    assertOwned(() -> map.remove(1));
+    assertOwned(() -> map.get(1));
+    assertOwned(() -> map.freeze());
+
+    RrbTree.Transient<Integer> tree = RrbTree.<Integer>of().asTransient();
+    tree.append(1);
+    assertOwned(() -> tree.append(2));
+    assertOwned(() -> tree.prepend(0));
+    assertOwned(() -> tree.set(0, 2));
+    assertOwned(() -> tree.freeze());
+
+    TrieMultimap.Transient<Integer, Integer> multimap = TrieMultimap.<Integer, Integer>of().asTransient();
+    multimap.insert(1, 1);
+    multimap.insert(1, 2);
+    assertOwned(() -> multimap.insert(2, 1));
+    assertOwned(() -> multimap.insert(1, 3));
+
+    // the owner can still use and freeze them
+    assertEquals(1, set.freeze().size());
+    assertEquals(1, map.freeze().size());
+    assertEquals(1, tree.freeze().size());
+    assertEquals(2, multimap.freeze().size());
+  }
+
+  @Test
+  public void frozenValuesMayBeSharedWithOtherThreads() throws InterruptedException {
+    TrieSet.Transient<Integer> builder = TrieSet.<Integer>of().asTransient();
+    for (int i = 0; i < 1_000; i++) {
+      builder.insert(i);
+    }
+    TrieSet<Integer> frozen = builder.freeze();
+
+    assertEquals(null, inOtherThread(() -> {
+      TrieSet.Transient<Integer> other = frozen.asTransient();
+      for (int i = 0; i < 1_000; i++) {
+        other.delete(i);
+      }
+      assertTrue(other.freeze().isEmpty());
+    }));
+    assertEquals(1_000, content(frozen).size());
+  }
+
+  @Test
+  public void transientBuildsEqualPersistentBuilds() {
+    Random random = new Random(42);
+    TrieSet<Integer> set = TrieSet.of();
+    TrieSet.Transient<Integer> setBuilder = TrieSet.<Integer>of().asTransient();
+    TrieMap<Integer, Integer> map = TrieMap.of();
+    TrieMap.Transient<Integer, Integer> mapBuilder = TrieMap.<Integer, Integer>of().asTransient();
+    TrieMultimap<Integer, Integer> multimap = TrieMultimap.of();
+    TrieMultimap.Transient<Integer, Integer> multimapBuilder = TrieMultimap.<Integer, Integer>of().asTransient();
+
+    for (int i = 0; i < 50_000; i++) {
+      int key = random.nextInt(10_000);
+      int value = random.nextInt(10);
+
+      if (random.nextInt(4) == 0) {
+        assertEquals(set.contains(key), setBuilder.delete(key));
+        set = set.delete(key);
+        assertEquals(map.containsKey(key), mapBuilder.remove(key));
+        map = map.remove(key);
+        assertEquals(multimap.contains(key % 1_000, value), multimapBuilder.delete(key % 1_000, value));
+        multimap = multimap.delete(key % 1_000, value);
+      }
+      else {
+        assertEquals(!set.contains(key), setBuilder.insert(key));
+        set = set.insert(key);
+        assertEquals(!map.containsKey(key), mapBuilder.put(key, value));
+        map = map.put(key, value);
+        assertEquals(!multimap.contains(key % 1_000, value), multimapBuilder.insert(key % 1_000, value));
+        multimap = multimap.insert(key % 1_000, value);
+      }
+    }
+
+    TrieSet<Integer> frozenSet = setBuilder.freeze();
+    assertEquals(set, frozenSet);
+    assertEquals(frozenSet, set);
+    assertEquals(set.hashCode(), frozenSet.hashCode());
+    assertEquals(content(set), content(frozenSet));
+
+    TrieMap<Integer, Integer> frozenMap = mapBuilder.freeze();
+    assertEquals(map, frozenMap);
+    assertEquals(frozenMap, map);
+    assertEquals(map.hashCode(), frozenMap.hashCode());
+    assertEquals(content(map), content(frozenMap));
+
+    TrieMultimap<Integer, Integer> frozenMultimap = multimapBuilder.freeze();
+    assertEquals(multimap, frozenMultimap);
+    assertEquals(frozenMultimap, multimap);
+    assertEquals(multimap.size(), frozenMultimap.size());
+    assertEquals(multimap.hashCode(), frozenMultimap.hashCode());
+  }
+
+  @Test
+  public void transientTreeEqualsPersistentTree() {
+    Random random = new Random(42);
+    RrbTree<Integer> tree = RrbTree.of();
+    RrbTree.Transient<Integer> builder = RrbTree.<Integer>of().asTransient();
+
+    for (int i = 0; i < 50_000; i++) {
+      switch (random.nextInt(3)) {
+        case 0:
+          tree = tree.prepend(i);
+          builder.prepend(i);
+          break;
+        case 1:
+          tree = tree.append(i);
+          builder.append(i);
+          break;
+        default:
+          int index = random.nextInt(tree.size() + 1);
+          tree = tree.insert(index, i);
+          builder.insert(index, new Integer[] { i }, 0, 1);
+      }
+    }
+
+    assertEquals(content(tree), content(builder.freeze()));
+  }
+}
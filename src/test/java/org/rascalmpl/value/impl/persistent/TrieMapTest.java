@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Test;
+import org.rascalmpl.value.IMap;
+import org.rascalmpl.value.IMapWriter;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.IValueFactory;
+import org.rascalmpl.value.impl.persistent.TrieSetTest.Key;
+
+/**
+ * Checks {@link TrieMap} and the maps of the {@link ValueFactory} against
+ * {@link HashMap}, for random operations and for keys of which the hash
+ * codes collide.
+ */
+public class TrieMapTest {
+  // integers and strings are never created by the adapted factory
+  private static final IValueFactory UNUSED = (IValueFactory) Proxy.newProxyInstance(
+      IValueFactory.class.getClassLoader(), new Class<?>[] { IValueFactory.class },
+      (proxy, method, args) -> { throw new UnsupportedOperationException(method.getName()); });
+
+  private static final ValueFactory VF = new ValueFactory(UNUSED);
+
+  private static Object key(Random random, int range, boolean collide) {
+    int id = random.nextInt(range);
+    return collide ? new Key(id, (id % 5) * 0x01010101) : Integer.valueOf(id);
+  }
+
+  private static <K, V> void assertContent(Map<K, V> expected, TrieMap<K, V> actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.hashCode(), actual.hashCode());
+
+    Map<K, V> iterated = new HashMap<>();
+    for (Iterator<Entry<K, V>> it = actual.entryIterator(); it.hasNext();) {
+      Entry<K, V> entry = it.next();
+      assertNull("duplicate " + entry, iterated.put(entry.getKey(), entry.getValue()));
+    }
+    assertEquals(expected, iterated);
+
+    int keys = 0;
+    for (Iterator<K> it = actual.keyIterator(); it.hasNext(); keys++) {
+      K key = it.next();
+      assertTrue(actual.containsKey(key));
+      assertEquals(expected.get(key), actual.get(key));
+    }
+    assertEquals(expected.size(), keys);
+  }
+
+  private static void checkRandom(Random random, int operations, int range, boolean collide) {
+    Map<Object, Integer> expected = new HashMap<>();
+    TrieMap<Object, Integer> actual = TrieMap.of();
+
+    for (int i = 0; i < operations; i++) {
+      Object key = key(random, range, collide);
+      TrieMap<Object, Integer> previous = actual;
+
+      if (random.nextInt(3) == 0) {
+        boolean changed = expected.remove(key) != null;
+        actual = actual.remove(key);
+        assertEquals(changed, actual != previous);
+        assertTrue(!actual.containsKey(key));
+      }
+      else {
+        // few distinct values, such that some puts do not change the map
+        Integer value = random.nextInt(4);
+        boolean changed = !value.equals(expected.put(key, value));
+        actual = actual.put(key, value);
+        assertEquals(changed, actual != previous);
+        assertEquals(value, actual.get(key));
+      }
+
+      assertEquals(expected.size(), actual.size());
+    }
+
+    assertContent(expected, actual);
+  }
+
+  @Test
+  public void putAndRemove() {
+    Random random = new Random(42);
+    checkRandom(random, 10_000, 100, false);
+    checkRandom(random, 100_000, 50_000, false);
+  }
+
+  @Test
+  public void putAndRemoveCollidingKeys() {
+    Random random = new Random(42);
+    checkRandom(random, 10_000, 100, true);
+    checkRandom(random, 50_000, 5_000, true);
+  }
+
+  @Test
+  public void transientEqualsPersistentBuild() {
+    Random random = new Random(42);
+    Map<Object, Integer> expected = new HashMap<>();
+    TrieMap<Object, Integer> persistent = TrieMap.of();
+    TrieMap.Transient<Object, Integer> builder = TrieMap.<Object, Integer>of().asTransient();
+
+    for (int i = 0; i < 20_000; i++) {
+      Object key = key(random, 5_000, i % 2 == 0);
+      Integer value = random.nextInt(10);
+
+      if (random.nextInt(4) == 0) {
+        expected.remove(key);
+        persistent = persistent.remove(key);
+        builder.remove(key);
+      }
+      else {
+        expected.put(key, value);
+        persistent = persistent.put(key, value);
+        builder.put(key, value);
+      }
+    }
+
+    TrieMap<Object, Integer> frozen = builder.freeze();
+    assertContent(expected, persistent);
+    assertContent(expected, frozen);
+    assertEquals(persistent, frozen);
+    assertEquals(frozen, persistent);
+    assertEquals(persistent.hashCode(), frozen.hashCode());
+  }
+
+  private static Map<IValue, IValue> javaMap(IMap map) {
+    Map<IValue, IValue> result = new HashMap<>();
+    for (Iterator<Entry<IValue, IValue>> it = map.entryIterator(); it.hasNext();) {
+      Entry<IValue, IValue> entry = it.next();
+      result.put(entry.getKey(), entry.getValue());
+    }
+    return result;
+  }
+
+  private static void assertMap(Map<IValue, IValue> expected, IMap actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected, javaMap(actual));
+    assertEquals(expected.hashCode(), actual.hashCode());
+
+    for (Entry<IValue, IValue> entry : expected.entrySet()) {
+      assertTrue(actual.containsKey(entry.getKey()));
+      assertEquals(entry.getValue(), actual.get(entry.getKey()));
+    }
+  }
+
+  private static IValue value(Random random, int range) {
+    return random.nextBoolean() ? VF.integer(random.nextInt(range)) : VF.string("s" + random.nextInt(range));
+  }
+
+  @Test
+  public void putAndRemoveKey() {
+    Random random = new Random(11);
+    Map<IValue, IValue> expected = new HashMap<>();
+    IMap actual = VF.mapWriter().done();
+
+    for (int i = 0; i < 20_000; i++) {
+      IValue key = value(random, 2_000);
+
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        actual = actual.removeKey(key);
+        assertTrue(!actual.containsKey(key));
+      }
+      else {
+        IValue value = value(random, 10);
+        expected.put(key, value);
+        actual = actual.put(key, value);
+        assertEquals(value, actual.get(key));
+      }
+
+      assertEquals(expected.size(), actual.size());
+    }
+
+    assertMap(expected, actual);
+  }
+
+  @Test
+  public void writerEqualsPersistentBuild() {
+    Random random = new Random(5);
+
+    for (int size : new int[] { 0, 1, 2, 31, 33, 1_000, 20_000 }) {
+      IMapWriter writer = VF.mapWriter();
+      IMap persistent = VF.mapWriter().done();
+      Map<IValue, IValue> expected = new HashMap<>();
+
+      for (int i = 0; i < size; i++) {
+        IValue key = value(random, size * 2);
+        IValue value = value(random, 10);
+        expected.put(key, value);
+        writer.put(key, value);
+        persistent = persistent.put(key, value);
+      }
+
+      IMap written = writer.done();
+      assertSame(written, writer.done());
+      assertMap(expected, written);
+      assertMap(expected, persistent);
+      assertEquals(written, persistent);
+      assertEquals(persistent, written);
+      assertTrue(written.isEqual(persistent));
+      assertEquals(written.hashCode(), persistent.hashCode());
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void writerIsFinalizedByDone() {
+    IMapWriter writer = VF.mapWriter();
+    writer.put(VF.integer(1), VF.integer(2));
+    writer.done();
+    writer.put(VF.integer(2), VF.integer(3));
+  }
+}
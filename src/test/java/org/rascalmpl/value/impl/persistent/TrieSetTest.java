@@ -0,0 +1,305 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.rascalmpl.value.ISet;
+import org.rascalmpl.value.ISetWriter;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.IValueFactory;
+
+/**
+ * Checks {@link TrieSet} and the sets of the {@link ValueFactory} against
+ * {@link HashSet}, for random operations and for keys of which the hash
+ * codes collide.
+ */
+public class TrieSetTest {
+  // integers, strings and tuples are never created by the adapted factory
+  private static final IValueFactory UNUSED = (IValueFactory) Proxy.newProxyInstance(
+      IValueFactory.class.getClassLoader(), new Class<?>[] { IValueFactory.class },
+      (proxy, method, args) -> { throw new UnsupportedOperationException(method.getName()); });
+
+  private static final ValueFactory VF = new ValueFactory(UNUSED);
+
+  /**
+   * A key with a given hash code, to force collisions at every level of the trie.
+   */
+  /* package */ static final class Key {
+    final int id;
+    final int hash;
+
+    Key(int id, int hash) {
+      this.id = id;
+      this.hash = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key && ((Key) o).id == id;
+    }
+
+    @Override
+    public String toString() {
+      return id + "#" + hash;
+    }
+  }
+
+  private static Key key(Random random, int range) {
+    int id = random.nextInt(range);
+    // few distinct hash codes, which share prefixes and collide in full
+    return new Key(id, (id % 7) * 0x01010101 + (id % 3 << 30));
+  }
+
+  private static <K> void assertContent(Set<K> expected, TrieSet<K> actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.hashCode(), actual.hashCode());
+
+    Set<K> iterated = new HashSet<>();
+    for (K key : actual) {
+      assertTrue("duplicate " + key, iterated.add(key));
+    }
+    assertEquals(expected, iterated);
+
+    for (K key : expected) {
+      assertTrue(actual.contains(key));
+    }
+  }
+
+  private static void checkRandom(Random random, int operations, int range, boolean collide) {
+    Set<Object> expected = new HashSet<>();
+    TrieSet<Object> actual = TrieSet.of();
+
+    for (int i = 0; i < operations; i++) {
+      Object key = collide ? key(random, range) : Integer.valueOf(random.nextInt(range));
+      TrieSet<Object> previous = actual;
+
+      if (random.nextInt(3) == 0) {
+        boolean changed = expected.remove(key);
+        actual = actual.delete(key);
+        assertEquals(changed, actual != previous);
+        assertTrue(!actual.contains(key));
+      }
+      else {
+        boolean changed = expected.add(key);
+        actual = actual.insert(key);
+        assertEquals(changed, actual != previous);
+        assertTrue(actual.contains(key));
+      }
+
+      assertEquals(expected.size(), actual.size());
+    }
+
+    assertContent(expected, actual);
+  }
+
+  @Test
+  public void insertAndDelete() {
+    Random random = new Random(42);
+    checkRandom(random, 10_000, 100, false);
+    checkRandom(random, 100_000, 50_000, false);
+  }
+
+  @Test
+  public void insertAndDeleteCollidingKeys() {
+    Random random = new Random(42);
+    checkRandom(random, 10_000, 100, true);
+    checkRandom(random, 50_000, 5_000, true);
+  }
+
+  @Test
+  public void deleteAllLeavesEmptySet() {
+    TrieSet<Integer> set = TrieSet.of();
+    for (int i = 0; i < 5_000; i++) {
+      set = set.insert(i);
+    }
+
+    for (int i = 0; i < 5_000; i++) {
+      set = set.delete(i);
+    }
+
+    assertTrue(set.isEmpty());
+    assertEquals(0, set.hashCode());
+    assertEquals(TrieSet.of(), set);
+  }
+
+  @Test
+  public void equalityIndependentOfInsertionOrder() {
+    Random random = new Random(42);
+    Set<Object> expected = new HashSet<>();
+
+    for (int i = 0; i < 2_000; i++) {
+      expected.add(key(random, 10_000));
+    }
+
+    TrieSet<Object> forward = TrieSet.of();
+    for (Object key : expected) {
+      forward = forward.insert(key);
+    }
+
+    // build by a transient, with superfluous keys which are deleted again
+    TrieSet.Transient<Object> backward = TrieSet.of().asTransient();
+    for (int i = 0; i < 500; i++) {
+      backward.insert(new Key(-i, i));
+    }
+    for (Object key : expected) {
+      backward.insert(key);
+    }
+    for (int i = 0; i < 500; i++) {
+      backward.delete(new Key(-i, i));
+    }
+
+    TrieSet<Object> frozen = backward.freeze();
+    assertContent(expected, frozen);
+    assertEquals(forward, frozen);
+    assertEquals(frozen, forward);
+    assertEquals(forward.hashCode(), frozen.hashCode());
+  }
+
+  private static Set<IValue> javaSet(ISet set) {
+    Set<IValue> result = new HashSet<>();
+    for (IValue elem : set) {
+      result.add(elem);
+    }
+    return result;
+  }
+
+  private static void assertSet(Set<IValue> expected, ISet actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected, javaSet(actual));
+    assertEquals(expected.hashCode(), actual.hashCode());
+
+    for (IValue elem : expected) {
+      assertTrue(actual.contains(elem));
+    }
+  }
+
+  private static IValue value(Random random, int range, boolean pairs) {
+    if (pairs) {
+      return VF.tuple(VF.integer(random.nextInt(range)), VF.integer(random.nextInt(range)));
+    }
+
+    return random.nextBoolean() ? VF.integer(random.nextInt(range)) : VF.string("s" + random.nextInt(range));
+  }
+
+  private static void checkSetOperations(boolean pairs) {
+    Random random = new Random(pairs ? 7 : 11);
+
+    for (int round = 0; round < 20; round++) {
+      int range = 10 + random.nextInt(round * 100 + 10);
+      Set<IValue> left = new HashSet<>();
+      Set<IValue> right = new HashSet<>();
+      ISet x = VF.set();
+      ISet y = VF.set();
+
+      for (int i = random.nextInt(range); i > 0; i--) {
+        IValue v = value(random, range, pairs);
+        left.add(v);
+        x = x.insert(v);
+      }
+      for (int i = random.nextInt(range); i > 0; i--) {
+        IValue v = value(random, range, pairs);
+        right.add(v);
+        y = y.insert(v);
+      }
+
+      assertSet(left, x);
+      assertSet(right, y);
+
+      Set<IValue> union = new HashSet<>(left);
+      union.addAll(right);
+      assertSet(union, x.union(y));
+      assertSet(union, y.union(x));
+
+      Set<IValue> intersection = new HashSet<>(left);
+      intersection.retainAll(right);
+      assertSet(intersection, x.intersect(y));
+      assertSet(intersection, y.intersect(x));
+
+      Set<IValue> difference = new HashSet<>(left);
+      difference.removeAll(right);
+      assertSet(difference, x.subtract(y));
+
+      for (IValue elem : right) {
+        left.remove(elem);
+        x = x.delete(elem);
+      }
+      assertSet(left, x);
+      assertEquals(x, x.union(VF.set()));
+    }
+  }
+
+  @Test
+  public void setOperations() {
+    checkSetOperations(false);
+  }
+
+  @Test
+  public void relationOperations() {
+    checkSetOperations(true);
+  }
+
+  private static void checkWriterAndPersistent(boolean pairs) {
+    Random random = new Random(pairs ? 3 : 5);
+
+    for (int size : new int[] { 0, 1, 2, 31, 33, 1_000, 20_000 }) {
+      ISetWriter writer = VF.setWriter();
+      ISet persistent = VF.set();
+      Set<IValue> expected = new HashSet<>();
+
+      for (int i = 0; i < size; i++) {
+        IValue v = value(random, size * 2, pairs);
+        expected.add(v);
+        writer.insert(v);
+        persistent = persistent.insert(v);
+      }
+
+      ISet written = writer.done();
+      assertSame(written, writer.done());
+      assertSet(expected, written);
+      assertSet(expected, persistent);
+      assertEquals(written, persistent);
+      assertEquals(persistent, written);
+      assertTrue(written.isEqual(persistent));
+      assertEquals(written.hashCode(), persistent.hashCode());
+      assertEquals(written.getType(), persistent.getType());
+      assertEquals(written, VF.set(expected.toArray(new IValue[0])));
+    }
+  }
+
+  @Test
+  public void writerEqualsPersistentBuild() {
+    checkWriterAndPersistent(false);
+  }
+
+  @Test
+  public void relationWriterEqualsPersistentBuild() {
+    checkWriterAndPersistent(true);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void writerIsFinalizedByDone() {
+    ISetWriter writer = VF.setWriter();
+    writer.insert(VF.integer(1));
+    writer.done();
+    writer.insert(VF.integer(2));
+  }
+}
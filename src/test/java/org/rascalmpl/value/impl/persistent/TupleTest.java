@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.impl.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import org.rascalmpl.value.ITuple;
+import org.rascalmpl.value.IValue;
+import org.rascalmpl.value.IValueFactory;
+import org.rascalmpl.value.type.Type;
+import org.rascalmpl.value.type.TypeFactory;
+
+/**
+ * Checks the tuples of arity 0 to 4, which keep their elements in fields,
+ * against the tuples of higher arities, which keep them in an array.
+ */
+public class TupleTest {
+  // integers, strings and tuples are never created by the adapted factory
+  private static final IValueFactory UNUSED = (IValueFactory) Proxy.newProxyInstance(
+      IValueFactory.class.getClassLoader(), new Class<?>[] { IValueFactory.class },
+      (proxy, method, args) -> { throw new UnsupportedOperationException(method.getName()); });
+
+  private static final ValueFactory VF = new ValueFactory(UNUSED);
+  private static final TypeFactory TF = TypeFactory.getInstance();
+  private static final int MAX_ARITY = 7;
+
+  private static IValue[] elements(int arity, int offset) {
+    IValue[] result = new IValue[arity];
+    for (int i = 0; i < arity; i++) {
+      result[i] = i % 2 == 0 ? VF.integer(offset + i) : VF.string("e" + (offset + i));
+    }
+    return result;
+  }
+
+  private static void assertTuple(IValue[] expected, ITuple actual) {
+    assertEquals(expected.length, actual.arity());
+
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], actual.get(i));
+    }
+
+    List<IValue> iterated = new ArrayList<>();
+    for (Iterator<IValue> it = actual.iterator(); it.hasNext();) {
+      iterated.add(it.next());
+    }
+    assertEquals(Arrays.asList(expected), iterated);
+
+    Type[] types = new Type[expected.length];
+    for (int i = 0; i < expected.length; i++) {
+      types[i] = expected[i].getType();
+    }
+    assertEquals(TF.tupleType(types), actual.getType());
+    assertEquals(Arrays.hashCode(expected), actual.hashCode());
+  }
+
+  @Test
+  public void getAndIterate() {
+    for (int arity = 0; arity <= MAX_ARITY; arity++) {
+      IValue[] elements = elements(arity, 0);
+      assertTuple(elements, Tuple.copyOf(elements));
+      assertTuple(elements, VF.tuple(elements));
+    }
+  }
+
+  @Test
+  public void copyOfDoesNotShareTheArray() {
+    for (int arity = 1; arity <= MAX_ARITY; arity++) {
+      IValue[] elements = elements(arity, 0);
+      ITuple tuple = Tuple.copyOf(elements);
+      elements[0] = VF.integer(-1);
+      assertTuple(elements(arity, 0), tuple);
+    }
+  }
+
+  @Test
+  public void set() {
+    for (int arity = 1; arity <= MAX_ARITY; arity++) {
+      IValue[] elements = elements(arity, 0);
+      ITuple tuple = Tuple.copyOf(elements);
+
+      for (int i = 0; i < arity; i++) {
+        IValue[] expected = elements.clone();
+        expected[i] = VF.string("new");
+        assertTuple(expected, tuple.set(i, VF.string("new")));
+      }
+
+      // the original is not changed
+      assertTuple(elements, tuple);
+    }
+  }
+
+  @Test
+  public void select() {
+    IValue[] elements = elements(MAX_ARITY, 0);
+    ITuple tuple = Tuple.copyOf(elements);
+
+    assertEquals(elements[3], tuple.select(3));
+    assertTuple(new IValue[0], (ITuple) tuple.select());
+    assertTuple(new IValue[] { elements[6], elements[0] }, (ITuple) tuple.select(6, 0));
+    assertTuple(new IValue[] { elements[1], elements[1], elements[2] }, (ITuple) tuple.select(1, 1, 2));
+    assertTuple(new IValue[] { elements[0], elements[1], elements[2], elements[3], elements[4] },
+        (ITuple) tuple.select(0, 1, 2, 3, 4));
+
+    ITuple pair = Tuple.copyOf(elements(2, 0));
+    assertTuple(new IValue[] { pair.get(1), pair.get(0) }, (ITuple) pair.select(1, 0));
+  }
+
+  @Test
+  public void equalityAcrossArities() {
+    List<ITuple> tuples = new ArrayList<>();
+    for (int arity = 0; arity <= MAX_ARITY; arity++) {
+      tuples.add(Tuple.copyOf(elements(arity, 0)));
+    }
+
+    for (int i = 0; i < tuples.size(); i++) {
+      for (int j = 0; j < tuples.size(); j++) {
+        assertEquals(i == j, tuples.get(i).equals(tuples.get(j)));
+        assertEquals(i == j, tuples.get(i).isEqual(tuples.get(j)));
+      }
+    }
+
+    // differ in one element only
+    for (int arity = 1; arity <= MAX_ARITY; arity++) {
+      ITuple tuple = Tuple.copyOf(elements(arity, 0));
+      ITuple other = tuple.set(arity - 1, VF.integer(-1));
+      assertTrue(!tuple.equals(other));
+      assertTrue(!other.equals(tuple));
+    }
+  }
+
+  @Test
+  public void equalityOfConstructions() {
+    for (int arity = 0; arity <= MAX_ARITY; arity++) {
+      IValue[] elements = elements(arity, 0);
+      List<ITuple> equal = new ArrayList<>();
+      equal.add(Tuple.copyOf(elements));
+      equal.add(VF.tuple(elements));
+
+      // by set, from a tuple with other elements
+      ITuple updated = Tuple.copyOf(elements(arity, 100));
+      for (int i = 0; i < arity; i++) {
+        updated = updated.set(i, elements[i]);
+      }
+      equal.add(updated);
+
+      // by select, from a tuple of a higher arity with the elements in front
+      IValue[] longer = Arrays.copyOf(elements, MAX_ARITY + 1);
+      for (int i = arity; i < longer.length; i++) {
+        longer[i] = VF.integer(-i);
+      }
+      int[] fields = new int[arity];
+      for (int i = 0; i < arity; i++) {
+        fields[i] = i;
+      }
+      if (arity != 1) {
+        equal.add((ITuple) Tuple.copyOf(longer).select(fields));
+      }
+
+      if (arity == 2) {
+        equal.add(Tuple.of(elements[0], elements[1]));
+      }
+
+      for (ITuple x : equal) {
+        for (ITuple y : equal) {
+          assertEquals(x, y);
+          assertEquals(x.hashCode(), y.hashCode());
+          assertEquals(x.getClass(), y.getClass());
+          assertTrue(x.isEqual(y));
+        }
+      }
+    }
+  }
+
+  private static void assertOutOfBounds(Runnable access) {
+    try {
+      access.run();
+      fail("index should be out of bounds");
+    }
+    catch (IndexOutOfBoundsException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void indexesOutOfBounds() {
+    for (int arity = 0; arity <= MAX_ARITY; arity++) {
+      ITuple tuple = Tuple.copyOf(elements(arity, 0));
+      int end = arity;
+
+      assertOutOfBounds(() -> tuple.get(-1));
+      assertOutOfBounds(() -> tuple.get(end));
+      assertOutOfBounds(() -> tuple.set(-1, VF.integer(0)));
+      assertOutOfBounds(() -> tuple.set(end, VF.integer(0)));
+      assertOutOfBounds(() -> tuple.select(end));
+      assertOutOfBounds(() -> tuple.select(0, end));
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.type;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+
+import org.junit.Test;
+import org.rascalmpl.value.exceptions.UnsupportedTypeException;
+
+/**
+ * Checks that reading a {@link TypeStoreSnapshot} restores the declarations
+ * and imports of the stores which it was written from.
+ */
+public class TypeStoreSnapshotTest {
+  private static final TypeFactory TF = TypeFactory.getInstance();
+
+  private static byte[] write(TypeStore store) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    TypeStoreSnapshot.write(store, bytes);
+    return bytes.toByteArray();
+  }
+
+  private static TypeStore read(byte[] snapshot) throws IOException {
+    return TypeStoreSnapshot.read(new ByteArrayInputStream(snapshot));
+  }
+
+  private static TypeStore roundTrip(TypeStore store) throws IOException {
+    return read(write(store));
+  }
+
+  private static void assertSameDeclarations(TypeStore expected, TypeStore actual) {
+    assertEquals(new HashSet<>(expected.getAliases()), new HashSet<>(actual.getAliases()));
+    assertEquals(new HashSet<>(expected.getAbstractDataTypes()), new HashSet<>(actual.getAbstractDataTypes()));
+    assertEquals(new HashSet<>(expected.getConstructors()), new HashSet<>(actual.getConstructors()));
+    assertEquals(expected.getAnnotations(), actual.getAnnotations());
+    assertEquals(expected.getKeywordParameters(), actual.getKeywordParameters());
+    assertEquals(expected.getImports().size(), actual.getImports().size());
+  }
+
+  private static TypeStore only(Collection<TypeStore> stores) {
+    assertEquals(1, stores.size());
+    return stores.iterator().next();
+  }
+
+  /**
+   * Declares a parameterized ADT and an alias of a labeled tuple in one store,
+   * and an ADT which uses them in another, which imports the first.
+   */
+  @Test
+  public void declarationsAndImports() throws IOException {
+    TypeStore common = new TypeStore();
+    Type t = TF.parameterType("T");
+    Type maybe = TF.abstractDataType(common, "Maybe", t);
+    TF.constructor(common, maybe, "just", t, "val");
+    TF.constructor(common, maybe, "nothing");
+    Type a = TF.parameterType("A", TF.numberType());
+    Type b = TF.parameterType("B");
+    TF.aliasType(common, "Pair", TF.tupleType(a, "first", b, "second"), a, b);
+
+    TypeStore main = new TypeStore(common);
+    Type exp = TF.abstractDataType(main, "Exp");
+    TF.constructor(main, exp, "num", TF.integerType(), "n");
+    Type add = TF.constructor(main, exp, "add", exp, "lhs", exp, "rhs");
+    TF.constructor(main, exp, "call", TF.stringType(), "name", TF.listType(exp), "args");
+    TF.constructor(main, exp, "opt", TF.abstractDataType(common, "Maybe", exp), "arg");
+    TF.constructor(main, exp, "env", TF.mapType(TF.stringType(), "name", exp, "value"), "env");
+    TF.constructor(main, exp, "pair", TF.tupleType(TF.realType(), "x", TF.setType(exp), "y"), "pair");
+    TF.aliasType(main, "Env", TF.mapType(TF.stringType(), exp));
+    main.declareAnnotation(exp, "location", TF.sourceLocationType());
+    main.declareAnnotation(TF.nodeType(), "comment", TF.stringType());
+    main.declareKeywordParameter(exp, "origin", TF.stringType());
+    main.declareKeywordParameter(add, "time", TF.dateTimeType());
+
+    TypeStore restored = roundTrip(main);
+    assertSameDeclarations(main, restored);
+    assertSameDeclarations(common, only(restored.getImports()));
+
+    // the restored declarations are found by lookups, also through the import
+    assertEquals(exp, restored.lookupAbstractDataType("Exp"));
+    assertEquals(maybe, restored.lookupAbstractDataType("Maybe"));
+    assertEquals(add, restored.lookupFirstConstructor("add", TF.tupleType(exp, exp)));
+    assertEquals(TF.tupleType(a, "first", b, "second"), restored.lookupAlias("Pair").getAliased());
+    assertEquals(2, restored.lookupAlternatives(maybe).size());
+    assertEquals(TF.sourceLocationType(), restored.getAnnotationType(exp, "location"));
+    assertEquals(TF.dateTimeType(), restored.getKeywordParameterType(add, "time"));
+    assertEquals(TF.stringType(), restored.getKeywordParameterType(add, "origin"));
+
+    // and written again the same way
+    assertSameDeclarations(main, roundTrip(restored));
+  }
+
+  @Test
+  public void cyclicImports() throws IOException {
+    TypeStore left = new TypeStore();
+    TypeStore right = new TypeStore(left);
+    left.importStore(right);
+    Type l = TF.abstractDataType(left, "L");
+    Type r = TF.abstractDataType(right, "R");
+    TF.constructor(left, l, "l", r, "r");
+    TF.constructor(right, r, "r", l, "l");
+
+    TypeStore restored = roundTrip(left);
+    TypeStore other = only(restored.getImports());
+    assertSame(restored, only(other.getImports()));
+    assertSameDeclarations(left, restored);
+    assertSameDeclarations(right, other);
+    assertEquals(l, other.lookupAbstractDataType("L"));
+    assertEquals(r, restored.lookupAbstractDataType("R"));
+  }
+
+  @Test
+  public void emptyStore() throws IOException {
+    TypeStore restored = roundTrip(new TypeStore());
+    assertSameDeclarations(new TypeStore(), restored);
+  }
+
+  private static final class Opaque extends ExternalType {
+    @Override
+    protected Type lubWithExternal(Type type) {
+      return type == this ? this : TF.valueType();
+    }
+
+    @Override
+    protected Type glbWithExternal(Type type) {
+      return type == this ? this : TF.voidType();
+    }
+
+    @Override
+    protected boolean isSubtypeOfExternal(Type type) {
+      return type == this;
+    }
+  }
+
+  @Test
+  public void externalTypesAreRejected() throws IOException {
+    TypeStore store = new TypeStore();
+    Type adt = TF.abstractDataType(store, "Wrapper");
+    TF.constructor(store, adt, "wrap", TF.externalType(new Opaque()), "opaque");
+
+    try {
+      write(store);
+      fail("an external type should not be written");
+    }
+    catch (UnsupportedTypeException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void otherStreamsAreRejected() {
+    try {
+      read(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+      fail("a stream without the magic number should not be read");
+    }
+    catch (IOException e) {
+      assertTrue(e.getMessage().contains("not a type store snapshot"));
+    }
+  }
+}
@@ -0,0 +1,421 @@
+/*******************************************************************************
+ * Copyright (c) 2016 CWI
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package org.rascalmpl.value.type;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+import org.rascalmpl.value.exceptions.RedeclaredConstructorException;
+import org.rascalmpl.value.exceptions.RedeclaredFieldNameException;
+
+/**
+ * Checks the lookups of overloaded constructors in a {@link TypeStore} and its
+ * imports, in both the locking and the read optimized mode, and the checks of
+ * their declarations.
+ */
+public class TypeStoreTest {
+  private static final TypeFactory TF = TypeFactory.getInstance();
+
+  /**
+   * Runs the test on the store, and then once more in read optimized mode.
+   */
+  private static void inBothModes(TypeStore store, Runnable test) {
+    store.setReadOptimized(false);
+    test.run();
+    store.setReadOptimized(true);
+    test.run();
+    store.setReadOptimized(false);
+  }
+
+  private static List<Type> filter(Set<Type> constructors, int arity) {
+    List<Type> result = new ArrayList<>();
+    for (Type cons : constructors) {
+      if (cons.getArity() == arity) {
+        result.add(cons);
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void constructorsByNameAndArity() {
+    TypeStore imported = new TypeStore();
+    Type a = TF.abstractDataType(imported, "ByArityA");
+    List<Type> declared = new ArrayList<>();
+    declared.add(TF.constructor(imported, a, "f"));
+    declared.add(TF.constructor(imported, a, "f", TF.integerType()));
+
+    TypeStore store = new TypeStore(imported);
+    Type b = TF.abstractDataType(store, "ByArityB");
+    declared.add(TF.constructor(store, b, "f", TF.integerType(), TF.integerType()));
+    declared.add(TF.constructor(store, b, "f", TF.stringType()));
+    declared.add(TF.constructor(store, a, "f", TF.stringType(), TF.stringType()));
+    TF.constructor(store, b, "g", TF.integerType());
+
+    inBothModes(store, () -> {
+      Set<Type> all = store.lookupConstructors("f");
+      assertEquals(declared.size(), all.size());
+      assertTrue(all.containsAll(declared));
+
+      for (int arity = 0; arity <= 3; arity++) {
+        assertEquals(filter(all, arity), new ArrayList<>(store.lookupConstructors("f", arity)));
+      }
+
+      assertEquals(1, store.lookupConstructors("g").size());
+      assertTrue(store.lookupConstructors("h").isEmpty());
+      assertTrue(store.lookupConstructors("g", 0).isEmpty());
+    });
+  }
+
+  @Test
+  public void alternativesInDeclarationOrder() {
+    // the constructors extend an abstract data type of an import
+    TypeStore imported = new TypeStore();
+    Type adt = TF.abstractDataType(imported, "Ordered");
+    TypeStore store = new TypeStore(imported);
+    List<Type> declared = new ArrayList<>();
+
+    for (int i = 0; i < 40; i++) {
+      // names of which the hash codes are not ordered like the names
+      Type field = TF.abstractDataType(store, "Ordered" + Integer.toHexString(i * 0x9E3779B9));
+      declared.add(TF.constructor(store, adt, "f", field));
+    }
+
+    inBothModes(store, () -> {
+      assertEquals(declared, new ArrayList<>(store.lookupConstructor(adt, "f")));
+      assertEquals(declared, new ArrayList<>(store.lookupConstructors("f")));
+      assertEquals(declared, new ArrayList<>(store.lookupConstructors("f", 1)));
+    });
+  }
+
+  @Test
+  public void voidArgumentsMatchEveryArity() {
+    TypeStore imported = new TypeStore();
+    Type adt = TF.abstractDataType(imported, "Voided");
+    TF.constructor(imported, adt, "f", TF.realType());
+
+    // the alternatives of the store come before those of its imports
+    TypeStore store = new TypeStore(imported);
+    TF.abstractDataType(store, "Voided");
+    Type first = TF.constructor(store, adt, "f", TF.integerType(), TF.integerType());
+    TF.constructor(store, adt, "f");
+    TF.constructor(store, adt, "f", TF.stringType());
+    Type other = TF.abstractDataType(store, "OtherVoided");
+    Type g = TF.constructor(store, other, "g", TF.listType(TF.integerType()));
+    TF.constructor(store, other, "g", TF.listType(TF.stringType()));
+
+    inBothModes(store, () -> {
+      // void is a sub-type of every tuple, so the first alternative is found
+      assertEquals(first, store.lookupFirstConstructor("f", TF.voidType()));
+      assertEquals(first, store.lookupConstructor(adt, "f", TF.voidType()));
+      assertEquals(g, store.lookupFirstConstructor("g", TF.voidType()));
+      assertEquals(g, store.lookupConstructor(other, "g", TF.voidType()));
+
+      // and a tuple with a void field matches every alternative of its arity
+      assertEquals(g, store.lookupFirstConstructor("g", TF.tupleType(TF.listType(TF.voidType()))));
+      assertEquals(null, store.lookupFirstConstructor("h", TF.voidType()));
+    });
+  }
+
+  /**
+   * @return the alternatives of which the field types are a super-type of the
+   *         arguments, in their order
+   */
+  private static List<Type> scan(Set<Type> alternatives, Type args) {
+    List<Type> result = new ArrayList<>();
+    for (Type alt : alternatives) {
+      if (args.isSubtypeOf(alt.getFieldTypes())) {
+        result.add(alt);
+      }
+    }
+    return result;
+  }
+
+  private static Type first(List<Type> alternatives) {
+    return alternatives.isEmpty() ? null : alternatives.get(0);
+  }
+
+  @Test
+  public void overloadedDispatchAgainstScan() {
+    TypeStore imported = new TypeStore();
+    Type adt = TF.abstractDataType(imported, "Dispatched");
+    Type x = TF.abstractDataType(imported, "DispatchedX");
+    Type y = TF.abstractDataType(imported, "DispatchedY");
+    Type xc = TF.constructor(imported, x, "x");
+    Type t = TF.parameterType("T");
+    Type maybe = TF.abstractDataType(imported, "DispatchedMaybe", t);
+    TF.constructor(imported, adt, "f", TF.realType());
+    TF.constructor(imported, adt, "f", x, TF.listType(TF.integerType()));
+
+    TypeStore store = new TypeStore(imported);
+    Type intList = TF.aliasType(store, "IntList", TF.listType(TF.integerType()));
+    List<Type> fields = new ArrayList<>();
+    fields.add(TF.integerType());
+    fields.add(TF.stringType());
+    fields.add(TF.boolType());
+    fields.add(TF.sourceLocationType());
+    fields.add(x);
+    fields.add(y);
+    fields.add(intList);
+    fields.add(TF.setType(TF.stringType()));
+    fields.add(TF.abstractDataType(store, "DispatchedMaybe", TF.integerType()));
+    fields.add(TF.abstractDataType(store, "DispatchedMaybe", TF.stringType()));
+
+    TF.constructor(store, adt, "f");
+    for (Type field : fields) {
+      TF.constructor(store, adt, "f", field);
+    }
+    TF.constructor(store, adt, "f", TF.integerType(), TF.stringType());
+    TF.constructor(store, adt, "f", TF.stringType(), TF.integerType());
+    TF.constructor(store, adt, "f", TF.boolType(), TF.valueType());
+    TF.constructor(store, adt, "f", y, TF.listType(TF.integerType()));
+    TF.constructor(store, adt, "f", x, TF.setType(TF.valueType()));
+
+    // the field types, and sub-types and super-types of them
+    List<Type> arguments = new ArrayList<>(fields);
+    arguments.add(TF.realType());
+    arguments.add(TF.numberType());
+    arguments.add(TF.valueType());
+    arguments.add(TF.voidType());
+    arguments.add(xc);
+    arguments.add(TF.listType(TF.voidType()));
+    arguments.add(TF.listType(TF.integerType()));
+    arguments.add(TF.setType(TF.voidType()));
+    arguments.add(TF.setType(TF.integerType()));
+    arguments.add(maybe);
+    arguments.add(TF.abstractDataType(store, "DispatchedMaybe", TF.voidType()));
+    arguments.add(TF.nodeType());
+
+    List<Type> tuples = new ArrayList<>();
+    tuples.add(TF.voidType());
+    tuples.add(TF.tupleEmpty());
+    for (Type first : arguments) {
+      tuples.add(TF.tupleType(first));
+      for (Type second : arguments) {
+        tuples.add(TF.tupleType(first, second));
+      }
+    }
+
+    inBothModes(store, () -> {
+      Set<Type> alternatives = store.lookupConstructor(adt, "f");
+      assertEquals(fields.size() + 8, alternatives.size());
+
+      for (Type args : tuples) {
+        List<Type> expected = scan(alternatives, args);
+        Type actual = store.lookupConstructor(adt, "f", args);
+
+        // alternatives are not comparable, but arguments with void may match several
+        if (expected.size() <= 1) {
+          assertEquals(first(expected), actual);
+        }
+        else {
+          assertTrue(args + " does not match " + actual, expected.contains(actual));
+        }
+
+        assertEquals(first(scan(store.lookupConstructors("f"), args)), store.lookupFirstConstructor("f", args));
+      }
+    });
+  }
+
+  private static void assertRejected(Class<? extends RuntimeException> expected, Runnable declaration) {
+    try {
+      declaration.run();
+      fail("the declaration should be rejected with " + expected.getSimpleName());
+    }
+    catch (RuntimeException e) {
+      assertEquals(expected, e.getClass());
+    }
+  }
+
+  @Test
+  public void redeclarationsInStore() {
+    TypeStore store = new TypeStore();
+    Type adt = TF.abstractDataType(store, "Redeclared");
+    Type f = TF.constructor(store, adt, "f", TF.integerType(), "n");
+    TF.constructor(store, adt, "g", TF.listType(TF.stringType()), "names");
+
+    // the same declaration again is fine, and so is the same field type under the same label
+    assertEquals(f, TF.constructor(store, adt, "f", TF.integerType(), "n"));
+    TF.constructor(store, adt, "h", TF.integerType(), "n");
+
+    assertRejected(RedeclaredConstructorException.class, () -> TF.constructor(store, adt, "f", TF.numberType(), "n"));
+    assertRejected(RedeclaredConstructorException.class, () -> TF.constructor(store, adt, "f", TF.integerType(), "m"));
+    assertRejected(RedeclaredConstructorException.class, () -> TF.constructor(store, adt, "g", TF.listType(TF.voidType())));
+    assertRejected(RedeclaredFieldNameException.class, () -> TF.constructor(store, adt, "k", TF.stringType(), "n"));
+    assertRejected(RedeclaredFieldNameException.class, () -> TF.constructor(store, adt, "k", TF.realType(), "x", TF.setType(TF.stringType()), "names"));
+
+    // the rejected declarations left nothing behind
+    assertEquals(1, store.lookupConstructor(adt, "f").size());
+    assertEquals(1, store.lookupConstructor(adt, "g").size());
+    assertTrue(store.lookupConstructors("k").isEmpty());
+  }
+
+  @Test
+  public void redeclarationsThroughImports() {
+    TypeStore imported = new TypeStore();
+    Type adt = TF.abstractDataType(imported, "RedeclaredImported");
+    TF.constructor(imported, adt, "f", TF.integerType(), "n");
+
+    TypeStore store = new TypeStore(imported);
+    TF.constructor(store, adt, "g", TF.integerType(), "n");
+    assertRejected(RedeclaredConstructorException.class, () -> TF.constructor(store, adt, "f", TF.numberType()));
+    assertRejected(RedeclaredFieldNameException.class, () -> TF.constructor(store, adt, "h", TF.stringType(), "n"));
+    assertEquals(1, store.lookupConstructor(adt, "f").size());
+    assertTrue(store.lookupConstructors("h").isEmpty());
+
+    // the same conflicts, when the store is imported after the declarations
+    TypeStore late = new TypeStore();
+    TF.abstractDataType(late, "RedeclaredImported");
+    TF.constructor(late, adt, "f", TF.numberType());
+    assertRejected(RedeclaredConstructorException.class, () -> late.importStore(imported));
+    assertTrue(late.getImports().isEmpty());
+
+    TypeStore labeled = new TypeStore();
+    TF.abstractDataType(labeled, "RedeclaredImported");
+    TF.constructor(labeled, adt, "h", TF.stringType(), "n");
+    assertRejected(RedeclaredFieldNameException.class, () -> labeled.importStore(imported));
+    assertTrue(labeled.getImports().isEmpty());
+    assertEquals(null, labeled.lookupFirstConstructor("f", TF.tupleType(TF.integerType())));
+  }
+
+  @Test
+  public void batchIsPublishedAtOnce() {
+    TypeStore imported = new TypeStore();
+    Type adt = TF.abstractDataType(imported, "Batched");
+    TF.constructor(imported, adt, "f", TF.integerType(), "n");
+
+    TypeStore extra = new TypeStore();
+    Type other = TF.abstractDataType(extra, "BatchedOther");
+
+    TypeStore store = new TypeStore(imported);
+    List<Type> declared = new ArrayList<>();
+
+    store.declareAll(batch -> {
+      batch.importStore(extra);
+      Type local = TF.abstractDataType(batch, "BatchedLocal");
+      declared.add(TF.constructor(batch, adt, "g", local, "local"));
+      declared.add(TF.constructor(batch, local, "l", other, "other", TF.integerType(), "n"));
+      TF.aliasType(batch, "BatchedAlias", TF.listType(local));
+      batch.declareAnnotation(local, "note", TF.stringType());
+      batch.declareKeywordParameter(local, "weight", TF.realType());
+
+      // not visible outside of the batch yet
+      assertEquals(null, store.lookupAbstractDataType("BatchedLocal"));
+    });
+
+    Type local = store.lookupAbstractDataType("BatchedLocal");
+    assertEquals(TF.abstractDataType(store, "BatchedLocal"), local);
+    assertEquals(declared.get(0), store.lookupFirstConstructor("g", TF.tupleType(local)));
+    assertEquals(declared.get(1), store.lookupConstructor(local, "l", TF.tupleType(other, TF.integerType())));
+    assertEquals(TF.listType(local), store.lookupAlias("BatchedAlias").getAliased());
+    assertEquals(TF.stringType(), store.getAnnotationType(local, "note"));
+    assertEquals(TF.realType(), store.getKeywordParameterType(local, "weight"));
+    assertEquals(2, store.getImports().size());
+    assertTrue(store.getImports().contains(extra));
+  }
+
+  /**
+   * Asserts that the batch is rejected, and that the store has the same
+   * declarations and imports as before, without annotations or keyword
+   * parameters.
+   */
+  private static void assertRejectedBatch(Class<? extends RuntimeException> expected, TypeStore store,
+      Consumer<TypeStore> declarations) {
+    Set<Type> adts = new HashSet<>(store.getAbstractDataTypes());
+    Set<Type> constructors = new HashSet<>(store.getConstructors());
+    Set<Type> aliases = new HashSet<>(store.getAliases());
+    List<TypeStore> imports = new ArrayList<>(store.getImports());
+
+    assertRejected(expected, () -> store.declareAll(declarations));
+
+    assertEquals(adts, new HashSet<>(store.getAbstractDataTypes()));
+    assertEquals(constructors, new HashSet<>(store.getConstructors()));
+    assertEquals(aliases, new HashSet<>(store.getAliases()));
+    assertEquals(imports, new ArrayList<>(store.getImports()));
+    assertTrue(store.getAnnotations().isEmpty());
+    assertTrue(store.getKeywordParameters().isEmpty());
+    assertEquals(null, store.lookupAbstractDataType("RejectedLocal"));
+    assertTrue(store.lookupConstructors("fresh").isEmpty());
+  }
+
+  @Test
+  public void failedBatchPublishesNothing() {
+    TypeStore imported = new TypeStore();
+    Type adt = TF.abstractDataType(imported, "Rejected");
+    TF.constructor(imported, adt, "f", TF.integerType(), "n");
+
+    TypeStore store = new TypeStore(imported);
+    TF.constructor(store, adt, "g", TF.stringType(), "s");
+
+    // conflicts with the declarations of the store, which is checked when the batch is published
+    TypeStore conflicting = new TypeStore();
+    TF.abstractDataType(conflicting, "Rejected");
+    TF.constructor(conflicting, adt, "g", TF.stringType());
+
+    // the valid declarations of a batch are dropped with the invalid one
+    Consumer<TypeStore> valid = batch -> {
+      Type local = TF.abstractDataType(batch, "RejectedLocal");
+      TF.constructor(batch, local, "fresh");
+      TF.aliasType(batch, "RejectedAlias", TF.integerType());
+      batch.declareAnnotation(local, "note", TF.stringType());
+      batch.declareKeywordParameter(local, "weight", TF.realType());
+    };
+
+    assertRejectedBatch(RedeclaredConstructorException.class, store, valid.andThen(batch -> {
+      TF.constructor(batch, adt, "f", TF.numberType());
+    }));
+    assertRejectedBatch(RedeclaredConstructorException.class, store, valid.andThen(batch -> {
+      TF.constructor(batch, adt, "g", TF.stringType(), "t");
+    }));
+    assertRejectedBatch(RedeclaredFieldNameException.class, store, valid.andThen(batch -> {
+      TF.constructor(batch, adt, "h", TF.integerType(), "s");
+    }));
+    assertRejectedBatch(RedeclaredFieldNameException.class, store, valid.andThen(batch -> {
+      // conflicts within the batch itself
+      TF.constructor(batch, adt, "h", TF.integerType(), "x");
+      TF.constructor(batch, adt, "k", TF.stringType(), "x");
+    }));
+    assertRejectedBatch(RedeclaredConstructorException.class, store, valid.andThen(batch -> {
+      batch.importStore(conflicting);
+    }));
+    assertRejectedBatch(IllegalStateException.class, store, valid.andThen(batch -> {
+      batch.unimportStores(imported);
+    }));
+
+    assertEquals(1, store.getImports().size());
+    assertEquals(2, store.lookupAlternatives(adt).size());
+  }
+
+  @Test
+  public void batchIsValidatedAgainstConcurrentDeclarations() {
+    TypeStore store = new TypeStore();
+    Type adt = TF.abstractDataType(store, "Concurrent");
+    Type[] winner = new Type[1];
+
+    // the receiver changes while the batch is declared, as if by another thread
+    assertRejected(RedeclaredConstructorException.class, () -> store.declareAll(batch -> {
+      Type local = TF.abstractDataType(batch, "ConcurrentLocal");
+      TF.constructor(batch, local, "fresh");
+      TF.constructor(batch, adt, "f", TF.numberType());
+      winner[0] = TF.constructor(store, adt, "f", TF.integerType());
+    }));
+
+    assertEquals(winner[0], store.lookupFirstConstructor("f", TF.tupleType(TF.integerType())));
+    assertEquals(1, store.lookupConstructor(adt, "f").size());
+    assertEquals(null, store.lookupAbstractDataType("ConcurrentLocal"));
+    assertTrue(store.lookupConstructors("fresh").isEmpty());
+  }
+}